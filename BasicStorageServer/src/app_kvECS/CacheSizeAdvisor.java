@@ -0,0 +1,129 @@
+package app_kvECS;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Recommends a cache configuration for a server based on the hit ratio
+ * estimates published in its metrics. Servers publish one estimate per
+ * simulated configuration under names of the form
+ * "<code>cache.mrc.&lt;strategy&gt;.&lt;size&gt;</code>".
+ */
+public class CacheSizeAdvisor {
+
+	/** The number of sampled lookups required before estimates are trusted. */
+	public static final long MIN_SAMPLES = 1000;
+
+	/** The loss in hit ratio accepted in exchange for a smaller cache. */
+	public static final double HIT_RATIO_TOLERANCE = 0.01;
+
+	private static final String SAMPLES_METRIC = "cache.mrc.samples";
+	private static final Pattern ESTIMATE_METRIC = Pattern.compile("cache\\.mrc\\.([A-Z]+)\\.(\\d+)");
+
+	/**
+	 * Defeats instantiation.
+	 */
+	private CacheSizeAdvisor() {}
+
+	/**
+	 * Chooses the smallest simulated configuration whose estimated hit ratio is
+	 * within {@link #HIT_RATIO_TOLERANCE} of the best estimate.
+	 *
+	 * @param metricsJson The metrics published by a server, as a JSON object
+	 * @return The recommended configuration, or <code>null</code> if the metrics
+	 *         do not contain enough samples to make a recommendation
+	 */
+	public static Recommendation recommend(String metricsJson) {
+		Map<String, Double> metrics;
+		try {
+			metrics = new Gson().fromJson(metricsJson, new TypeToken<Map<String, Double>>() {}.getType());
+		} catch (JsonSyntaxException e) {
+			return null;
+		}
+		if (metrics == null || metrics.getOrDefault(SAMPLES_METRIC, 0.0) < MIN_SAMPLES) return null;
+
+		double bestHitRatio = 0.0;
+		for (Entry<String, Double> metric : metrics.entrySet()) {
+			if (ESTIMATE_METRIC.matcher(metric.getKey()).matches()) {
+				bestHitRatio = Math.max(bestHitRatio, metric.getValue());
+			}
+		}
+
+		Recommendation recommendation = null;
+		for (Entry<String, Double> metric : metrics.entrySet()) {
+			Matcher matcher = ESTIMATE_METRIC.matcher(metric.getKey());
+			if (!matcher.matches() || metric.getValue() < bestHitRatio - HIT_RATIO_TOLERANCE) continue;
+
+			Recommendation candidate = new Recommendation(matcher.group(1),
+					Integer.parseInt(matcher.group(2)), metric.getValue());
+			if (recommendation == null || candidate.cacheSize < recommendation.cacheSize
+					|| (candidate.cacheSize == recommendation.cacheSize
+							&& candidate.hitRatio > recommendation.hitRatio)) {
+				recommendation = candidate;
+			}
+		}
+
+		return recommendation;
+	}
+
+	/**
+	 * A recommended cache configuration.
+	 */
+	public static class Recommendation {
+		private final String cacheStrategy;
+		private final int cacheSize;
+		private final double hitRatio;
+
+		/**
+		 * Creates a recommendation.
+		 *
+		 * @param cacheStrategy The recommended replacement strategy
+		 * @param cacheSize The recommended cache size
+		 * @param hitRatio The estimated hit ratio of the configuration
+		 */
+		private Recommendation(String cacheStrategy, int cacheSize, double hitRatio) {
+			this.cacheStrategy = cacheStrategy;
+			this.cacheSize = cacheSize;
+			this.hitRatio = hitRatio;
+		}
+
+		/**
+		 * Returns the recommended replacement strategy.
+		 *
+		 * @return The cache strategy
+		 */
+		public String getCacheStrategy() {
+			return cacheStrategy;
+		}
+
+		/**
+		 * Returns the recommended cache size.
+		 *
+		 * @return The cache size
+		 */
+		public int getCacheSize() {
+			return cacheSize;
+		}
+
+		/**
+		 * Returns the estimated hit ratio of the recommended configuration.
+		 *
+		 * @return The hit ratio, between 0 and 1
+		 */
+		public double getHitRatio() {
+			return hitRatio;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %d (estimated hit ratio %.3f)", cacheStrategy, cacheSize, hitRatio);
+		}
+	}
+
+}
@@ -105,6 +105,37 @@ public class ECSAdminConsole implements Runnable {
 				log.error("Invalid number of arguments (usage: remove <serverName1> <serverName2> ...)");
 			}
 
+		} else if (tokens[0].equals("cache")) {
+			if (tokens.length == 4) {
+				ecsClient.reconfigureCache(tokens[1], tokens[2], Integer.parseInt(tokens[3]));
+			} else {
+				log.error("Invalid number of arguments (usage: cache <serverName> <cacheStrategy> <cacheSize>)");
+			}
+
+		} else if (tokens[0].equals("metrics")) {
+			if (tokens.length == 2) {
+				String metrics = ecsClient.getNodeMetrics(tokens[1]);
+				if (metrics != null) {
+					log.info(tokens[1] + ": " + metrics);
+				} else {
+					log.warn("No metrics available for " + tokens[1]);
+				}
+			} else {
+				log.error("Invalid number of arguments (usage: metrics <serverName>)");
+			}
+
+		} else if (tokens[0].equals("recommend")) {
+			if (tokens.length == 2) {
+				CacheSizeAdvisor.Recommendation recommendation = ecsClient.recommendCacheConfig(tokens[1]);
+				if (recommendation != null) {
+					log.info("Recommended cache for " + tokens[1] + ": " + recommendation);
+				} else {
+					log.warn("Not enough metrics to recommend a cache for " + tokens[1]);
+				}
+			} else {
+				log.error("Invalid number of arguments (usage: recommend <serverName>)");
+			}
+
 		} else if (tokens[0].equals("help")) {
 			printHelp();
 
@@ -133,6 +164,15 @@ public class ECSAdminConsole implements Runnable {
 		log.info("remove <serverName1> <serverName2> ...");
 		log.info("\t\tRemoves nodes with given names");
 		log.info("");
+		log.info("cache <serverName> <cacheStrategy> <cacheSize>");
+		log.info("\t\tChanges the cache of the given server without restarting it");
+		log.info("");
+		log.info("metrics <serverName>");
+		log.info("\t\tShows the most recently published metrics of the given server");
+		log.info("");
+		log.info("recommend <serverName>");
+		log.info("\t\tRecommends a cache strategy and size for the given server based on its metrics");
+		log.info("");
 		log.info("start");
 		log.info("\t\tStarts all storage servers, opening them for client requests");
 		log.info("");
@@ -306,6 +306,9 @@ public class ECSClient implements IECSClient {
 				// Create nodes for heartbeat message
 				zkSession.createNode(ZKPathUtil.getHeartbeatZnode(node));
 
+				// Create node for published server metrics
+				zkSession.createNode(ZKPathUtil.getMetricsZnode(node));
+
 			} catch (KeeperException | InterruptedException e) {
 				log.error("Could not create znode with path " + ZKPathUtil.getStatusZnode(node), e);
 			}
@@ -350,6 +353,7 @@ public class ECSClient implements IECSClient {
 				zkSession.deleteNode(ZKPathUtil.getStatusZnode(removedNode));
 				zkSession.deleteNode(ZKPathUtil.getMigrationRootZnode(removedNode));
 				zkSession.deleteNode(ZKPathUtil.getReplicationRootZnode(removedNode));
+				zkSession.deleteNode(ZKPathUtil.getMetricsZnode(removedNode));
 			} catch (KeeperException | InterruptedException e) {
 				log.error("Could not delete znode for node " + removedNode, e);
 			}
@@ -401,6 +405,7 @@ public class ECSClient implements IECSClient {
 				zkSession.deleteNode(ZKPathUtil.getStatusZnode(removedNode));
 				zkSession.deleteNode(ZKPathUtil.getMigrationRootZnode(removedNode));
 				zkSession.deleteNode(ZKPathUtil.getReplicationRootZnode(removedNode));
+				zkSession.deleteNode(ZKPathUtil.getMetricsZnode(removedNode));
 			} catch (KeeperException | InterruptedException e) {
 				log.error("Could not delete znode for node " + removedNode, e);
 			}
@@ -414,6 +419,36 @@ public class ECSClient implements IECSClient {
 		return true;
 	}
 
+	/**
+	 * Changes the cache strategy and size of the server with the given name. The
+	 * new configuration is broadcast through the metadata znode, and the server
+	 * replaces its cache without restarting or migrating any data.
+	 * 
+	 * @param nodeName The name of the server
+	 * @param cacheStrategy The new cache strategy
+	 * @param cacheSize The new cache size
+	 * @return <code>true</code> if the new configuration was broadcast,
+	 *         <code>false</code> otherwise
+	 */
+	public synchronized boolean reconfigureCache(String nodeName, String cacheStrategy, int cacheSize) {
+		IECSNode node = topology.getNodeOfName(nodeName);
+		if (node == null) {
+			log.error("No server named " + nodeName);
+			return false;
+		}
+
+		topology.updateNode(new ECSNode(node, cacheStrategy, cacheSize));
+		try {
+			zkSession.updateMetadataNode(topology);
+		} catch (KeeperException | InterruptedException e) {
+			log.error("Could not update metadata znode data", e);
+			return false;
+		}
+
+		log.info("Reconfigured cache of " + nodeName + " to " + cacheStrategy + " " + cacheSize);
+		return true;
+	}
+
 	@Override
 	public boolean awaitNodes(int count, int timeout) throws Exception {
 		return true;
@@ -476,6 +511,42 @@ public class ECSClient implements IECSClient {
 		return getNodeByHash(keyHash);
 	}
 
+	/**
+	 * Retrieves the most recently published metrics for the server with the given
+	 * name.
+	 * 
+	 * @param nodeName The name of the server
+	 * @return The metrics as a JSON object, or <code>null</code> if the server does
+	 *         not exist or has not published any metrics
+	 */
+	public String getNodeMetrics(String nodeName) {
+		IECSNode node = topology.getNodeOfName(nodeName);
+		if (node == null) return null;
+
+		try {
+			String metrics = zkSession.getNodeData(ZKPathUtil.getMetricsZnode(node));
+			return metrics == null || metrics.isEmpty() ? null : metrics;
+		} catch (KeeperException | InterruptedException e) {
+			log.error("Could not read metrics for node " + nodeName, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Recommends a cache configuration for the server with the given name, based
+	 * on the hit ratio estimates in its most recently published metrics.
+	 * 
+	 * @param nodeName The name of the server
+	 * @return The recommended configuration, or <code>null</code> if not enough
+	 *         metrics are available to make a recommendation
+	 * @see CacheSizeAdvisor
+	 */
+	public CacheSizeAdvisor.Recommendation recommendCacheConfig(String nodeName) {
+		return Optional.ofNullable(getNodeMetrics(nodeName))
+				.map(CacheSizeAdvisor::recommend)
+				.orElse(null);
+	}
+
 	private IECSNode getNodeByHash(String hash) {
 		return topology.findResponsibleServer(hash);
 	}
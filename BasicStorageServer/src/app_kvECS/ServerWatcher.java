@@ -2,6 +2,7 @@ package app_kvECS;
 
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
@@ -73,12 +74,16 @@ public class ServerWatcher implements Runnable {
 	}
 
 	private void handleFailure() {
+		// the cache configuration may have changed since the server was added
+		IECSNode config = Optional.ofNullable(ecsClient.getNodes().get(server.getNodeName())).orElse(server);
+
 		// remove znodes associated with the failed node
 		try {
 			zkSession.deleteNode(ZKPathUtil.getStatusZnode(server));
 			zkSession.deleteNode(ZKPathUtil.getMigrationRootZnode(server));
 			zkSession.deleteNode(ZKPathUtil.getReplicationRootZnode(server));
 			zkSession.deleteNode(ZKPathUtil.getHeartbeatZnode(server));
+			zkSession.deleteNode(ZKPathUtil.getMetricsZnode(server));
 		} catch (KeeperException | InterruptedException e) {
 			log.error("Could not delete znodes for server: " + server.getNodeName(), e);
 		}
@@ -89,7 +94,7 @@ public class ServerWatcher implements Runnable {
 
 		// Replace the crashed node with a new one. Usually, this will be the same one
 		// that crashed. This will start a new heartbeat listener.
-		ecsClient.addNode(server.getCacheStrategy(), server.getCacheSize());
+		ecsClient.addNode(config.getCacheStrategy(), config.getCacheSize());
 	}
 
 }
\ No newline at end of file
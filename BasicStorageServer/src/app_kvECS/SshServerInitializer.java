@@ -10,6 +10,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 
 import app_kvServer.KVServer;
+import app_kvServer.ServerOptions;
 import ecs.IECSNode;
 
 /**
@@ -23,7 +24,7 @@ public class SshServerInitializer implements ServerInitializer {
 
 	private static final Logger log = Logger.getLogger(ECSClient.class);
 
-	private static final String SERVER_INITIALIZATION_COMMAND = "ssh -oStrictHostKeyChecking=no %s nohup java -jar %s/m2-server.jar %s %s %d";
+	private static final String SERVER_INITIALIZATION_COMMAND = "ssh -oStrictHostKeyChecking=no %s nohup java %s -jar %s/m2-server.jar %s %s %d";
 	private static final long SERVER_INITIALIZATION_TIMEOUT = 3 * 1000;
 
 	private final String zkHostname;
@@ -48,8 +49,8 @@ public class SshServerInitializer implements ServerInitializer {
 		String pwd = System.getProperty("user.dir");
 		log.info("Initializing server from pwd: " + pwd);
 
-		String command = String.format(SERVER_INITIALIZATION_COMMAND, serverMetadata.getNodeHost(), pwd,
-				serverMetadata.getNodeName(), zkHostname, zkPort);
+		String command = String.format(SERVER_INITIALIZATION_COMMAND, serverMetadata.getNodeHost(),
+				ServerOptions.toJvmArguments(), pwd, serverMetadata.getNodeName(), zkHostname, zkPort);
 
 		log.info("Starting server using SSH: " + command);
 		try {
@@ -1,38 +1,54 @@
 package app_kvServer;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.google.gson.JsonSyntaxException;
 
-import app_kvServer.KVServer.ServerStatus;
-import common.HashUtil;
-import common.messages.BasicKVMessage;
 import common.messages.KVMessage;
-import common.messages.MetadataUpdateMessage;
-import common.messages.KVMessage.StatusType;
-import common.messages.StreamUtil;
-import ecs.IECSNode;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
 
 /**
  * The class oversees a single server-side client connection session. When run
  * on a thread, polls socket input stream for messages and processes them.
- * Closes the socket and associated streams on thread termination.
+ * Closes the socket and associated streams on thread termination. Used when
+ * the server operates in blocking mode (see {@link ServerOptions#NIO}).
+ * <p>
+ * Requests are served one at a time in the order they are received, so a
+ * client which pipelines requests receives the responses in order. If
+ * out-of-order completion is enabled (see {@link ServerOptions#OUT_OF_ORDER}),
+ * requests tagged with a request id are instead served on the server's
+ * {@link KeyOrderedExecutor}, and each response is sent as soon as it is ready.
  */
-public class ClientConnection implements Runnable {
+public class ClientConnection implements Runnable, ClientSession {
 
 	private static Logger log = Logger.getLogger(ClientConnection.class);
 
 	private Socket clientSocket;
 	private final KVServer server;
-	private final StreamUtil streamUtil;
+	private final ReentrantLock outputLock = new ReentrantLock();
+	private final Semaphore inFlight = new Semaphore(ServerOptions.getMaxInFlight());
 
+	private volatile KVMessageCodec codec = ProtocolHandshake.JSON_CODEC;
+
+	private OutputStream out = null;
+	private WritableByteChannel outChannel = null;
 	private boolean isOpen;
 
 	/**
@@ -44,7 +60,6 @@ public class ClientConnection implements Runnable {
 	public ClientConnection(Socket clientSocket, KVServer server) {
 		this.clientSocket = clientSocket;
 		this.server = server;
-		this.streamUtil = new StreamUtil();
 	}
 
 	/**
@@ -53,106 +68,141 @@ public class ClientConnection implements Runnable {
 	 */
 	public void run() {
 		try (OutputStream out = clientSocket.getOutputStream();
-				InputStream in = clientSocket.getInputStream()) {
+				InputStream in = new BufferedInputStream(clientSocket.getInputStream())) {
 
+			codec = ProtocolHandshake.accept(in, out, server.getCompression());
+			outputLock.lock();
+			try {
+				this.out = out;
+				this.outChannel = Channels.newChannel(out);
+			} finally {
+				outputLock.unlock();
+			}
 			isOpen = true;
 			while (isOpen) {
 
 				KVMessage request = receiveRequest(in);
 				if (request == null) continue;
 
-				KVMessage response = createResponse(request);
-				if (response != null) {
-					streamUtil.sendMessage(out, response);
+				KeyOrderedExecutor executor = server.getRequestExecutor();
+				if (executor != null && request.getRequestId() != 0) {
+					dispatch(request, executor);
 				} else {
-					log.error("Could not create response to request " + request);
+					byte[] response = server.getRequestHandler().handle(request, this);
+					if (response != null) send(response);
 				}
 
 				/* connection either terminated by the client or lost due to network problems */
 			}
 
+		} catch (EOFException e) {
+			log.info("Client closed connection before protocol handshake");
+
 		} catch (IOException e) {
 			log.error("Error! Connection could not be established!", e);
 
+		} finally {
+			outputLock.lock();
+			try {
+				this.out = null;
+				this.outChannel = null;
+			} finally {
+				outputLock.unlock();
+			}
+			server.deregisterClientConnection(this);
 		}
 	}
 
-	private KVMessage createResponse(KVMessage request) {
-		String outKey = request.getKey();
-		String outValue = null;
-		StatusType outStatus = null;
-
-		ServerStatus serverStatus = this.server.getStatus();
-
-		if (serverStatus == ServerStatus.STOPPED) {
-			return new BasicKVMessage(null, null, StatusType.SERVER_STOPPED);
-		}
-
-		// Check if server is responsible for this key
-		String keyHash = HashUtil.toMD5(outKey);
-		if (!server.getServerConfig().containsHash(keyHash)) {
-
-			// Send metadata update message containing info for the server that is
-			// responsible for this key
-			IECSNode correctServer = server.getServiceConfig().findResponsibleServer(keyHash);
-			MetadataUpdateMessage metadataUpdateMessage = new MetadataUpdateMessage(correctServer);
-			log.info("Sending metadata response: " + metadataUpdateMessage);
-			return metadataUpdateMessage;
+	/**
+	 * Serves a tagged request on the given executor, sending the response as soon
+	 * as it is ready, possibly before the responses to earlier requests. Blocks
+	 * while the maximum number of requests are in flight, so that a client which
+	 * pipelines requests without reading the responses cannot queue unbounded
+	 * work on the server.
+	 * 
+	 * @param request The request to serve
+	 * @param executor The executor on which to serve it
+	 * @throws InterruptedIOException If interrupted while waiting for another
+	 *             request to complete
+	 */
+	private void dispatch(KVMessage request, KeyOrderedExecutor executor) throws InterruptedIOException {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for in-flight requests");
 		}
 
-		switch (request.getStatus()) {
-		case GET:
-			try {
-				outValue = server.getKV(request.getKey());
-				if (outValue != null) {
-					outStatus = StatusType.GET_SUCCESS;
-					log.info("get success: " + request.getKey() + ":" + outValue);
-				} else {
-					outStatus = StatusType.GET_ERROR;
-					log.warn("result of get is null; reporting error");
+		try {
+			executor.execute(request.getKey(), () -> {
+				try {
+					byte[] response = server.getRequestHandler().handle(request, this);
+					if (response != null) send(response);
+				} catch (IOException e) {
+					log.warn("Could not send response to request " + request.getRequestId(), e);
+				} finally {
+					inFlight.release();
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the server is shutting down
+			inFlight.release();
+			isOpen = false;
+		}
+	}
 
-			} catch (Exception e) {
-				outStatus = StatusType.GET_ERROR;
-				log.error("error while retrieving get result", e);
-			}
-			break;
-
-		case PUT:
-			if (serverStatus == ServerStatus.WRITE_LOCKED) {
-				return new BasicKVMessage(null, null, StatusType.SERVER_WRITE_LOCK);
-			}
-
-			boolean keyExists = server.inCache(request.getKey()) || server.inStorage(request.getKey());
-			boolean valueEmpty = request.getValue() == null || request.getValue().isEmpty();
-			outValue = request.getValue();
-			try {
-				server.putKV(request.getKey(), request.getValue());
-				if (keyExists && valueEmpty) {
-					outStatus = StatusType.DELETE_SUCCESS;
-				} else if (!keyExists && valueEmpty) {
-					outStatus = StatusType.DELETE_ERROR;
-				} else if (keyExists && !valueEmpty) {
-					outStatus = StatusType.PUT_UPDATE;
-				} else if (!keyExists && !valueEmpty) {
-					outStatus = StatusType.PUT_SUCCESS;
-				}
+	/**
+	 * Transmits an encoded message to the client. Responses and notifications are
+	 * sent from different threads, so transmission is serialized to keep messages
+	 * from interleaving. A lock is used rather than a monitor, so that a virtual
+	 * thread blocked on a slow client does not pin its carrier thread.
+	 * 
+	 * @param msgBytes The encoded message
+	 * @throws IOException If the connection is closed or an I/O exception occurs
+	 *             while transmitting the message
+	 */
+	private void send(byte[] msgBytes) throws IOException {
+		outputLock.lock();
+		try {
+			if (out == null) throw new IOException("Connection closed");
+			codec.write(out, msgBytes);
+		} finally {
+			outputLock.unlock();
+		}
+	}
 
-			} catch (Exception e) {
-				if (valueEmpty) {
-					outStatus = StatusType.DELETE_ERROR;
-				} else {
-					outStatus = StatusType.PUT_ERROR;
-				}
-				log.error("error while retrieving put result", e);
+	/**
+	 * Transmits the start of a message followed by a region of a file. The socket
+	 * of a blocking connection has no channel, so the region is copied through
+	 * the small buffer of a channel over the output stream, rather than being
+	 * read into memory in full.
+	 */
+	@Override
+	public void sendPart(byte[] headBytes, FileChannel file, long position, int count) throws IOException {
+		outputLock.lock();
+		try {
+			if (out == null) throw new IOException("Connection closed");
+			out.write(headBytes);
+			long transferred = 0;
+			while (transferred < count) {
+				long sent = file.transferTo(position + transferred, count - transferred, outChannel);
+				if (sent <= 0) throw new EOFException("File ends before region");
+				transferred += sent;
 			}
-			break;
-
-		default:
-			return null;
+			out.flush();
+		} finally {
+			outputLock.unlock();
 		}
+	}
 
-		return new BasicKVMessage(outKey, outValue, outStatus);
+	@Override
+	public KVMessageCodec getCodec() {
+		return codec;
+	}
+
+	@Override
+	public void sendNotification(byte[] notificationBytes) throws IOException {
+		send(notificationBytes);
 	}
 
 	/**
@@ -167,17 +217,16 @@ public class ClientConnection implements Runnable {
 
 	private KVMessage receiveRequest(InputStream in) {
 		// receive message from client
-		String inStr = null;
 		KVMessage request = null;
 		try {
 			log.trace("Listening for client messages");
-			inStr = streamUtil.receiveString(in);
-			// TODO validate message type
-			// String msgType = streamUtil.identifyMessageType(inStr);
-			request = streamUtil.deserializeKVMessage(inStr);
+			request = codec.decode(in);
 
 		} catch (JsonSyntaxException e) {
-			log.error("Could not deserialize request: " + inStr, e);
+			log.error("Could not deserialize request", e);
+		} catch (EOFException e) {
+			log.info("Client closed connection");
+			this.isOpen = false;
 		} catch (SocketException e) {
 			if (e.getMessage().equals("Socket closed")) {
 				log.warn("Socket closed");
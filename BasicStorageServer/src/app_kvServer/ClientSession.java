@@ -0,0 +1,74 @@
+package app_kvServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import common.messages.KVMessageCodec;
+
+/**
+ * A connection over which a client sends requests to this server, regardless
+ * of how the connection is served.
+ */
+public interface ClientSession {
+
+	/**
+	 * Returns the codec for the wire format negotiated with the client.
+	 * 
+	 * @return The codec
+	 */
+	public KVMessageCodec getCodec();
+
+	/**
+	 * Pushes a notification to the client, outside of the request-response
+	 * cycle.
+	 * 
+	 * @param notificationBytes The notification, encoded by this session's
+	 *            {@link #getCodec() codec}
+	 * @throws IOException If the connection is closed or an I/O exception occurs
+	 *             while transmitting the notification
+	 * @see InvalidationNotifier
+	 */
+	public void sendNotification(byte[] notificationBytes) throws IOException;
+
+	/**
+	 * Transmits one of the messages making up a response which is sent in parts,
+	 * such as a streamed value. Waits if necessary until the client has received
+	 * enough of the earlier parts, so that a slow client does not cause an entire
+	 * value to be queued in memory.
+	 * 
+	 * @param partBytes The part, encoded by this session's {@link #getCodec()
+	 *            codec}
+	 * @throws IOException If the connection is closed or an I/O exception occurs
+	 *             while transmitting the part
+	 */
+	public default void sendPart(byte[] partBytes) throws IOException {
+		sendNotification(partBytes);
+	}
+
+	/**
+	 * Transmits a part of a response which consists of the given encoded start
+	 * of a message followed by a region of a file, such as a chunk of a streamed
+	 * value sent in the binary format. Sessions which can do so transfer the
+	 * region to the socket without copying it onto the heap; by default, the
+	 * region is read into memory and sent by {@link #sendPart(byte[])}.
+	 * 
+	 * @param headBytes The start of the message
+	 * @param file The file holding the rest of the message
+	 * @param position The position of the region in the file
+	 * @param count The length of the region
+	 * @throws IOException If the connection is closed or an I/O exception occurs
+	 *             while reading the file or transmitting the part
+	 */
+	public default void sendPart(byte[] headBytes, FileChannel file, long position, int count) throws IOException {
+		ByteBuffer part = ByteBuffer.allocate(headBytes.length + count).put(headBytes);
+		while (part.hasRemaining()) {
+			if (file.read(part, position + part.position() - headBytes.length) < 0) {
+				throw new EOFException("File ends before region");
+			}
+		}
+		sendPart(part.array());
+	}
+
+}
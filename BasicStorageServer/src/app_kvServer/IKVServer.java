@@ -14,7 +14,9 @@ public interface IKVServer {
 		/** Least-frequently used. */
 		LFU,
 		/** First-in-first-out. */
-		FIFO
+		FIFO,
+		/** Switches between the other strategies based on the observed workload. */
+		ADAPTIVE
 	};
 
 	/**
@@ -0,0 +1,110 @@
+package app_kvServer;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+
+/**
+ * Pushes notifications of writes to clients which have subscribed to them, so
+ * that they can discard values held in their near caches. Notifications are
+ * queued by the writing thread and sent by a background thread, so that a slow
+ * client cannot hold up writes.
+ */
+public class InvalidationNotifier {
+
+	private static final Logger log = Logger.getLogger(InvalidationNotifier.class);
+
+	private final Set<ClientSession> subscribers = new CopyOnWriteArraySet<>();
+	private final BlockingQueue<KVMessage> pending = new LinkedBlockingQueue<>();
+
+	private Thread notifierThread = null;
+
+	/**
+	 * Starts the background thread which sends notifications. Does nothing if
+	 * the notifier is already running.
+	 */
+	public synchronized void start() {
+		if (notifierThread != null) return;
+
+		notifierThread = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					send(pending.take());
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}, "invalidation-notifier");
+		notifierThread.setDaemon(true);
+		notifierThread.start();
+	}
+
+	/**
+	 * Stops the background thread. Pending notifications are discarded.
+	 */
+	public synchronized void close() {
+		if (notifierThread != null) {
+			notifierThread.interrupt();
+			notifierThread = null;
+		}
+		subscribers.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Subscribes the given client to notifications.
+	 *
+	 * @param client The client session
+	 */
+	public void subscribe(ClientSession client) {
+		subscribers.add(client);
+		log.info("Client subscribed to invalidation notifications");
+	}
+
+	/**
+	 * Unsubscribes the given client from notifications, if it is subscribed.
+	 *
+	 * @param client The client session
+	 */
+	public void unsubscribe(ClientSession client) {
+		subscribers.remove(client);
+	}
+
+	/**
+	 * Queues a notification that the given key has been written.
+	 *
+	 * @param key The key which was written, or <code>null</code> if any key may
+	 *            have changed
+	 * @param version The version of the key after the write
+	 */
+	public void publish(String key, long version) {
+		if (subscribers.isEmpty()) return;
+		pending.add(new BasicKVMessage(key, null, StatusType.INVALIDATE, version));
+	}
+
+	private void send(KVMessage notification) {
+		// each notification is encoded at most once per wire format
+		Map<KVMessageCodec, byte[]> encodings = new IdentityHashMap<>();
+		for (ClientSession subscriber : subscribers) {
+			try {
+				subscriber.sendNotification(encodings.computeIfAbsent(subscriber.getCodec(),
+						codec -> codec.encode(notification)));
+			} catch (IOException e) {
+				log.warn("Could not notify subscriber; unsubscribing", e);
+				subscribers.remove(subscriber);
+			}
+		}
+	}
+
+}
@@ -6,35 +6,63 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
-
-import app_kvServer.cache.FifoCache;
+import org.apache.zookeeper.data.Stat;
+
+import app_kvServer.cache.AdaptiveCache;
+import app_kvServer.cache.CacheManifest;
+import app_kvServer.cache.CacheStatistics;
+import app_kvServer.cache.CacheWarmer;
+import app_kvServer.cache.DiskCache;
+import app_kvServer.cache.HeapPressureController;
 import app_kvServer.cache.KVCache;
-import app_kvServer.cache.LfuCache;
-import app_kvServer.cache.LruCache;
+import app_kvServer.cache.MissRatioCurveEstimator;
+import app_kvServer.cache.NegativeCache;
+import app_kvServer.cache.ResponseCache;
+import app_kvServer.cache.WriteBackBuffer;
 import app_kvServer.migration.MigrationMessage;
 import app_kvServer.migration.MigrationReceiveTask;
+import app_kvServer.nio.NioServer;
 import app_kvServer.persistence.FilePersistence;
 import app_kvServer.persistence.KVPersistence;
 import app_kvServer.persistence.KVPersistenceChunkator;
+import app_kvServer.persistence.StreamStore;
 import common.HashUtil;
 import common.KVServiceTopology;
+import common.messages.Compression;
+import common.messages.ValueChunker;
 import common.zookeeper.ZKPathUtil;
 import common.zookeeper.ZKSession;
 import ecs.IECSNode;
@@ -49,12 +77,69 @@ public class KVServer implements IKVServer, Runnable {
 	private static final Logger log = Logger.getLogger(KVServer.class);
 
 	private static final String PERSISTENCE_FILENAME_FORMAT = "persistence/%s-data.txt";
+	private static final String CACHE_MANIFEST_FILENAME_FORMAT = "persistence/%s-cache.manifest";
+	private static final String STREAM_DIRECTORY_FORMAT = "persistence/%s-streams";
 	
 	private static final int HEARTBEAT_INTERVAL = 1000;
 
+	/** The number of heartbeats between each publication of metrics. */
+	private static final int METRICS_PUBLISH_PERIOD = 5;
+
+	/** The number of entries transferred each time the lock is acquired when replacing the cache. */
+	private static final int CACHE_TRANSFER_BATCH_SIZE = 64;
+
+	/** The time in milliseconds between evaluations of heap pressure. */
+	private static final long HEAP_CONTROL_PERIOD = 5000;
+
 	private final int port;
-	private final KVCache cache;
+
+	/**
+	 * Guards the cache, the persistence, and all state derived from them. A lock
+	 * is used rather than the monitor of this server, so that connections served
+	 * by virtual threads do not pin their carrier threads while they block on the
+	 * persistence. Values are loaded from the persistence following cache misses
+	 * without holding the lock, since the persistence is replaced atomically when
+	 * written (see {@link #getKV(String)}).
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private volatile KVCache cache;
+	private KVCache nextCache = null;
+	private final Lock cacheReconfigurationLock = new ReentrantLock();
 	private final KVPersistence persistence;
+	private final StreamStore streamStore;
+	private final Compression compression = setupCompression();
+	private final WriteBackBuffer writeBackBuffer;
+	private final DiskCache diskCache;
+	private final File cacheManifestFile;
+	private final CacheWarmer cacheWarmer;
+	private final NegativeCache negativeCache;
+	private final ResponseCache responseCache;
+	private final KeyVersions keyVersions = new KeyVersions();
+	private final Map<String, PendingLoad> pendingLoads = new HashMap<>(); // guarded by lock
+	private final InvalidationNotifier invalidationNotifier = new InvalidationNotifier();
+	private final RequestHandler requestHandler = new RequestHandler(this);
+	private final RequestForwarder requestForwarder = ServerOptions.isProxyEnabled()
+			? new RequestForwarder(ServerOptions.getProxyConnectionsPerServer())
+			: null;
+	private volatile MissRatioCurveEstimator missRatioCurveEstimator;
+	private final ServerMetrics metrics = new ServerMetrics();
+
+	/**
+	 * A load of a value from the persistence following a cache miss, on which
+	 * concurrent requests for the same key wait rather than loading it again.
+	 */
+	private static final class PendingLoad {
+
+		/** The version of the key when the load began. */
+		private final long version;
+		private final CompletableFuture<String> value = new CompletableFuture<>();
+
+		private PendingLoad(long version) {
+			this.version = version;
+		}
+
+	}
 
 	/** Contains values for possible server states. */
 	public static enum ServerStatus {
@@ -70,16 +155,21 @@ public class KVServer implements IKVServer, Runnable {
 	private boolean isWriteLocked = false;
 
 	private ServerSocket serverSocket;
-	// TODO handle de-registering clients
-	private List<ClientConnection> clients = new ArrayList<>();
+	private NioServer nioServer = null;
+	private ThreadFactory connectionThreads;
+	private KeyOrderedExecutor requestExecutor = null;
+	private List<ClientConnection> clients = new CopyOnWriteArrayList<>();
 
 	private final String name;
 	private final ZKSession zkSession;
 
 	private IECSNode config = null;
 	private KVServiceTopology serviceConfig;
+	private volatile long serviceConfigVersion = 0;
 	private ServiceStatusWatcher serviceStatusWatcher = null;
 	private Thread heartbeatThread;
+	private Thread cacheManifestThread = null;
+	private HeapPressureController heapPressureController = null;
 
 	/**
 	 * Main entry point for the key-value server application.
@@ -146,8 +236,9 @@ public class KVServer implements IKVServer, Runnable {
 		// Attempt to retrieve startup information from ZooKeeper
 		/* NOTE: the ECS is blocked from making topology changes until the server is
 		 * fully set up so setting the watcher here should be safe */
-		Collection<IECSNode> nodes = zkSession.getMetadataNodeData(new ServiceTopologyWatcher(this, zkSession));
-		setServiceConfig(nodes);
+		Stat stat = new Stat();
+		Collection<IECSNode> nodes = zkSession.getMetadataNodeData(new ServiceTopologyWatcher(this, zkSession), stat);
+		setServiceConfig(nodes, stat.getVersion());
 
 		// Set fields based on config
 		if (this.config != null) {
@@ -162,6 +253,14 @@ public class KVServer implements IKVServer, Runnable {
 			// set up storage
 			String persistenceFilename = String.format(PERSISTENCE_FILENAME_FORMAT, this.name);
 			this.persistence = new FilePersistence(persistenceFilename);
+			this.streamStore = setupStreamStore(new File(String.format(STREAM_DIRECTORY_FORMAT, this.name)));
+			this.writeBackBuffer = setupWriteBack();
+			this.diskCache = setupDiskCache(this.name);
+			this.cacheManifestFile = new File(String.format(CACHE_MANIFEST_FILENAME_FORMAT, this.name));
+			this.cacheWarmer = setupCacheWarmup();
+			this.negativeCache = setupNegativeCache();
+			this.responseCache = setupResponseCache();
+			this.missRatioCurveEstimator = setupCacheStatistics();
 
 			log.info("Created KVServer with "
 					+ "port=" + port + ", "
@@ -184,7 +283,8 @@ public class KVServer implements IKVServer, Runnable {
 	 *            keep in-memory
 	 * @param strategy specifies the cache replacement strategy in case the cache is
 	 *            full and there is a GET- or PUT-request on a key that is currently
-	 *            not contained in the cache. Options are "FIFO", "LRU", and "LFU".
+	 *            not contained in the cache. Options are "FIFO", "LRU", "LFU",
+	 *            and "ADAPTIVE".
 	 */
 	@Deprecated
 	public KVServer(int port, int cacheSize, String strategy) {
@@ -197,6 +297,14 @@ public class KVServer implements IKVServer, Runnable {
 		// set up storage
 		String storageIdentifier = "Server " + String.valueOf(port) + ".csv";
 		this.persistence = new FilePersistence(storageIdentifier);
+		this.streamStore = setupStreamStore(new File("Server " + String.valueOf(port) + " streams"));
+		this.writeBackBuffer = setupWriteBack();
+		this.diskCache = setupDiskCache("Server " + String.valueOf(port));
+		this.cacheManifestFile = new File("Server " + String.valueOf(port) + ".manifest");
+		this.cacheWarmer = setupCacheWarmup();
+		this.negativeCache = setupNegativeCache();
+		this.responseCache = setupResponseCache();
+		this.missRatioCurveEstimator = setupCacheStatistics();
 
 		log.info("Created KVServer with "
 				+ "port=" + port + ", "
@@ -215,27 +323,237 @@ public class KVServer implements IKVServer, Runnable {
 
 	private KVCache chooseCache(String cacheStrategy, int cacheSize) {
 		KVCache cache;
-
-		switch (cacheStrategy) {
-		case "FIFO":
-			cache = new FifoCache();
-			break;
-		case "LRU":
-			cache = new LruCache();
-			break;
-		case "LFU":
-			cache = new LfuCache();
-			break;
-		default:
+		try {
+			cache = KVCache.create(CacheStrategy.valueOf(cacheStrategy), cacheSize);
+		} catch (IllegalArgumentException | NullPointerException e) {
 			cache = null;
+		}
+
+		if (cache == null) {
 			log.warn("Invalid caching strategy \"" + cacheStrategy + "\"; using null cache");
-			break;
 		}
-		Optional.ofNullable(cache).ifPresent(cm -> cm.setCacheSize(cacheSize));
 
 		return cache;
 	}
 
+	/**
+	 * Sets up write-back mode for the cache, if enabled in the server options.
+	 * Should be called once both the cache and persistence have been created.
+	 * 
+	 * @return The buffer tracking dirty cache entries, or <code>null</code> if the
+	 *         cache operates in write-through mode
+	 * @see ServerOptions#WRITE_BACK
+	 */
+	private WriteBackBuffer setupWriteBack() {
+		if (!ServerOptions.isWriteBackEnabled()) return null;
+
+		if (cache == null || cache.getCacheSize() <= 0) {
+			log.warn("Write-back mode requires a non-empty cache; using write-through mode");
+			return null;
+		}
+
+		WriteBackBuffer buffer = new WriteBackBuffer(persistence, lock,
+				ServerOptions.getWriteBackInterval(), ServerOptions.getWriteBackBatchSize());
+		cache.addEvictionListener(buffer);
+		buffer.start();
+		log.info("Cache operating in write-back mode");
+
+		return buffer;
+	}
+
+	/**
+	 * Creates the second-level cache on local disk, if enabled in the server
+	 * options, and demotes entries evicted from the cache into it. Should be
+	 * called once the cache has been created, and after write-back mode has been
+	 * set up, so that evicted dirty entries are flushed before being demoted.
+	 * 
+	 * @param directoryName The name of the subdirectory holding this server's
+	 *            disk cache
+	 * @return The disk cache, or <code>null</code> if it is disabled
+	 * @see ServerOptions#DISK_CACHE_PATH
+	 */
+	private DiskCache setupDiskCache(String directoryName) {
+		String path = ServerOptions.getDiskCachePath();
+		long size = ServerOptions.getDiskCacheSize();
+		if (path == null || size <= 0) return null;
+
+		if (cache == null || cache.getCacheSize() <= 0) {
+			log.warn("Disk cache requires a non-empty memory cache; disk cache disabled");
+			return null;
+		}
+
+		DiskCache diskCache;
+		try {
+			diskCache = new DiskCache(new File(path, directoryName), size,
+					ServerOptions.isDiskCacheRecoveryEnabled());
+		} catch (IOException e) {
+			log.error("Could not open disk cache; disk cache disabled", e);
+			return null;
+		}
+
+		cache.addEvictionListener(diskCache);
+		metrics.register("cache.disk.hits", diskCache::getHits);
+		metrics.register("cache.disk.misses", diskCache::getMisses);
+		metrics.register("cache.disk.entries", diskCache::getEntryCount);
+		metrics.register("cache.disk.bytes", diskCache::getSize);
+		log.info("Demoting cache evictions to disk cache at " + path);
+
+		return diskCache;
+	}
+
+	/**
+	 * Opens the store for values which are streamed in chunks.
+	 * 
+	 * @param directory The directory holding the streamed values
+	 * @return The stream store, or <code>null</code> if it could not be opened, in
+	 *         which case streamed values are not supported
+	 */
+	private StreamStore setupStreamStore(File directory) {
+		try {
+			return new StreamStore(directory);
+		} catch (IOException e) {
+			log.error("Could not open stream store; streamed values disabled", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the compression settings offered to clients.
+	 * 
+	 * @return The compression settings, or <code>null</code> if compression is
+	 *         disabled
+	 * @see ServerOptions#COMPRESSION
+	 */
+	private static Compression setupCompression() {
+		if (!ServerOptions.isCompressionEnabled()) return null;
+
+		int threshold = ServerOptions.getCompressionThreshold();
+		String dictionaryPath = ServerOptions.getCompressionDictionaryPath();
+		if (dictionaryPath == null) return new Compression(threshold);
+
+		try {
+			return new Compression(threshold, Files.readAllBytes(Paths.get(dictionaryPath)));
+		} catch (IOException | IllegalArgumentException e) {
+			log.error("Could not read compression dictionary; compressing without it", e);
+			return new Compression(threshold);
+		}
+	}
+
+	/**
+	 * Begins warming the cache on a background thread if a cache manifest was
+	 * written by a previous run of this server. Should be called once the cache,
+	 * persistence, and manifest file have been set up.
+	 * 
+	 * @return The warmer populating the cache, or <code>null</code> if there is no
+	 *         manifest to warm the cache from
+	 * @see ServerOptions#CACHE_MANIFEST_INTERVAL
+	 */
+	private CacheWarmer setupCacheWarmup() {
+		if (cache == null || cache.getCacheSize() <= 0 || ServerOptions.getCacheManifestInterval() <= 0
+				|| !cacheManifestFile.exists()) {
+			return null;
+		}
+
+		CacheManifest manifest;
+		try {
+			manifest = CacheManifest.read(cacheManifestFile);
+		} catch (IOException e) {
+			log.warn("Could not read cache manifest; starting with a cold cache", e);
+			return null;
+		}
+
+		CacheWarmer warmer = new CacheWarmer(cache, persistence, lock, manifest);
+		metrics.register("cache.warmup.progress", warmer::getProgress);
+		metrics.register("cache.warmup.loaded", warmer::getLoaded);
+		metrics.register("cache.warmup.total", warmer::getTotal);
+
+		Thread warmerThread = new Thread(warmer, "cache-warmer");
+		warmerThread.setDaemon(true);
+		warmerThread.start();
+
+		return warmer;
+	}
+
+	/**
+	 * Creates the negative cache for keys known to be absent from the persistence,
+	 * if enabled in the server options.
+	 * 
+	 * @return The negative cache, or <code>null</code> if it is disabled
+	 * @see ServerOptions#NEGATIVE_CACHE_SIZE
+	 */
+	private NegativeCache setupNegativeCache() {
+		int size = ServerOptions.getNegativeCacheSize();
+		if (size <= 0) return null;
+
+		NegativeCache negativeCache = new NegativeCache(size);
+		metrics.register("cache.negative.hits", negativeCache::getHits);
+		metrics.register("cache.negative.size", negativeCache::size);
+
+		return negativeCache;
+	}
+
+	/**
+	 * Creates the cache of encoded responses for hot keys, if enabled in the
+	 * server options.
+	 * 
+	 * @return The response cache, or <code>null</code> if it is disabled
+	 * @see ServerOptions#RESPONSE_CACHE_SIZE
+	 */
+	private ResponseCache setupResponseCache() {
+		long size = ServerOptions.getResponseCacheSize();
+		if (size <= 0) return null;
+
+		ResponseCache responseCache = new ResponseCache(size);
+		metrics.register("cache.response.hits", responseCache::getHits);
+		metrics.register("cache.response.misses", responseCache::getMisses);
+		metrics.register("cache.response.entries", responseCache::getEntryCount);
+		metrics.register("cache.response.bytes", responseCache::getSize);
+
+		return responseCache;
+	}
+
+	/**
+	 * Exports the statistics of the cache as metrics, and sets up estimation of
+	 * the hit ratio at other cache sizes and strategies if enabled in the server
+	 * options.
+	 * 
+	 * @return The miss ratio curve estimator, or <code>null</code> if estimation
+	 *         is disabled
+	 * @see ServerOptions#MRC_SAMPLE_RATE
+	 */
+	private MissRatioCurveEstimator setupCacheStatistics() {
+		if (cache == null) return null;
+
+		CacheStatistics statistics = cache.getStatistics();
+		metrics.register("cache.hits", statistics::getHitCount);
+		metrics.register("cache.misses", statistics::getMissCount);
+		metrics.register("cache.hitRatio", statistics::getHitRatio);
+		metrics.register("cache.evictions", statistics::getEvictionCount);
+		metrics.register("cache.loads", statistics::getLoadCount);
+		metrics.register("cache.loadTime.total", statistics::getTotalLoadTime);
+		metrics.register("cache.loadTime.average", statistics::getAverageLoadTime);
+		metrics.register("cache.size", cache::getCacheSize);
+
+		metrics.unregisterAll("cache.adaptive.");
+		if (cache instanceof AdaptiveCache) {
+			AdaptiveCache adaptiveCache = (AdaptiveCache) cache;
+			metrics.register("cache.adaptive.switches", adaptiveCache::getSwitchCount);
+			metrics.register("cache.adaptive.active", () -> adaptiveCache.getActiveStrategy().ordinal());
+		}
+
+		double sampleRate = ServerOptions.getMissRatioCurveSampleRate();
+		if (sampleRate <= 0 || cache.getCacheSize() <= 0) return null;
+
+		MissRatioCurveEstimator estimator = new MissRatioCurveEstimator(cache.getCacheSize(), sampleRate);
+		metrics.register("cache.mrc.samples", estimator::getSampleCount);
+		for (MissRatioCurveEstimator.Candidate candidate : estimator.getCandidates()) {
+			metrics.register("cache.mrc." + candidate.getCacheStrategy() + "." + candidate.getCacheSize(),
+					candidate::getHitRatio);
+		}
+
+		return estimator;
+	}
+
 	@Override
 	public void run() {
 		// Bind listening port
@@ -260,9 +578,21 @@ public class KVServer implements IKVServer, Runnable {
 		// Start heartbeat
 		initializeHeartbeat();
 
+		// Start periodically recording cached keys for warm-up on restart
+		initializeCacheManifest();
+
+		// Start adjusting the cache size to the heap pressure
+		initializeHeapPressureControl();
+
+		// Start pushing write notifications to subscribed clients
+		invalidationNotifier.start();
+
 		// Check if there is any initial data that needs to be transferred in
 		completeInitialMigration();
 
+		// serve connections with non-blocking I/O until the server socket is closed
+		if (nioServer != null) nioServer.run();
+
 		// main accept loop
 		while (!serverSocket.isClosed()) {
 			try {
@@ -270,7 +600,7 @@ public class KVServer implements IKVServer, Runnable {
 				Socket clientSocket = serverSocket.accept();
 				ClientConnection connection = new ClientConnection(clientSocket, this);
 				clients.add(connection);
-				new Thread(connection).start();
+				connectionThreads.newThread(connection).start();
 
 				log.info("Connected to "
 						+ clientSocket.getInetAddress().getHostName()
@@ -294,15 +624,38 @@ public class KVServer implements IKVServer, Runnable {
 			}
 		}
 		heartbeatThread.interrupt();
+		invalidationNotifier.close();
+		Optional.ofNullable(requestExecutor).ifPresent(KeyOrderedExecutor::shutdown);
+		Optional.ofNullable(requestForwarder).ifPresent(RequestForwarder::close);
+		Optional.ofNullable(heapPressureController).ifPresent(HeapPressureController::close);
+		Optional.ofNullable(writeBackBuffer).ifPresent(WriteBackBuffer::close);
+		Optional.ofNullable(diskCache).ifPresent(DiskCache::close);
+		if (cacheManifestThread != null) {
+			cacheManifestThread.interrupt();
+			writeCacheManifest();
+		}
 		log.info("Server stopped.");
 	}
 
 	private boolean initializeServer() {
 		log.info("Initializing server on " + getHostname());
 		try {
-			serverSocket = new ServerSocket(port);
+			if (ServerOptions.isNioEnabled()) {
+				ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				serverChannel.bind(new InetSocketAddress(port));
+				serverSocket = serverChannel.socket();
+				nioServer = new NioServer(this, serverChannel,
+						ServerOptions.getNioIoThreads(), ServerOptions.getNioWorkerThreads());
+			} else {
+				serverSocket = new ServerSocket(port);
+				serverSocket.setSoTimeout(2000);
+				connectionThreads = VirtualThreads.newConnectionThreadFactory(ServerOptions.isVirtualThreadsEnabled());
+				if (ServerOptions.isOutOfOrderEnabled()) {
+					requestExecutor = new KeyOrderedExecutor(Runtime.getRuntime().availableProcessors(),
+							"request-worker-");
+				}
+			}
 			log.info("Server listening on port: " + serverSocket.getLocalPort());
-			serverSocket.setSoTimeout(2000);
 			return true;
 
 		} catch (BindException e) {
@@ -343,6 +696,9 @@ public class KVServer implements IKVServer, Runnable {
 						heartbeatCounter = (heartbeatCounter + 1) % 50;
 						zkSession.updateNode(ZKPathUtil.getHeartbeatZnode(config),
 								Integer.toString(heartbeatCounter));
+						if (heartbeatCounter % METRICS_PUBLISH_PERIOD == 0) {
+							zkSession.updateNode(ZKPathUtil.getMetricsZnode(config), metrics.toJSON());
+						}
 						Thread.sleep(HEARTBEAT_INTERVAL);
 					} catch (KeeperException | InterruptedException e) {
 						log.warn("Exception while updating heartbeat", e);
@@ -353,6 +709,114 @@ public class KVServer implements IKVServer, Runnable {
 		heartbeatThread.start();
 	}
 
+	/**
+	 * Starts a background thread which periodically writes a manifest of the
+	 * cached keys to disk, for use by {@link #setupCacheWarmup()} when the server
+	 * is restarted. Does nothing if there is no cache or the manifest is disabled.
+	 * 
+	 * @see ServerOptions#CACHE_MANIFEST_INTERVAL
+	 */
+	private void initializeCacheManifest() {
+		long interval = ServerOptions.getCacheManifestInterval();
+		if (cache == null || cache.getCacheSize() <= 0 || interval <= 0) return;
+
+		this.cacheManifestThread = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					break;
+				}
+				writeCacheManifest();
+			}
+		}, "cache-manifest-writer");
+		cacheManifestThread.setDaemon(true);
+		cacheManifestThread.start();
+	}
+
+	/**
+	 * Starts a controller which periodically resizes the cache according to heap
+	 * pressure, within bounds derived from the configured cache size. Does
+	 * nothing if there is no cache or heap pressure control is disabled.
+	 * 
+	 * @see ServerOptions#HEAP_CONTROL
+	 */
+	private void initializeHeapPressureControl() {
+		if (cache == null || cache.getCacheSize() <= 0 || !ServerOptions.isHeapControlEnabled()) return;
+
+		int cacheSize = cache.getCacheSize();
+		try {
+			this.heapPressureController = new HeapPressureController(() -> cache, lock,
+					HeapPressureController.getHeapUsage(), HeapPressureController.getCollectionCount(),
+					ServerOptions.getCacheMinSize(cacheSize), ServerOptions.getCacheMaxSize(cacheSize),
+					ServerOptions.getHeapLowWatermark(), ServerOptions.getHeapHighWatermark());
+		} catch (IllegalArgumentException e) {
+			log.error("Invalid heap pressure control options; cache size will not be adjusted", e);
+			return;
+		}
+
+		metrics.register("cache.heap.usage", heapPressureController::getLastUsage);
+		metrics.register("cache.heap.grows", heapPressureController::getGrowCount);
+		metrics.register("cache.heap.shrinks", heapPressureController::getShrinkCount);
+		heapPressureController.start(HEAP_CONTROL_PERIOD);
+	}
+
+	/**
+	 * Derives the bounds of heap pressure control from a newly configured cache
+	 * size, so that the cache is not pulled back towards the previous
+	 * configuration. Stops the controller if the cache is now empty, and starts
+	 * it if there was none.
+	 * 
+	 * @param cacheSize The new cache size
+	 * @see #reconfigureCache(String, int)
+	 */
+	private void updateHeapPressureControl(int cacheSize) {
+		if (heapPressureController == null) {
+			initializeHeapPressureControl();
+			return;
+		}
+		if (cacheSize <= 0) {
+			heapPressureController.close();
+			return;
+		}
+
+		try {
+			heapPressureController.setSizeBounds(
+					ServerOptions.getCacheMinSize(cacheSize), ServerOptions.getCacheMaxSize(cacheSize));
+		} catch (IllegalArgumentException e) {
+			log.error("Invalid heap pressure control options; keeping the previous cache size bounds", e);
+		}
+		heapPressureController.start(HEAP_CONTROL_PERIOD);
+	}
+
+	/**
+	 * Writes a manifest of the keys currently in the cache, along with their
+	 * replacement strategy state. The manifest is not written while the cache is
+	 * still being warmed, since the previous manifest is more complete.
+	 */
+	private void writeCacheManifest() {
+		if (cacheWarmer != null && !cacheWarmer.isDone()) {
+			log.debug("Cache warm-up in progress; skipping cache manifest");
+			return;
+		}
+
+		CacheManifest manifest;
+		lock.lock();
+		try {
+			if (cache == null) return;
+			manifest = CacheManifest.of(cache);
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			manifest.write(cacheManifestFile);
+			log.debug("Wrote cache manifest with " + manifest.getEntries().size() + " keys");
+		} catch (IOException e) {
+			log.warn("Could not write cache manifest", e);
+		}
+	}
+
 	/**
 	 * Executes the initial key-value pair migration for this server. Should be
 	 * called after notifying the ECS of startup success.
@@ -441,48 +905,672 @@ public class KVServer implements IKVServer, Runnable {
 	@Override
 	public void deregisterClientConnection(ClientConnection client) {
 		this.clients.remove(client);
+		invalidationNotifier.unsubscribe(client);
+		requestHandler.sessionClosed(client);
 	}
 
 	@Override
-	public synchronized boolean inStorage(String key) {
-		return persistence.containsKey(key);
+	public boolean inStorage(String key) {
+		lock.lock();
+		try {
+			if (negativeCache != null && negativeCache.isAbsent(key)) return false;
+			return persistence.containsKey(key);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized boolean inCache(String key) {
-		return Optional.ofNullable(cache)
-				.map(cm -> cm.containsKey(key))
-				.orElse(false);
+	public boolean inCache(String key) {
+		lock.lock();
+		try {
+			return Optional.ofNullable(cache)
+					.map(cm -> cm.containsKey(key))
+					.orElse(false);
+		} finally {
+			lock.unlock();
+		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Following a cache miss, the value is loaded from the persistence without
+	 * holding the server lock and added to the cache. Concurrent requests for a
+	 * key which is already being loaded wait for that load rather than reading
+	 * the persistence again, unless the key has been written since the load
+	 * began.
+	 */
 	@Override
-	public synchronized String getKV(String key) throws Exception {
-		return Optional.ofNullable(cache)
-				.map(cm -> cm.get(key))
-				.orElseGet(() -> persistence.get(key));
+	public String getKV(String key) throws Exception {
+		PendingLoad load;
+		boolean loading = false;
+		lock.lock();
+		try {
+			Optional.ofNullable(missRatioCurveEstimator).ifPresent(mrc -> mrc.recordGet(key));
+			String value = Optional.ofNullable(cache).map(cm -> cm.get(key)).orElse(null);
+			if (value != null) return value;
+			if (negativeCache != null && negativeCache.isAbsent(key)) return null;
+
+			// join a load of the current version of the key, or else begin one
+			long version = keyVersions.get(key);
+			load = pendingLoads.get(key);
+			if (load == null || load.version != version) {
+				load = new PendingLoad(version);
+				pendingLoads.put(key, load);
+				loading = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (loading) return load(key, load);
+		try {
+			return load.value.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Loads the value for the given key from the disk cache or else the
+	 * persistence following a cache miss, without holding the server lock. The
+	 * value is then added to the cache, or the key to the negative cache if it is
+	 * absent, unless the key was written during the load. Requests waiting on the
+	 * load receive the loaded value in either case.
+	 * 
+	 * @param key The key to load the value for
+	 * @param load The pending load, on which other requests may be waiting
+	 * @return The persisted value, or <code>null</code> if the key is absent
+	 */
+	private String load(String key, PendingLoad load) {
+		String value;
+		try {
+			value = loadFromPersistence(key);
+		} catch (RuntimeException | Error e) {
+			lock.lock();
+			try {
+				pendingLoads.remove(key, load);
+			} finally {
+				lock.unlock();
+			}
+			load.value.completeExceptionally(e);
+			throw e;
+		}
+
+		lock.lock();
+		try {
+			finishLoad(key, load, value);
+		} finally {
+			lock.unlock();
+		}
+		load.value.complete(value);
+		return value;
+	}
+
+	/**
+	 * Ends the given load, adding the loaded value to the cache, or the key to
+	 * the negative cache if it is absent, unless the key was written during the
+	 * load. Must be called while holding the server lock.
+	 * 
+	 * @param key The key which was loaded
+	 * @param load The pending load
+	 * @param value The loaded value, or <code>null</code> if the key is absent
+	 */
+	private void finishLoad(String key, PendingLoad load, String value) {
+		pendingLoads.remove(key, load);
+		if (keyVersions.get(key) == load.version) {
+			if (value != null) {
+				putInCache(key, value);
+				Optional.ofNullable(missRatioCurveEstimator).ifPresent(mrc -> mrc.recordPut(key, false));
+			} else if (negativeCache != null) {
+				negativeCache.markAbsent(key);
+			}
+		}
+	}
+
+	/**
+	 * Abandons the given loads after a failure, so that later requests begin new
+	 * loads, and passes the failure on to the requests waiting on them.
+	 * 
+	 * @param loads The failed loads, by key
+	 * @param cause The failure
+	 */
+	private void failLoads(Map<String, PendingLoad> loads, Throwable cause) {
+		lock.lock();
+		try {
+			loads.forEach(pendingLoads::remove);
+		} finally {
+			lock.unlock();
+		}
+		loads.values().forEach(load -> load.value.completeExceptionally(cause));
+	}
+
+	/**
+	 * Retrieves the value for the given key from the disk cache or else the
+	 * persistence following a cache miss, recording the time taken to read the
+	 * persistence in the cache statistics. Does not require the server lock.
+	 * 
+	 * @param key The key to retrieve the value for
+	 * @return The persisted value, or <code>null</code> if the key is absent
+	 */
+	private String loadFromPersistence(String key) {
+		if (diskCache != null) {
+			String value = diskCache.get(key);
+			if (value != null) return value;
+		}
+
+		long startTime = System.nanoTime();
+		String value = persistence.get(key);
+		Optional.ofNullable(cache).ifPresent(cm -> cm.getStatistics().recordLoad(System.nanoTime() - startTime));
+		return value;
+	}
+
+	/**
+	 * Retrieves the values for the given keys, holding the server lock once for
+	 * the lookups in the cache. As in {@link #getKV(String)}, keys missing from
+	 * the cache are loaded without holding the server lock, and requests already
+	 * loading any of them are joined. The remaining keys are looked up in the
+	 * disk cache, and those still missing are read from the persistence together
+	 * in a single pass. The loaded values are then added to the cache.
+	 * 
+	 * @param keys The keys to retrieve the values for
+	 * @return The values of the keys which are present, in the order the keys
+	 *         were given
+	 */
+	public Map<String, String> getAllKV(Collection<String> keys) {
+		Map<String, String> found = new HashMap<>();
+		Map<String, PendingLoad> loads = new HashMap<>();
+		Map<String, PendingLoad> joined = new HashMap<>();
+
+		lock.lock();
+		try {
+			for (String key : keys) {
+				if (found.containsKey(key) || loads.containsKey(key) || joined.containsKey(key)) continue;
+
+				Optional.ofNullable(missRatioCurveEstimator).ifPresent(mrc -> mrc.recordGet(key));
+				String value = Optional.ofNullable(cache).map(cm -> cm.get(key)).orElse(null);
+				if (value != null) {
+					found.put(key, value);
+					continue;
+				}
+				if (negativeCache != null && negativeCache.isAbsent(key)) continue;
+
+				long version = keyVersions.get(key);
+				PendingLoad load = pendingLoads.get(key);
+				if (load != null && load.version == version) {
+					joined.put(key, load);
+				} else {
+					load = new PendingLoad(version);
+					pendingLoads.put(key, load);
+					loads.put(key, load);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (!loads.isEmpty()) {
+			Map<String, String> loaded;
+			try {
+				loaded = loadAll(loads.keySet());
+			} catch (RuntimeException | Error e) {
+				failLoads(loads, e);
+				throw e;
+			}
+
+			lock.lock();
+			try {
+				loads.forEach((key, load) -> finishLoad(key, load, loaded.get(key)));
+			} finally {
+				lock.unlock();
+			}
+			loads.forEach((key, load) -> load.value.complete(loaded.get(key)));
+			found.putAll(loaded);
+		}
+
+		for (Map.Entry<String, PendingLoad> entry : joined.entrySet()) {
+			try {
+				Optional.ofNullable(entry.getValue().value.join()).ifPresent(value -> found.put(entry.getKey(), value));
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				if (e.getCause() instanceof Error) throw (Error) e.getCause();
+				throw e;
+			}
+		}
+
+		Map<String, String> values = new LinkedHashMap<>();
+		for (String key : keys) {
+			Optional.ofNullable(found.get(key)).ifPresent(value -> values.put(key, value));
+		}
+		return values;
+	}
+
+	/**
+	 * Loads the values for the given keys from the disk cache or else the
+	 * persistence following cache misses, recording the time taken to read the
+	 * persistence in the cache statistics. Does not require the server lock.
+	 * 
+	 * @param keys The keys to load the values for
+	 * @return The values of the keys which are present
+	 */
+	private Map<String, String> loadAll(Set<String> keys) {
+		Map<String, String> values = new HashMap<>();
+		Set<String> misses = new HashSet<>();
+		for (String key : keys) {
+			String value = diskCache != null ? diskCache.get(key) : null;
+			if (value != null) {
+				values.put(key, value);
+			} else {
+				misses.add(key);
+			}
+		}
+
+		if (!misses.isEmpty()) {
+			long startTime = System.nanoTime();
+			values.putAll(loadAllFromPersistence(misses));
+			Optional.ofNullable(cache)
+					.ifPresent(cm -> cm.getStatistics().recordLoad(System.nanoTime() - startTime));
+		}
+		return values;
+	}
+
+	/**
+	 * Reads the values of the given keys from the persistence in a single pass.
+	 * 
+	 * @param keys The keys to read
+	 * @return The values of the keys which are present
+	 */
+	private Map<String, String> loadAllFromPersistence(Set<String> keys) {
+		Map<String, String> values = new HashMap<>();
+		try (KVPersistenceChunkator it = persistence.chunkator()) {
+			if (it == null) return values;
+
+			while (values.size() < keys.size() && it.hasNextChunk()) {
+				values.putAll(it.nextChunk(keys::contains));
+			}
+		} catch (IOException e) {
+			log.warn("Could not close persistence after batch read", e);
+		}
+		return values;
+	}
+
+	/**
+	 * Records that the given key is being written, so that any state derived from
+	 * its previous value is discarded.
+	 * 
+	 * @param key The key being written
+	 */
+	private void invalidate(String key) {
+		Optional.ofNullable(cacheWarmer).ifPresent(w -> w.invalidate(key));
+		Optional.ofNullable(negativeCache).ifPresent(nc -> nc.invalidate(key));
+		Optional.ofNullable(responseCache).ifPresent(rc -> rc.invalidate(key));
+		Optional.ofNullable(diskCache).ifPresent(dc -> dc.invalidate(key));
+		invalidationNotifier.publish(key, keyVersions.increment(key));
+	}
+
+	/**
+	 * Returns the current version of the given key, which increases whenever the
+	 * key is written.
+	 * 
+	 * @param key The key
+	 * @return The version
+	 * @see KeyVersions
+	 */
+	public long getVersion(String key) {
+		return keyVersions.get(key);
+	}
+
+	/**
+	 * Returns the handler which serves client requests on behalf of this server.
+	 * 
+	 * @return The request handler
+	 */
+	public RequestHandler getRequestHandler() {
+		return requestHandler;
+	}
+
+	/**
+	 * Returns the executor which serves tagged requests out of order on
+	 * connections served by a thread per connection.
+	 * 
+	 * @return The request executor, or <code>null</code> if requests are served
+	 *         in order
+	 * @see ServerOptions#OUT_OF_ORDER
+	 */
+	public KeyOrderedExecutor getRequestExecutor() {
+		return requestExecutor;
+	}
+
+	/**
+	 * Returns the notifier which pushes write notifications to subscribed
+	 * clients.
+	 * 
+	 * @return The invalidation notifier
+	 */
+	public InvalidationNotifier getInvalidationNotifier() {
+		return invalidationNotifier;
+	}
+
+	/**
+	 * Returns the cache of encoded responses for hot keys.
+	 * 
+	 * @return The response cache, or <code>null</code> if it is disabled
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Returns the forwarder for requests which this server is not responsible
+	 * for.
+	 * 
+	 * @return The request forwarder, or <code>null</code> if proxy mode is
+	 *         disabled
+	 */
+	public RequestForwarder getRequestForwarder() {
+		return requestForwarder;
+	}
+
+	/**
+	 * Returns the compression settings offered to clients using the binary
+	 * format.
+	 * 
+	 * @return The compression settings, or <code>null</code> if compression is
+	 *         disabled
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Returns the store for values which are streamed in chunks.
+	 * 
+	 * @return The stream store, or <code>null</code> if streamed values are not
+	 *         supported
+	 */
+	public StreamStore getStreamStore() {
+		return streamStore;
 	}
 
 	@Override
-	public synchronized void putKV(String key, String value) {
-		putAndGetPrevKV(key, value);
+	public void putKV(String key, String value) {
+		lock.lock();
+		try {
+			if (writeBackBuffer != null) {
+				String newValue = value == null || value.isEmpty() ? null : value;
+				invalidate(key);
+				Optional.ofNullable(missRatioCurveEstimator).ifPresent(mrc -> mrc.recordPut(key, newValue == null));
+
+				// the previous value is not needed, so avoid looking it up in persistence
+				writeBack(key, newValue);
+			} else {
+				putAndGetPrevKV(key, value);
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized String putAndGetPrevKV(String key, String value) {
-		Optional.ofNullable(cache)
-				.ifPresent(cm -> cm.put(key, value));
-		return persistence.put(key, value);
+	public String putAndGetPrevKV(String key, String value) {
+		lock.lock();
+		try {
+			String newValue = value == null || value.isEmpty() ? null : value;
+			invalidate(key);
+			Optional.ofNullable(missRatioCurveEstimator).ifPresent(mrc -> mrc.recordPut(key, newValue == null));
+
+			if (writeBackBuffer != null) {
+				boolean cached = cache.containsKey(key);
+				String prevValue = cached ? cache.get(key) : persistence.get(key);
+				writeBack(key, newValue);
+				return prevValue;
+			}
+
+			putInCache(key, newValue);
+			return persistence.put(key, newValue);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the given key-value pairs to storage in a single batch, replacing any
+	 * existing values. Cached entries for the given keys are updated. This is
+	 * intended for bulk loads such as receiving migrated data.
+	 * 
+	 * @param pairs The key-value pairs to write
+	 * @return <code>true</code> if the pairs were written successfully,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean insertAll(Map<String, String> pairs) {
+		lock.lock();
+		try {
+			for (Map.Entry<String, String> entry : pairs.entrySet()) {
+				String key = entry.getKey();
+				invalidate(key);
+				Optional.ofNullable(writeBackBuffer).ifPresent(wb -> wb.discard(key));
+				if (cache != null && cache.containsKey(key)) cache.put(key, entry.getValue());
+				if (nextCache != null && nextCache.containsKey(key)) nextCache.put(key, entry.getValue());
+			}
+
+			return persistence.putAll(pairs);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the given key-value pairs while holding the server lock once for the
+	 * whole batch, with a single pass over the persistence. Empty values delete
+	 * their keys. With write-back enabled, only the deletions are written to the
+	 * persistence immediately.
+	 * 
+	 * @param pairs The key-value pairs to write
+	 * @return <code>true</code> if the pairs were written successfully,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean putAllKV(Map<String, String> pairs) {
+		lock.lock();
+		try {
+			Map<String, String> writes = new LinkedHashMap<>();
+			for (Map.Entry<String, String> entry : pairs.entrySet()) {
+				String key = entry.getKey();
+				String value = entry.getValue();
+				String newValue = value == null || value.isEmpty() ? null : value;
+				invalidate(key);
+				Optional.ofNullable(missRatioCurveEstimator).ifPresent(mrc -> mrc.recordPut(key, newValue == null));
+				putInCache(key, newValue);
+
+				if (writeBackBuffer == null) {
+					writes.put(key, newValue);
+				} else if (newValue != null) {
+					writeBackBuffer.markDirty(key, newValue);
+				} else {
+					writeBackBuffer.discard(key);
+					writes.put(key, null);
+				}
+			}
+
+			return persistence.putAll(writes);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the given key-value pair to the cache and marks it as dirty, to be
+	 * flushed to persistence later. Deletions are written to the persistence
+	 * immediately, since a deleted entry cannot remain resident in the cache.
+	 * 
+	 * @param key The key to write
+	 * @param value The value to write, or <code>null</code> to delete the entry
+	 */
+	private void writeBack(String key, String value) {
+		putInCache(key, value);
+		if (value != null) {
+			writeBackBuffer.markDirty(key, value);
+		} else {
+			writeBackBuffer.discard(key);
+			persistence.put(key, null);
+		}
+	}
+
+	/**
+	 * Writes the given key-value pair to the cache. While the cache is being
+	 * replaced, the pair is also written to the replacement cache, so that it does
+	 * not miss any writes.
+	 * 
+	 * @param key The key to write
+	 * @param value The value to write, or <code>null</code> to delete the entry
+	 * @see #reconfigureCache(String, int)
+	 */
+	private void putInCache(String key, String value) {
+		Optional.ofNullable(cache).ifPresent(cm -> cm.put(key, value));
+		Optional.ofNullable(nextCache).ifPresent(cm -> cm.put(key, value));
+	}
+
+	/**
+	 * Changes the replacement strategy and/or size of the cache while the server
+	 * continues to serve requests.
+	 * <p>
+	 * If only the size changes, the existing cache is resized. Otherwise, a new
+	 * cache is created and receives all writes from then on, while the entries of
+	 * the current cache are transferred into it in small batches, from coldest to
+	 * hottest, with their replacement strategy state. If the new cache is smaller,
+	 * only the hottest entries are transferred. Once the transfer is complete, the
+	 * new cache replaces the current one. Requests are only blocked while
+	 * individual batches are transferred.
+	 * 
+	 * @param cacheStrategy The new cache strategy
+	 * @param cacheSize The new cache size
+	 * @return <code>true</code> if the cache was reconfigured, <code>false</code>
+	 *         if the new configuration is invalid or cannot be applied at runtime
+	 */
+	public boolean reconfigureCache(String cacheStrategy, int cacheSize) {
+		cacheReconfigurationLock.lock();
+		try {
+			KVCache oldCache = cache;
+			if (oldCache == null) {
+				log.warn("Cannot add a cache at runtime to a server started without one");
+				return false;
+			}
+
+			KVCache newCache = chooseCache(cacheStrategy, cacheSize);
+			if (newCache == null) {
+				log.warn("Cannot change cache to strategy=" + cacheStrategy + ", cacheSize=" + cacheSize);
+				return false;
+			}
+			if (writeBackBuffer != null && cacheSize <= 0) {
+				log.warn("Write-back mode requires a non-empty cache; keeping the current cache");
+				return false;
+			}
+
+			log.info("Reconfiguring cache from "
+					+ "strategy=" + oldCache.getCacheStrategy() + ", cacheSize=" + oldCache.getCacheSize() + " to "
+					+ "strategy=" + newCache.getCacheStrategy() + ", cacheSize=" + cacheSize);
+
+			// the warmer would otherwise keep populating the old cache
+			Optional.ofNullable(cacheWarmer).ifPresent(CacheWarmer::cancel);
+
+			if (newCache.getCacheStrategy() == oldCache.getCacheStrategy()) {
+				lock.lock();
+				try {
+					oldCache.setCacheSize(cacheSize);
+				} finally {
+					lock.unlock();
+				}
+
+			} else {
+				Optional.ofNullable(writeBackBuffer).ifPresent(newCache::addEvictionListener);
+				Optional.ofNullable(diskCache).ifPresent(newCache::addEvictionListener);
+				lock.lock();
+				try {
+					nextCache = newCache;
+				} finally {
+					lock.unlock();
+				}
+
+				// only the hottest entries which fit in the new cache are transferred
+				List<Map.Entry<String, Integer>> entries = new ArrayList<>(oldCache.getPolicyState().entrySet());
+				entries = entries.subList(Math.max(0, entries.size() - cacheSize), entries.size());
+
+				for (int i = 0; i < entries.size(); i += CACHE_TRANSFER_BATCH_SIZE) {
+					lock.lock();
+					try {
+						for (Map.Entry<String, Integer> entry : entries.subList(i,
+								Math.min(i + CACHE_TRANSFER_BATCH_SIZE, entries.size()))) {
+							// entries written since the transfer began are already up to date
+							String value = oldCache.peek(entry.getKey());
+							if (value != null && !newCache.containsKey(entry.getKey())) {
+								newCache.warm(entry.getKey(), value, entry.getValue());
+							}
+						}
+					} finally {
+						lock.unlock();
+					}
+				}
+
+				lock.lock();
+				try {
+					// dirty entries which were not transferred must not be lost with the old cache
+					Optional.ofNullable(writeBackBuffer).ifPresent(WriteBackBuffer::flush);
+					cache = newCache;
+					nextCache = null;
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			lock.lock();
+			try {
+				metrics.unregisterAll("cache.mrc.");
+				missRatioCurveEstimator = setupCacheStatistics();
+			} finally {
+				lock.unlock();
+			}
+			updateHeapPressureControl(cacheSize);
+
+			log.info("Cache reconfiguration complete");
+			return true;
+		} finally {
+			cacheReconfigurationLock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized void clearCache() {
-		Optional.ofNullable(cache)
-				.ifPresent(KVCache::clear);
+	public void clearCache() {
+		lock.lock();
+		try {
+			Optional.ofNullable(cacheWarmer).ifPresent(CacheWarmer::cancel);
+			Optional.ofNullable(negativeCache).ifPresent(NegativeCache::clear);
+			Optional.ofNullable(responseCache).ifPresent(ResponseCache::clear);
+			Optional.ofNullable(diskCache).ifPresent(DiskCache::clear);
+			// dirty entries must not be lost along with the cache
+			Optional.ofNullable(writeBackBuffer).ifPresent(WriteBackBuffer::flush);
+			Optional.ofNullable(cache)
+					.ifPresent(KVCache::clear);
+			Optional.ofNullable(nextCache)
+					.ifPresent(KVCache::clear);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized void clearStorage() {
-		persistence.clear();
+	public void clearStorage() {
+		lock.lock();
+		try {
+			Optional.ofNullable(cacheWarmer).ifPresent(CacheWarmer::cancel);
+			Optional.ofNullable(writeBackBuffer).ifPresent(WriteBackBuffer::discardAll);
+			Optional.ofNullable(responseCache).ifPresent(ResponseCache::clear);
+			Optional.ofNullable(diskCache).ifPresent(DiskCache::clear);
+			persistence.clear();
+			Optional.ofNullable(streamStore).ifPresent(StreamStore::clear);
+			invalidationNotifier.publish(null, keyVersions.incrementAll());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
@@ -516,6 +1604,9 @@ public class KVServer implements IKVServer, Runnable {
 		log.info("Locking server " + name + " for writes");
 		isWriteLocked = true;
 		status = status == ServerStatus.STOPPED ? status : ServerStatus.WRITE_LOCKED;
+
+		// no further writes are accepted, so the persistence can be brought up to date
+		Optional.ofNullable(writeBackBuffer).ifPresent(WriteBackBuffer::flush);
 	}
 
 	@Override
@@ -547,23 +1638,31 @@ public class KVServer implements IKVServer, Runnable {
 			return false;
 		}
 
+		// ensure that the migrated data includes writes still held in the cache
+		Optional.ofNullable(writeBackBuffer).ifPresent(WriteBackBuffer::flush);
+
 		try (KVPersistenceChunkator it = persistence.chunkator()) {
 
 			while (it.hasNextChunk()) {
 				Map<String, String> kvPairs = it
 						.nextChunk(key -> HashUtil.containsHash(HashUtil.toMD5(key), hashRange));
+				sendMigrationMessage(targetNode, new MigrationMessage(kvPairs));
+			}
 
-				// Prepare message
-				MigrationMessage message = new MigrationMessage(kvPairs);
-				String data = message.toJSON();
-
-				// Send message via znode
-				zkSession.updateNode(targetNode, data);
-
-				// Busy-wait for target to consume
-				String response = zkSession.getNodeData(targetNode);
-				while (response != null && !response.isEmpty()) {
-					response = zkSession.getNodeData(targetNode);
+			// streamed values are kept apart from the persistence, and are sent chunk by chunk
+			if (streamStore != null) {
+				for (String keyHash : streamStore.getKeyHashes(hashRange)) {
+					try (Reader value = streamStore.openHash(keyHash)) {
+						if (value == null) continue;
+
+						ValueChunker chunker = new ValueChunker(value);
+						String chunk = chunker.nextChunk();
+						while (chunk != null) {
+							String nextChunk = chunker.nextChunk();
+							sendMigrationMessage(targetNode, new MigrationMessage(keyHash, chunk, nextChunk == null));
+							chunk = nextChunk;
+						}
+					}
 				}
 			}
 
@@ -578,6 +1677,10 @@ public class KVServer implements IKVServer, Runnable {
 
 			// Remove sent data from own persistence
 			persistence.clearRange(hashRange);
+			Optional.ofNullable(streamStore).ifPresent(ss -> ss.clearRange(hashRange));
+			Optional.ofNullable(responseCache).ifPresent(ResponseCache::clear);
+			Optional.ofNullable(diskCache).ifPresent(DiskCache::clear);
+			invalidationNotifier.publish(null, keyVersions.incrementAll());
 			log.info("Data transfer completed. Deleted from self.");
 
 		} catch (KeeperException | InterruptedException e) {
@@ -592,6 +1695,28 @@ public class KVServer implements IKVServer, Runnable {
 		return true;
 	}
 
+	/**
+	 * Sends a message to the target of a data transfer via the transfer znode,
+	 * and waits for the target to consume it.
+	 * 
+	 * @param targetNode The path of the transfer znode
+	 * @param message The message to send
+	 * @throws KeeperException If a ZooKeeper error occurs
+	 * @throws InterruptedException If interrupted while communicating with
+	 *             ZooKeeper
+	 */
+	private void sendMigrationMessage(String targetNode, MigrationMessage message)
+			throws KeeperException, InterruptedException {
+		// Send message via znode
+		zkSession.updateNode(targetNode, message.toJSON());
+
+		// Busy-wait for target to consume
+		String response = zkSession.getNodeData(targetNode);
+		while (response != null && !response.isEmpty()) {
+			response = zkSession.getNodeData(targetNode);
+		}
+	}
+
 	/**
 	 * Returns the most recent metadata for this server.
 	 * 
@@ -610,13 +1735,26 @@ public class KVServer implements IKVServer, Runnable {
 		return this.serviceConfig;
 	}
 
+	/**
+	 * Retrieves the version of the most recent metadata for the entire service,
+	 * which is the version of the central metadata znode it was read from. Should
+	 * be read before the metadata itself, which is then at least as recent.
+	 * 
+	 * @return The service metadata version
+	 */
+	public long getServiceConfigVersion() {
+		return this.serviceConfigVersion;
+	}
+
 	/**
 	 * Updates this server's cached service metadata with the given information.
 	 * 
 	 * @param nodes The updated node metadata for participating servers
+	 * @param version The version of the central metadata znode holding the
+	 *            metadata
 	 */
-	public void setServiceConfig(Collection<IECSNode> nodes) {
-		log.debug("Updating service configuration for server " + name);
+	public void setServiceConfig(Collection<IECSNode> nodes, long version) {
+		log.debug("Updating service configuration for server " + name + " to version " + version);
 
 		this.serviceConfig = new KVServiceTopology(nodes);
 		IECSNode newConfig = this.serviceConfig.getNodeOfName(name);
@@ -626,6 +1764,9 @@ public class KVServer implements IKVServer, Runnable {
 		} else {
 			log.debug("Server " + name + " no longer exists in the topology");
 		}
+
+		// published after the metadata, so that readers of the version see metadata at least as recent
+		this.serviceConfigVersion = version;
 	}
 
 }
@@ -0,0 +1,64 @@
+package app_kvServer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes tasks on a fixed number of threads, such that tasks submitted for
+ * the same key are executed one at a time in the order they were submitted,
+ * while tasks for different keys may run concurrently and complete in any
+ * order. Used to serve pipelined requests out of order without reordering
+ * operations on the same key.
+ * <p>
+ * Each key is assigned to a single-threaded stripe by its hash. Tasks with a
+ * <code>null</code> key are all assigned to the same stripe.
+ */
+public class KeyOrderedExecutor {
+
+	private final ExecutorService[] stripes;
+
+	/**
+	 * Creates an executor with the given number of threads, which are daemon
+	 * threads named with the given prefix.
+	 *
+	 * @param threads The number of threads, which is also the number of stripes
+	 * @param namePrefix The thread name prefix
+	 * @throws IllegalArgumentException If the number of threads is not positive
+	 */
+	public KeyOrderedExecutor(int threads, String namePrefix) throws IllegalArgumentException {
+		if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive");
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.stripes = new ExecutorService[threads];
+		for (int i = 0; i < threads; i++) {
+			stripes[i] = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, namePrefix + threadCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Schedules the given task after all tasks previously submitted for the same
+	 * key.
+	 *
+	 * @param key The key which the task operates on, or <code>null</code>
+	 * @param task The task to execute
+	 */
+	public void execute(String key, Runnable task) {
+		int hash = key != null ? key.hashCode() : 0;
+		stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)].execute(task);
+	}
+
+	/**
+	 * Stops accepting tasks. Tasks already submitted are still executed.
+	 */
+	public void shutdown() {
+		for (ExecutorService stripe : stripes) {
+			stripe.shutdown();
+		}
+	}
+
+}
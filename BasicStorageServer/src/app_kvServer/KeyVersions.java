@@ -0,0 +1,75 @@
+package app_kvServer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Assigns version stamps to keys, which increase whenever a key is written.
+ * Rather than tracking every key, keys are hashed into a fixed number of
+ * stripes which share a version, so writing a key also advances the version of
+ * the other keys in its stripe. This can only cause clients to discard cached
+ * values unnecessarily, never to keep stale ones.
+ * <p>
+ * Versions are drawn from a clock initialized from the current time, so that
+ * versions issued after a restart are greater than those issued before.
+ */
+public class KeyVersions {
+
+	/** The number of stripes, which must be a power of 2. */
+	private static final int STRIPES = 4096;
+
+	private final AtomicLong clock;
+	private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+	/**
+	 * Creates a set of key versions, all initialized to the current time.
+	 */
+	public KeyVersions() {
+		long initialVersion = System.currentTimeMillis() * 1000;
+		this.clock = new AtomicLong(initialVersion);
+		for (int i = 0; i < STRIPES; i++) {
+			versions.set(i, initialVersion);
+		}
+	}
+
+	/**
+	 * Returns the current version of the given key.
+	 *
+	 * @param key The key
+	 * @return The version
+	 */
+	public long get(String key) {
+		return versions.get(stripe(key));
+	}
+
+	/**
+	 * Advances the version of the given key, which is being written.
+	 *
+	 * @param key The key being written
+	 * @return The new version
+	 */
+	public long increment(String key) {
+		long version = clock.incrementAndGet();
+		versions.set(stripe(key), version);
+		return version;
+	}
+
+	/**
+	 * Advances the versions of all keys.
+	 *
+	 * @return The new version
+	 */
+	public long incrementAll() {
+		long version = clock.incrementAndGet();
+		for (int i = 0; i < STRIPES; i++) {
+			versions.set(i, version);
+		}
+		return version;
+	}
+
+	private static int stripe(String key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+}
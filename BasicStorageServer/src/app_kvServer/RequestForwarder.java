@@ -0,0 +1,113 @@
+package app_kvServer;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import client.ConnectionPool;
+import client.PooledConnection;
+import common.messages.BasicKVMessage;
+import common.messages.ForwardedKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import ecs.IECSNode;
+
+/**
+ * Forwards requests for keys which this server is not responsible for to the
+ * responsible server, when proxy mode is enabled (see
+ * {@link ServerOptions#PROXY}), and relays the responses back along with the
+ * responsible server. Clients with stale metadata, such as while the service is
+ * being rebalanced, are then spared the round trips of being redirected.
+ * Requests are forwarded in the binary format over pooled connections which
+ * are kept open between requests. This class is thread-safe.
+ */
+public class RequestForwarder {
+
+	private static final Logger log = Logger.getLogger(RequestForwarder.class);
+
+	/** The time in milliseconds after which an idle connection to another server is closed. */
+	private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+	private final ConnectionPool pool;
+
+	/**
+	 * Creates a forwarder. No connections are opened until requests are
+	 * forwarded.
+	 * 
+	 * @param maxConnectionsPerServer The maximum number of connections to each
+	 *            other server
+	 * @throws IllegalArgumentException If the maximum is not positive
+	 */
+	public RequestForwarder(int maxConnectionsPerServer) throws IllegalArgumentException {
+		this.pool = new ConnectionPool(maxConnectionsPerServer, IDLE_TIMEOUT, true);
+	}
+
+	/**
+	 * Checks whether the given request may be forwarded. Only <code>get</code>
+	 * and <code>put</code> requests are forwarded, since batches may span several
+	 * servers and streamed values span several messages. Requests which were
+	 * already forwarded by another server are never forwarded again, so that
+	 * servers with conflicting metadata cannot pass a request back and forth.
+	 * 
+	 * @param request The request
+	 * @return <code>true</code> if the request may be forwarded,
+	 *         <code>false</code> otherwise
+	 */
+	public static boolean isForwardable(KVMessage request) {
+		return (request.getStatus() == StatusType.GET || request.getStatus() == StatusType.PUT)
+				&& !ForwardedKVMessage.isForwarded(request);
+	}
+
+	/**
+	 * Forwards a request to the given server and waits for its response.
+	 * 
+	 * @param request The request, which must be forwardable
+	 * @param responsibleServer The server responsible for the key of the request
+	 * @return The response tagged with the id of the request, which carries the
+	 *         responsible server unless that server also redirected the request,
+	 *         or <code>null</code> if the server could not be reached
+	 * @see #isForwardable(KVMessage)
+	 */
+	public KVMessage forward(KVMessage request, IECSNode responsibleServer) {
+		// pooled connections are not pipelined, so the request id of the client is not needed
+		KVMessage forwarded = new ForwardedKVMessage(BasicKVMessage.withRequestId(request, 0), responsibleServer);
+		String serverKey = responsibleServer.getNodeName();
+
+		while (true) {
+			PooledConnection connection;
+			try {
+				connection = pool.borrow(serverKey, responsibleServer.getNodeSocketAddress());
+			} catch (IOException e) {
+				log.warn("Could not connect to server " + serverKey + " to forward request", e);
+				return null;
+			}
+
+			boolean reused = connection.hasBeenUsed();
+			KVMessage response;
+			try {
+				response = connection.exchange(forwarded);
+				pool.release(connection);
+			} catch (IOException e) {
+				pool.invalidate(connection);
+				if (!reused) {
+					log.warn("Could not forward request to server " + serverKey, e);
+					return null;
+				}
+				log.warn("Reused connection to server " + serverKey + " failed; retrying", e);
+				continue;
+			}
+
+			KVMessage relayed = BasicKVMessage.withRequestId(response, request.getRequestId());
+			if (response.getStatus() == StatusType.SERVER_NOT_RESPONSIBLE) return relayed;
+			return new ForwardedKVMessage(relayed, responsibleServer);
+		}
+	}
+
+	/**
+	 * Closes the connections to the other servers.
+	 */
+	public void close() {
+		pool.close();
+	}
+
+}
@@ -0,0 +1,317 @@
+package app_kvServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.KVServer.ServerStatus;
+import app_kvServer.cache.ResponseCache;
+import common.HashUtil;
+import common.messages.BasicKVMessage;
+import common.messages.BatchKVMessage;
+import common.messages.BinaryKVMessageCodec;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.MetadataUpdateMessage;
+import common.messages.ProtocolHandshake;
+import common.messages.ServiceMetadataMessage;
+import ecs.IECSNode;
+
+/**
+ * Serves client requests on behalf of a server, producing encoded responses
+ * which are ready to be transmitted. Used by every kind of client session, so
+ * that requests are handled in the same way however the connection is served.
+ * This class is thread-safe.
+ */
+public class RequestHandler {
+
+	private static final Logger log = Logger.getLogger(RequestHandler.class);
+
+	private final KVServer server;
+	private final StreamRequestHandler streamRequestHandler;
+
+	/**
+	 * Creates a request handler for the given server.
+	 * 
+	 * @param server The server whose data is accessed
+	 */
+	public RequestHandler(KVServer server) {
+		this.server = server;
+		this.streamRequestHandler = new StreamRequestHandler(server);
+	}
+
+	/**
+	 * Serves the given request and encodes the response with the codec of the
+	 * session on which the request was received. The response carries the id of
+	 * the request.
+	 * 
+	 * @param request The request to serve
+	 * @param session The session on which the request was received
+	 * @return The encoded response, or <code>null</code> if the request could not
+	 *         be served
+	 */
+	public byte[] handle(KVMessage request, ClientSession session) {
+		KVMessageCodec codec = session.getCodec();
+
+		// chunks of a streamed value are not answered
+		if (request.getStatus() == StatusType.STREAM_CHUNK) {
+			streamRequestHandler.append(request, session);
+			return null;
+		}
+
+		byte[] cachedResponse = getCachedResponse(request, codec);
+		if (cachedResponse != null) return cachedResponse;
+
+		// must be obtained before the value is read; see ResponseCache
+		long cacheVersion = Optional.ofNullable(server.getResponseCache())
+				.filter(rc -> request.getKey() != null)
+				.map(rc -> rc.getVersion(request.getKey()))
+				.orElse(0L);
+
+		KVMessage response = createResponse(request, session);
+		if (response == null) {
+			log.error("Could not create response to request " + request);
+			return null;
+		}
+
+		byte[] responseBytes = codec.encode(response);
+		// relayed responses are not cached, since this server is not responsible for their keys
+		ResponseCache responseCache = server.getResponseCache();
+		if (responseCache != null
+				&& response.getStatus() == StatusType.GET_SUCCESS && response.getResponsibleServer() == null) {
+			// cached responses are held in the uncompressed binary format, untagged
+			byte[] binary = codec == ProtocolHandshake.BINARY_CODEC
+					? responseBytes
+					: ProtocolHandshake.BINARY_CODEC.encode(response);
+			responseCache.put(request.getKey(), BinaryKVMessageCodec.withRequestId(binary, 0), cacheVersion);
+		}
+		return responseBytes;
+	}
+
+	/**
+	 * Looks up a previously encoded response to the given request, and encodes it
+	 * for the session, tagged with the request id. Responses are cached in the
+	 * uncompressed binary format, so for sessions using another format, the
+	 * cached response is decoded and encoded again, which still avoids reading
+	 * the value. Only GET requests for keys which this server is currently
+	 * serving and responsible for are answered from the response cache.
+	 * 
+	 * @param request The request to respond to
+	 * @param codec The codec of the session
+	 * @return The encoded response, or <code>null</code> if none is cached
+	 */
+	private byte[] getCachedResponse(KVMessage request, KVMessageCodec codec) {
+		ResponseCache responseCache = server.getResponseCache();
+		if (responseCache == null || request.getStatus() != StatusType.GET || request.getKey() == null) {
+			return null;
+		}
+
+		byte[] response = responseCache.get(request.getKey());
+		if (response == null
+				|| server.getStatus() == ServerStatus.STOPPED
+				|| !server.getServerConfig().containsHash(HashUtil.toMD5(request.getKey()))) {
+			return null;
+		}
+
+		response = BinaryKVMessageCodec.withRequestId(response, request.getRequestId());
+		if (codec == ProtocolHandshake.BINARY_CODEC) return response;
+
+		try {
+			return codec.encode(ProtocolHandshake.BINARY_CODEC.decode(ByteBuffer.wrap(response), response.length));
+		} catch (IOException e) {
+			log.warn("Could not decode cached response for key '" + request.getKey() + "'", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Serves the given request.
+	 * 
+	 * @param request The request to serve
+	 * @param session The session on which the request was received
+	 * @return The response, or <code>null</code> if the request type is not
+	 *         supported
+	 */
+	private KVMessage createResponse(KVMessage request, ClientSession session) {
+		String outKey = request.getKey();
+		String outValue = null;
+		StatusType outStatus = null;
+		long outVersion = 0;
+		int requestId = request.getRequestId();
+
+		ServerStatus serverStatus = server.getStatus();
+
+		if (request.getStatus() == StatusType.SUBSCRIBE) {
+			server.getInvalidationNotifier().subscribe(session);
+			return new BasicKVMessage(null, null, StatusType.SUBSCRIBE, 0, requestId);
+		}
+
+		// the version is read first, so that the metadata sent is at least as recent
+		if (request.getStatus() == StatusType.GET_METADATA) {
+			long metadataVersion = server.getServiceConfigVersion();
+			return new ServiceMetadataMessage(server.getServiceConfig().getNodeSet(), metadataVersion, requestId);
+		}
+
+		// a streamed value which was accepted is completed regardless of later changes to the server
+		if (request.getStatus() == StatusType.STREAM_END) {
+			return streamRequestHandler.endPut(request, session);
+		}
+
+		if (serverStatus == ServerStatus.STOPPED) {
+			return new BasicKVMessage(null, null, StatusType.SERVER_STOPPED, 0, requestId);
+		}
+
+		if (request.getStatus() == StatusType.MULTI_GET || request.getStatus() == StatusType.MULTI_PUT) {
+			return createBatchResponse(request, serverStatus);
+		}
+
+		// Check if server is responsible for this key
+		String keyHash = HashUtil.toMD5(outKey);
+		if (!server.getServerConfig().containsHash(keyHash)) {
+
+			// Send metadata update message containing info for the server that is
+			// responsible for this key
+			IECSNode correctServer = server.getServiceConfig().findResponsibleServer(keyHash);
+
+			// in proxy mode, the request is served on behalf of the client where possible
+			RequestForwarder requestForwarder = server.getRequestForwarder();
+			if (requestForwarder != null && RequestForwarder.isForwardable(request) && correctServer != null
+					&& !correctServer.getNodeName().equals(server.getServerConfig().getNodeName())) {
+				KVMessage response = requestForwarder.forward(request, correctServer);
+				if (response != null) return response;
+			}
+
+			MetadataUpdateMessage metadataUpdateMessage = new MetadataUpdateMessage(correctServer, requestId,
+					server.getServiceConfigVersion());
+			log.info("Sending metadata response: " + metadataUpdateMessage);
+			return metadataUpdateMessage;
+		}
+
+		switch (request.getStatus()) {
+		case GET:
+			try {
+				// read before the value, so that a concurrent write cannot give an old value a new version
+				long version = server.getVersion(request.getKey());
+				outValue = server.getKV(request.getKey());
+				if (outValue != null) {
+					outVersion = version;
+					outStatus = StatusType.GET_SUCCESS;
+					log.info("get success: " + request.getKey() + ":" + outValue);
+				} else {
+					outStatus = StatusType.GET_ERROR;
+					log.warn("result of get is null; reporting error");
+				}
+
+			} catch (Exception e) {
+				outStatus = StatusType.GET_ERROR;
+				log.error("error while retrieving get result", e);
+			}
+			break;
+
+		case PUT:
+			if (serverStatus == ServerStatus.WRITE_LOCKED) {
+				return new BasicKVMessage(null, null, StatusType.SERVER_WRITE_LOCK, 0, requestId);
+			}
+
+			boolean keyExists = server.inCache(request.getKey()) || server.inStorage(request.getKey());
+			boolean valueEmpty = request.getValue() == null || request.getValue().isEmpty();
+			outValue = request.getValue();
+			try {
+				server.putKV(request.getKey(), request.getValue());
+				outVersion = server.getVersion(request.getKey());
+				if (keyExists && valueEmpty) {
+					outStatus = StatusType.DELETE_SUCCESS;
+				} else if (!keyExists && valueEmpty) {
+					outStatus = StatusType.DELETE_ERROR;
+				} else if (keyExists && !valueEmpty) {
+					outStatus = StatusType.PUT_UPDATE;
+				} else if (!keyExists && !valueEmpty) {
+					outStatus = StatusType.PUT_SUCCESS;
+				}
+
+			} catch (Exception e) {
+				if (valueEmpty) {
+					outStatus = StatusType.DELETE_ERROR;
+				} else {
+					outStatus = StatusType.PUT_ERROR;
+				}
+				log.error("error while retrieving put result", e);
+			}
+			break;
+
+		case PUT_STREAM:
+			if (serverStatus == ServerStatus.WRITE_LOCKED) {
+				return new BasicKVMessage(null, null, StatusType.SERVER_WRITE_LOCK, 0, requestId);
+			}
+			return streamRequestHandler.beginPut(request, session);
+
+		case GET_STREAM:
+			return streamRequestHandler.get(request, session);
+
+		default:
+			return null;
+		}
+
+		return new BasicKVMessage(outKey, outValue, outStatus, outVersion, requestId);
+	}
+
+	/**
+	 * Serves the given batch request. The batch is only served if this server is
+	 * responsible for every key in it; otherwise, the client is sent the server
+	 * responsible for the first key which is out of range, and is expected to
+	 * split the batch again.
+	 * 
+	 * @param request The batch request to serve
+	 * @param serverStatus The status of the server
+	 * @return The response
+	 */
+	private KVMessage createBatchResponse(KVMessage request, ServerStatus serverStatus) {
+		Map<String, String> entries = Optional.ofNullable(request.getEntries()).orElse(Collections.emptyMap());
+		int requestId = request.getRequestId();
+
+		for (String key : entries.keySet()) {
+			String keyHash = HashUtil.toMD5(key);
+			if (!server.getServerConfig().containsHash(keyHash)) {
+				IECSNode correctServer = server.getServiceConfig().findResponsibleServer(keyHash);
+				MetadataUpdateMessage metadataUpdateMessage = new MetadataUpdateMessage(correctServer, requestId,
+						server.getServiceConfigVersion());
+				log.info("Sending metadata response for batch: " + metadataUpdateMessage);
+				return metadataUpdateMessage;
+			}
+		}
+
+		if (request.getStatus() == StatusType.MULTI_GET) {
+			Map<String, String> values = server.getAllKV(entries.keySet());
+			log.info("multi-get success: " + values.size() + " of " + entries.size() + " keys found");
+			return new BatchKVMessage(StatusType.MULTI_GET_SUCCESS, values, requestId);
+		}
+
+		if (serverStatus == ServerStatus.WRITE_LOCKED) {
+			return new BasicKVMessage(null, null, StatusType.SERVER_WRITE_LOCK, 0, requestId);
+		}
+
+		StatusType outStatus;
+		try {
+			outStatus = server.putAllKV(entries) ? StatusType.MULTI_PUT_SUCCESS : StatusType.MULTI_PUT_ERROR;
+		} catch (Exception e) {
+			outStatus = StatusType.MULTI_PUT_ERROR;
+			log.error("error while writing batch", e);
+		}
+		return new BasicKVMessage(null, null, outStatus, 0, requestId);
+	}
+
+	/**
+	 * Releases any state held for a session which has closed.
+	 * 
+	 * @param session The closed session
+	 */
+	public void sessionClosed(ClientSession session) {
+		streamRequestHandler.sessionClosed(session);
+	}
+
+}
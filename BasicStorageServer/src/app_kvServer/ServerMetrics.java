@@ -0,0 +1,69 @@
+package app_kvServer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+
+/**
+ * A registry of named numeric metrics describing the internal state of a
+ * server. Metrics are registered as suppliers, so that their values are only
+ * computed when a snapshot is taken. Snapshots are periodically published to
+ * the server's metrics znode, from which they can be read by the ECS.
+ */
+public class ServerMetrics {
+
+	private final Map<String, Supplier<? extends Number>> metrics = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Registers a metric under the given name, replacing any metric previously
+	 * registered under the same name.
+	 *
+	 * @param name The name of the metric
+	 * @param supplier The function providing the current value of the metric
+	 */
+	public void register(String name, Supplier<? extends Number> supplier) {
+		metrics.put(name, supplier);
+	}
+
+	/**
+	 * Removes the metric with the given name, if it exists.
+	 *
+	 * @param name The name of the metric
+	 */
+	public void unregister(String name) {
+		metrics.remove(name);
+	}
+
+	/**
+	 * Removes all metrics whose names begin with the given prefix.
+	 *
+	 * @param prefix The prefix of the names of the metrics to remove
+	 */
+	public void unregisterAll(String prefix) {
+		metrics.keySet().removeIf(name -> name.startsWith(prefix));
+	}
+
+	/**
+	 * Computes the current values of all registered metrics.
+	 *
+	 * @return A map of metric names to values, sorted by name
+	 */
+	public Map<String, Number> snapshot() {
+		Map<String, Number> values = new LinkedHashMap<>();
+		metrics.forEach((name, supplier) -> values.put(name, supplier.get()));
+		return values;
+	}
+
+	/**
+	 * Serializes a snapshot of all registered metrics as a JSON object.
+	 *
+	 * @return The JSON representation of the current metric values
+	 */
+	public String toJSON() {
+		return new Gson().toJson(snapshot());
+	}
+
+}
@@ -0,0 +1,509 @@
+package app_kvServer;
+
+import java.util.Properties;
+
+import app_kvECS.SshServerInitializer;
+import common.messages.Compression;
+
+/**
+ * Provides access to optional server features. Options are read from Java
+ * system properties whose names begin with "<code>kvserver.</code>". Options
+ * set on the ECS process are forwarded to servers started by
+ * {@link SshServerInitializer}, so that they need only be specified once.
+ */
+public final class ServerOptions {
+
+	/** The prefix shared by the names of all server options. */
+	public static final String PROPERTY_PREFIX = "kvserver.";
+
+	/** Whether the cache operates in write-back mode. Defaults to <code>false</code>. */
+	public static final String WRITE_BACK = PROPERTY_PREFIX + "cache.writeBack";
+
+	/**
+	 * The maximum time in milliseconds that a dirty cache entry can remain
+	 * unflushed in write-back mode. Defaults to 1000.
+	 */
+	public static final String WRITE_BACK_INTERVAL = PROPERTY_PREFIX + "cache.writeBackInterval";
+
+	/**
+	 * The number of dirty cache entries which triggers a flush before the flush
+	 * interval elapses in write-back mode. Defaults to 256.
+	 */
+	public static final String WRITE_BACK_BATCH_SIZE = PROPERTY_PREFIX + "cache.writeBackBatchSize";
+
+	/**
+	 * The interval in milliseconds at which a manifest of the cached keys is
+	 * written to disk, for warming the cache on restart. A value of 0 disables the
+	 * manifest. Defaults to 60000.
+	 */
+	public static final String CACHE_MANIFEST_INTERVAL = PROPERTY_PREFIX + "cache.manifestInterval";
+
+	/**
+	 * The maximum number of keys known to be absent from the persistence which
+	 * are remembered, so that repeated lookups of nonexistent keys do not read the
+	 * persistence. A value of 0 disables the negative cache. Defaults to 1024.
+	 */
+	public static final String NEGATIVE_CACHE_SIZE = PROPERTY_PREFIX + "cache.negativeSize";
+
+	/**
+	 * The fraction of keys sampled to estimate the hit ratio of the cache at other
+	 * sizes and replacement strategies. A value of 0 disables estimation. Defaults
+	 * to 0.1.
+	 */
+	public static final String MRC_SAMPLE_RATE = PROPERTY_PREFIX + "cache.mrcSampleRate";
+
+	/**
+	 * The maximum total size in bytes of the encoded GET responses cached for hot
+	 * keys. A value of 0 disables the response cache. Defaults to 4194304 (4 MiB).
+	 */
+	public static final String RESPONSE_CACHE_SIZE = PROPERTY_PREFIX + "cache.responseBytes";
+
+	/**
+	 * Whether the cache size is adjusted according to heap pressure. Defaults to
+	 * <code>false</code>.
+	 */
+	public static final String HEAP_CONTROL = PROPERTY_PREFIX + "cache.heapControl";
+
+	/**
+	 * The smallest size to which the cache is shrunk under heap pressure. Defaults
+	 * to a quarter of the configured cache size.
+	 */
+	public static final String CACHE_MIN_SIZE = PROPERTY_PREFIX + "cache.minSize";
+
+	/**
+	 * The largest size to which the cache is grown without heap pressure.
+	 * Defaults to four times the configured cache size.
+	 */
+	public static final String CACHE_MAX_SIZE = PROPERTY_PREFIX + "cache.maxSize";
+
+	/**
+	 * The fraction of the heap in use below which the cache is grown. Defaults to
+	 * 0.5.
+	 */
+	public static final String HEAP_LOW_WATERMARK = PROPERTY_PREFIX + "cache.heapLowWatermark";
+
+	/**
+	 * The fraction of the heap in use above which the cache is shrunk. Defaults to
+	 * 0.75.
+	 */
+	public static final String HEAP_HIGH_WATERMARK = PROPERTY_PREFIX + "cache.heapHighWatermark";
+
+	/**
+	 * The directory in which a second-level cache of entries evicted from the
+	 * memory cache is kept, which should be on a fast local disk. Each server uses
+	 * a subdirectory named after itself. If not set, the disk cache is disabled.
+	 */
+	public static final String DISK_CACHE_PATH = PROPERTY_PREFIX + "cache.diskPath";
+
+	/**
+	 * The maximum total size in bytes of the disk cache files. A value of 0
+	 * disables the disk cache. Defaults to 67108864 (64 MiB).
+	 */
+	public static final String DISK_CACHE_SIZE = PROPERTY_PREFIX + "cache.diskBytes";
+
+	/**
+	 * Whether the disk cache left by a previous run is reused on restart, rather
+	 * than discarded. Defaults to <code>false</code>.
+	 */
+	public static final String DISK_CACHE_RECOVER = PROPERTY_PREFIX + "cache.diskRecover";
+
+	/**
+	 * Whether client connections are served with non-blocking I/O by a small
+	 * number of threads, rather than by a thread per connection. Defaults to
+	 * <code>false</code>.
+	 */
+	public static final String NIO = PROPERTY_PREFIX + "nio";
+
+	/**
+	 * The number of threads performing non-blocking I/O. Defaults to half the
+	 * number of available processors, and at least 1.
+	 */
+	public static final String NIO_IO_THREADS = PROPERTY_PREFIX + "nio.ioThreads";
+
+	/**
+	 * The number of threads serving requests received with non-blocking I/O.
+	 * Defaults to the number of available processors.
+	 */
+	public static final String NIO_WORKER_THREADS = PROPERTY_PREFIX + "nio.workerThreads";
+
+	/**
+	 * Whether each client connection is served by a virtual thread rather than a
+	 * platform thread, when the JVM supports virtual threads. Has no effect if
+	 * {@link #NIO} is enabled. Defaults to <code>false</code>.
+	 */
+	public static final String VIRTUAL_THREADS = PROPERTY_PREFIX + "virtualThreads";
+
+	/**
+	 * Whether requests tagged with a request id may be completed out of order on
+	 * connections served by a thread per connection, rather than one at a time.
+	 * Requests for the same key are still completed in the order they were
+	 * received. Has no effect if {@link #NIO} is enabled. Defaults to
+	 * <code>false</code>.
+	 */
+	public static final String OUT_OF_ORDER = PROPERTY_PREFIX + "outOfOrder";
+
+	/**
+	 * The maximum number of requests on a single connection which are served
+	 * concurrently when requests are completed out of order. Further requests are
+	 * not read from the connection until one completes. Defaults to 64.
+	 */
+	public static final String MAX_IN_FLIGHT = PROPERTY_PREFIX + "maxInFlight";
+
+	/**
+	 * Whether clients using the binary format may negotiate compressed values.
+	 * Defaults to <code>true</code>.
+	 */
+	public static final String COMPRESSION = PROPERTY_PREFIX + "compression";
+
+	/**
+	 * The length in bytes below which values sent by the server are not
+	 * compressed. Defaults to 1024.
+	 */
+	public static final String COMPRESSION_THRESHOLD = PROPERTY_PREFIX + "compression.threshold";
+
+	/**
+	 * The path of a preset compression dictionary, which is used with clients
+	 * holding the same dictionary. Unset by default, disabling the dictionary.
+	 */
+	public static final String COMPRESSION_DICTIONARY = PROPERTY_PREFIX + "compression.dictionary";
+
+	/**
+	 * Whether <code>get</code> and <code>put</code> requests for keys this server
+	 * is not responsible for are forwarded to the responsible server, and its
+	 * response relayed to the client along with the updated metadata, rather than
+	 * the client being sent the metadata and left to retry. Defaults to
+	 * <code>false</code>.
+	 */
+	public static final String PROXY = PROPERTY_PREFIX + "proxy";
+
+	/**
+	 * The maximum number of connections kept to each other server for forwarding
+	 * requests when {@link #PROXY} is enabled. Defaults to 8.
+	 */
+	public static final String PROXY_CONNECTIONS = PROPERTY_PREFIX + "proxy.connections";
+
+	/**
+	 * Defeats instantiation.
+	 */
+	private ServerOptions() {}
+
+	/**
+	 * Checks whether the cache should operate in write-back mode.
+	 *
+	 * @return <code>true</code> if write-back mode is enabled,
+	 *         <code>false</code> otherwise
+	 * @see #WRITE_BACK
+	 */
+	public static boolean isWriteBackEnabled() {
+		return Boolean.getBoolean(WRITE_BACK);
+	}
+
+	/**
+	 * Returns the maximum time that a dirty cache entry can remain unflushed.
+	 *
+	 * @return The flush interval, in milliseconds
+	 * @see #WRITE_BACK_INTERVAL
+	 */
+	public static long getWriteBackInterval() {
+		return Long.getLong(WRITE_BACK_INTERVAL, 1000L);
+	}
+
+	/**
+	 * Returns the number of dirty cache entries which triggers an early flush.
+	 *
+	 * @return The flush batch size
+	 * @see #WRITE_BACK_BATCH_SIZE
+	 */
+	public static int getWriteBackBatchSize() {
+		return Integer.getInteger(WRITE_BACK_BATCH_SIZE, 256);
+	}
+
+	/**
+	 * Returns the interval at which the cache manifest is written.
+	 *
+	 * @return The manifest interval in milliseconds, or 0 if the manifest is
+	 *         disabled
+	 * @see #CACHE_MANIFEST_INTERVAL
+	 */
+	public static long getCacheManifestInterval() {
+		return Long.getLong(CACHE_MANIFEST_INTERVAL, 60000L);
+	}
+
+	/**
+	 * Returns the maximum number of absent keys remembered by the negative cache.
+	 *
+	 * @return The negative cache size, or 0 if the negative cache is disabled
+	 * @see #NEGATIVE_CACHE_SIZE
+	 */
+	public static int getNegativeCacheSize() {
+		return Integer.getInteger(NEGATIVE_CACHE_SIZE, 1024);
+	}
+
+	/**
+	 * Returns the fraction of keys sampled for miss ratio curve estimation.
+	 *
+	 * @return The sample rate, at most 1, or 0 if estimation is disabled
+	 * @see #MRC_SAMPLE_RATE
+	 */
+	public static double getMissRatioCurveSampleRate() {
+		return Math.min(1.0, getDouble(MRC_SAMPLE_RATE, 0.1, 0.0));
+	}
+
+	/**
+	 * Returns the maximum total size of the cached encoded GET responses.
+	 *
+	 * @return The response cache capacity in bytes, or 0 if the response cache is
+	 *         disabled
+	 * @see #RESPONSE_CACHE_SIZE
+	 */
+	public static long getResponseCacheSize() {
+		return Long.getLong(RESPONSE_CACHE_SIZE, 4L * 1024 * 1024);
+	}
+
+	/**
+	 * Checks whether the cache size should be adjusted according to heap
+	 * pressure.
+	 *
+	 * @return <code>true</code> if heap pressure control is enabled,
+	 *         <code>false</code> otherwise
+	 * @see #HEAP_CONTROL
+	 */
+	public static boolean isHeapControlEnabled() {
+		return Boolean.getBoolean(HEAP_CONTROL);
+	}
+
+	/**
+	 * Returns the smallest size to which the cache is shrunk under heap pressure.
+	 *
+	 * @param cacheSize The configured cache size
+	 * @return The minimum cache size, which is at least 1
+	 * @see #CACHE_MIN_SIZE
+	 */
+	public static int getCacheMinSize(int cacheSize) {
+		return Math.max(1, Integer.getInteger(CACHE_MIN_SIZE, cacheSize / 4));
+	}
+
+	/**
+	 * Returns the largest size to which the cache is grown without heap pressure.
+	 *
+	 * @param cacheSize The configured cache size
+	 * @return The maximum cache size, which is at least the minimum cache size
+	 * @see #CACHE_MAX_SIZE
+	 */
+	public static int getCacheMaxSize(int cacheSize) {
+		return Math.max(getCacheMinSize(cacheSize), Integer.getInteger(CACHE_MAX_SIZE, cacheSize * 4));
+	}
+
+	/**
+	 * Returns the fraction of the heap in use below which the cache is grown.
+	 *
+	 * @return The low watermark
+	 * @see #HEAP_LOW_WATERMARK
+	 */
+	public static double getHeapLowWatermark() {
+		return getDouble(HEAP_LOW_WATERMARK, 0.5, 0.5);
+	}
+
+	/**
+	 * Returns the fraction of the heap in use above which the cache is shrunk.
+	 *
+	 * @return The high watermark
+	 * @see #HEAP_HIGH_WATERMARK
+	 */
+	public static double getHeapHighWatermark() {
+		return getDouble(HEAP_HIGH_WATERMARK, 0.75, 0.75);
+	}
+
+	/**
+	 * Returns the directory in which the disk cache is kept.
+	 *
+	 * @return The disk cache path, or <code>null</code> if the disk cache is
+	 *         disabled
+	 * @see #DISK_CACHE_PATH
+	 */
+	public static String getDiskCachePath() {
+		return System.getProperty(DISK_CACHE_PATH);
+	}
+
+	/**
+	 * Returns the maximum total size of the disk cache files.
+	 *
+	 * @return The disk cache capacity in bytes, or 0 if the disk cache is
+	 *         disabled
+	 * @see #DISK_CACHE_SIZE
+	 */
+	public static long getDiskCacheSize() {
+		return Long.getLong(DISK_CACHE_SIZE, 64L * 1024 * 1024);
+	}
+
+	/**
+	 * Checks whether the disk cache left by a previous run should be reused.
+	 *
+	 * @return <code>true</code> if the disk cache is recovered on restart,
+	 *         <code>false</code> otherwise
+	 * @see #DISK_CACHE_RECOVER
+	 */
+	public static boolean isDiskCacheRecoveryEnabled() {
+		return Boolean.getBoolean(DISK_CACHE_RECOVER);
+	}
+
+	/**
+	 * Checks whether client connections should be served with non-blocking I/O.
+	 *
+	 * @return <code>true</code> if non-blocking I/O is enabled,
+	 *         <code>false</code> otherwise
+	 * @see #NIO
+	 */
+	public static boolean isNioEnabled() {
+		return Boolean.getBoolean(NIO);
+	}
+
+	/**
+	 * Returns the number of threads performing non-blocking I/O.
+	 *
+	 * @return The I/O thread count, which is at least 1
+	 * @see #NIO_IO_THREADS
+	 */
+	public static int getNioIoThreads() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Integer.getInteger(NIO_IO_THREADS, processors / 2));
+	}
+
+	/**
+	 * Returns the number of threads serving requests received with non-blocking
+	 * I/O.
+	 *
+	 * @return The worker thread count, which is at least 1
+	 * @see #NIO_WORKER_THREADS
+	 */
+	public static int getNioWorkerThreads() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Integer.getInteger(NIO_WORKER_THREADS, processors));
+	}
+
+	/**
+	 * Checks whether client connections should be served by virtual threads.
+	 *
+	 * @return <code>true</code> if virtual threads are requested,
+	 *         <code>false</code> otherwise
+	 * @see #VIRTUAL_THREADS
+	 */
+	public static boolean isVirtualThreadsEnabled() {
+		return Boolean.getBoolean(VIRTUAL_THREADS);
+	}
+
+	/**
+	 * Checks whether tagged requests may be completed out of order.
+	 *
+	 * @return <code>true</code> if out-of-order completion is enabled,
+	 *         <code>false</code> otherwise
+	 * @see #OUT_OF_ORDER
+	 */
+	public static boolean isOutOfOrderEnabled() {
+		return Boolean.getBoolean(OUT_OF_ORDER);
+	}
+
+	/**
+	 * Returns the maximum number of requests served concurrently on a single
+	 * connection.
+	 *
+	 * @return The maximum in-flight request count, which is at least 1
+	 * @see #MAX_IN_FLIGHT
+	 */
+	public static int getMaxInFlight() {
+		return Math.max(1, Integer.getInteger(MAX_IN_FLIGHT, 64));
+	}
+
+	/**
+	 * Checks whether clients may negotiate compressed values.
+	 *
+	 * @return <code>true</code> if compression is enabled,
+	 *         <code>false</code> otherwise
+	 * @see #COMPRESSION
+	 */
+	public static boolean isCompressionEnabled() {
+		return Boolean.parseBoolean(System.getProperty(COMPRESSION, "true"));
+	}
+
+	/**
+	 * Returns the length below which values sent by the server are not
+	 * compressed.
+	 *
+	 * @return The compression threshold in bytes, which is at least 0
+	 * @see #COMPRESSION_THRESHOLD
+	 */
+	public static int getCompressionThreshold() {
+		return Math.max(0, Integer.getInteger(COMPRESSION_THRESHOLD, Compression.DEFAULT_THRESHOLD));
+	}
+
+	/**
+	 * Returns the path of the preset compression dictionary.
+	 *
+	 * @return The dictionary path, or <code>null</code> if there is no dictionary
+	 * @see #COMPRESSION_DICTIONARY
+	 */
+	public static String getCompressionDictionaryPath() {
+		return System.getProperty(COMPRESSION_DICTIONARY);
+	}
+
+	/**
+	 * Checks whether requests for keys this server is not responsible for are
+	 * forwarded to the responsible server.
+	 *
+	 * @return <code>true</code> if proxy mode is enabled, <code>false</code>
+	 *         otherwise
+	 * @see #PROXY
+	 */
+	public static boolean isProxyEnabled() {
+		return Boolean.getBoolean(PROXY);
+	}
+
+	/**
+	 * Returns the maximum number of connections kept to each other server for
+	 * forwarding requests.
+	 *
+	 * @return The maximum number of connections, which is at least 1
+	 * @see #PROXY_CONNECTIONS
+	 */
+	public static int getProxyConnectionsPerServer() {
+		return Math.max(1, Integer.getInteger(PROXY_CONNECTIONS, 8));
+	}
+
+	/**
+	 * Reads an option with a floating-point value.
+	 *
+	 * @param name The name of the option
+	 * @param defaultValue The value to use if the option is not set
+	 * @param invalidValue The value to use if the option cannot be parsed
+	 * @return The value of the option
+	 */
+	private static double getDouble(String name, double defaultValue, double invalidValue) {
+		String value = System.getProperty(name);
+		if (value == null) return defaultValue;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return invalidValue;
+		}
+	}
+
+	/**
+	 * Formats all server options set on the current process as JVM arguments, for
+	 * use in the command line of a server process.
+	 *
+	 * @return A space-delimited string of <code>-Dname=value</code> arguments,
+	 *         which is empty if no options are set
+	 */
+	public static String toJvmArguments() {
+		StringBuilder args = new StringBuilder();
+		Properties properties = System.getProperties();
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(PROPERTY_PREFIX)) {
+				if (args.length() > 0) args.append(' ');
+				args.append("-D").append(name).append('=').append(properties.getProperty(name));
+			}
+		}
+		return args.toString();
+	}
+
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -13,6 +14,7 @@ import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
 
 import app_kvServer.migration.MigrationReceiveTask;
 import common.KVServiceTopology;
@@ -66,7 +68,8 @@ public class ServiceTopologyWatcher implements Watcher {
 		KVServiceTopology oldTopology = server.getServiceConfig();
 		Set<IECSNode> oldMetadata = oldTopology.getNodeSet();
 		log.trace("Old topology for server " + serverName + ": " + oldMetadata);
-		Set<IECSNode> newMetadata = retrieveAndWatchMetadata(); // next watcher set here
+		Stat stat = new Stat();
+		Set<IECSNode> newMetadata = retrieveAndWatchMetadata(stat); // next watcher set here
 		log.trace("New topology for server " + serverName + ": " + newMetadata);
 
 		// All servers have been removed, nowhere to move data to. Thus, shutdown
@@ -76,13 +79,21 @@ public class ServiceTopologyWatcher implements Watcher {
 			return;
 		}
 
-		server.setServiceConfig(newMetadata);
+		server.setServiceConfig(newMetadata, stat.getVersion());
 		KVServiceTopology newTopology = server.getServiceConfig();
 
 		TopologyChange change = new TopologyChange(oldMetadata, newMetadata);
 
 		if (change.delta == 0) {
-			log.warn("No topology change detected");
+			IECSNode newConfig = server.getServerConfig();
+			if (!Objects.equals(config.getCacheStrategy(), newConfig.getCacheStrategy())
+					|| config.getCacheSize() != newConfig.getCacheSize()) {
+				new Thread(() -> {
+					server.reconfigureCache(newConfig.getCacheStrategy(), newConfig.getCacheSize());
+				}).start();
+			} else {
+				log.warn("No topology change detected");
+			}
 
 		} else if (change.delta < 0) {
 			if (change.diffContains(config)) {
@@ -113,12 +124,13 @@ public class ServiceTopologyWatcher implements Watcher {
 	 * Retrieves updated information from the central metadata node and sets another
 	 * watch to handle the next update.
 	 * 
+	 * @param stat The stat to fill in with that of the central metadata node
 	 * @return The updated service metadata,
 	 *         or <code>null</code> if it could not be retrieved
 	 */
-	private Set<IECSNode> retrieveAndWatchMetadata() {
+	private Set<IECSNode> retrieveAndWatchMetadata(Stat stat) {
 		try {
-			return new HashSet<>(zkSession.getMetadataNodeData(this));
+			return new HashSet<>(zkSession.getMetadataNodeData(this, stat));
 		} catch (KeeperException | InterruptedException e) {
 			// TODO handle case where the next watcher has not been placed properly
 			log.error("Could not retrieve updated metadata", e);
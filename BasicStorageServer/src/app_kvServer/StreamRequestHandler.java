@@ -0,0 +1,254 @@
+package app_kvServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.persistence.StreamStore;
+import common.messages.BasicKVMessage;
+import common.messages.BinaryKVMessageCodec;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+import common.messages.ValueChunker;
+
+/**
+ * Serves requests for values which are streamed in chunks rather than sent in
+ * a single message, on behalf of a {@link RequestHandler}. Streamed values are
+ * kept in the server's {@link StreamStore}, apart from ordinary values.
+ * <p>
+ * A streaming put is acknowledged once the server has checked that it can
+ * accept the value. The client then sends the chunks of the value, which are
+ * not answered individually, followed by the end of the value, which is
+ * answered as an ordinary put would be. A streaming get is answered with the
+ * chunks of the value, followed by a final response.
+ * This class is thread-safe.
+ */
+class StreamRequestHandler {
+
+	private static final Logger log = Logger.getLogger(StreamRequestHandler.class);
+
+	/**
+	 * The maximum length in bytes of a chunk sent straight from a file. Keeps a
+	 * chunk well within the maximum frame length of the binary format.
+	 */
+	private static final int FILE_CHUNK_LENGTH = 128 * 1024;
+
+	private final KVServer server;
+
+	/** The value being received on each session, if any */
+	private final Map<ClientSession, StreamStore.Upload> uploads = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a handler for the streamed values of the given server.
+	 *
+	 * @param server The server whose data is accessed
+	 */
+	StreamRequestHandler(KVServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * Begins receiving a value on the given session, replacing any value which
+	 * was being received on it.
+	 *
+	 * @param request The <code>PUT_STREAM</code> request
+	 * @param session The session on which the request was received
+	 * @return The acknowledgement, or an error response if the value cannot be
+	 *         received
+	 */
+	KVMessage beginPut(KVMessage request, ClientSession session) {
+		StreamStore streamStore = server.getStreamStore();
+		if (streamStore == null) {
+			return new BasicKVMessage(request.getKey(), null, StatusType.PUT_ERROR, 0, request.getRequestId());
+		}
+
+		try {
+			StreamStore.Upload upload = streamStore.beginUpload(request.getKey());
+			StreamStore.Upload previous = uploads.put(session, upload);
+			if (previous != null) previous.close();
+		} catch (IOException e) {
+			log.error("Could not begin receiving streamed value", e);
+			return new BasicKVMessage(request.getKey(), null, StatusType.PUT_ERROR, 0, request.getRequestId());
+		}
+
+		log.info("Receiving streamed value for key '" + request.getKey() + "'");
+		return new BasicKVMessage(request.getKey(), null, StatusType.PUT_STREAM, 0, request.getRequestId());
+	}
+
+	/**
+	 * Appends a chunk to the value being received on the given session. Chunks
+	 * are not answered; if a chunk cannot be written, the value is abandoned and
+	 * the failure is reported when the end of the value is received.
+	 *
+	 * @param request The <code>STREAM_CHUNK</code> request
+	 * @param session The session on which the request was received
+	 */
+	void append(KVMessage request, ClientSession session) {
+		StreamStore.Upload upload = uploads.get(session);
+		if (upload == null) return;
+
+		try {
+			upload.append(request.getValue());
+		} catch (IOException e) {
+			log.error("Could not write chunk of streamed value; abandoning value", e);
+			uploads.remove(session, upload);
+			upload.close();
+		}
+	}
+
+	/**
+	 * Completes the value being received on the given session.
+	 *
+	 * @param request The <code>STREAM_END</code> request
+	 * @param session The session on which the request was received
+	 * @return The response, with the status an ordinary put of the value would
+	 *         have been answered with
+	 */
+	KVMessage endPut(KVMessage request, ClientSession session) {
+		String key = request.getKey();
+		int requestId = request.getRequestId();
+
+		StreamStore.Upload upload = uploads.remove(session);
+		if (upload == null) {
+			log.warn("End of streamed value received without a value being received");
+			return new BasicKVMessage(key, null, StatusType.PUT_ERROR, 0, requestId);
+		}
+
+		boolean valueEmpty = upload.isEmpty();
+		try {
+			boolean keyExists = upload.commit();
+			log.info("Stored streamed value for key '" + upload.getKey() + "'");
+			StatusType outStatus = valueEmpty
+					? (keyExists ? StatusType.DELETE_SUCCESS : StatusType.DELETE_ERROR)
+					: (keyExists ? StatusType.PUT_UPDATE : StatusType.PUT_SUCCESS);
+			return new BasicKVMessage(upload.getKey(), null, outStatus, 0, requestId);
+
+		} catch (IOException e) {
+			log.error("Could not store streamed value", e);
+			StatusType outStatus = valueEmpty ? StatusType.DELETE_ERROR : StatusType.PUT_ERROR;
+			return new BasicKVMessage(upload.getKey(), null, outStatus, 0, requestId);
+		}
+	}
+
+	/**
+	 * Sends the value associated with the given key in chunks, each sent as soon
+	 * as it is read. In the binary format, the chunks are sent straight from the
+	 * stored value's file, without decoding the value.
+	 *
+	 * @param request The <code>GET_STREAM</code> request
+	 * @param session The session on which the request was received
+	 * @return The final response, which is an error if the value could not be
+	 *         sent in full
+	 */
+	KVMessage get(KVMessage request, ClientSession session) {
+		String key = request.getKey();
+		int requestId = request.getRequestId();
+
+		StreamStore streamStore = server.getStreamStore();
+		if (streamStore == null) return new BasicKVMessage(key, null, StatusType.GET_ERROR, 0, requestId);
+
+		try {
+			boolean found = session.getCodec() == ProtocolHandshake.BINARY_CODEC
+					? sendFileChunks(streamStore, request, session)
+					: sendChunks(streamStore, request, session);
+			if (!found) return new BasicKVMessage(key, null, StatusType.GET_ERROR, 0, requestId);
+
+		} catch (IOException e) {
+			// the chunks already sent cannot be taken back, so the client is told that the value is incomplete
+			log.error("Could not send streamed value", e);
+			return new BasicKVMessage(key, null, StatusType.GET_ERROR, 0, requestId);
+		}
+
+		log.info("Sent streamed value for key '" + key + "'");
+		return new BasicKVMessage(key, null, StatusType.GET_STREAM_SUCCESS, 0, requestId);
+	}
+
+	/**
+	 * Sends the chunks of a value by decoding the stored value and encoding each
+	 * chunk as a message.
+	 *
+	 * @return <code>true</code> if the value exists, <code>false</code> otherwise
+	 */
+	private boolean sendChunks(StreamStore streamStore, KVMessage request, ClientSession session)
+			throws IOException {
+		KVMessageCodec codec = session.getCodec();
+		Reader reader = streamStore.open(request.getKey());
+		if (reader == null) return false;
+
+		try (Reader value = reader) {
+			ValueChunker chunker = new ValueChunker(value);
+			String chunk;
+			while ((chunk = chunker.nextChunk()) != null) {
+				KVMessage message = new BasicKVMessage(request.getKey(), chunk, StatusType.STREAM_CHUNK, 0,
+						request.getRequestId());
+				session.sendPart(codec.encode(message));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the chunks of a value in binary frames whose values are regions of
+	 * the stored value's file, so that the value is never copied onto the heap.
+	 * Regions end on character boundaries, so that each chunk can be decoded on
+	 * its own.
+	 *
+	 * @return <code>true</code> if the value exists, <code>false</code> otherwise
+	 */
+	private boolean sendFileChunks(StreamStore streamStore, KVMessage request, ClientSession session)
+			throws IOException {
+		FileChannel channel = streamStore.openChannel(request.getKey());
+		if (channel == null) return false;
+
+		try (FileChannel file = channel) {
+			KVMessage chunkMessage = new BasicKVMessage(request.getKey(), null, StatusType.STREAM_CHUNK, 0,
+					request.getRequestId());
+			ByteBuffer probe = ByteBuffer.allocate(1);
+			long size = file.size();
+			long position = 0;
+			while (position < size) {
+				long end = Math.min(size, position + FILE_CHUNK_LENGTH);
+				while (end < size && end > position && isContinuationByte(file, end, probe)) {
+					end--;
+				}
+
+				int count = (int) (end - position);
+				session.sendPart(BinaryKVMessageCodec.encodeHead(chunkMessage, count), file, position, count);
+				position = end;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the byte at the given position of a UTF-8 encoded file
+	 * continues a multi-byte character.
+	 */
+	private static boolean isContinuationByte(FileChannel file, long position, ByteBuffer probe) throws IOException {
+		probe.clear();
+		if (file.read(probe, position) <= 0) throw new EOFException("File ends before position " + position);
+		return (probe.get(0) & 0xC0) == 0x80;
+	}
+
+	/**
+	 * Abandons any value being received on a session which has closed.
+	 *
+	 * @param session The closed session
+	 */
+	void sessionClosed(ClientSession session) {
+		StreamStore.Upload upload = uploads.remove(session);
+		if (upload != null) {
+			log.info("Abandoning streamed value for key '" + upload.getKey() + "' after connection closed");
+			upload.close();
+		}
+	}
+
+}
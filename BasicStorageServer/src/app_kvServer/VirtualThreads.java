@@ -0,0 +1,88 @@
+package app_kvServer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Provides access to virtual threads, which are only available from Java 21.
+ * Since the server is still built for Java 8 by default, virtual threads are
+ * created reflectively, and callers fall back to platform threads on older
+ * JVMs.
+ * <p>
+ * A virtual thread which blocks on I/O releases its carrier thread, unless it
+ * holds a monitor, in which case the carrier is pinned until the monitor is
+ * released. Code run on virtual threads should therefore guard blocking
+ * operations with {@link java.util.concurrent.locks.Lock locks} rather than
+ * <code>synchronized</code> sections.
+ */
+public final class VirtualThreads {
+
+	private static final Logger log = Logger.getLogger(VirtualThreads.class);
+
+	/**
+	 * Defeats instantiation.
+	 */
+	private VirtualThreads() {}
+
+	/**
+	 * Checks whether this JVM supports virtual threads.
+	 *
+	 * @return <code>true</code> if virtual threads can be created,
+	 *         <code>false</code> otherwise
+	 */
+	public static boolean isSupported() {
+		return newFactory("probe-") != null;
+	}
+
+	/**
+	 * Creates a factory for virtual threads named with the given prefix followed
+	 * by a sequence number.
+	 *
+	 * @param prefix The thread name prefix
+	 * @return The thread factory, or <code>null</code> if this JVM does not
+	 *         support virtual threads
+	 */
+	public static ThreadFactory newFactory(String prefix) {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = ofVirtual.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+		} catch (NoSuchMethodException | ClassNotFoundException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// virtual threads are a preview feature before Java 21
+			log.debug("Virtual threads are not enabled", e.getCause());
+			return null;
+		} catch (IllegalAccessException e) {
+			log.warn("Could not access virtual thread builder", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a factory for threads serving client connections, which are
+	 * virtual threads if requested and supported, or platform threads otherwise.
+	 *
+	 * @param useVirtualThreads Whether virtual threads are requested
+	 * @return The thread factory
+	 * @see ServerOptions#VIRTUAL_THREADS
+	 */
+	public static ThreadFactory newConnectionThreadFactory(boolean useVirtualThreads) {
+		if (useVirtualThreads) {
+			ThreadFactory factory = newFactory("client-connection-");
+			if (factory != null) {
+				log.info("Serving client connections with virtual threads");
+				return factory;
+			}
+			log.warn("Virtual threads are not supported by this JVM; using platform threads");
+		}
+		return Thread::new;
+	}
+
+}
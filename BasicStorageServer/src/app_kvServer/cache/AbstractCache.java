@@ -1,7 +1,9 @@
 package app_kvServer.cache;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
@@ -9,20 +11,38 @@ import org.apache.log4j.Logger;
  * Provides a general framework on top of which all key-value cache
  * implementations can be built upon. Exposes a contract on which subclasses can
  * implement their own replacement strategies.
+ * <p>
+ * Entries are held in a {@link CompactKeyMap}, and subclasses track their
+ * replacement state through the handles, weights and order list of its entries
+ * rather than through separate collections of keys.
+ * <p>
+ * Access to the entries is guarded by a {@link ReentrantLock} rather than the
+ * monitor of the cache, so that virtual threads reading through the cache do
+ * not pin their carrier threads while eviction listeners write to disk.
+ * Subclasses must hold the {@link #getLock() lock} in any additional methods
+ * which access the entries.
  */
 public abstract class AbstractCache implements KVCache {
 
 	private static Logger log = Logger.getLogger(KVCache.class);
 
 	private int capacity = 0;
-	private Map<String, String> data = new HashMap<>();
+	private final CompactKeyMap<String> data = new CompactKeyMap<>();
+	private List<EvictionListener> evictionListeners = new CopyOnWriteArrayList<>();
+	private final CacheStatistics statistics = new CacheStatistics();
+	private final ReentrantLock lock = new ReentrantLock();
 
 	@Override
 	public void setCacheSize(int size) throws IllegalArgumentException {
-		if (size < 0) throw new IllegalArgumentException("Cannot set cache size to negative value");
-		this.capacity = size;
-		while (data.size() > this.capacity) {
-			evict();
+		lock.lock();
+		try {
+			if (size < 0) throw new IllegalArgumentException("Cannot set cache size to negative value");
+			this.capacity = size;
+			while (data.size() > this.capacity) {
+				evictAndNotify();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -32,41 +52,92 @@ public abstract class AbstractCache implements KVCache {
 	}
 
 	@Override
-	public synchronized boolean containsKey(String key) {
-		return data.containsKey(key);
+	public boolean containsKey(String key) {
+		lock.lock();
+		try {
+			return data.find(CompactKey.of(key)) != CompactKeyMap.NO_ENTRY;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized String get(String key) {
-		log.info("Looking up key '" + key + "' in cache...");
-
-		if (containsKey(key)) {
-			registerUsage(key);
-			String value = data.get(key);
-			log.info("Value found in cache for key '" + key + "': '" + value + "'");
-			return value;
-		}
+	public String get(String key) {
+		lock.lock();
+		try {
+			log.debug("Looking up key '" + key + "' in cache...");
+
+			int entry = data.find(CompactKey.of(key));
+			if (entry != CompactKeyMap.NO_ENTRY) {
+				registerUsage(entry);
+				String value = data.getValue(entry);
+				log.debug("Value found in cache for key '" + key + "': '" + value + "'");
+				statistics.recordHit();
+				return value;
+			}
 
-		return null;
+			statistics.recordMiss();
+			return null;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
-	public synchronized String put(String key, String value) {
-		if (value == null) {
-			return removeKey(key);
+	public String peek(String key) {
+		lock.lock();
+		try {
+			int entry = data.find(CompactKey.of(key));
+			return entry != CompactKeyMap.NO_ENTRY ? data.getValue(entry) : null;
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	@Override
+	public String put(String key, String value) {
+		lock.lock();
+		try {
+			if (value == null) {
+				return removeKey(key);
+			}
+
+			String oldVal = null;
 
-		String oldVal = null;
+			CompactKey compactKey = CompactKey.of(key);
+			int entry = data.find(compactKey);
+			if (entry != CompactKeyMap.NO_ENTRY) {
+				oldVal = data.setValue(entry, value);
+			} else {
+				// make room for a new entry if cache is full
+				if (data.size() == this.capacity) {
+					evictAndNotify();
+				}
+				entry = data.add(compactKey, value);
+			}
+			registerUsage(entry);
 
-		// make room for a new entry if cache is full
-		if (data.size() == this.capacity && !containsKey(key)) {
-			evict();
+			return oldVal;
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		oldVal = data.put(key, value);
-		registerUsage(key);
+	@Override
+	public boolean warm(String key, String value, int weight) {
+		lock.lock();
+		try {
+			CompactKey compactKey = CompactKey.of(key);
+			if (value == null || data.size() >= this.capacity || data.find(compactKey) != CompactKeyMap.NO_ENTRY) {
+				return false;
+			}
+
+			restoreUsage(data.add(compactKey, value), weight);
 
-		return oldVal;
+			return true;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -76,29 +147,112 @@ public abstract class AbstractCache implements KVCache {
 	 * @return The value previously associated with the key, or <code>null</code> if
 	 *         no such mapping existed
 	 */
-	protected String removeKey(String key) {
-		return data.remove(key);
+	private String removeKey(String key) {
+		int entry = data.find(CompactKey.of(key));
+		if (entry == CompactKeyMap.NO_ENTRY) return null;
+
+		String value = data.getValue(entry);
+		unregister(entry);
+		data.remove(entry);
+		return value;
 	}
 
 	@Override
 	public void clear() {
-		log.info("Clearing cache");
-		data.clear();
+		lock.lock();
+		try {
+			log.info("Clearing cache");
+			data.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the map holding the entries of this cache, whose entry handles are
+	 * passed to the replacement strategy methods.
+	 * 
+	 * @return The cache data
+	 */
+	protected CompactKeyMap<String> getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the lock which guards the entries of this cache. The replacement
+	 * strategy methods are always called while holding it.
+	 * 
+	 * @return The cache lock
+	 */
+	protected Lock getLock() {
+		return lock;
+	}
+
+	@Override
+	public CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void addEvictionListener(EvictionListener listener) {
+		evictionListeners.add(listener);
+	}
+
+	/**
+	 * Evicts a single record according to the cache strategy and notifies all
+	 * registered eviction listeners.
+	 */
+	private void evictAndNotify() {
+		int victim = selectVictim();
+		if (victim == CompactKeyMap.NO_ENTRY) return;
+
+		String key = data.getKey(victim).toString();
+		String value = data.getValue(victim);
+		unregister(victim);
+		data.remove(victim);
+
+		statistics.recordEviction();
+		for (EvictionListener listener : evictionListeners) {
+			listener.onEviction(key, value);
+		}
+	}
+
+	/**
+	 * Records an instance of usage for the specified entry. Called whenever a
+	 * successful get or put operation is completed, including the put which
+	 * created the entry. The weight of a newly created entry is 0.
+	 * 
+	 * @param entry The handle of the entry to record usage for
+	 */
+	protected abstract void registerUsage(int entry);
+
+	/**
+	 * Restores the replacement strategy state for the specified entry, which has
+	 * just been inserted by {@link #warm(String, String, int)}. By default this
+	 * records a single usage of the entry.
+	 * 
+	 * @param entry The handle of the entry to restore state for
+	 * @param weight The usage weight of the key
+	 */
+	protected void restoreUsage(int entry, int weight) {
+		registerUsage(entry);
 	}
 
 	/**
-	 * Records an instance of usage for the specified key. Should be called whenever
-	 * a successful get or put operation is completed.
+	 * Discards any replacement strategy state for the specified entry, which is
+	 * about to be removed from the cache data. Does nothing by default, since
+	 * state held by the entry itself is discarded along with it.
 	 * 
-	 * @param key The key to record usage for
+	 * @param entry The handle of the entry being removed
 	 */
-	protected abstract void registerUsage(String key);
+	protected void unregister(int entry) {}
 
 	/**
-	 * Evicts a single record from this cache, based on the cache strategy.
+	 * Selects the entry to be evicted next, based on the cache strategy.
 	 * 
-	 * @return The removed key-value entry
+	 * @return The handle of the entry to evict, or {@link CompactKeyMap#NO_ENTRY}
+	 *         if the cache is empty
 	 */
-	protected abstract Map.Entry<String, String> evict();
+	protected abstract int selectVictim();
 
 }
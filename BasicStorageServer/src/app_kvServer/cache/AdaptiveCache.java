@@ -0,0 +1,404 @@
+package app_kvServer.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.IKVServer.CacheStrategy;
+
+/**
+ * A cache which selects its replacement strategy based on the observed
+ * workload. Entries are held by a live cache implementing one of the
+ * {@link KVCache#getReplacementPolicies() replacement policies}. Alongside it,
+ * a scaled-down "shadow" cache for every policy is fed a sample of the key
+ * stream, as in {@link MissRatioCurveEstimator}.
+ * <p>
+ * Every {@link #WINDOW_SIZE} sampled lookups, the hit ratio of each shadow
+ * over the window is folded into a moving average. If another policy's
+ * average exceeds that of the live policy by at least {@link #HYSTERESIS} for
+ * {@link #REQUIRED_WINDOWS} consecutive windows, the live cache is replaced
+ * with one implementing that policy. The cached entries are carried over, so
+ * switching policies does not cost any hits or drop any entries.
+ */
+public class AdaptiveCache implements KVCache {
+
+	private static final Logger log = Logger.getLogger(AdaptiveCache.class);
+
+	/** The policy used before enough of the workload has been observed. */
+	private static final CacheStrategy INITIAL_STRATEGY = CacheStrategy.LRU;
+
+	/** The number of sampled lookups between policy evaluations. */
+	public static final int WINDOW_SIZE = 500;
+
+	/** The margin by which another policy must outperform the live one. */
+	public static final double HYSTERESIS = 0.02;
+
+	/** The number of consecutive windows another policy must lead for. */
+	public static final int REQUIRED_WINDOWS = 2;
+
+	/** The weight of the latest window in the moving average hit ratios. */
+	private static final double SMOOTHING_FACTOR = 0.5;
+
+	/** The number of keys which shadow caches should hold, where possible. */
+	private static final int TARGET_SHADOW_SIZE = 100;
+
+	/** The lowest fraction of keys sampled for the shadow caches. */
+	private static final double MIN_SAMPLE_RATE = 0.1;
+
+	/** The factor by which the sample rate may drift before the shadows are reset. */
+	private static final double RESAMPLE_FACTOR = 2;
+
+	private static final String SHADOW_VALUE = "";
+
+	private final List<EvictionListener> evictionListeners = new CopyOnWriteArrayList<>();
+	private final CacheStatistics statistics = new CacheStatistics();
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private int capacity = 0;
+	private KVCache live;
+	private KeySampler sampler;
+	private List<Shadow> shadows = new ArrayList<>();
+
+	private int windowLookups = 0;
+	private Shadow leader = null;
+	private int leadingWindows = 0;
+	private long switches = 0;
+
+	/**
+	 * Creates an empty adaptive cache with a capacity of 0.
+	 */
+	public AdaptiveCache() {
+		this.live = createLiveCache(INITIAL_STRATEGY, 0);
+		resetShadows();
+	}
+
+	@Override
+	public CacheStrategy getCacheStrategy() {
+		return CacheStrategy.ADAPTIVE;
+	}
+
+	/**
+	 * Returns the replacement strategy currently used to hold entries.
+	 *
+	 * @return The live cache strategy
+	 */
+	public CacheStrategy getActiveStrategy() {
+		lock.lock();
+		try {
+			return live.getCacheStrategy();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the live replacement strategy has changed.
+	 *
+	 * @return The switch count
+	 */
+	public long getSwitchCount() {
+		lock.lock();
+		try {
+			return switches;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getCacheSize() {
+		lock.lock();
+		try {
+			return capacity;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void setCacheSize(int size) throws IllegalArgumentException {
+		lock.lock();
+		try {
+			if (size < 0) throw new IllegalArgumentException("Cannot set cache size to negative value");
+			this.capacity = size;
+			live.setCacheSize(size);
+
+			if (needsResampling()) {
+				resetShadows();
+			} else {
+				// keep the shadows and their results, as the policies rank similarly at similar sizes
+				for (Shadow shadow : shadows) {
+					shadow.ghost.setCacheSize(sampler.scale(capacity));
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		lock.lock();
+		try {
+			return live.containsKey(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String get(String key) {
+		lock.lock();
+		try {
+			String value = live.get(key);
+			if (value != null) {
+				statistics.recordHit();
+			} else {
+				statistics.recordMiss();
+			}
+
+			if (sampler.isSampled(key)) {
+				for (Shadow shadow : shadows) {
+					shadow.ghost.get(key);
+				}
+				if (++windowLookups >= WINDOW_SIZE) {
+					evaluate();
+				}
+			}
+
+			return value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String peek(String key) {
+		lock.lock();
+		try {
+			return live.peek(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String put(String key, String value) {
+		lock.lock();
+		try {
+			if (sampler.isSampled(key)) {
+				for (Shadow shadow : shadows) {
+					shadow.ghost.put(key, value == null ? null : SHADOW_VALUE);
+				}
+			}
+			return live.put(key, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			live.clear();
+			for (Shadow shadow : shadows) {
+				shadow.ghost.clear();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getPolicyState() {
+		lock.lock();
+		try {
+			return live.getPolicyState();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean warm(String key, String value, int weight) {
+		lock.lock();
+		try {
+			return live.warm(key, value, weight);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public CacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void addEvictionListener(EvictionListener listener) {
+		evictionListeners.add(listener);
+	}
+
+	/**
+	 * Creates a cache implementing the given policy to hold the entries of this
+	 * cache, forwarding its evictions to the listeners of this cache.
+	 *
+	 * @param strategy The replacement strategy
+	 * @param size The capacity of the cache
+	 * @return The new cache
+	 */
+	private KVCache createLiveCache(CacheStrategy strategy, int size) {
+		KVCache cache = KVCache.create(strategy, size);
+		cache.addEvictionListener((key, value) -> {
+			statistics.recordEviction();
+			for (EvictionListener listener : evictionListeners) {
+				listener.onEviction(key, value);
+			}
+		});
+		return cache;
+	}
+
+	/**
+	 * Returns the rate at which keys should be sampled for the current capacity.
+	 * Small caches are sampled at a higher rate, so that their shadows hold
+	 * enough keys to behave like the real cache.
+	 *
+	 * @return The sample rate
+	 */
+	private double getTargetSampleRate() {
+		return capacity > 0
+				? Math.min(1, Math.max(MIN_SAMPLE_RATE, (double) TARGET_SHADOW_SIZE / capacity))
+				: 1;
+	}
+
+	/**
+	 * Determines whether the sample rate has drifted so far from the one suited
+	 * to the current capacity that the shadows must be recreated. Small resizes,
+	 * such as those made under heap pressure, only rescale the shadows.
+	 *
+	 * @return <code>true</code> if the shadows should be reset,
+	 *         <code>false</code> otherwise
+	 */
+	private boolean needsResampling() {
+		double ratio = sampler.getSampleRate() / getTargetSampleRate();
+		return ratio > RESAMPLE_FACTOR || ratio < 1 / RESAMPLE_FACTOR;
+	}
+
+	/**
+	 * Discards all shadow caches and their results, and creates new ones sized
+	 * for the current capacity, sampled at the rate suited to it.
+	 */
+	private void resetShadows() {
+		this.sampler = new KeySampler(getTargetSampleRate());
+
+		this.shadows = new ArrayList<>();
+		for (CacheStrategy strategy : KVCache.getReplacementPolicies()) {
+			shadows.add(new Shadow(strategy, KVCache.create(strategy, sampler.scale(capacity))));
+		}
+
+		this.windowLookups = 0;
+		this.leader = null;
+		this.leadingWindows = 0;
+	}
+
+	/**
+	 * Updates the moving average hit ratio of every shadow with the results of
+	 * the window just completed, then switches the live policy if another policy
+	 * has consistently outperformed it.
+	 */
+	private void evaluate() {
+		windowLookups = 0;
+
+		Shadow active = null;
+		Shadow best = null;
+		for (Shadow shadow : shadows) {
+			shadow.completeWindow();
+			if (shadow.strategy == live.getCacheStrategy()) active = shadow;
+			if (best == null || shadow.score > best.score) best = shadow;
+		}
+
+		if (best == active || best.score < active.score + HYSTERESIS) {
+			log.debug(String.format("Keeping %s cache strategy (hit ratio %.3f, best alternative %.3f)",
+					active.strategy, active.score, best == active ? active.score : best.score));
+			leader = null;
+			leadingWindows = 0;
+			return;
+		}
+
+		if (best != leader) {
+			leader = best;
+			leadingWindows = 0;
+		}
+		leadingWindows++;
+
+		if (leadingWindows < REQUIRED_WINDOWS) {
+			log.debug(String.format("%s cache strategy outperforming %s (hit ratio %.3f vs %.3f) for %d window(s)",
+					best.strategy, active.strategy, best.score, active.score, leadingWindows));
+			return;
+		}
+
+		log.info(String.format("Switching cache strategy from %s to %s (hit ratio %.3f vs %.3f)",
+				active.strategy, best.strategy, active.score, best.score));
+		switchTo(best.strategy);
+		leader = null;
+		leadingWindows = 0;
+	}
+
+	/**
+	 * Replaces the live cache with one implementing the given policy, carrying
+	 * over all cached entries. Entries are inserted from the next to be evicted to
+	 * the last, so that their relative order is retained.
+	 *
+	 * @param strategy The new replacement strategy
+	 */
+	private void switchTo(CacheStrategy strategy) {
+		KVCache next = createLiveCache(strategy, capacity);
+		for (Map.Entry<String, Integer> entry : live.getPolicyState().entrySet()) {
+			next.warm(entry.getKey(), live.peek(entry.getKey()), entry.getValue());
+		}
+		live = next;
+		switches++;
+	}
+
+	/**
+	 * A scaled-down cache simulating a single replacement policy.
+	 */
+	private static class Shadow {
+		private final CacheStrategy strategy;
+		private final KVCache ghost;
+
+		private long lastHits = 0;
+		private long lastLookups = 0;
+		private double score = 0;
+		private boolean scored = false;
+
+		private Shadow(CacheStrategy strategy, KVCache ghost) {
+			this.strategy = strategy;
+			this.ghost = ghost;
+		}
+
+		/**
+		 * Folds the hit ratio since the last call into the moving average.
+		 */
+		private void completeWindow() {
+			CacheStatistics statistics = ghost.getStatistics();
+			long hits = statistics.getHitCount();
+			long lookups = hits + statistics.getMissCount();
+
+			double ratio = lookups > lastLookups
+					? (double) (hits - lastHits) / (lookups - lastLookups)
+					: 0;
+			score = scored ? SMOOTHING_FACTOR * ratio + (1 - SMOOTHING_FACTOR) * score : ratio;
+			scored = true;
+
+			lastHits = hits;
+			lastLookups = lookups;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package app_kvServer.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import app_kvServer.IKVServer.CacheStrategy;
+
+/**
+ * A compact record of the keys held by a cache, along with their replacement
+ * strategy state. A manifest is written to disk periodically while a server is
+ * running, so that a restarted server can warm its cache with the same keys
+ * (see {@link CacheWarmer}). Values are not recorded, since they can be
+ * retrieved from the persistence.
+ * <p>
+ * The manifest file consists of a header line of the form
+ * "<code># &lt;strategy&gt; &lt;count&gt;</code>", followed by one line per
+ * key of the form "<code>&lt;key&gt; &lt;weight&gt;</code>". Keys are listed
+ * in the order given by {@link KVCache#getPolicyState()}.
+ */
+public class CacheManifest {
+
+	private static final String HEADER_PREFIX = "# ";
+
+	private final CacheStrategy strategy;
+	private final Map<String, Integer> entries;
+
+	/**
+	 * Creates a manifest for the given cache state.
+	 *
+	 * @param strategy The replacement strategy of the cache
+	 * @param entries The ordered keys and weights of the cache, as given by
+	 *            {@link KVCache#getPolicyState()}
+	 */
+	public CacheManifest(CacheStrategy strategy, Map<String, Integer> entries) {
+		this.strategy = strategy;
+		this.entries = Collections.unmodifiableMap(new LinkedHashMap<>(entries));
+	}
+
+	/**
+	 * Creates a manifest describing the current state of the given cache.
+	 *
+	 * @param cache The cache to describe
+	 * @return The manifest
+	 */
+	public static CacheManifest of(KVCache cache) {
+		return new CacheManifest(cache.getCacheStrategy(), cache.getPolicyState());
+	}
+
+	/**
+	 * Returns the replacement strategy of the cache described by this manifest.
+	 *
+	 * @return The cache strategy
+	 */
+	public CacheStrategy getCacheStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Returns the keys and weights recorded in this manifest, ordered from the
+	 * next entry to be evicted to the last.
+	 *
+	 * @return An unmodifiable ordered map of keys to weights
+	 */
+	public Map<String, Integer> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Writes this manifest to the specified file. The manifest is first written to
+	 * a scratch file which is then moved into place, so that a crash while
+	 * writing cannot corrupt a previously written manifest.
+	 *
+	 * @param file The file to write to
+	 * @throws IOException If the manifest could not be written
+	 */
+	public void write(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		directory.mkdirs();
+		File scratchFile = File.createTempFile(file.getName(), ".tmp", directory);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(scratchFile.toPath(), UTF_8)) {
+			writer.write(HEADER_PREFIX + strategy + " " + entries.size());
+			writer.write('\n');
+			for (Entry<String, Integer> entry : entries.entrySet()) {
+				writer.write(entry.getKey() + " " + entry.getValue());
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			scratchFile.delete();
+			throw e;
+		}
+
+		Files.move(scratchFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads a manifest from the specified file.
+	 *
+	 * @param file The file to read from
+	 * @return The manifest
+	 * @throws IOException If the file could not be read or is malformed
+	 */
+	public static CacheManifest read(File file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+			String header = reader.readLine();
+			if (header == null || !header.startsWith(HEADER_PREFIX)) {
+				throw new IOException("Missing cache manifest header in " + file);
+			}
+
+			CacheStrategy strategy;
+			try {
+				strategy = CacheStrategy.valueOf(header.substring(HEADER_PREFIX.length()).split(" ")[0]);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid cache manifest header in " + file + ": " + header, e);
+			}
+
+			Map<String, Integer> entries = new LinkedHashMap<>();
+			String ln;
+			while ((ln = reader.readLine()) != null) {
+				int separator = ln.lastIndexOf(' ');
+				try {
+					entries.put(ln.substring(0, separator), Integer.parseInt(ln.substring(separator + 1)));
+				} catch (IndexOutOfBoundsException | NumberFormatException e) {
+					throw new IOException("Invalid cache manifest entry in " + file + ": " + ln, e);
+				}
+			}
+
+			return new CacheManifest(strategy, entries);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package app_kvServer.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts lookups, evictions, and loads for a single {@link KVCache}. All
+ * counters are updated atomically, so statistics can be read from any thread
+ * without holding the cache's lock.
+ */
+public class CacheStatistics {
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadTimeNanos = new AtomicLong();
+
+	/**
+	 * Records a lookup which found its key in the cache.
+	 */
+	public void recordHit() {
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Records a lookup which did not find its key in the cache.
+	 */
+	public void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Records the eviction of an entry by the replacement strategy.
+	 */
+	public void recordEviction() {
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Records a load of a value from the backing storage following a miss.
+	 *
+	 * @param nanos The time taken by the load, in nanoseconds
+	 */
+	public void recordLoad(long nanos) {
+		loads.incrementAndGet();
+		loadTimeNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Returns the number of lookups which found their key in the cache.
+	 *
+	 * @return The hit count
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find their key in the cache.
+	 *
+	 * @return The miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the fraction of lookups which found their key in the cache.
+	 *
+	 * @return The hit ratio, or 0 if there have been no lookups
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0.0 : (double) hitCount / total;
+	}
+
+	/**
+	 * Returns the number of entries which have been evicted.
+	 *
+	 * @return The eviction count
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of values which have been loaded from the backing
+	 * storage following a miss.
+	 *
+	 * @return The load count
+	 */
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	/**
+	 * Returns the total time spent loading values from the backing storage.
+	 *
+	 * @return The total load time, in milliseconds
+	 */
+	public long getTotalLoadTime() {
+		return TimeUnit.NANOSECONDS.toMillis(loadTimeNanos.get());
+	}
+
+	/**
+	 * Returns the average time taken to load a value from the backing storage.
+	 *
+	 * @return The average load time in milliseconds, or 0 if there have been no
+	 *         loads
+	 */
+	public double getAverageLoadTime() {
+		long loadCount = loads.get();
+		return loadCount == 0 ? 0.0 : loadTimeNanos.get() / 1e6 / loadCount;
+	}
+
+}
@@ -0,0 +1,183 @@
+package app_kvServer.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.persistence.KVPersistence;
+import app_kvServer.persistence.KVPersistenceChunkator;
+
+/**
+ * Repopulates a cache with the keys recorded in a {@link CacheManifest}, using
+ * values read from the persistence. Intended to be run on a background thread
+ * while the server is already serving requests.
+ * <p>
+ * Entries are inserted in small batches while holding a lock supplied on
+ * construction, which must be the same lock which guards all other access to
+ * the cache. Writes that occur while warming is in progress
+ * must be reported via {@link #invalidate(String)} (while holding the same
+ * lock), so that stale values read from the persistence are never inserted.
+ */
+public class CacheWarmer implements Runnable {
+
+	private static final Logger log = Logger.getLogger(CacheWarmer.class);
+
+	/** The number of entries inserted each time the lock is acquired. */
+	private static final int WARM_BATCH_SIZE = 64;
+
+	private final KVCache cache;
+	private final KVPersistence persistence;
+	private final Lock cacheLock;
+	private final CacheManifest manifest;
+
+	private final Set<String> invalidated = new HashSet<>();
+	private final AtomicInteger processed = new AtomicInteger();
+	private final AtomicInteger loaded = new AtomicInteger();
+	private volatile boolean cancelled = false;
+	private volatile boolean done = false;
+
+	/**
+	 * Creates a warmer which populates the given cache.
+	 *
+	 * @param cache The cache to populate
+	 * @param persistence The persistence from which values are read
+	 * @param cacheLock The lock which guards the cache
+	 * @param manifest The manifest listing the keys to load
+	 */
+	public CacheWarmer(KVCache cache, KVPersistence persistence, Lock cacheLock, CacheManifest manifest) {
+		this.cache = cache;
+		this.persistence = persistence;
+		this.cacheLock = cacheLock;
+		this.manifest = manifest;
+	}
+
+	@Override
+	public void run() {
+		Map<String, Integer> entries = manifest.getEntries();
+		log.info("Warming cache with " + entries.size() + " keys from manifest");
+		long startTime = System.currentTimeMillis();
+
+		try {
+			// look up values for all manifest keys in a single pass over the persistence
+			Map<String, String> values = new HashMap<>();
+			try (KVPersistenceChunkator it = persistence.chunkator()) {
+				if (it == null) return;
+				while (!cancelled && it.hasNextChunk()) {
+					values.putAll(it.nextChunk(entries::containsKey));
+				}
+			} catch (IOException e) {
+				log.error("Could not read persistence while warming cache", e);
+				return;
+			}
+
+			// insert in manifest order to restore the relative order of entries
+			List<Entry<String, Integer>> batch = new ArrayList<>(WARM_BATCH_SIZE);
+			for (Entry<String, Integer> entry : entries.entrySet()) {
+				if (cancelled) break;
+				batch.add(entry);
+				if (batch.size() == WARM_BATCH_SIZE) {
+					warmBatch(batch, values);
+					batch.clear();
+				}
+			}
+			if (!cancelled) warmBatch(batch, values);
+
+			log.info("Cache warm-up " + (cancelled ? "cancelled" : "completed") + "; loaded "
+					+ loaded.get() + " of " + entries.size() + " keys in "
+					+ (System.currentTimeMillis() - startTime) + " ms");
+
+		} finally {
+			done = true;
+		}
+	}
+
+	/**
+	 * Inserts a batch of manifest entries into the cache, skipping keys which have
+	 * been written since warming began or which are missing from the persistence.
+	 *
+	 * @param batch The manifest entries to insert
+	 * @param values The persisted values for manifest keys
+	 */
+	private void warmBatch(List<Entry<String, Integer>> batch, Map<String, String> values) {
+		cacheLock.lock();
+		try {
+			for (Entry<String, Integer> entry : batch) {
+				String key = entry.getKey();
+				String value = values.get(key);
+				if (!cancelled && value != null && !invalidated.contains(key)
+						&& cache.warm(key, value, entry.getValue())) {
+					loaded.incrementAndGet();
+				}
+				processed.incrementAndGet();
+			}
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	/**
+	 * Prevents the given key from being loaded into the cache by this warmer.
+	 * Should be called whenever the key is written, while holding the cache lock.
+	 *
+	 * @param key The key which was written
+	 */
+	public void invalidate(String key) {
+		if (!done) invalidated.add(key);
+	}
+
+	/**
+	 * Stops warming the cache. Entries which have already been loaded remain in
+	 * the cache.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks whether this warmer has finished, either by completing or by being
+	 * cancelled.
+	 *
+	 * @return <code>true</code> if warming has ended, <code>false</code> otherwise
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Returns the fraction of manifest keys which have been processed so far.
+	 *
+	 * @return The warm-up progress, between 0 and 1
+	 */
+	public double getProgress() {
+		int total = getTotal();
+		return done || total == 0 ? 1.0 : (double) processed.get() / total;
+	}
+
+	/**
+	 * Returns the number of keys which have been loaded into the cache so far.
+	 *
+	 * @return The number of loaded keys
+	 */
+	public int getLoaded() {
+		return loaded.get();
+	}
+
+	/**
+	 * Returns the number of keys listed in the manifest.
+	 *
+	 * @return The total number of keys to load
+	 */
+	public int getTotal() {
+		return manifest.getEntries().size();
+	}
+
+}
@@ -0,0 +1,202 @@
+package app_kvServer.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An immutable key representation which packs the UTF-8 bytes of a key into
+ * three <code>long</code> words, along with a precomputed hash. Keys accepted
+ * by the client are at most 20 characters, so this covers every ASCII key
+ * without allocating a string or a byte array. Keys longer than
+ * {@link #MAX_PACKED_LENGTH} bytes are held as strings.
+ * <p>
+ * Compact keys are ordered by the unsigned lexicographic order of their UTF-8
+ * bytes, which matches the order of the corresponding strings for all
+ * characters in the Basic Multilingual Plane.
+ */
+public final class CompactKey implements Comparable<CompactKey> {
+
+	/** The number of words into which keys are packed. */
+	public static final int WORDS = 3;
+
+	/** The maximum length in bytes of a packed key. */
+	public static final int MAX_PACKED_LENGTH = WORDS * Long.BYTES;
+
+	/** The length of a key which is too long to be packed. */
+	static final int UNPACKED = -1;
+
+	private final long word0;
+	private final long word1;
+	private final long word2;
+	private final int length;
+	private final String unpacked;
+	private final int hash;
+
+	/**
+	 * Creates a compact key from its packed representation.
+	 *
+	 * @param word0 The first 8 bytes of the key
+	 * @param word1 The next 8 bytes of the key
+	 * @param word2 The last 8 bytes of the key
+	 * @param length The length of the key in bytes, or {@link #UNPACKED}
+	 * @param unpacked The key, if it is too long to be packed
+	 */
+	CompactKey(long word0, long word1, long word2, int length, String unpacked) {
+		this.word0 = word0;
+		this.word1 = word1;
+		this.word2 = word2;
+		this.length = length;
+		this.unpacked = unpacked;
+		this.hash = length == UNPACKED ? spread(unpacked.hashCode()) : hash(word0, word1, word2, length);
+	}
+
+	/**
+	 * Creates a compact key for the given string.
+	 *
+	 * @param key The key
+	 * @return The compact key
+	 */
+	public static CompactKey of(String key) {
+		int n = key.length();
+		if (n <= MAX_PACKED_LENGTH) {
+			long word0 = 0, word1 = 0, word2 = 0;
+			int i = 0;
+			for (; i < n; i++) {
+				char c = key.charAt(i);
+				if (c >= 0x80) break;
+
+				long shifted = (long) c << (56 - 8 * (i & 7));
+				if (i < 8) {
+					word0 |= shifted;
+				} else if (i < 16) {
+					word1 |= shifted;
+				} else {
+					word2 |= shifted;
+				}
+			}
+			if (i == n) {
+				return new CompactKey(word0, word1, word2, n, null);
+			}
+		}
+
+		byte[] bytes = key.getBytes(UTF_8);
+		if (bytes.length > MAX_PACKED_LENGTH) {
+			return new CompactKey(0, 0, 0, UNPACKED, key);
+		}
+
+		long[] words = new long[WORDS];
+		for (int i = 0; i < bytes.length; i++) {
+			words[i >>> 3] |= (bytes[i] & 0xFFL) << (56 - 8 * (i & 7));
+		}
+		return new CompactKey(words[0], words[1], words[2], bytes.length, null);
+	}
+
+	/**
+	 * Computes the hash of a packed key.
+	 */
+	static int hash(long word0, long word1, long word2, int length) {
+		long h = word0 * 0x9E3779B97F4A7C15L;
+		h = (h ^ word1) * 0x9E3779B97F4A7C15L;
+		h = (h ^ word2) * 0x9E3779B97F4A7C15L;
+		h ^= length;
+		h ^= h >>> 29;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Spreads the bits of a string hash, since similar keys hash similarly.
+	 */
+	private static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns one of the words into which this key is packed.
+	 */
+	long getWord(int index) {
+		switch (index) {
+		case 0:
+			return word0;
+		case 1:
+			return word1;
+		default:
+			return word2;
+		}
+	}
+
+	/**
+	 * Returns the length of this key in bytes, or {@link #UNPACKED}.
+	 */
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns this key as a string if it is too long to be packed.
+	 */
+	String getUnpacked() {
+		return unpacked;
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of this key.
+	 *
+	 * @return The encoded key
+	 */
+	public byte[] toBytes() {
+		if (length == UNPACKED) return unpacked.getBytes(UTF_8);
+
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (getWord(i >>> 3) >>> (56 - 8 * (i & 7)));
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return length == UNPACKED ? unpacked : new String(toBytes(), UTF_8);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof CompactKey)) return false;
+
+		CompactKey other = (CompactKey) o;
+		if (hash != other.hash || length != other.length) return false;
+		return length == UNPACKED
+				? unpacked.equals(other.unpacked)
+				: word0 == other.word0 && word1 == other.word1 && word2 == other.word2;
+	}
+
+	@Override
+	public int compareTo(CompactKey o) {
+		if (length == UNPACKED || o.length == UNPACKED) {
+			return compareBytes(toBytes(), o.toBytes());
+		}
+
+		// bytes past the end of a key are zero, so if the words are equal, one key
+		// is a prefix of the other
+		for (int i = 0; i < WORDS; i++) {
+			int diff = Long.compareUnsigned(getWord(i), o.getWord(i));
+			if (diff != 0) return diff;
+		}
+		return Integer.compare(length, o.length);
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (diff != 0) return diff;
+		}
+		return a.length - b.length;
+	}
+
+}
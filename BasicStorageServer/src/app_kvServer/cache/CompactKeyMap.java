@@ -0,0 +1,342 @@
+package app_kvServer.cache;
+
+import java.util.Arrays;
+
+/**
+ * A hash map specialized for {@link CompactKey} keys, which stores entries in
+ * parallel arrays rather than as individual node objects. Keys are stored in
+ * their packed form and are only converted back to strings on request.
+ * <p>
+ * Entries are identified by integer handles, which remain valid until the
+ * entry is removed. Handles are found through an open-addressing index using
+ * linear probing. Besides its key and value, each entry carries an integer
+ * weight for use by replacement strategies, and a position in a doubly linked
+ * order list. New entries are appended to the end of the list, and can be
+ * moved back to the end with {@link #moveToBack(int)}, so the list can track
+ * either insertion order or access order.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <V> The value type
+ */
+public class CompactKeyMap<V> {
+
+	/** The handle returned when no entry exists. */
+	public static final int NO_ENTRY = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/* open-addressing index of entry handles plus 1, with 0 marking a free slot */
+	private int[] index;
+
+	/* entry data, indexed by handle */
+	private long[] keyWords;
+	private int[] keyLengths;
+	private int[] hashes;
+	private String[] unpackedKeys;
+	private Object[] values;
+	private int[] weights;
+	private int[] previous;
+	private int[] next;
+
+	private int head = NO_ENTRY;
+	private int tail = NO_ENTRY;
+	private int freeList = NO_ENTRY;
+	private int allocated = 0;
+	private int size = 0;
+
+	/**
+	 * Creates an empty map.
+	 */
+	public CompactKeyMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Returns the number of entries in this map.
+	 *
+	 * @return The size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the entry for the given key.
+	 *
+	 * @param key The key to find
+	 * @return The handle of the entry, or {@link #NO_ENTRY} if none exists
+	 */
+	public int find(CompactKey key) {
+		int mask = index.length - 1;
+		int hash = key.hashCode();
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int entry = index[slot] - 1;
+			if (entry == NO_ENTRY) return NO_ENTRY;
+			if (hashes[entry] == hash && keyEquals(entry, key)) return entry;
+		}
+	}
+
+	/**
+	 * Adds an entry for the given key, which must not already be present, at the
+	 * end of the order list. The weight of the new entry is 0.
+	 *
+	 * @param key The key to add
+	 * @param value The value to associate with the key
+	 * @return The handle of the new entry
+	 */
+	public int add(CompactKey key, V value) {
+		if (freeList == NO_ENTRY && allocated == values.length) {
+			allocate(values.length * 2);
+		}
+
+		int entry;
+		if (freeList != NO_ENTRY) {
+			entry = freeList;
+			freeList = next[entry];
+		} else {
+			entry = allocated++;
+		}
+
+		for (int i = 0; i < CompactKey.WORDS; i++) {
+			keyWords[entry * CompactKey.WORDS + i] = key.getWord(i);
+		}
+		keyLengths[entry] = key.getLength();
+		hashes[entry] = key.hashCode();
+		unpackedKeys[entry] = key.getUnpacked();
+		values[entry] = value;
+		weights[entry] = 0;
+		link(entry);
+		insertIntoIndex(entry);
+		size++;
+
+		return entry;
+	}
+
+	/**
+	 * Removes the given entry. Its handle may be reused by a later addition.
+	 *
+	 * @param entry The handle of the entry to remove
+	 */
+	public void remove(int entry) {
+		removeFromIndex(entry);
+		unlink(entry);
+		unpackedKeys[entry] = null;
+		values[entry] = null;
+		next[entry] = freeList;
+		freeList = entry;
+		size--;
+	}
+
+	/**
+	 * Removes all entries from this map.
+	 */
+	public void clear() {
+		Arrays.fill(index, 0);
+		Arrays.fill(unpackedKeys, null);
+		Arrays.fill(values, null);
+		head = tail = freeList = NO_ENTRY;
+		allocated = size = 0;
+	}
+
+	/**
+	 * Returns the key of the given entry.
+	 *
+	 * @param entry The handle of the entry
+	 * @return The key
+	 */
+	public CompactKey getKey(int entry) {
+		int offset = entry * CompactKey.WORDS;
+		return new CompactKey(keyWords[offset], keyWords[offset + 1], keyWords[offset + 2],
+				keyLengths[entry], unpackedKeys[entry]);
+	}
+
+	/**
+	 * Returns the value of the given entry.
+	 *
+	 * @param entry The handle of the entry
+	 * @return The value
+	 */
+	@SuppressWarnings("unchecked")
+	public V getValue(int entry) {
+		return (V) values[entry];
+	}
+
+	/**
+	 * Replaces the value of the given entry.
+	 *
+	 * @param entry The handle of the entry
+	 * @param value The new value
+	 * @return The previous value
+	 */
+	public V setValue(int entry, V value) {
+		V previousValue = getValue(entry);
+		values[entry] = value;
+		return previousValue;
+	}
+
+	/**
+	 * Returns the weight of the given entry.
+	 *
+	 * @param entry The handle of the entry
+	 * @return The weight
+	 */
+	public int getWeight(int entry) {
+		return weights[entry];
+	}
+
+	/**
+	 * Sets the weight of the given entry.
+	 *
+	 * @param entry The handle of the entry
+	 * @param weight The new weight
+	 */
+	public void setWeight(int entry, int weight) {
+		weights[entry] = weight;
+	}
+
+	/**
+	 * Compares the keys of two entries, following {@link CompactKey#compareTo}.
+	 *
+	 * @param a The handle of the first entry
+	 * @param b The handle of the second entry
+	 * @return A negative number, zero, or a positive number if the first key is
+	 *         less than, equal to, or greater than the second
+	 */
+	public int compareKeys(int a, int b) {
+		if (keyLengths[a] == CompactKey.UNPACKED || keyLengths[b] == CompactKey.UNPACKED) {
+			return getKey(a).compareTo(getKey(b));
+		}
+
+		for (int i = 0; i < CompactKey.WORDS; i++) {
+			int diff = Long.compareUnsigned(keyWords[a * CompactKey.WORDS + i], keyWords[b * CompactKey.WORDS + i]);
+			if (diff != 0) return diff;
+		}
+		return Integer.compare(keyLengths[a], keyLengths[b]);
+	}
+
+	/**
+	 * Returns the entry at the front of the order list.
+	 *
+	 * @return The handle of the first entry, or {@link #NO_ENTRY} if this map is
+	 *         empty
+	 */
+	public int first() {
+		return head;
+	}
+
+	/**
+	 * Returns the entry following the given entry in the order list.
+	 *
+	 * @param entry The handle of the entry
+	 * @return The handle of the next entry, or {@link #NO_ENTRY} if the given
+	 *         entry is the last
+	 */
+	public int next(int entry) {
+		return next[entry];
+	}
+
+	/**
+	 * Moves the given entry to the end of the order list.
+	 *
+	 * @param entry The handle of the entry
+	 */
+	public void moveToBack(int entry) {
+		if (entry == tail) return;
+		unlink(entry);
+		link(entry);
+	}
+
+	private boolean keyEquals(int entry, CompactKey key) {
+		if (keyLengths[entry] != key.getLength()) return false;
+		if (key.getLength() == CompactKey.UNPACKED) return unpackedKeys[entry].equals(key.getUnpacked());
+
+		int offset = entry * CompactKey.WORDS;
+		return keyWords[offset] == key.getWord(0)
+				&& keyWords[offset + 1] == key.getWord(1)
+				&& keyWords[offset + 2] == key.getWord(2);
+	}
+
+	private void link(int entry) {
+		previous[entry] = tail;
+		next[entry] = NO_ENTRY;
+		if (tail != NO_ENTRY) {
+			next[tail] = entry;
+		} else {
+			head = entry;
+		}
+		tail = entry;
+	}
+
+	private void unlink(int entry) {
+		int before = previous[entry];
+		int after = next[entry];
+		if (before != NO_ENTRY) {
+			next[before] = after;
+		} else {
+			head = after;
+		}
+		if (after != NO_ENTRY) {
+			previous[after] = before;
+		} else {
+			tail = before;
+		}
+	}
+
+	private void insertIntoIndex(int entry) {
+		int mask = index.length - 1;
+		int slot = hashes[entry] & mask;
+		while (index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = entry + 1;
+	}
+
+	/**
+	 * Removes the given entry from the index, shifting back any following entries
+	 * in the same probe sequence so that no tombstones are needed.
+	 */
+	private void removeFromIndex(int entry) {
+		int mask = index.length - 1;
+		int slot = hashes[entry] & mask;
+		while (index[slot] != entry + 1) {
+			slot = (slot + 1) & mask;
+		}
+
+		int gap = slot;
+		for (int probe = (gap + 1) & mask; index[probe] != 0; probe = (probe + 1) & mask) {
+			int home = hashes[index[probe] - 1] & mask;
+			// an entry can fill the gap unless its home slot lies cyclically after the gap
+			boolean movable = gap <= probe
+					? home <= gap || home > probe
+					: home <= gap && home > probe;
+			if (movable) {
+				index[gap] = index[probe];
+				gap = probe;
+			}
+		}
+		index[gap] = 0;
+	}
+
+	/**
+	 * Grows the entry arrays to the given capacity, and rebuilds the index with
+	 * twice as many slots, so that its load factor never exceeds one half.
+	 */
+	private void allocate(int capacity) {
+		keyWords = keyWords == null ? new long[capacity * CompactKey.WORDS]
+				: Arrays.copyOf(keyWords, capacity * CompactKey.WORDS);
+		keyLengths = keyLengths == null ? new int[capacity] : Arrays.copyOf(keyLengths, capacity);
+		hashes = hashes == null ? new int[capacity] : Arrays.copyOf(hashes, capacity);
+		unpackedKeys = unpackedKeys == null ? new String[capacity] : Arrays.copyOf(unpackedKeys, capacity);
+		values = values == null ? new Object[capacity] : Arrays.copyOf(values, capacity);
+		weights = weights == null ? new int[capacity] : Arrays.copyOf(weights, capacity);
+		previous = previous == null ? new int[capacity] : Arrays.copyOf(previous, capacity);
+		next = next == null ? new int[capacity] : Arrays.copyOf(next, capacity);
+
+		index = new int[capacity * 2];
+		for (int entry = head; entry != NO_ENTRY; entry = next[entry]) {
+			insertIntoIndex(entry);
+		}
+	}
+
+}
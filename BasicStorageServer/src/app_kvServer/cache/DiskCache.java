@@ -0,0 +1,470 @@
+package app_kvServer.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded second-level cache held in files on local disk, intended for hosts
+ * whose local disks are faster than the volume holding the persistence. Entries
+ * evicted from the memory cache are demoted into this cache, so that warm data
+ * which no longer fits in memory can still be read without going to the
+ * persistence.
+ * <p>
+ * The cache is log-structured: entries are appended to the newest of a series
+ * of segment files, and an in-memory index maps each key to the location of its
+ * latest record. Once the total size of the segments exceeds the capacity, the
+ * oldest segment is deleted along with every entry whose latest record it
+ * holds. Each record is laid out as follows, with integers in big-endian
+ * order:
+ *
+ * <pre>
+ * | CRC-32 (4) | key length (4) | value length (4) | key | value |
+ * </pre>
+ *
+ * A value length of -1 marks a tombstone, which records that the key was
+ * invalidated. The checksum covers the remainder of the record.
+ * <p>
+ * If recovery is requested on construction, the index is rebuilt from the
+ * segments left by a previous run, so that the cached data survives restarts.
+ * Replay stops at the first damaged record of each segment. Otherwise, existing
+ * segments are deleted. Recovered data is only valid if the persistence has not
+ * been modified while the server was not running.
+ * <p>
+ * This class is thread-safe.
+ */
+public class DiskCache implements EvictionListener {
+
+	private static final Logger log = Logger.getLogger(DiskCache.class);
+
+	/** The number of segments among which the capacity is divided. */
+	private static final int SEGMENT_COUNT = 8;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String SEGMENT_PATTERN = "\\d+\\.seg";
+	private static final int HEADER_SIZE = 3 * Integer.BYTES;
+	private static final int TOMBSTONE = -1;
+
+	private final File directory;
+	private final long capacity;
+	private final long segmentSize;
+
+	/* values are record locations, and weights are record lengths */
+	private final CompactKeyMap<Long> index = new CompactKeyMap<>();
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private int nextSegmentId = 0;
+	private long size = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Opens a disk cache in the given directory, which is created if necessary.
+	 *
+	 * @param directory The directory holding the segment files
+	 * @param capacity The maximum total size of the segment files, in bytes
+	 * @param recover <code>true</code> to recover the entries left by a previous
+	 *            run, <code>false</code> to discard them
+	 * @throws IOException If the directory or segment files cannot be accessed
+	 * @throws IllegalArgumentException If the capacity is not positive
+	 */
+	public DiskCache(File directory, long capacity, boolean recover) throws IOException, IllegalArgumentException {
+		if (capacity <= 0) throw new IllegalArgumentException("Disk cache capacity must be positive");
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create disk cache directory " + directory);
+		}
+
+		this.directory = directory;
+		this.capacity = capacity;
+		this.segmentSize = Math.min(Integer.MAX_VALUE, Math.max(1, capacity / SEGMENT_COUNT));
+
+		for (int id : findSegmentIds()) {
+			File file = getSegmentFile(id);
+			if (recover) {
+				Segment segment = new Segment(id, file);
+				replay(segment);
+				segments.addLast(segment);
+				size += segment.size;
+				nextSegmentId = id + 1;
+			} else if (!file.delete()) {
+				throw new IOException("Could not delete disk cache segment " + file);
+			}
+		}
+		if (recover) {
+			log.info("Recovered " + index.size() + " disk cache entries from " + segments.size() + " segments");
+		}
+
+		segments.addLast(newSegment());
+		evictSegments();
+	}
+
+	/**
+	 * Lists the identifiers of the segment files in the cache directory, in
+	 * ascending order.
+	 */
+	private int[] findSegmentIds() {
+		File[] files = directory.listFiles((dir, name) -> name.matches(SEGMENT_PATTERN));
+		if (files == null) return new int[0];
+
+		return Arrays.stream(files)
+				.mapToInt(file -> Integer.parseInt(file.getName().substring(0,
+						file.getName().length() - SEGMENT_SUFFIX.length())))
+				.sorted()
+				.toArray();
+	}
+
+	private File getSegmentFile(int id) {
+		return new File(directory, String.format("%08d%s", id, SEGMENT_SUFFIX));
+	}
+
+	private Segment newSegment() throws IOException {
+		int id = nextSegmentId++;
+		return new Segment(id, getSegmentFile(id));
+	}
+
+	/**
+	 * Rebuilds the index entries for the records in the given segment, truncating
+	 * the segment at its first damaged record.
+	 */
+	private void replay(Segment segment) throws IOException {
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (position + HEADER_SIZE <= segment.size) {
+			header.clear();
+			readFully(segment.channel, header, position);
+			int checksum = header.getInt(0);
+			int keyLength = header.getInt(4);
+			int valueLength = header.getInt(8);
+
+			int length = HEADER_SIZE + keyLength + Math.max(0, valueLength);
+			if (keyLength <= 0 || valueLength < TOMBSTONE || length < 0 || position + length > segment.size) break;
+
+			ByteBuffer record = ByteBuffer.allocate(length);
+			readFully(segment.channel, record, position);
+			if (checksum(record.array()) != checksum) break;
+
+			String key = new String(record.array(), HEADER_SIZE, keyLength, UTF_8);
+			if (valueLength == TOMBSTONE) {
+				removeFromIndex(CompactKey.of(key));
+			} else {
+				updateIndex(CompactKey.of(key), location(segment.id, position), length);
+			}
+			position += length;
+		}
+
+		if (position < segment.size) {
+			log.warn("Truncating damaged disk cache segment " + segment.file + " at offset " + position);
+			segment.channel.truncate(position);
+			segment.size = position;
+		}
+	}
+
+	/**
+	 * Retrieves the cached value for the given key.
+	 *
+	 * @param key The key to look up
+	 * @return The cached value, or <code>null</code> if it is not cached
+	 */
+	public synchronized String get(String key) {
+		CompactKey compactKey = CompactKey.of(key);
+		int entry = index.find(compactKey);
+		if (entry == CompactKeyMap.NO_ENTRY) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		long location = index.getValue(entry);
+		Segment segment = findSegment(segmentId(location));
+		ByteBuffer record = ByteBuffer.allocate(index.getWeight(entry));
+		try {
+			readFully(segment.channel, record, offset(location));
+		} catch (IOException e) {
+			log.warn("Could not read disk cache entry for key '" + key + "'", e);
+			index.remove(entry);
+			misses.incrementAndGet();
+			return null;
+		}
+
+		if (checksum(record.array()) != record.getInt(0)) {
+			log.warn("Discarding damaged disk cache entry for key '" + key + "'");
+			index.remove(entry);
+			misses.incrementAndGet();
+			return null;
+		}
+
+		int keyLength = record.getInt(4);
+		int valueLength = record.getInt(8);
+		hits.incrementAndGet();
+		return new String(record.array(), HEADER_SIZE + keyLength, valueLength, UTF_8);
+	}
+
+	/**
+	 * Caches the given key-value pair, replacing any cached value for the key.
+	 * Values too large to fit in a segment are not cached.
+	 *
+	 * @param key The key
+	 * @param value The value
+	 */
+	public synchronized void put(String key, String value) {
+		byte[] keyBytes = key.getBytes(UTF_8);
+		byte[] valueBytes = value.getBytes(UTF_8);
+		int length = HEADER_SIZE + keyBytes.length + valueBytes.length;
+		CompactKey compactKey = CompactKey.of(key);
+		if (length > segmentSize) {
+			removeFromIndex(compactKey);
+			return;
+		}
+
+		try {
+			long location = append(keyBytes, valueBytes, valueBytes.length);
+			updateIndex(compactKey, location, length);
+		} catch (IOException e) {
+			log.warn("Could not write disk cache entry for key '" + key + "'", e);
+			removeFromIndex(compactKey);
+		}
+		evictSegments();
+	}
+
+	/**
+	 * Demotes an entry evicted from the memory cache into this cache.
+	 */
+	@Override
+	public void onEviction(String key, String value) {
+		put(key, value);
+	}
+
+	/**
+	 * Discards the cached value for the given key, which is being written. A
+	 * tombstone is appended so that the value is not recovered after a restart.
+	 *
+	 * @param key The key being written
+	 */
+	public synchronized void invalidate(String key) {
+		CompactKey compactKey = CompactKey.of(key);
+		if (!removeFromIndex(compactKey)) return;
+
+		try {
+			append(key.getBytes(UTF_8), new byte[0], TOMBSTONE);
+		} catch (IOException e) {
+			log.warn("Could not write disk cache tombstone for key '" + key + "'", e);
+		}
+		evictSegments();
+	}
+
+	/**
+	 * Discards all cached values, deleting every segment.
+	 */
+	public synchronized void clear() {
+		log.info("Clearing disk cache");
+		index.clear();
+		while (!segments.isEmpty()) {
+			deleteSegment(segments.removeFirst());
+		}
+		size = 0;
+
+		try {
+			segments.addLast(newSegment());
+		} catch (IOException e) {
+			log.error("Could not create disk cache segment", e);
+		}
+	}
+
+	/**
+	 * Closes the segment files. The cache must not be used afterwards.
+	 */
+	public synchronized void close() {
+		for (Segment segment : segments) {
+			try {
+				segment.channel.force(false);
+				segment.channel.close();
+			} catch (IOException e) {
+				log.warn("Could not close disk cache segment " + segment.file, e);
+			}
+		}
+	}
+
+	/**
+	 * Appends a record to the newest segment, starting a new segment first if it
+	 * would not fit.
+	 *
+	 * @return The location of the record
+	 */
+	private long append(byte[] key, byte[] value, int valueLength) throws IOException {
+		int length = HEADER_SIZE + key.length + value.length;
+		Segment segment = segments.peekLast();
+		if (segment == null || (segment.size > 0 && segment.size + length > segmentSize)) {
+			segment = newSegment();
+			segments.addLast(segment);
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(length);
+		record.putInt(0).putInt(key.length).putInt(valueLength).put(key).put(value);
+		record.putInt(0, checksum(record.array()));
+		record.flip();
+
+		long position = segment.size;
+		while (record.hasRemaining()) {
+			segment.channel.write(record, position + record.position());
+		}
+		segment.size += length;
+		size += length;
+
+		return location(segment.id, position);
+	}
+
+	/**
+	 * Deletes the oldest segments, along with their entries, until the total size
+	 * is within the capacity. The newest segment is never deleted.
+	 */
+	private void evictSegments() {
+		while (size > capacity && segments.size() > 1) {
+			Segment oldest = segments.removeFirst();
+
+			// entries are ordered by location, so those in the oldest segment come first
+			int entry = index.first();
+			while (entry != CompactKeyMap.NO_ENTRY && segmentId(index.getValue(entry)) == oldest.id) {
+				index.remove(entry);
+				entry = index.first();
+			}
+
+			size -= oldest.size;
+			deleteSegment(oldest);
+			log.debug("Evicted disk cache segment " + oldest.file);
+		}
+	}
+
+	private void deleteSegment(Segment segment) {
+		try {
+			segment.channel.close();
+		} catch (IOException e) {
+			log.warn("Could not close disk cache segment " + segment.file, e);
+		}
+		if (!segment.file.delete()) {
+			log.warn("Could not delete disk cache segment " + segment.file);
+		}
+	}
+
+	private Segment findSegment(int id) {
+		for (Segment segment : segments) {
+			if (segment.id == id) return segment;
+		}
+		throw new IllegalStateException("Disk cache segment " + id + " not found");
+	}
+
+	/**
+	 * Points the index entry for the given key at a newly appended record, moving
+	 * it to the end of the order list so that entries remain ordered by location.
+	 */
+	private void updateIndex(CompactKey key, long location, int length) {
+		int entry = index.find(key);
+		if (entry == CompactKeyMap.NO_ENTRY) {
+			entry = index.add(key, location);
+		} else {
+			index.setValue(entry, location);
+			index.moveToBack(entry);
+		}
+		index.setWeight(entry, length);
+	}
+
+	private boolean removeFromIndex(CompactKey key) {
+		int entry = index.find(key);
+		if (entry == CompactKeyMap.NO_ENTRY) return false;
+		index.remove(entry);
+		return true;
+	}
+
+	private static long location(int segmentId, long offset) {
+		return ((long) segmentId << 32) | offset;
+	}
+
+	private static int segmentId(long location) {
+		return (int) (location >>> 32);
+	}
+
+	private static long offset(long location) {
+		return location & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Computes the checksum of a record, excluding its checksum field.
+	 */
+	private static int checksum(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record, Integer.BYTES, record.length - Integer.BYTES);
+		return (int) crc.getValue();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of disk cache segment");
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of lookups which found a cached value.
+	 *
+	 * @return The hit count
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find a cached value.
+	 *
+	 * @return The miss count
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the total size of the segment files, including superseded records.
+	 *
+	 * @return The size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of cached values.
+	 *
+	 * @return The number of entries
+	 */
+	public synchronized int getEntryCount() {
+		return index.size();
+	}
+
+	/**
+	 * A segment file, which is open for both reading and appending.
+	 */
+	private static class Segment {
+		private final int id;
+		private final File file;
+		private final FileChannel channel;
+		private long size;
+
+		private Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.size = channel.size();
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package app_kvServer.cache;
+
+/**
+ * A callback for key-value entries which are evicted from a {@link KVCache}
+ * by its replacement strategy. Entries removed by explicit deletion or by
+ * clearing the cache are not considered evictions.
+ */
+@FunctionalInterface
+public interface EvictionListener {
+
+	/**
+	 * Invoked after an entry has been evicted from the cache.
+	 *
+	 * @param key The key of the evicted entry
+	 * @param value The value of the evicted entry
+	 */
+	public void onEviction(String key, String value);
+
+}
@@ -1,14 +1,10 @@
 package app_kvServer.cache;
 
-import java.util.AbstractMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import java.util.Set;
-
 import app_kvServer.IKVServer.CacheStrategy;
 
 /**
@@ -19,13 +15,11 @@ public class FifoCache extends AbstractCache {
 
 	private static Logger log = Logger.getLogger(KVCache.class);
 
-	private Set<String> keys = new LinkedHashSet<>();
-
 	/**
 	 * Creates a FIFO cache with an initial capacity of 0.
 	 */
 	public FifoCache() {
-		log.info("Created FIFO cache");
+		log.debug("Created FIFO cache");
 	}
 
 	@Override
@@ -34,35 +28,32 @@ public class FifoCache extends AbstractCache {
 	}
 
 	@Override
-	protected void registerUsage(String key) {
-		// only care about first usage
-		if (!keys.contains(key)) {
-			keys.add(key);
-			log.debug("Recorded first usage for key: " + key);
-		}
+	protected void registerUsage(int entry) {
+		// only care about first usage, which appended the entry to the order list
 	}
 
 	@Override
-	protected Entry<String, String> evict() {
-		Iterator<String> iterator = keys.iterator();
-		if (iterator.hasNext()) {
-			String oldestKey = iterator.next();
-
-			keys.remove(oldestKey);
-			String value = removeKey(oldestKey);
-
-			log.debug("Evicted oldest key: " + oldestKey);
-
-			return new AbstractMap.SimpleEntry<>(oldestKey, value);
+	protected int selectVictim() {
+		int oldestEntry = getData().first();
+		if (oldestEntry != CompactKeyMap.NO_ENTRY && log.isDebugEnabled()) {
+			log.debug("Evicting oldest key: " + getData().getKey(oldestEntry));
 		}
-
-		return null;
+		return oldestEntry;
 	}
 
 	@Override
-	public void clear() {
-		super.clear();
-		keys.clear();
+	public Map<String, Integer> getPolicyState() {
+		getLock().lock();
+		try {
+			Map<String, Integer> state = new LinkedHashMap<>();
+			CompactKeyMap<String> data = getData();
+			for (int entry = data.first(); entry != CompactKeyMap.NO_ENTRY; entry = data.next(entry)) {
+				state.put(data.getKey(entry).toString(), 1);
+			}
+			return state;
+		} finally {
+			getLock().unlock();
+		}
 	}
 
 }
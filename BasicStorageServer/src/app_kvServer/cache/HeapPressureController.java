@@ -0,0 +1,346 @@
+package app_kvServer.cache;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Adjusts the capacity of a cache according to the pressure on the heap, so
+ * that servers sharing a host neither waste memory on undersized caches nor
+ * run out of memory with oversized ones.
+ * <p>
+ * The heap usage is evaluated periodically, as a fraction of the maximum size.
+ * Since the usage reflects the live data found by the most recent collection,
+ * the cache is only resized once another collection has occurred since the
+ * previous evaluation, so that the effect of each resize is observed before
+ * the next. Above the high watermark, the cache is shrunk by a quarter, evicting entries
+ * immediately so that they can be reclaimed before the old generation fills
+ * and triggers a full collection. Below the low watermark, the cache is grown
+ * by a tenth. The capacity is kept within the configured bounds.
+ * <p>
+ * When started, the controller also asks the JVM to report old generation
+ * collections which leave the pool above the high watermark, and evaluates the
+ * heap usage as soon as one is reported, rather than waiting for the next
+ * period.
+ * <p>
+ * Resizing is performed while holding a lock supplied on construction. This
+ * must be the same lock which guards all other access to the cache.
+ */
+public class HeapPressureController {
+
+	private static final Logger log = Logger.getLogger(HeapPressureController.class);
+
+	/** The fraction of its capacity by which the cache is shrunk under pressure. */
+	private static final double SHRINK_FACTOR = 0.25;
+
+	/** The fraction of its capacity by which the cache is grown without pressure. */
+	private static final double GROW_FACTOR = 0.1;
+
+	private final Supplier<KVCache> cacheSupplier;
+	private final Lock cacheLock;
+	private final DoubleSupplier heapUsage;
+	private final LongSupplier collectionCount;
+	private int minSize;
+	private int maxSize;
+	private final double lowWatermark;
+	private final double highWatermark;
+
+	private final AtomicLong grows = new AtomicLong();
+	private final AtomicLong shrinks = new AtomicLong();
+	private volatile double lastUsage = 0;
+	private long lastCollectionCount;
+
+	private Thread controllerThread = null;
+	private boolean pressureReported = false;
+	private NotificationListener collectionListener = null;
+
+	/**
+	 * Creates a controller for the cache provided by the given supplier. The
+	 * supplier is consulted on every evaluation, so that the controller follows
+	 * the cache if it is replaced.
+	 *
+	 * @param cacheSupplier Provides the cache to resize, or <code>null</code> if
+	 *            there is none
+	 * @param cacheLock The lock which guards the cache
+	 * @param heapUsage Provides the current heap usage, between 0 and 1
+	 * @param collectionCount Provides the number of collections which may have
+	 *            changed the heap usage
+	 * @param minSize The smallest capacity to which the cache is shrunk
+	 * @param maxSize The largest capacity to which the cache is grown
+	 * @param lowWatermark The heap usage below which the cache is grown
+	 * @param highWatermark The heap usage above which the cache is shrunk
+	 * @throws IllegalArgumentException If the bounds or watermarks are
+	 *             inconsistent
+	 */
+	public HeapPressureController(Supplier<KVCache> cacheSupplier, Lock cacheLock, DoubleSupplier heapUsage,
+			LongSupplier collectionCount, int minSize, int maxSize, double lowWatermark, double highWatermark)
+			throws IllegalArgumentException {
+		checkSizeBounds(minSize, maxSize);
+		if (lowWatermark < 0 || highWatermark > 1 || highWatermark <= lowWatermark) {
+			throw new IllegalArgumentException("Invalid heap watermarks " + lowWatermark + " and " + highWatermark);
+		}
+
+		this.cacheSupplier = cacheSupplier;
+		this.cacheLock = cacheLock;
+		this.heapUsage = heapUsage;
+		this.collectionCount = collectionCount;
+		this.lastCollectionCount = collectionCount.getAsLong();
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+
+	private static void checkSizeBounds(int minSize, int maxSize) throws IllegalArgumentException {
+		if (minSize < 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid cache size bounds [" + minSize + "," + maxSize + "]");
+		}
+	}
+
+	/**
+	 * Changes the bounds within which the cache is resized, e.g. after the cache
+	 * has been reconfigured with a new size. The cache itself is not resized
+	 * until the next evaluation.
+	 *
+	 * @param minSize The smallest capacity to which the cache is shrunk
+	 * @param maxSize The largest capacity to which the cache is grown
+	 * @throws IllegalArgumentException If the bounds are inconsistent
+	 */
+	public void setSizeBounds(int minSize, int maxSize) throws IllegalArgumentException {
+		checkSizeBounds(minSize, maxSize);
+
+		cacheLock.lock();
+		try {
+			this.minSize = minSize;
+			this.maxSize = maxSize;
+		} finally {
+			cacheLock.unlock();
+		}
+		log.info("Changed heap pressure controller cache size bounds to [" + minSize + "," + maxSize + "]");
+	}
+
+	/**
+	 * Returns a supplier of the heap usage of this JVM. This is the occupancy of
+	 * the old generation after its most recent collection, which reflects the
+	 * amount of live data better than the current occupancy. If the old
+	 * generation cannot be identified, the current occupancy of the whole heap is
+	 * used instead.
+	 *
+	 * @return The heap usage supplier
+	 */
+	public static DoubleSupplier getHeapUsage() {
+		MemoryPoolMXBean pool = findOldGenerationPool();
+		if (pool == null) {
+			return () -> toFraction(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage());
+		}
+		return () -> toFraction(pool.getCollectionUsage());
+	}
+
+	/**
+	 * Returns a supplier of the number of collections which may have changed the
+	 * heap usage reported by {@link #getHeapUsage()}. This is the number of
+	 * collections by the collectors which manage the old generation, or by all
+	 * collectors if the old generation cannot be identified.
+	 *
+	 * @return The collection count supplier
+	 */
+	public static LongSupplier getCollectionCount() {
+		MemoryPoolMXBean pool = findOldGenerationPool();
+		return () -> {
+			long count = 0;
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (pool == null || Arrays.asList(collector.getMemoryPoolNames()).contains(pool.getName())) {
+					count += Math.max(0, collector.getCollectionCount());
+				}
+			}
+			return count;
+		};
+	}
+
+	private static double toFraction(MemoryUsage usage) {
+		if (usage == null) return 0;
+		long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+		return (double) usage.getUsed() / max;
+	}
+
+	/**
+	 * Finds the memory pool holding the old generation. Of the heap pools, only
+	 * the old generation supports both usage and collection usage thresholds.
+	 *
+	 * @return The old generation pool, or <code>null</code> if none is found
+	 */
+	private static MemoryPoolMXBean findOldGenerationPool() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP
+					&& pool.isUsageThresholdSupported()
+					&& pool.isCollectionUsageThresholdSupported()) {
+				return pool;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts evaluating the heap usage periodically on a background thread, and
+	 * whenever an old generation collection leaves the pool above the high
+	 * watermark. Does nothing if the controller is already running.
+	 *
+	 * @param interval The time in milliseconds between evaluations
+	 */
+	public synchronized void start(long interval) {
+		if (controllerThread != null) return;
+
+		listenForCollections();
+
+		controllerThread = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					synchronized (this) {
+						if (!pressureReported) wait(interval);
+						pressureReported = false;
+					}
+					evaluate();
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}, "heap-pressure-controller");
+		controllerThread.setDaemon(true);
+		controllerThread.start();
+		log.info("Started heap pressure controller with cache size bounds [" + minSize + "," + maxSize + "]"
+				+ " and heap watermarks " + lowWatermark + " and " + highWatermark);
+	}
+
+	/**
+	 * Sets a collection usage threshold on the old generation at the high
+	 * watermark, and wakes the controller thread whenever it is exceeded.
+	 */
+	private void listenForCollections() {
+		MemoryPoolMXBean pool = findOldGenerationPool();
+		if (pool == null || pool.getUsage().getMax() <= 0) {
+			log.warn("Old generation pool not found; heap usage will only be evaluated periodically");
+			return;
+		}
+
+		pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * highWatermark));
+		collectionListener = (notification, handback) -> {
+			synchronized (this) {
+				pressureReported = true;
+				notifyAll();
+			}
+		};
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(collectionListener,
+				notification -> MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+						.equals(notification.getType()),
+				null);
+	}
+
+	/**
+	 * Stops the controller thread, leaving the cache at its current size.
+	 */
+	public synchronized void close() {
+		if (controllerThread != null) {
+			controllerThread.interrupt();
+			controllerThread = null;
+		}
+		if (collectionListener != null) {
+			try {
+				((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+						.removeNotificationListener(collectionListener);
+			} catch (ListenerNotFoundException e) {
+				log.warn("Collection listener already removed", e);
+			}
+			collectionListener = null;
+		}
+	}
+
+	/**
+	 * Evaluates the current heap usage and resizes the cache if necessary. Does
+	 * nothing if no collection has occurred since the last evaluation which could
+	 * have resized the cache.
+	 */
+	public void evaluate() {
+		double usage = heapUsage.getAsDouble();
+		lastUsage = usage;
+
+		cacheLock.lock();
+		try {
+			// the usage is unchanged until the next collection, and may not yet reflect the last resize
+			long collections = collectionCount.getAsLong();
+			if (collections == lastCollectionCount) {
+				log.debug(String.format("Heap usage %.3f; no collection since the last evaluation", usage));
+				return;
+			}
+			lastCollectionCount = collections;
+
+			KVCache cache = cacheSupplier.get();
+			if (cache == null) return;
+
+			int size = cache.getCacheSize();
+			int newSize = size;
+			if (usage >= highWatermark && size > minSize) {
+				newSize = Math.max(minSize, (int) (size * (1 - SHRINK_FACTOR)));
+			} else if (usage < lowWatermark && size < maxSize) {
+				newSize = Math.min(maxSize, size + Math.max(1, (int) (size * GROW_FACTOR)));
+			}
+
+			if (newSize == size) {
+				log.debug(String.format("Heap usage %.3f; keeping cache size %d", usage, size));
+				return;
+			}
+
+			log.info(String.format("Heap usage %.3f; resizing cache from %d to %d", usage, size, newSize));
+			cache.setCacheSize(newSize);
+			if (newSize > size) {
+				grows.incrementAndGet();
+			} else {
+				shrinks.incrementAndGet();
+			}
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the heap usage observed by the latest evaluation.
+	 *
+	 * @return The heap usage, between 0 and 1
+	 */
+	public double getLastUsage() {
+		return lastUsage;
+	}
+
+	/**
+	 * Returns the number of times the cache has been grown.
+	 *
+	 * @return The grow count
+	 */
+	public long getGrowCount() {
+		return grows.get();
+	}
+
+	/**
+	 * Returns the number of times the cache has been shrunk.
+	 *
+	 * @return The shrink count
+	 */
+	public long getShrinkCount() {
+		return shrinks.get();
+	}
+
+}
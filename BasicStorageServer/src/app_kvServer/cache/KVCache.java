@@ -1,5 +1,10 @@
 package app_kvServer.cache;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 import app_kvServer.IKVServer.CacheStrategy;
 
 /**
@@ -7,6 +12,50 @@ import app_kvServer.IKVServer.CacheStrategy;
  */
 public interface KVCache {
 
+	/**
+	 * Creates an empty cache implementing the given replacement strategy.
+	 * 
+	 * @param strategy The replacement strategy
+	 * @param size The capacity of the cache
+	 * @return The new cache, or <code>null</code> if the strategy is
+	 *         {@link CacheStrategy#None}
+	 * @throws IllegalArgumentException If a negative size is provided
+	 */
+	public static KVCache create(CacheStrategy strategy, int size) throws IllegalArgumentException {
+		KVCache cache;
+		switch (strategy) {
+		case FIFO:
+			cache = new FifoCache();
+			break;
+		case LRU:
+			cache = new LruCache();
+			break;
+		case LFU:
+			cache = new LfuCache();
+			break;
+		case ADAPTIVE:
+			cache = new AdaptiveCache();
+			break;
+		default:
+			return null;
+		}
+		cache.setCacheSize(size);
+		return cache;
+	}
+
+	/**
+	 * Returns the strategies which are implemented by a single replacement
+	 * policy, i.e. all strategies other than {@link CacheStrategy#None} and
+	 * {@link CacheStrategy#ADAPTIVE}.
+	 * 
+	 * @return The replacement policy strategies
+	 */
+	public static List<CacheStrategy> getReplacementPolicies() {
+		return Arrays.stream(CacheStrategy.values())
+				.filter(strategy -> strategy != CacheStrategy.None && strategy != CacheStrategy.ADAPTIVE)
+				.collect(Collectors.toList());
+	}
+
 	/**
 	 * Returns the replacement strategy implemented by this cache.
 	 * 
@@ -48,6 +97,15 @@ public interface KVCache {
 	 */
 	public String get(String key);
 
+	/**
+	 * Retrieves the corresponding value for the specified key without recording a
+	 * usage of the key or a lookup in the statistics of this cache.
+	 * 
+	 * @param key The key to retrieve the value for
+	 * @return The associated value, or <code>null</code> if no such entry exists
+	 */
+	public String peek(String key);
+
 	/**
 	 * Adds, updates, or deletes the specified key-value pair for this cache.
 	 * 
@@ -64,4 +122,46 @@ public interface KVCache {
 	 */
 	public void clear();
 
+	/**
+	 * Returns a snapshot of the replacement strategy state of this cache. The
+	 * entries of the returned map are ordered from the next entry to be evicted to
+	 * the last, and map each cached key to a weight describing its usage. For
+	 * frequency-based strategies this is the usage count of the key; otherwise it
+	 * is 1, and the state is conveyed by ordering alone.
+	 * 
+	 * @return An ordered map of cached keys to weights
+	 */
+	public Map<String, Integer> getPolicyState();
+
+	/**
+	 * Inserts the specified key-value pair with the given replacement strategy
+	 * state, as previously reported by {@link #getPolicyState()}. Unlike
+	 * {@link #put(String, String)}, this never evicts other entries and never
+	 * replaces an existing entry, so that warming the cache cannot displace data
+	 * brought in by actual requests. To restore the relative ordering of entries,
+	 * pairs should be warmed in the order given by {@link #getPolicyState()}.
+	 * 
+	 * @param key The key to insert
+	 * @param value The value to insert
+	 * @param weight The usage weight of the key
+	 * @return <code>true</code> if the entry was inserted, <code>false</code> if
+	 *         the key is already present or the cache is full
+	 */
+	public boolean warm(String key, String value, int weight);
+
+	/**
+	 * Returns the usage statistics for this cache.
+	 * 
+	 * @return The statistics
+	 */
+	public CacheStatistics getStatistics();
+
+	/**
+	 * Registers a listener to be notified whenever an entry is evicted from this
+	 * cache to make room for another entry or to satisfy a reduced capacity.
+	 *
+	 * @param listener The listener to add
+	 */
+	public void addEvictionListener(EvictionListener listener);
+
 }
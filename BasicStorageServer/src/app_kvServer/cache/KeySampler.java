@@ -0,0 +1,66 @@
+package app_kvServer.cache;
+
+/**
+ * Selects a fixed fraction of keys for simulation, based on a hash of the key.
+ * Since the decision depends only on the key, every access to a sampled key is
+ * sampled, which preserves the reuse patterns of the sampled keys. This is the
+ * spatial sampling used by the SHARDS technique for miss ratio curve
+ * estimation.
+ */
+public class KeySampler {
+
+	/** The modulus for the sampling hash. */
+	private static final int SAMPLING_MODULUS = 1 << 24;
+
+	private final double sampleRate;
+	private final int threshold;
+
+	/**
+	 * Creates a sampler selecting the given fraction of keys.
+	 *
+	 * @param sampleRate The fraction of keys to sample, between 0 and 1
+	 * @throws IllegalArgumentException If the sample rate is out of range
+	 */
+	public KeySampler(double sampleRate) throws IllegalArgumentException {
+		if (sampleRate <= 0 || sampleRate > 1) {
+			throw new IllegalArgumentException("Sample rate must be in the range (0,1]");
+		}
+		this.sampleRate = sampleRate;
+		this.threshold = (int) Math.round(sampleRate * SAMPLING_MODULUS);
+	}
+
+	/**
+	 * Returns the fraction of keys selected by this sampler.
+	 *
+	 * @return The sample rate
+	 */
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Scales the given cache size by the sample rate, for use as the size of a
+	 * cache which only sees sampled keys.
+	 *
+	 * @param size The size to scale
+	 * @return The scaled size, which is at least 1
+	 */
+	public int scale(int size) {
+		return Math.max(1, (int) Math.round(size * sampleRate));
+	}
+
+	/**
+	 * Determines whether accesses to the given key are sampled.
+	 *
+	 * @param key The key to check
+	 * @return <code>true</code> if the key is sampled, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean isSampled(String key) {
+		// spread the bits of the string hash, since similar keys hash similarly
+		int h = key.hashCode() * 0x9E3779B9;
+		h ^= h >>> 16;
+		return (h & (SAMPLING_MODULUS - 1)) < threshold;
+	}
+
+}
@@ -1,35 +1,35 @@
 package app_kvServer.cache;
 
-import java.util.AbstractMap.SimpleEntry;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer.CacheStrategy;
 
 /**
- * A cache implementing the FIFO strategy. Keeps track of the usage frequency of
- * keys and chooses the least frequently used key for eviction.
+ * A cache implementing the LFU strategy. Keeps track of the usage frequency of
+ * keys and chooses the least frequently used key for eviction. Ties are broken
+ * by choosing the smallest key.
+ * <p>
+ * Frequencies are held as the weights of the cache entries, and entries are
+ * ordered by a binary min-heap of entry handles, which records the position of
+ * each entry so that it can be adjusted in place when its frequency changes.
  */
 public class LfuCache extends AbstractCache {
 
 	private static Logger log = Logger.getLogger(KVCache.class);
 
-	private Map<String, FrequencyKeyPair> keys;
-	private SortedSet<FrequencyKeyPair> usages;
+	private int[] heap = new int[16];
+	private int[] heapPositions = new int[16];
+	private int heapSize = 0;
 
 	/**
 	 * Creates a LFU cache with an initial capacity of 0.
 	 */
 	public LfuCache() {
-		usages = new TreeSet<>();
-		keys = new HashMap<>();
-		log.info("Created LFU cache");
+		log.debug("Created LFU cache");
 	}
 
 	@Override
@@ -38,79 +38,127 @@ public class LfuCache extends AbstractCache {
 	}
 
 	@Override
-	protected void registerUsage(String key) {
-		if (keys.containsKey(key)) {
-			FrequencyKeyPair fkp = keys.get(key);
-			FrequencyKeyPair newFkp = fkp.incrementUsages();
-			keys.put(key, newFkp);
-			usages.remove(fkp);
-			usages.add(newFkp);
+	protected void registerUsage(int entry) {
+		CompactKeyMap<String> data = getData();
+		int frequency = data.getWeight(entry);
+		data.setWeight(entry, frequency + 1);
+
+		if (frequency == 0) {
+			heapInsert(entry);
 		} else {
-			FrequencyKeyPair fkp = new FrequencyKeyPair(key, 1);
-			keys.put(key, fkp);
-			usages.add(fkp);
+			// frequencies only increase, so the entry can only move down
+			siftDown(heapPositions[entry]);
 		}
 
-		log.debug("Recorded usage for key: " + key);
+		if (log.isDebugEnabled()) {
+			log.debug("Recorded usage for key: " + data.getKey(entry));
+		}
+	}
+
+	@Override
+	protected void restoreUsage(int entry, int weight) {
+		getData().setWeight(entry, Math.max(1, weight));
+		heapInsert(entry);
 	}
 
 	@Override
-	protected Entry<String, String> evict() {
-		Iterator<FrequencyKeyPair> iterator = usages.iterator();
-		if (iterator.hasNext()) {
-			FrequencyKeyPair lfuFkp = iterator.next();
-			String lfuKey = lfuFkp.key;
-			String lfuValue = removeKey(lfuKey);
-			usages.remove(lfuFkp);
-			keys.remove(lfuKey);
+	protected void unregister(int entry) {
+		int position = heapPositions[entry];
+		heapSize--;
+		if (position != heapSize) {
+			// fill the hole with the last entry, which may belong above or below it
+			int moved = heap[heapSize];
+			place(moved, position);
+			siftDown(position);
+			siftUp(heapPositions[moved]);
+		}
+	}
 
-			return new SimpleEntry<>(lfuKey, lfuValue);
+	@Override
+	protected int selectVictim() {
+		return heapSize > 0 ? heap[0] : CompactKeyMap.NO_ENTRY;
+	}
 
-		} else {
-			return null;
+	@Override
+	public Map<String, Integer> getPolicyState() {
+		getLock().lock();
+		try {
+			CompactKeyMap<String> data = getData();
+			Integer[] entries = new Integer[heapSize];
+			for (int i = 0; i < heapSize; i++) {
+				entries[i] = heap[i];
+			}
+			Arrays.sort(entries, (a, b) -> precedes(a, b) ? -1 : precedes(b, a) ? 1 : 0);
+
+			Map<String, Integer> state = new LinkedHashMap<>();
+			for (int entry : entries) {
+				state.put(data.getKey(entry).toString(), data.getWeight(entry));
+			}
+			return state;
+		} finally {
+			getLock().unlock();
 		}
 	}
 
 	@Override
 	public void clear() {
-		super.clear();
-		usages.clear();
-		keys.clear();
+		getLock().lock();
+		try {
+			super.clear();
+			heapSize = 0;
+		} finally {
+			getLock().unlock();
+		}
 	}
 
 	/**
-	 * An immutable object holding a key and its number of occurrences.
+	 * Determines whether the first entry should be evicted before the second.
 	 */
-	private class FrequencyKeyPair implements Comparable<FrequencyKeyPair> {
-		private final String key;
-		private final int frequency;
-
-		/**
-		 * Creates a new FK pair.
-		 * 
-		 * @param key The key to set
-		 * @param frequency The occurrences to set
-		 */
-		public FrequencyKeyPair(String key, int frequency) {
-			this.key = key;
-			this.frequency = frequency;
+	private boolean precedes(int a, int b) {
+		CompactKeyMap<String> data = getData();
+		int diff = data.getWeight(a) - data.getWeight(b);
+		if (diff == 0) diff = data.compareKeys(a, b);
+		return diff < 0;
+	}
+
+	private void heapInsert(int entry) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heap.length * 2);
 		}
+		place(entry, heapSize++);
+		siftUp(heapSize - 1);
+	}
 
-		/**
-		 * Creates a new FK pair with the same key and frequency increased by one.
-		 * 
-		 * @return An incremented FK pair
-		 */
-		public FrequencyKeyPair incrementUsages() {
-			return new FrequencyKeyPair(key, frequency + 1);
+	private void place(int entry, int position) {
+		if (entry >= heapPositions.length) {
+			heapPositions = Arrays.copyOf(heapPositions, Math.max(entry + 1, heapPositions.length * 2));
 		}
+		heap[position] = entry;
+		heapPositions[entry] = position;
+	}
+
+	private void siftUp(int position) {
+		int entry = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) / 2;
+			if (!precedes(entry, heap[parent])) break;
+			place(heap[parent], position);
+			position = parent;
+		}
+		place(entry, position);
+	}
 
-		@Override
-		public int compareTo(FrequencyKeyPair o) {
-			int diff = this.frequency - o.frequency;
-			if (diff == 0) diff = this.key.compareTo(o.key);
-			return diff;
+	private void siftDown(int position) {
+		int entry = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && precedes(heap[child + 1], heap[child])) child++;
+			if (!precedes(heap[child], entry)) break;
+			place(heap[child], position);
+			position = child;
 		}
+		place(entry, position);
 	}
 
 }
@@ -1,16 +1,12 @@
 package app_kvServer.cache;
 
-import java.util.AbstractMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer.CacheStrategy;
 
-import java.util.Set;
-
 /**
  * A cache implementing the LRU strategy. Keeps track of the insertion order of
  * keys and treats usages as new insertions. Chooses the oldest key for
@@ -20,13 +16,11 @@ public class LruCache extends AbstractCache {
 
 	private static Logger log = Logger.getLogger(KVCache.class);
 
-	private Set<String> keys = new LinkedHashSet<>();
-
 	/**
 	 * Creates a LRU cache with an initial capacity of 0.
 	 */
 	public LruCache() {
-		log.info("Created LRU cache");
+		log.debug("Created LRU cache");
 	}
 
 	@Override
@@ -35,37 +29,36 @@ public class LruCache extends AbstractCache {
 	}
 
 	@Override
-	protected void registerUsage(String key) {
-		if (keys.contains(key)) {
-			keys.remove(key);
-		}
+	protected void registerUsage(int entry) {
+		getData().moveToBack(entry);
 
-		keys.add(key);
-
-		log.info("Recorded usage for key: " + key);
+		if (log.isDebugEnabled()) {
+			log.debug("Recorded usage for key: " + getData().getKey(entry));
+		}
 	}
 
 	@Override
-	protected Entry<String, String> evict() {
-		Iterator<String> iterator = keys.iterator();
-		if (iterator.hasNext()) {
-			String lruKey = iterator.next();
-
-			keys.remove(lruKey);
-			String value = removeKey(lruKey);
-
-			log.debug("Evicted least recently used key: " + lruKey);
-
-			return new AbstractMap.SimpleEntry<>(lruKey, value);
+	protected int selectVictim() {
+		int lruEntry = getData().first();
+		if (lruEntry != CompactKeyMap.NO_ENTRY && log.isDebugEnabled()) {
+			log.debug("Evicting least recently used key: " + getData().getKey(lruEntry));
 		}
-
-		return null;
+		return lruEntry;
 	}
 
 	@Override
-	public void clear() {
-		super.clear();
-		keys.clear();
+	public Map<String, Integer> getPolicyState() {
+		getLock().lock();
+		try {
+			Map<String, Integer> state = new LinkedHashMap<>();
+			CompactKeyMap<String> data = getData();
+			for (int entry = data.first(); entry != CompactKeyMap.NO_ENTRY; entry = data.next(entry)) {
+				state.put(data.getKey(entry).toString(), 1);
+			}
+			return state;
+		} finally {
+			getLock().unlock();
+		}
 	}
 
 }
@@ -0,0 +1,156 @@
+package app_kvServer.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import app_kvServer.IKVServer.CacheStrategy;
+
+/**
+ * Estimates the hit ratio that a cache would achieve at sizes and replacement
+ * strategies other than its own, by replaying a sample of the request stream
+ * against scaled-down "ghost" caches.
+ * <p>
+ * Keys are sampled spatially by a {@link KeySampler}, following the SHARDS
+ * technique, so that every access to a sampled key is observed. A ghost cache
+ * simulating a cache of size <code>s</code> is given a capacity of
+ * <code>s * R</code>, where <code>R</code> is the sampling rate. Ghost caches are instances of the actual
+ * cache implementations holding empty values, so that they follow exactly the
+ * same replacement policies. Their hit ratios are taken from their
+ * {@link CacheStatistics}.
+ * <p>
+ * This class is not thread-safe; callers must provide the same synchronization
+ * used for the real cache.
+ */
+public class MissRatioCurveEstimator {
+
+	/** The multiples of the base cache size which are simulated. */
+	private static final double[] SIZE_FACTORS = { 0.25, 0.5, 1, 2, 4 };
+
+	private static final String GHOST_VALUE = "";
+
+	private final KeySampler sampler;
+	private final List<Candidate> candidates;
+	private final AtomicLong samples = new AtomicLong();
+
+	/**
+	 * Creates an estimator simulating every replacement strategy at a range of
+	 * sizes around the given base size.
+	 *
+	 * @param baseSize The size of the real cache
+	 * @param sampleRate The fraction of keys to sample, between 0 and 1
+	 * @throws IllegalArgumentException If the sample rate is out of range
+	 */
+	public MissRatioCurveEstimator(int baseSize, double sampleRate) throws IllegalArgumentException {
+		this.sampler = new KeySampler(sampleRate);
+
+		List<Candidate> candidates = new ArrayList<>();
+		for (CacheStrategy strategy : KVCache.getReplacementPolicies()) {
+			for (double factor : SIZE_FACTORS) {
+				int size = Math.max(1, (int) Math.round(baseSize * factor));
+				candidates.add(new Candidate(strategy, size, KVCache.create(strategy, sampler.scale(size))));
+			}
+		}
+		this.candidates = Collections.unmodifiableList(candidates);
+	}
+
+	/**
+	 * Records a lookup of the given key. As with the real cache, a lookup which
+	 * misses does not insert the key by itself; the value loaded following the
+	 * miss must be recorded with {@link #recordPut(String, boolean)} once it is
+	 * added to the real cache.
+	 *
+	 * @param key The key which was looked up
+	 */
+	public void recordGet(String key) {
+		if (!sampler.isSampled(key)) return;
+		samples.incrementAndGet();
+		for (Candidate candidate : candidates) {
+			candidate.ghost.get(key);
+		}
+	}
+
+	/**
+	 * Records a write of the given key, or the addition of its value to the real
+	 * cache following a miss.
+	 *
+	 * @param key The key which was written
+	 * @param deleted <code>true</code> if the key was deleted, <code>false</code>
+	 *            if a value was written
+	 */
+	public void recordPut(String key, boolean deleted) {
+		if (!sampler.isSampled(key)) return;
+		for (Candidate candidate : candidates) {
+			candidate.ghost.put(key, deleted ? null : GHOST_VALUE);
+		}
+	}
+
+	/**
+	 * Returns the number of sampled lookups observed so far.
+	 *
+	 * @return The sample count
+	 */
+	public long getSampleCount() {
+		return samples.get();
+	}
+
+	/**
+	 * Returns the simulated cache configurations.
+	 *
+	 * @return An unmodifiable list of candidates
+	 */
+	public List<Candidate> getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * A single simulated cache configuration.
+	 */
+	public static class Candidate {
+		private final CacheStrategy strategy;
+		private final int size;
+		private final KVCache ghost;
+
+		/**
+		 * Creates a candidate configuration.
+		 *
+		 * @param strategy The simulated replacement strategy
+		 * @param size The simulated cache size
+		 * @param ghost The scaled-down cache performing the simulation
+		 */
+		private Candidate(CacheStrategy strategy, int size, KVCache ghost) {
+			this.strategy = strategy;
+			this.size = size;
+			this.ghost = ghost;
+		}
+
+		/**
+		 * Returns the simulated replacement strategy.
+		 *
+		 * @return The cache strategy
+		 */
+		public CacheStrategy getCacheStrategy() {
+			return strategy;
+		}
+
+		/**
+		 * Returns the simulated cache size.
+		 *
+		 * @return The cache size
+		 */
+		public int getCacheSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the estimated hit ratio of this configuration.
+		 *
+		 * @return The hit ratio, between 0 and 1
+		 */
+		public double getHitRatio() {
+			return ghost.getStatistics().getHitRatio();
+		}
+	}
+
+}
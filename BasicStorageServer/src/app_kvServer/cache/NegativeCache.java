@@ -0,0 +1,111 @@
+package app_kvServer.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded record of keys which are known to be absent from the persistence.
+ * Allows repeated lookups of nonexistent keys to be answered without reading
+ * the persistence. When full, the least recently looked up key is discarded.
+ * <p>
+ * Every write to a key, including writes of migrated data, must be reported
+ * via {@link #invalidate(String)} before the key is next looked up. This class
+ * is not thread-safe; callers must provide the same synchronization used for
+ * the persistence.
+ */
+public class NegativeCache {
+
+	private static final Logger log = Logger.getLogger(NegativeCache.class);
+
+	private final int capacity;
+	private final CompactKeyMap<Void> absentKeys = new CompactKeyMap<>();
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Creates a negative cache with the given capacity.
+	 *
+	 * @param capacity The maximum number of absent keys to remember
+	 * @throws IllegalArgumentException If the capacity is not positive
+	 */
+	public NegativeCache(int capacity) throws IllegalArgumentException {
+		if (capacity <= 0) throw new IllegalArgumentException("Negative cache capacity must be positive");
+
+		this.capacity = capacity;
+		log.info("Created negative cache with capacity " + capacity);
+	}
+
+	/**
+	 * Checks whether the given key is known to be absent from the persistence.
+	 *
+	 * @param key The key to check
+	 * @return <code>true</code> if the key is known to be absent,
+	 *         <code>false</code> if it may be present
+	 */
+	public boolean isAbsent(String key) {
+		int entry = absentKeys.find(CompactKey.of(key));
+		if (entry != CompactKeyMap.NO_ENTRY) {
+			absentKeys.moveToBack(entry);
+			hits.incrementAndGet();
+			log.debug("Negative cache hit for key '" + key + "'");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records that the given key was not found in the persistence.
+	 *
+	 * @param key The key which is absent
+	 */
+	public void markAbsent(String key) {
+		CompactKey compactKey = CompactKey.of(key);
+		int entry = absentKeys.find(compactKey);
+		if (entry != CompactKeyMap.NO_ENTRY) {
+			absentKeys.moveToBack(entry);
+			return;
+		}
+
+		absentKeys.add(compactKey, null);
+		if (absentKeys.size() > capacity) {
+			absentKeys.remove(absentKeys.first());
+		}
+	}
+
+	/**
+	 * Forgets that the given key is absent. Should be called whenever the key is
+	 * written.
+	 *
+	 * @param key The key which was written
+	 */
+	public void invalidate(String key) {
+		int entry = absentKeys.find(CompactKey.of(key));
+		if (entry != CompactKeyMap.NO_ENTRY) absentKeys.remove(entry);
+	}
+
+	/**
+	 * Forgets all absent keys.
+	 */
+	public void clear() {
+		absentKeys.clear();
+	}
+
+	/**
+	 * Returns the number of absent keys currently remembered.
+	 *
+	 * @return The number of keys
+	 */
+	public int size() {
+		return absentKeys.size();
+	}
+
+	/**
+	 * Returns the number of lookups which have been answered by this cache.
+	 *
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+}
@@ -0,0 +1,163 @@
+package app_kvServer.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import app_kvServer.KeyVersions;
+
+/**
+ * A bounded cache of fully encoded <code>GET_SUCCESS</code> responses in the
+ * binary wire format, keyed by the requested key. Allows reads of hot keys to be answered without building
+ * and serializing a new response message. When the total size of the cached
+ * responses exceeds the capacity, the least recently used responses are
+ * discarded.
+ * <p>
+ * Every write to a key must be reported via {@link #invalidate(String)}.
+ * Since a response is encoded after the value has been read, a write can occur
+ * between the read and the call to {@link #put(String, byte[], long)}. To avoid
+ * caching the stale response, callers must obtain the current
+ * {@link #getVersion(String) version} of the key before reading the value; the
+ * response is then only cached if the key has not been written since. Versions
+ * are tracked per key (see {@link KeyVersions}), so that writes to other keys
+ * do not prevent responses from being cached.
+ */
+public class ResponseCache {
+
+	private final long capacity;
+	private final CompactKeyMap<byte[]> responses = new CompactKeyMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final KeyVersions versions = new KeyVersions();
+
+	private long size = 0;
+
+	/**
+	 * Creates a response cache with the given capacity.
+	 *
+	 * @param capacity The maximum total size of the cached responses, in bytes
+	 * @throws IllegalArgumentException If the capacity is not positive
+	 */
+	public ResponseCache(long capacity) throws IllegalArgumentException {
+		if (capacity <= 0) throw new IllegalArgumentException("Response cache capacity must be positive");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Retrieves the encoded response for the given key.
+	 *
+	 * @param key The requested key
+	 * @return The encoded response, or <code>null</code> if it is not cached
+	 */
+	public synchronized byte[] get(String key) {
+		int entry = responses.find(CompactKey.of(key));
+		if (entry == CompactKeyMap.NO_ENTRY) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		responses.moveToBack(entry);
+		hits.incrementAndGet();
+		return responses.getValue(entry);
+	}
+
+	/**
+	 * Returns the current version of the given key, which changes whenever the
+	 * key is written.
+	 *
+	 * @param key The key
+	 * @return The version
+	 */
+	public synchronized long getVersion(String key) {
+		return versions.get(key);
+	}
+
+	/**
+	 * Caches the encoded response for the given key, provided that the key has
+	 * not been written since the given version was obtained.
+	 *
+	 * @param key The requested key
+	 * @param response The encoded response
+	 * @param version The version of the key obtained before the value was read
+	 * @return <code>true</code> if the response was cached, <code>false</code>
+	 *         otherwise
+	 */
+	public synchronized boolean put(String key, byte[] response, long version) {
+		if (version != versions.get(key) || response.length > capacity) return false;
+
+		CompactKey compactKey = CompactKey.of(key);
+		int entry = responses.find(compactKey);
+		if (entry != CompactKeyMap.NO_ENTRY) {
+			size -= responses.setValue(entry, response).length;
+			responses.moveToBack(entry);
+		} else {
+			responses.add(compactKey, response);
+		}
+		size += response.length;
+
+		while (size > capacity) {
+			int eldest = responses.first();
+			size -= responses.getValue(eldest).length;
+			responses.remove(eldest);
+		}
+		return true;
+	}
+
+	/**
+	 * Discards the cached response for the given key, which is being written.
+	 *
+	 * @param key The key being written
+	 */
+	public synchronized void invalidate(String key) {
+		versions.increment(key);
+		int entry = responses.find(CompactKey.of(key));
+		if (entry != CompactKeyMap.NO_ENTRY) {
+			size -= responses.getValue(entry).length;
+			responses.remove(entry);
+		}
+	}
+
+	/**
+	 * Discards all cached responses.
+	 */
+	public synchronized void clear() {
+		versions.incrementAll();
+		responses.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of lookups which found a cached response.
+	 *
+	 * @return The hit count
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find a cached response.
+	 *
+	 * @return The miss count
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the total size of the cached responses.
+	 *
+	 * @return The size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of cached responses.
+	 *
+	 * @return The number of entries
+	 */
+	public synchronized int getEntryCount() {
+		return responses.size();
+	}
+
+}
@@ -0,0 +1,255 @@
+package app_kvServer.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.persistence.KVPersistence;
+
+/**
+ * Tracks key-value entries which have been written to a cache operating in
+ * write-back mode, but not yet to the underlying persistence. Repeated updates
+ * to a dirty key are coalesced, and dirty entries are written to the
+ * persistence in batches by a background flusher thread. A dirty entry that is
+ * evicted from the cache is written immediately, so that every dirty entry is
+ * always resident in the cache.
+ * <p>
+ * All persistence access is performed while holding a lock supplied on
+ * construction. This must be the same lock which guards all other access to
+ * the persistence. The dirty entries themselves are guarded by a separate
+ * internal lock, which is always acquired after the persistence lock.
+ */
+public class WriteBackBuffer implements EvictionListener {
+
+	private static final Logger log = Logger.getLogger(WriteBackBuffer.class);
+
+	private final KVPersistence persistence;
+	private final Lock persistenceLock;
+	private final long flushInterval;
+	private final int batchSize;
+
+	private final Lock dirtyLock = new ReentrantLock();
+	private final Condition batchFull = dirtyLock.newCondition();
+
+	private Map<String, String> dirty = new LinkedHashMap<>();
+	private Thread flusherThread = null;
+
+	/**
+	 * Creates a write-back buffer for the given persistence.
+	 *
+	 * @param persistence The persistence to which dirty entries are flushed
+	 * @param persistenceLock The lock which guards the persistence
+	 * @param flushInterval The maximum time in milliseconds between flushes
+	 * @param batchSize The number of dirty entries which triggers an early flush
+	 */
+	public WriteBackBuffer(KVPersistence persistence, Lock persistenceLock, long flushInterval, int batchSize) {
+		this.persistence = persistence;
+		this.persistenceLock = persistenceLock;
+		this.flushInterval = flushInterval;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Starts the background flusher thread. Does nothing if the flusher is
+	 * already running.
+	 */
+	public void start() {
+		dirtyLock.lock();
+		try {
+			if (flusherThread != null) return;
+
+			flusherThread = new Thread(() -> {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						awaitBatch();
+						flush();
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}, "write-back-flusher");
+			flusherThread.setDaemon(true);
+			flusherThread.start();
+		} finally {
+			dirtyLock.unlock();
+		}
+		log.info("Started write-back flusher with interval " + flushInterval + " ms and batch size " + batchSize);
+	}
+
+	/**
+	 * Blocks until a full batch of dirty entries is pending or the flush interval
+	 * elapses, whichever happens first.
+	 */
+	private void awaitBatch() throws InterruptedException {
+		dirtyLock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+			while (dirty.size() < batchSize && remaining > 0) {
+				remaining = batchFull.awaitNanos(remaining);
+			}
+		} finally {
+			dirtyLock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the background flusher thread and writes all remaining dirty entries
+	 * to the persistence.
+	 */
+	public void close() {
+		Thread t;
+		dirtyLock.lock();
+		try {
+			t = flusherThread;
+			flusherThread = null;
+		} finally {
+			dirtyLock.unlock();
+		}
+
+		if (t != null) {
+			t.interrupt();
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				log.warn("Interrupted while waiting for write-back flusher to stop", e);
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Records a pending write of the given key-value pair. Replaces any pending
+	 * write for the same key.
+	 *
+	 * @param key The key which was written
+	 * @param value The new value for the key
+	 */
+	public void markDirty(String key, String value) {
+		dirtyLock.lock();
+		try {
+			dirty.put(key, value);
+			if (dirty.size() >= batchSize) batchFull.signalAll();
+		} finally {
+			dirtyLock.unlock();
+		}
+	}
+
+	/**
+	 * Discards the pending write for the given key, if any. Should be used when
+	 * the key is written to the persistence directly.
+	 *
+	 * @param key The key to discard
+	 */
+	public void discard(String key) {
+		dirtyLock.lock();
+		try {
+			dirty.remove(key);
+		} finally {
+			dirtyLock.unlock();
+		}
+	}
+
+	/**
+	 * Discards all pending writes.
+	 */
+	public void discardAll() {
+		dirtyLock.lock();
+		try {
+			dirty.clear();
+		} finally {
+			dirtyLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether there is a pending write for the given key.
+	 *
+	 * @param key The key to check
+	 * @return <code>true</code> if the key has not yet been flushed,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean isDirty(String key) {
+		dirtyLock.lock();
+		try {
+			return dirty.containsKey(key);
+		} finally {
+			dirtyLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of pending writes.
+	 *
+	 * @return The number of dirty entries
+	 */
+	public int size() {
+		dirtyLock.lock();
+		try {
+			return dirty.size();
+		} finally {
+			dirtyLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all pending writes to the persistence in a single batch. If the
+	 * batch cannot be written, its entries remain dirty.
+	 */
+	public void flush() {
+		persistenceLock.lock();
+		try {
+			Map<String, String> batch;
+			dirtyLock.lock();
+			try {
+				if (dirty.isEmpty()) return;
+				batch = dirty;
+				dirty = new LinkedHashMap<>();
+			} finally {
+				dirtyLock.unlock();
+			}
+
+			log.debug("Flushing " + batch.size() + " dirty entries to persistence");
+			if (!persistence.putAll(batch)) {
+				log.error("Could not flush " + batch.size() + " dirty entries; retrying on next flush");
+				dirtyLock.lock();
+				try {
+					batch.putAll(dirty); // more recent writes take precedence
+					dirty = batch;
+				} finally {
+					dirtyLock.unlock();
+				}
+			}
+		} finally {
+			persistenceLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the evicted entry to the persistence if it is dirty.
+	 */
+	@Override
+	public void onEviction(String key, String value) {
+		persistenceLock.lock();
+		try {
+			String pendingValue;
+			dirtyLock.lock();
+			try {
+				if (!dirty.containsKey(key)) return;
+				pendingValue = dirty.remove(key);
+			} finally {
+				dirtyLock.unlock();
+			}
+
+			log.debug("Flushing evicted dirty entry for key '" + key + "'");
+			persistence.put(key, pendingValue);
+		} finally {
+			persistenceLock.unlock();
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package app_kvServer.migration;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 
@@ -7,13 +8,25 @@ import com.google.gson.Gson;
 
 /**
  * This class provides the means to package key-value pairs for migration
- * between two servers.
+ * between two servers. A message carries either a set of key-value pairs, or a
+ * single chunk of a streamed value (see
+ * {@link app_kvServer.persistence.StreamStore StreamStore}), which is identified
+ * by the hash of its key.
  */
 public class MigrationMessage {
 
 	/** The actual data (i.e. key-value pairs) */
 	private Map<String, String> data;
 
+	/** The key hash of the streamed value to which the chunk belongs, if any */
+	private String streamHash;
+
+	/** The chunk of the streamed value */
+	private String streamChunk;
+
+	/** Whether the chunk is the last of the streamed value */
+	private boolean streamEnd;
+
 	/**
 	 * Creates a message containing the given key-value pairs.
 	 * 
@@ -23,6 +36,21 @@ public class MigrationMessage {
 		this.data = Objects.requireNonNull(data);
 	}
 
+	/**
+	 * Creates a message containing a chunk of a streamed value.
+	 * 
+	 * @param streamHash The MD5 hash of the key of the streamed value
+	 * @param streamChunk The chunk
+	 * @param streamEnd <code>true</code> if this is the last chunk of the value,
+	 *            <code>false</code> otherwise
+	 */
+	public MigrationMessage(String streamHash, String streamChunk, boolean streamEnd) {
+		this.data = Collections.emptyMap();
+		this.streamHash = Objects.requireNonNull(streamHash);
+		this.streamChunk = Objects.requireNonNull(streamChunk);
+		this.streamEnd = streamEnd;
+	}
+
 	/**
 	 * Retrieves the contained key-value pairs.
 	 * 
@@ -32,6 +60,37 @@ public class MigrationMessage {
 		return data;
 	}
 
+	/**
+	 * Retrieves the key hash of the streamed value to which the contained chunk
+	 * belongs.
+	 * 
+	 * @return The key hash, or <code>null</code> if this message contains
+	 *         key-value pairs
+	 */
+	public String getStreamHash() {
+		return streamHash;
+	}
+
+	/**
+	 * Retrieves the contained chunk of a streamed value.
+	 * 
+	 * @return The chunk, or <code>null</code> if this message contains key-value
+	 *         pairs
+	 */
+	public String getStreamChunk() {
+		return streamChunk;
+	}
+
+	/**
+	 * Checks whether the contained chunk is the last of its streamed value.
+	 * 
+	 * @return <code>true</code> if the chunk is the last, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean isStreamEnd() {
+		return streamEnd;
+	}
+
 	/**
 	 * Serializes this message as a JSON string.
 	 * 
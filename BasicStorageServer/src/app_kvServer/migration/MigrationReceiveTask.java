@@ -2,12 +2,14 @@ package app_kvServer.migration;
 
 import static common.zookeeper.ZKSession.FINISHED;
 
+import java.io.IOException;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
 
 import app_kvServer.KVServer;
+import app_kvServer.persistence.StreamStore;
 import common.zookeeper.ChangeNotificationWatcher;
 import common.zookeeper.ZKPathUtil;
 import common.zookeeper.ZKSession;
@@ -26,6 +28,9 @@ public class MigrationReceiveTask implements Runnable {
 	private final ZKSession zkSession;
 	private final KVServer kvServer;
 
+	private StreamStore.Upload streamUpload = null;
+	private String failedStreamHash = null;
+
 	/**
 	 * Creates a new task for the given server.
 	 * 
@@ -96,6 +101,13 @@ public class MigrationReceiveTask implements Runnable {
 			}
 		}
 
+		// a streamed value which was not completed is abandoned
+		if (streamUpload != null) {
+			log.warn("Abandoning incomplete migrated streamed value");
+			streamUpload.close();
+			streamUpload = null;
+		}
+
 		// finish transfer
 		try {
 			log.info("Deleting transfer znode");
@@ -124,12 +136,62 @@ public class MigrationReceiveTask implements Runnable {
 		}
 
 		MigrationMessage message = MigrationMessage.fromJSON(data);
+		if (message.getStreamHash() != null) {
+			processStreamChunk(message);
+			return false;
+		}
 		Map<String, String> kvPairs = message.getData();
 
 		// Insert the K/V pairs into persistence
 		log.info("Inserting " + kvPairs.size() + " into the persistence");
-		kvPairs.forEach(kvServer::putKV);
+		if (!kvServer.insertAll(kvPairs)) {
+			log.error("Could not insert " + kvPairs.size() + " migrated pairs into the persistence");
+		}
 
 		return false;
 	}
+
+	/**
+	 * Appends a chunk of a streamed value to the stream store, beginning a new
+	 * value if the chunk belongs to a different key than the previous one, and
+	 * committing the value with its last chunk. The remaining chunks of a value
+	 * which could not be stored are skipped, so that it is not stored partially.
+	 * 
+	 * @param message The message containing the chunk
+	 */
+	private void processStreamChunk(MigrationMessage message) {
+		StreamStore streamStore = kvServer.getStreamStore();
+		if (streamStore == null) {
+			log.error("Cannot receive migrated streamed values without a stream store");
+			return;
+		}
+		if (message.getStreamHash().equals(failedStreamHash)) {
+			if (message.isStreamEnd()) failedStreamHash = null;
+			return;
+		}
+
+		try {
+			if (streamUpload != null && !streamUpload.getKeyHash().equals(message.getStreamHash())) {
+				log.warn("Abandoning incomplete migrated streamed value for key hash " + streamUpload.getKeyHash());
+				streamUpload.close();
+				streamUpload = null;
+			}
+			if (streamUpload == null) {
+				streamUpload = streamStore.beginHashUpload(message.getStreamHash());
+			}
+
+			streamUpload.append(message.getStreamChunk());
+			if (message.isStreamEnd()) {
+				log.info("Storing migrated streamed value for key hash " + message.getStreamHash());
+				streamUpload.commit();
+				streamUpload = null;
+			}
+
+		} catch (IOException e) {
+			log.error("Could not store migrated streamed value for key hash " + message.getStreamHash(), e);
+			if (streamUpload != null) streamUpload.close();
+			streamUpload = null;
+			if (!message.isStreamEnd()) failedStreamHash = message.getStreamHash();
+		}
+	}
 }
@@ -0,0 +1,80 @@
+package app_kvServer.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers of a fixed size. Direct buffers can be read
+ * into and written from by channels without an intermediate copy, but are
+ * expensive to allocate, so they are reused rather than discarded. Buffers
+ * which are never released are simply garbage collected, and replaced by new
+ * allocations. This class is thread-safe.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	/**
+	 * Creates an empty buffer pool.
+	 *
+	 * @param bufferSize The capacity of each buffer, in bytes
+	 * @param maxPooled The maximum number of idle buffers retained
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Returns the capacity of the buffers in this pool.
+	 *
+	 * @return The buffer size, in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Takes an idle buffer from the pool, or allocates a new one if none is idle.
+	 *
+	 * @return A cleared buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+
+		freeCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers which were not acquired from a pool
+	 * of this size are ignored, as are buffers beyond the maximum idle count.
+	 *
+	 * @param buffer The buffer, which must no longer be used by the caller
+	 */
+	public void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.capacity() != bufferSize) return;
+		if (freeCount.incrementAndGet() > maxPooled) {
+			freeCount.decrementAndGet();
+			return;
+		}
+		free.offer(buffer);
+	}
+
+	/**
+	 * Returns the number of idle buffers in the pool.
+	 *
+	 * @return The idle buffer count
+	 */
+	public int getIdleCount() {
+		return freeCount.get();
+	}
+
+}
@@ -0,0 +1,388 @@
+package app_kvServer.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.JsonSyntaxException;
+
+import app_kvServer.ClientSession;
+import common.messages.KVMessage;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+
+/**
+ * A client connection served by a {@link NioServer}. Received data is
+ * accumulated by the connection's {@link Reactor} until complete messages can
+ * be decoded. Decoded requests are served one at a time, in the order in which
+ * they were received, on the worker pool, so that responses are sent in request
+ * order without tying up a thread while the client is idle.
+ * <p>
+ * Responses are written directly from the worker thread if the socket can
+ * accept them; otherwise they are queued and written by the reactor once the
+ * socket becomes writable. Regions of files, such as chunks of streamed values,
+ * are transferred to the socket in the same way without passing through the
+ * heap.
+ */
+class NioConnection implements ClientSession {
+
+	private static final Logger log = Logger.getLogger(NioConnection.class);
+
+	/** The number of queued messages beyond which {@link #sendPart(byte[])} waits. */
+	private static final int MAX_QUEUED_PARTS = 4;
+
+	/** The interval in milliseconds at which a waiting sender checks whether the connection has closed. */
+	private static final long PART_WAIT_INTERVAL = 100;
+
+	private final SocketChannel channel;
+	private final NioServer server;
+	private final Reactor reactor;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	private volatile KVMessageCodec codec = null;
+
+	/* accessed only by the reactor thread */
+	private SelectionKey key = null;
+	private ByteBuffer input = null;
+
+	/* guarded by output */
+	private final Deque<PendingOutput> output = new ArrayDeque<>();
+
+	/* guarded by this */
+	private final Queue<KVMessage> requests = new ArrayDeque<>();
+	private boolean scheduled = false;
+
+	/**
+	 * Creates a connection for the given non-blocking channel.
+	 *
+	 * @param channel The channel connected to the client
+	 * @param server The server which accepted the connection
+	 * @param reactor The reactor performing I/O for the connection
+	 */
+	NioConnection(SocketChannel channel, NioServer server, Reactor reactor) {
+		this.channel = channel;
+		this.server = server;
+		this.reactor = reactor;
+	}
+
+	/**
+	 * Registers this connection's channel with the given selector, initially
+	 * for reading only. Called by the reactor thread.
+	 *
+	 * @param selector The reactor's selector
+	 * @throws ClosedChannelException If the channel has been closed
+	 */
+	void register(Selector selector) throws ClosedChannelException {
+		key = channel.register(selector, SelectionKey.OP_READ, this);
+	}
+
+	@Override
+	public KVMessageCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Reads available data and decodes any complete requests it contains. Called
+	 * by the reactor thread when the channel is readable.
+	 */
+	void onReadable() {
+		ByteBuffer buffer = input != null ? input : server.getBufferPool().acquire();
+		input = null;
+
+		try {
+			if (channel.read(buffer) < 0) {
+				log.info("Client closed connection");
+				server.getBufferPool().release(buffer);
+				close();
+				return;
+			}
+
+			buffer.flip();
+			List<KVMessage> received = decodeRequests(buffer);
+			buffer.compact();
+			retain(buffer);
+
+			if (!received.isEmpty()) schedule(received);
+
+		} catch (IOException e) {
+			log.warn("Closing connection after error while receiving requests", e);
+			server.getBufferPool().release(buffer);
+			close();
+		}
+	}
+
+	/**
+	 * Negotiates the wire format if necessary, then decodes all complete
+	 * requests in the given buffer.
+	 */
+	private List<KVMessage> decodeRequests(ByteBuffer buffer) throws IOException {
+		List<KVMessage> received = new ArrayList<>();
+		if (codec == null) {
+			codec = ProtocolHandshake.accept(buffer, server.getCompression());
+			if (codec == null) return received;
+			if (codec != ProtocolHandshake.JSON_CODEC) send(ProtocolHandshake.getAcknowledgement(codec));
+		}
+
+		int length;
+		while ((length = codec.findMessageLength(buffer)) >= 0) {
+			try {
+				KVMessage request = codec.decode(buffer, length);
+				if (request != null) received.add(request);
+			} catch (JsonSyntaxException e) {
+				log.error("Could not deserialize request", e);
+			}
+		}
+		return received;
+	}
+
+	/**
+	 * Keeps the undecoded remainder of a partially received message until more
+	 * data arrives, growing the buffer if the message does not fit. Empty buffers
+	 * are returned to the pool.
+	 */
+	private void retain(ByteBuffer buffer) {
+		if (buffer.position() == 0) {
+			server.getBufferPool().release(buffer);
+			return;
+		}
+
+		if (!buffer.hasRemaining()) {
+			ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			larger.put(buffer);
+			server.getBufferPool().release(buffer);
+			buffer = larger;
+		}
+		input = buffer;
+	}
+
+	/**
+	 * Queues received requests, and submits this connection to the worker pool
+	 * unless it is already being served.
+	 */
+	private void schedule(List<KVMessage> received) {
+		synchronized (this) {
+			requests.addAll(received);
+			if (scheduled) return;
+			scheduled = true;
+		}
+
+		try {
+			server.getWorkers().execute(this::serveRequests);
+		} catch (RejectedExecutionException e) {
+			log.warn("Server shutting down; closing connection");
+			close();
+		}
+	}
+
+	/**
+	 * Serves queued requests in order until none remain. Runs on a worker thread.
+	 */
+	private void serveRequests() {
+		while (true) {
+			KVMessage request;
+			synchronized (this) {
+				request = closed.get() ? null : requests.poll();
+				if (request == null) {
+					requests.clear();
+					scheduled = false;
+					return;
+				}
+			}
+
+			byte[] response = server.getRequestHandler().handle(request, this);
+			if (response == null) continue;
+			try {
+				send(response);
+			} catch (IOException e) {
+				log.warn("Closing connection after error while sending response", e);
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Transmits an encoded message to the client, or queues it to be written by
+	 * the reactor if the socket cannot accept it immediately.
+	 *
+	 * @param msgBytes The encoded message
+	 * @throws IOException If the connection is closed or an I/O exception occurs
+	 *             while transmitting the message
+	 */
+	private void send(byte[] msgBytes) throws IOException {
+		enqueue(new PendingOutput(ByteBuffer.wrap(msgBytes)));
+	}
+
+	/**
+	 * Writes the given output directly if nothing is queued ahead of it and the
+	 * socket accepts all of it, and otherwise queues the remainder.
+	 */
+	private void enqueue(PendingOutput pending) throws IOException {
+		if (closed.get()) throw new IOException("Connection closed");
+
+		synchronized (output) {
+			if (output.isEmpty() && pending.writeTo(channel)) return;
+			output.add(pending);
+		}
+		reactor.requestWrite(this);
+	}
+
+	@Override
+	public void sendNotification(byte[] notificationBytes) throws IOException {
+		send(notificationBytes);
+	}
+
+	/**
+	 * Transmits a part of a response, then blocks the worker thread until the
+	 * queued output has drained below a few messages.
+	 */
+	@Override
+	public void sendPart(byte[] partBytes) throws IOException {
+		send(partBytes);
+		synchronized (output) {
+			while (output.size() > MAX_QUEUED_PARTS) {
+				awaitOutput();
+			}
+		}
+	}
+
+	/**
+	 * Transmits the start of a message, then transfers the region of the file to
+	 * the socket without copying it onto the heap. Blocks the worker thread until
+	 * the region has been transferred, so that the caller can close the file.
+	 */
+	@Override
+	public void sendPart(byte[] headBytes, FileChannel file, long position, int count) throws IOException {
+		PendingOutput region = new PendingOutput(file, position, count);
+		synchronized (output) {
+			// no other message may come between the start of the message and the rest of it
+			send(headBytes);
+			enqueue(region);
+			while (output.contains(region)) {
+				awaitOutput();
+			}
+		}
+	}
+
+	/**
+	 * Waits for queued output to be written. Must be called while holding the
+	 * monitor of the output queue.
+	 */
+	private void awaitOutput() throws IOException {
+		if (closed.get()) throw new IOException("Connection closed");
+		try {
+			output.wait(PART_WAIT_INTERVAL);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sending response");
+		}
+	}
+
+	/**
+	 * Adds write interest to this connection's selection key. Called by the
+	 * reactor thread.
+	 */
+	void enableWrite() {
+		if (key != null && key.isValid()) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Writes as much queued output as the socket accepts, and removes write
+	 * interest once the queue is drained. Called by the reactor thread when the
+	 * channel is writable.
+	 */
+	void onWritable() {
+		synchronized (output) {
+			try {
+				while (!output.isEmpty()) {
+					if (!output.peek().writeTo(channel)) return;
+					output.poll();
+					output.notifyAll();
+				}
+			} catch (IOException e) {
+				log.warn("Closing connection after error while sending responses", e);
+				close();
+				return;
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Closes this connection. Does nothing if it is already closed.
+	 */
+	void close() {
+		if (!closed.compareAndSet(false, true)) return;
+
+		server.connectionClosed(this);
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Unable to close client connection", e);
+		}
+	}
+
+	/**
+	 * Output waiting to be written to the socket: either an encoded message, or a
+	 * region of a file which is transferred without being copied onto the heap.
+	 */
+	private static final class PendingOutput {
+
+		private final ByteBuffer buffer;
+		private final FileChannel file;
+		private final long end;
+		private long position;
+
+		PendingOutput(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.file = null;
+			this.end = 0;
+		}
+
+		PendingOutput(FileChannel file, long position, long count) {
+			this.buffer = null;
+			this.file = file;
+			this.position = position;
+			this.end = position + count;
+		}
+
+		/**
+		 * Writes as much of this output as the channel accepts.
+		 *
+		 * @param channel The channel connected to the client
+		 * @return <code>true</code> if all of the output has been written,
+		 *         <code>false</code> otherwise
+		 * @throws IOException If an I/O exception occurs while writing
+		 */
+		boolean writeTo(SocketChannel channel) throws IOException {
+			if (buffer != null) {
+				channel.write(buffer);
+				return !buffer.hasRemaining();
+			}
+
+			long sent = file.transferTo(position, end - position, channel);
+			if (sent == 0 && position >= file.size()) throw new EOFException("File ends before region");
+			position += sent;
+			return position >= end;
+		}
+
+	}
+
+}
@@ -0,0 +1,161 @@
+package app_kvServer.nio;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.KVServer;
+import app_kvServer.RequestHandler;
+import app_kvServer.ServerOptions;
+import common.messages.Compression;
+
+/**
+ * Serves client connections with non-blocking I/O, as an alternative to a
+ * thread per connection (see {@link ServerOptions#NIO}). Accepted connections
+ * are distributed among a small number of {@link Reactor} threads, each of
+ * which multiplexes the I/O of its connections over a selector. Requests are
+ * served by a separate pool of worker threads, so that slow requests do not
+ * hold up I/O for other connections. The number of threads is therefore
+ * independent of the number of connected clients.
+ */
+public class NioServer implements Runnable {
+
+	private static final Logger log = Logger.getLogger(NioServer.class);
+
+	/** The size of the pooled buffers into which requests are read. */
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/** The maximum number of idle read buffers retained. */
+	private static final int MAX_POOLED_BUFFERS = 256;
+
+	private final KVServer server;
+	private final ServerSocketChannel serverChannel;
+	private final Reactor[] reactors;
+	private final ExecutorService workers;
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+	private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Creates a non-blocking server for connections accepted by the given
+	 * channel.
+	 *
+	 * @param server The server whose requests are served
+	 * @param serverChannel The bound channel on which to accept connections,
+	 *            which must be in blocking mode
+	 * @param ioThreads The number of reactor threads
+	 * @param workerThreads The number of threads serving requests
+	 * @throws IOException If the reactor selectors cannot be opened
+	 */
+	public NioServer(KVServer server, ServerSocketChannel serverChannel, int ioThreads, int workerThreads)
+			throws IOException {
+		this.server = server;
+		this.serverChannel = serverChannel;
+
+		this.reactors = new Reactor[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			reactors[i] = new Reactor("nio-reactor-" + i);
+		}
+
+		AtomicInteger workerCount = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workerThreads, task -> {
+			Thread thread = new Thread(task, "nio-worker-" + workerCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Accepts connections until the server channel is closed, then closes all
+	 * connections and stops the reactor and worker threads.
+	 */
+	@Override
+	public void run() {
+		for (Reactor reactor : reactors) {
+			reactor.start();
+		}
+		log.info("Serving connections with " + reactors.length + " reactor threads");
+
+		int nextReactor = 0;
+		while (serverChannel.isOpen()) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+				Reactor reactor = reactors[nextReactor];
+				nextReactor = (nextReactor + 1) % reactors.length;
+				NioConnection connection = new NioConnection(channel, this, reactor);
+				connections.add(connection);
+				reactor.register(connection);
+
+				log.info("Connected to " + channel.getRemoteAddress());
+
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				if (serverChannel.isOpen()) {
+					log.error("Error! " + "Unable to establish connection", e);
+				}
+			}
+		}
+
+		close();
+	}
+
+	/**
+	 * Closes all connections and stops the reactor and worker threads.
+	 */
+	public void close() {
+		for (NioConnection connection : connections) {
+			connection.close();
+		}
+		for (Reactor reactor : reactors) {
+			reactor.shutdown();
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Returns the number of open connections.
+	 *
+	 * @return The connection count
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	RequestHandler getRequestHandler() {
+		return server.getRequestHandler();
+	}
+
+	Compression getCompression() {
+		return server.getCompression();
+	}
+
+	ExecutorService getWorkers() {
+		return workers;
+	}
+
+	BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Forgets a connection which has been closed.
+	 */
+	void connectionClosed(NioConnection connection) {
+		connections.remove(connection);
+		server.getInvalidationNotifier().unsubscribe(connection);
+		server.getRequestHandler().sessionClosed(connection);
+	}
+
+}
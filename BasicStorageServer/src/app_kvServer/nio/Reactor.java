@@ -0,0 +1,122 @@
+package app_kvServer.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An I/O thread which waits on a {@link Selector} for any of its connections
+ * to become readable or writable, and performs the corresponding non-blocking
+ * reads and writes. Requests are decoded on this thread, but served elsewhere.
+ * <p>
+ * The selection keys of a reactor's connections may only be modified by its
+ * own thread, so other threads queue registrations and requests for write
+ * interest, and wake the selector to apply them.
+ */
+class Reactor implements Runnable {
+
+	private static final Logger log = Logger.getLogger(Reactor.class);
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+	private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a reactor with its own selector and thread.
+	 *
+	 * @param name The name of the reactor thread
+	 * @throws IOException If the selector cannot be opened
+	 */
+	Reactor(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the reactor thread.
+	 */
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops the reactor thread, which closes the selector once it exits.
+	 */
+	void shutdown() {
+		thread.interrupt();
+	}
+
+	/**
+	 * Hands a newly accepted connection over to this reactor.
+	 *
+	 * @param connection The connection
+	 */
+	void register(NioConnection connection) {
+		pendingRegistrations.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Asks this reactor to write the queued output of the given connection once
+	 * its socket can accept more data.
+	 *
+	 * @param connection The connection
+	 */
+	void requestWrite(NioConnection connection) {
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				log.error("Selector failed; reactor stopping", e);
+				break;
+			}
+
+			NioConnection connection;
+			while ((connection = pendingRegistrations.poll()) != null) {
+				try {
+					connection.register(selector);
+				} catch (ClosedChannelException e) {
+					connection.close();
+				}
+			}
+			while ((connection = pendingWrites.poll()) != null) {
+				connection.enableWrite();
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				connection = (NioConnection) key.attachment();
+				try {
+					if (key.isValid() && key.isReadable()) connection.onReadable();
+					if (key.isValid() && key.isWritable()) connection.onWritable();
+				} catch (CancelledKeyException e) {
+					connection.close();
+				}
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.warn("Could not close selector", e);
+		}
+	}
+
+}
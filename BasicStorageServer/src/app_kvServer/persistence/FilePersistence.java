@@ -2,12 +2,16 @@ package app_kvServer.persistence;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -24,7 +28,14 @@ import common.HashUtil;
  * space. Note that this is possible since keys are guaranteed to not contain
  * space characters.
  * <p>
- * TODO make this thread-safe
+ * Write operations, including {@link #clear()}, never modify the persistence
+ * file in place. Instead, a new version of the file is written and atomically
+ * moved into place, so that concurrent readers (e.g. chunkators) always observe
+ * a consistent snapshot.
+ * <p>
+ * Reads may therefore run concurrently with each other and with a write, but
+ * writes must be serialized by the caller, since each write copies the file as
+ * it was when the write began and the last file moved into place wins.
  */
 public class FilePersistence implements KVPersistence {
 
@@ -95,13 +106,14 @@ public class FilePersistence implements KVPersistence {
 	}
 
 	/**
-	 * Creates a scratch file in the default temporary files directory.
+	 * Creates a scratch file in the given directory.
 	 * 
+	 * @param directory The directory in which to create the file
 	 * @return A file object pointing to the newly created scratch file
 	 * @throws IOException If the file could not be created
 	 */
-	private File generateScratchFile() throws IOException {
-		File tempFile = File.createTempFile(SCRATCH_FILE_PREFIX, SCRATCH_FILE_SUFFIX);
+	private File generateScratchFile(File directory) throws IOException {
+		File tempFile = File.createTempFile(SCRATCH_FILE_PREFIX, SCRATCH_FILE_SUFFIX, directory);
 		tempFile.deleteOnExit();
 		return tempFile;
 	}
@@ -165,138 +177,125 @@ public class FilePersistence implements KVPersistence {
 
 	@Override
 	public String put(String key, String value) {
-		String prevValue = null;
-
-		if (value == null) {
-			return delete(key);
-		}
-
-		try (RandomAccessFile r = new RandomAccessFile(filename, "rw");
-				RandomAccessFile rtemp = new RandomAccessFile(generateScratchFile(), "rw");
-				FileChannel sourceChannel = r.getChannel();
-				FileChannel targetChannel = rtemp.getChannel()) {
-			long fileSize = r.length();
-			long offset = -1L;
-
-			// attempt to find an existing value
-			String ln;
-			while ((ln = r.readLine()) != null) {
-				String currKey = ln.substring(0, ln.indexOf(' '));
-				if (currKey.equals(key)) {
-					offset = r.getFilePointer() - ln.length() + key.length();
-					prevValue = ln.substring(ln.indexOf(' ') + 1, ln.length());
-					break;
-				}
-			}
-
-			if (offset >= 0L) {
-				sourceChannel.transferTo(offset, (fileSize - offset), targetChannel);
-				sourceChannel.truncate(offset);
-				r.seek(offset);
-				r.write(value.getBytes());
-				long newOffset = r.getFilePointer();
-				targetChannel.position(prevValue.length());
-				sourceChannel.transferFrom(targetChannel, newOffset, (fileSize - offset));
-			} else {
-				r.write(String.format("%s %s\n", key, value).getBytes(UTF_8));
-			}
-
-		} catch (IOException e) {
-			log.error("I/O exception while writing to persistence file", e);
-		}
-
-		return prevValue;
+		Map<String, String> prevValues = new HashMap<>();
+		rewrite(Collections.singletonMap(key, value), prevValues);
+		return prevValues.get(key);
 	}
 
 	@Override
 	public boolean insertAll(Map<String, String> pairs) {
-		try {
-			RandomAccessFile r = new RandomAccessFile(filename, "rw");
-			r.seek(r.length());
+		if (pairs.isEmpty()) return true;
 
-			for (Entry<String, String> entry : pairs.entrySet()) {
-				String key = entry.getKey();
-				String value = entry.getValue();
-
-				r.write(String.format("%s %s\n", key, value).getBytes(UTF_8));
-			}
-			r.close();
+		// the pairs are merged in rather than appended, so that concurrent readers never see a partial line
+		return rewrite(pairs, null);
+	}
 
-		} catch (IOException e) {
-			log.error("I/O exception while writing to persistence file", e);
-			return false;
-		}
+	@Override
+	public boolean putAll(Map<String, String> pairs) {
+		if (pairs.isEmpty()) return true;
 
-		return true;
+		boolean success = rewrite(pairs, null);
+		if (success) log.debug("Wrote batch of " + pairs.size() + " key-value pairs to persistence");
+		return success;
 	}
 
-	private String delete(String key) {
-		String prevValue = null;
-		try (RandomAccessFile r = new RandomAccessFile(filename, "rw");
-				RandomAccessFile rtemp = new RandomAccessFile(generateScratchFile(), "rw");
-				FileChannel sourceChannel = r.getChannel();
-				FileChannel targetChannel = rtemp.getChannel()) {
-			long fileSize = r.length();
-			long offset = -1L;
-
-			// attempt to find an existing value
-			String ln;
-			while ((ln = r.readLine()) != null) {
-				String currKey = ln.substring(0, ln.indexOf(' '));
-				if (currKey.equals(key)) {
-					offset = r.getFilePointer() - ln.length() - 1;
-					prevValue = ln.substring(ln.indexOf(' ') + 1, ln.length());
-					break;
+	/**
+	 * Writes the given key-value pairs by copying the persistence file to a
+	 * scratch file with the pairs merged in, and then moving the scratch file into
+	 * place. Since the persistence file is never modified in place, readers which
+	 * opened the file beforehand continue to see a consistent snapshot.
+	 * 
+	 * @param pairs The pairs to insert, update, or delete (if <code>null</code>)
+	 * @param prevValues A map into which the previous values of updated or deleted
+	 *            keys are placed. May be <code>null</code>
+	 * @return <code>true</code> if the pairs were written successfully,
+	 *         <code>false</code> otherwise
+	 */
+	private boolean rewrite(Map<String, String> pairs, Map<String, String> prevValues) {
+		Map<String, String> remaining = new HashMap<>(pairs);
+		File file = new File(filename);
+		File scratchFile = null;
+		try {
+			// the scratch file must be on the same file system for the move to be atomic
+			scratchFile = generateScratchFile(file.getAbsoluteFile().getParentFile());
+
+			try (BufferedWriter writer = Files.newBufferedWriter(scratchFile.toPath(), UTF_8)) {
+				if (file.exists()) {
+					try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+						String ln;
+						while ((ln = reader.readLine()) != null) {
+							int separator = ln.indexOf(' ');
+							String key = ln.substring(0, separator);
+							if (!remaining.containsKey(key)) {
+								writer.write(ln);
+								writer.write('\n');
+							} else {
+								// replace or drop the existing entry
+								if (prevValues != null) prevValues.put(key, ln.substring(separator + 1));
+								String value = remaining.remove(key);
+								if (value != null) writer.write(String.format("%s %s\n", key, value));
+							}
+						}
+					}
 				}
-			}
 
-			if (offset >= 0L) {
-				sourceChannel.transferTo(offset, (fileSize - offset), targetChannel);
-				sourceChannel.truncate(offset);
-				r.seek(offset);
-				targetChannel.position(ln.length() + 1);
-				sourceChannel.transferFrom(targetChannel, offset, (fileSize - offset));
+				// append new entries
+				for (Entry<String, String> entry : remaining.entrySet()) {
+					if (entry.getValue() != null) {
+						writer.write(String.format("%s %s\n", entry.getKey(), entry.getValue()));
+					}
+				}
 			}
 
+			Files.move(scratchFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+			return true;
+
 		} catch (IOException e) {
 			log.error("I/O exception while writing to persistence file", e);
+			if (scratchFile != null) scratchFile.delete();
+			return false;
 		}
-
-		return prevValue;
 	}
 
 	@Override
 	public void clear() {
-		try (FileWriter writer = new FileWriter(new File(filename), false)) {
-			// no writing necessary to clear the file
+		File file = new File(filename);
+		File scratchFile = null;
+		try {
+			// an empty scratch file replaces the persistence file, rather than truncating it in place
+			scratchFile = generateScratchFile(file.getAbsoluteFile().getParentFile());
+			Files.move(scratchFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
 
 		} catch (IOException e) {
 			log.error("I/O exception while clearing persistence file", e);
+			if (scratchFile != null) scratchFile.delete();
 		}
 	}
 
 	@Override
 	public void clearRange(String[] hashRange) {
-		try (RandomAccessFile r = new RandomAccessFile(filename, "rw");
-				RandomAccessFile rtemp = new RandomAccessFile(generateScratchFile(), "rw");
-				FileChannel sourceChannel = r.getChannel();
-				FileChannel targetChannel = rtemp.getChannel()) {
-
-			String ln;
-			while ((ln = r.readLine()) != null) {
-				String key = ln.substring(0, ln.indexOf(' '));
-				if (!HashUtil.containsHash(HashUtil.toMD5(key), hashRange)) {
-					rtemp.write(ln.concat("\n").getBytes(UTF_8));
+		File file = new File(filename);
+		File scratchFile = null;
+		try {
+			scratchFile = generateScratchFile(file.getAbsoluteFile().getParentFile());
+
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8);
+					BufferedWriter writer = Files.newBufferedWriter(scratchFile.toPath(), UTF_8)) {
+				String ln;
+				while ((ln = reader.readLine()) != null) {
+					String key = ln.substring(0, ln.indexOf(' '));
+					if (!HashUtil.containsHash(HashUtil.toMD5(key), hashRange)) {
+						writer.write(ln);
+						writer.write('\n');
+					}
 				}
 			}
 
-			sourceChannel.truncate(0);
-			r.seek(0);
-			targetChannel.position(0);
-			sourceChannel.transferFrom(targetChannel, 0, rtemp.length());
+			Files.move(scratchFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
 
 		} catch (IOException e) {
 			log.error("I/O exception while writing to persistence file", e);
+			if (scratchFile != null) scratchFile.delete();
 		}
 
 	}
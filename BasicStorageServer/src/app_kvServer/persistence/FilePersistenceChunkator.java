@@ -12,7 +12,9 @@ import java.util.function.Predicate;
 
 /**
  * This class provides batch access to key-value pairs in a file persistence.
- * Should only be used when the underlying persistence is locked for writing.
+ * Since {@link FilePersistence} replaces the persistence file rather than
+ * modifying it in place, a chunkator reads a consistent snapshot of the pairs as
+ * of its creation, even if the persistence is written to concurrently.
  */
 public class FilePersistenceChunkator implements KVPersistenceChunkator {
 
@@ -62,6 +62,17 @@ public interface KVPersistence {
 	 */
 	public boolean insertAll(Map<String, String> pairs);
 
+	/**
+	 * Inserts, updates, or deletes all of the given key-value pairs using a single
+	 * pass over the persistence. Pairs whose value is <code>null</code> are
+	 * deleted.
+	 * 
+	 * @param pairs The pairs to write
+	 * @return <code>true</code> if all pairs were successfully written,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean putAll(Map<String, String> pairs);
+
 	/**
 	 * Removes all key-value pairs from the persistence.
 	 */
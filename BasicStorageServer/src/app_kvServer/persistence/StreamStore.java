@@ -0,0 +1,313 @@
+package app_kvServer.persistence;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import common.HashUtil;
+
+/**
+ * Stores values which are too large to be held in memory, and are therefore
+ * written and read as streams of chunks. Each value is kept in its own file,
+ * named after the hash of its key, so that neither its length nor its contents
+ * are restricted the way those of the values in a {@link KVPersistence} are.
+ * <p>
+ * As in {@link FilePersistence}, a value is never modified in place. A new
+ * value is written to a scratch file and atomically moved into place once
+ * complete, so that readers which opened the previous value continue to read
+ * it in full, and a value which is only partially received is never visible.
+ * This class is thread-safe.
+ */
+public class StreamStore {
+
+	private static final Logger log = Logger.getLogger(StreamStore.class);
+
+	/** Naming information for the scratch files holding values being received */
+	private static final String SCRATCH_FILE_PREFIX = "ece419-stream";
+	private static final String SCRATCH_FILE_SUFFIX = ".tmp";
+
+	private final File directory;
+
+	/**
+	 * Creates a store keeping values in the given directory, which is created if
+	 * it does not exist. Scratch files left by values which were being received
+	 * when the server last stopped are deleted.
+	 *
+	 * @param directory The directory holding the values
+	 * @throws IOException If the directory cannot be created
+	 */
+	public StreamStore(File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create stream directory " + directory);
+		}
+
+		File[] scratchFiles = directory.listFiles((dir, name) -> name.endsWith(SCRATCH_FILE_SUFFIX));
+		if (scratchFiles != null) {
+			for (File scratchFile : scratchFiles) {
+				log.debug("Deleting incomplete streamed value " + scratchFile);
+				scratchFile.delete();
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return getHashFile(HashUtil.toMD5(key));
+	}
+
+	private File getHashFile(String keyHash) {
+		return new File(directory, keyHash);
+	}
+
+	/**
+	 * Checks whether the store contains a value for the given key.
+	 *
+	 * @param key The key to check
+	 * @return <code>true</code> if a value is stored, <code>false</code> otherwise
+	 */
+	public boolean containsKey(String key) {
+		return getFile(key).isFile();
+	}
+
+	/**
+	 * Opens the value associated with the given key for reading. The reader
+	 * continues to return the value as it was when opened, even if it is
+	 * replaced while being read.
+	 *
+	 * @param key The key to retrieve the value for
+	 * @return A reader for the value, or <code>null</code> if no such value
+	 *         exists
+	 * @throws IOException If the value cannot be opened
+	 */
+	public Reader open(String key) throws IOException {
+		return openHash(HashUtil.toMD5(key));
+	}
+
+	/**
+	 * Opens the value associated with the key of the given hash for reading, as
+	 * with {@link #open(String)}. Allows values to be transferred to another
+	 * server, since the keys themselves are not stored.
+	 *
+	 * @param keyHash The MD5 hash of the key to retrieve the value for
+	 * @return A reader for the value, or <code>null</code> if no such value
+	 *         exists
+	 * @throws IOException If the value cannot be opened
+	 * @see #getKeyHashes(String[])
+	 */
+	public Reader openHash(String keyHash) throws IOException {
+		try {
+			return Files.newBufferedReader(getHashFile(keyHash).toPath(), UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the hashes of the keys of all stored values which fall within the
+	 * given hash range.
+	 *
+	 * @param hashRange The hash range
+	 * @return The key hashes
+	 */
+	public List<String> getKeyHashes(String[] hashRange) {
+		List<String> keyHashes = new ArrayList<>();
+		String[] names = directory.list((dir, name) -> HashUtil.containsHash(name, hashRange));
+		if (names == null) return keyHashes;
+		for (String name : names) {
+			keyHashes.add(name);
+		}
+		return keyHashes;
+	}
+
+	/**
+	 * Opens the value associated with the given key for reading its UTF-8 encoded
+	 * bytes, which can be transferred to a socket without passing through the
+	 * heap. As with {@link #open(String)}, the channel continues to read the value
+	 * as it was when opened.
+	 *
+	 * @param key The key to retrieve the value for
+	 * @return A channel for the value, or <code>null</code> if no such value
+	 *         exists
+	 * @throws IOException If the value cannot be opened
+	 */
+	public FileChannel openChannel(String key) throws IOException {
+		try {
+			return FileChannel.open(getFile(key).toPath(), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Begins receiving a new value for the given key. The value replaces the
+	 * existing one only once the upload is committed.
+	 *
+	 * @param key The key to set
+	 * @return The upload to which the chunks of the value are appended
+	 * @throws IOException If the scratch file cannot be created
+	 */
+	public Upload beginUpload(String key) throws IOException {
+		File scratchFile = File.createTempFile(SCRATCH_FILE_PREFIX, SCRATCH_FILE_SUFFIX, directory);
+		return new Upload(key, HashUtil.toMD5(key), scratchFile);
+	}
+
+	/**
+	 * Begins receiving a new value for the key of the given hash, such as a value
+	 * transferred from another server, as with {@link #beginUpload(String)}.
+	 *
+	 * @param keyHash The MD5 hash of the key to set
+	 * @return The upload to which the chunks of the value are appended, whose key
+	 *         is <code>null</code>
+	 * @throws IOException If the scratch file cannot be created
+	 */
+	public Upload beginHashUpload(String keyHash) throws IOException {
+		File scratchFile = File.createTempFile(SCRATCH_FILE_PREFIX, SCRATCH_FILE_SUFFIX, directory);
+		return new Upload(null, keyHash, scratchFile);
+	}
+
+	/**
+	 * Removes all values from the store. Values which are being received are
+	 * unaffected.
+	 */
+	public void clear() {
+		File[] files = directory.listFiles((dir, name) -> !name.endsWith(SCRATCH_FILE_SUFFIX));
+		if (files == null) return;
+		for (File file : files) {
+			if (!file.delete()) log.warn("Could not delete streamed value " + file);
+		}
+	}
+
+	/**
+	 * Removes all values whose keys fall within the given hash range, such as
+	 * values which have been transferred to another server.
+	 *
+	 * @param hashRange The hash range
+	 */
+	public void clearRange(String[] hashRange) {
+		for (String keyHash : getKeyHashes(hashRange)) {
+			File file = getHashFile(keyHash);
+			if (!file.delete()) log.warn("Could not delete streamed value " + file);
+		}
+	}
+
+	/**
+	 * A value which is being received, and is written to a scratch file until
+	 * complete.
+	 */
+	public class Upload implements Closeable {
+
+		private final String key;
+		private final String keyHash;
+		private final File scratchFile;
+		private final Writer writer;
+		private boolean empty = true;
+
+		private Upload(String key, String keyHash, File scratchFile) throws IOException {
+			this.key = key;
+			this.keyHash = keyHash;
+			this.scratchFile = scratchFile;
+			try {
+				this.writer = Files.newBufferedWriter(scratchFile.toPath(), UTF_8);
+			} catch (IOException e) {
+				scratchFile.delete();
+				throw e;
+			}
+		}
+
+		/**
+		 * Returns the key whose value is being received.
+		 *
+		 * @return The key, or <code>null</code> if the value is received for a key
+		 *         hash
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the MD5 hash of the key whose value is being received.
+		 *
+		 * @return The key hash
+		 */
+		public String getKeyHash() {
+			return keyHash;
+		}
+
+		/**
+		 * Appends the next chunk of the value.
+		 *
+		 * @param chunk The chunk
+		 * @throws IOException If the chunk cannot be written
+		 */
+		public synchronized void append(String chunk) throws IOException {
+			if (chunk == null || chunk.isEmpty()) return;
+			writer.write(chunk);
+			empty = false;
+		}
+
+		/**
+		 * Completes the value and moves it into place, replacing any existing value
+		 * for the key. As with ordinary values, an empty value deletes the key.
+		 *
+		 * @return <code>true</code> if a value for the key existed before,
+		 *         <code>false</code> otherwise
+		 * @throws IOException If the value cannot be written
+		 */
+		public synchronized boolean commit() throws IOException {
+			try {
+				writer.close();
+				File file = getHashFile(keyHash);
+				boolean existed = file.isFile();
+				if (empty) {
+					file.delete();
+				} else {
+					Files.move(scratchFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+				}
+				return existed;
+			} finally {
+				scratchFile.delete();
+			}
+		}
+
+		/**
+		 * Checks whether no part of the value has been received.
+		 *
+		 * @return <code>true</code> if the value is empty, <code>false</code>
+		 *         otherwise
+		 */
+		public synchronized boolean isEmpty() {
+			return empty;
+		}
+
+		/**
+		 * Abandons the value, leaving any existing value for the key in place. Does
+		 * nothing once the upload has been committed.
+		 */
+		@Override
+		public synchronized void close() {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warn("Could not close streamed value for key hash " + keyHash, e);
+			}
+			scratchFile.delete();
+		}
+
+	}
+
+}
@@ -0,0 +1,269 @@
+package client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+
+/**
+ * A non-blocking connection from an {@link AsyncKVStore} to a single server,
+ * over which any number of requests may await a response at once. Each request
+ * is tagged with a distinct request id, which the server copies into its
+ * response, so responses are matched to requests in whatever order they
+ * arrive.
+ * <p>
+ * Requests are encoded by the submitting thread and queued; all reads and
+ * writes are performed by the store's I/O thread. The selection key of the
+ * connection may only be modified by the I/O thread, so submitting threads ask
+ * it to write on their behalf, waking it at most once until the queue has been
+ * drained.
+ */
+class AsyncConnection {
+
+	private static final Logger log = Logger.getLogger(AsyncConnection.class);
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final String serverKey;
+	private final SocketChannel channel;
+	private final AsyncKVStore store;
+	private final Map<Integer, CompletableFuture<KVMessage>> pending = new ConcurrentHashMap<>();
+	private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	private volatile IOException failure = null;
+
+	/* accessed only by the I/O thread */
+	private SelectionKey key = null;
+	private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private KVMessageCodec codec = null;
+
+	/**
+	 * Starts connecting to the given server without waiting for the connection to
+	 * be established. Requests may be submitted straight away; they are sent once
+	 * the connection is established and the binary format has been requested.
+	 *
+	 * @param serverKey The key under which the store keeps the connection
+	 * @param address The address of the server
+	 * @param store The store to which the connection belongs
+	 * @throws IOException If the channel cannot be opened
+	 */
+	AsyncConnection(String serverKey, InetSocketAddress address, AsyncKVStore store) throws IOException {
+		this.serverKey = serverKey;
+		this.store = store;
+		this.channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.connect(address);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		output.add(ByteBuffer.wrap(ProtocolHandshake.getPreamble()));
+	}
+
+	/**
+	 * Returns the key under which the store keeps this connection.
+	 *
+	 * @return The server key
+	 */
+	String getServerKey() {
+		return serverKey;
+	}
+
+	/**
+	 * Registers this connection's channel with the given selector, initially to
+	 * complete the connection. Called by the I/O thread.
+	 *
+	 * @param selector The store's selector
+	 * @throws ClosedChannelException If the channel has been closed
+	 */
+	void register(Selector selector) throws ClosedChannelException {
+		key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+	}
+
+	/**
+	 * Queues the given request to be sent. May be called from any thread.
+	 *
+	 * @param request The request to send, whose request id is ignored
+	 * @return A future completed with the response, or exceptionally if the
+	 *         connection fails before it arrives
+	 */
+	CompletableFuture<KVMessage> submit(KVMessage request) {
+		CompletableFuture<KVMessage> response = new CompletableFuture<>();
+
+		int requestId;
+		do {
+			requestId = nextRequestId.incrementAndGet();
+		} while (requestId == 0); // 0 marks an untagged message
+
+		pending.put(requestId, response);
+		output.add(ByteBuffer.wrap(ProtocolHandshake.BINARY_CODEC.encode(
+				BasicKVMessage.withRequestId(request, requestId))));
+
+		// the connection may have failed before the request was queued
+		if (closed.get()) {
+			fail(requestId);
+		} else if (writeRequested.compareAndSet(false, true)) {
+			store.requestWrite(this);
+		}
+		return response;
+	}
+
+	/**
+	 * Returns the number of requests awaiting a response.
+	 *
+	 * @return The in-flight request count
+	 */
+	int getInFlightCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Completes the connection once the channel is connectable. Called by the I/O
+	 * thread.
+	 */
+	void onConnectable() {
+		try {
+			if (!channel.finishConnect()) return;
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	/**
+	 * Writes queued requests, if the connection has been established. Called by
+	 * the I/O thread when asked to write on behalf of a submitting thread.
+	 */
+	void flush() {
+		if (key != null && key.isValid() && channel.isConnected()) onWritable();
+	}
+
+	/**
+	 * Writes as many queued requests as the socket accepts, and waits for the
+	 * socket to become writable again if any remain. Called by the I/O thread.
+	 */
+	void onWritable() {
+		writeRequested.set(false);
+		try {
+			ByteBuffer head;
+			while ((head = output.peek()) != null) {
+				channel.write(head);
+				if (head.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				output.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	/**
+	 * Reads available data and completes the requests whose responses it
+	 * contains. Called by the I/O thread when the channel is readable.
+	 */
+	void onReadable() {
+		try {
+			if (channel.read(input) < 0) throw new EOFException("Server closed connection");
+
+			input.flip();
+			if (codec == null) codec = ProtocolHandshake.initiate(input);
+			if (codec != null) {
+				int length;
+				while ((length = codec.findMessageLength(input)) >= 0) {
+					receive(codec.decode(input, length));
+				}
+			}
+			input.compact();
+
+			// grow the buffer if a message does not fit
+			if (!input.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+				input.flip();
+				larger.put(input);
+				input = larger;
+			}
+
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	/**
+	 * Completes the request to which the given response belongs.
+	 */
+	private void receive(KVMessage message) {
+		if (message.getStatus() == StatusType.INVALIDATE) return;
+
+		CompletableFuture<KVMessage> response = pending.remove(message.getRequestId());
+		if (response == null) {
+			log.warn("Discarding response to unknown request " + message);
+			return;
+		}
+		response.complete(message);
+	}
+
+	/**
+	 * Closes this connection, failing all requests awaiting a response. Does
+	 * nothing if it is already closed.
+	 *
+	 * @param cause The reason for closing the connection
+	 */
+	void close(IOException cause) {
+		if (!closed.compareAndSet(false, true)) return;
+
+		failure = cause;
+		if (!(cause instanceof ClosedChannelException)) {
+			log.warn("Connection to server " + serverKey + " failed", cause);
+		}
+		store.connectionClosed(this);
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Unable to close connection to server " + serverKey, e);
+		}
+
+		for (Integer requestId : pending.keySet()) {
+			fail(requestId);
+		}
+		output.clear();
+	}
+
+	/**
+	 * Fails the request with the given id, if it is still awaiting a response.
+	 */
+	private void fail(int requestId) {
+		CompletableFuture<KVMessage> response = pending.remove(requestId);
+		if (response == null) return;
+
+		response.completeExceptionally(failure != null ? failure : new IOException("Connection closed"));
+	}
+
+}
@@ -0,0 +1,366 @@
+package client;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import common.HashUtil;
+import common.KVServiceTopology;
+import common.messages.BasicKVMessage;
+import common.messages.ForwardedKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.ServiceMetadataMessage;
+import ecs.ECSNode;
+import ecs.IECSNode;
+
+/**
+ * A client communications module whose operations return immediately with a
+ * future for the response, so that a single thread can keep many requests in
+ * flight. Each server is reached over one non-blocking connection, opened when
+ * a request is first routed to it, over which all requests to that server are
+ * multiplexed. Requests which reach the wrong server are retried transparently
+ * once the service topology has been updated.
+ * <p>
+ * All I/O is performed by a single background thread. Futures are completed on
+ * that thread, so dependent actions which are not run asynchronously must not
+ * block. Only the binary wire format is used, since requests are matched to
+ * responses by their request ids.
+ * <p>
+ * This class is thread-safe.
+ */
+public class AsyncKVStore {
+
+	private static final Logger log = Logger.getLogger(AsyncKVStore.class);
+
+	private final KVServiceTopology mdCache;
+	private final Map<String, AsyncConnection> connections = new ConcurrentHashMap<>();
+	private final Queue<AsyncConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+	private final Queue<AsyncConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+	private Selector selector = null;
+	private Thread ioThread = null;
+	private long metadataVersion = 0; // guarded by this
+
+	/**
+	 * Initialize AsyncKVStore with address and port of KVServer
+	 *
+	 * @param address the address of the KVServer
+	 * @param port the port of the KVServer
+	 */
+	public AsyncKVStore(String address, int port) {
+		this.mdCache = new KVServiceTopology();
+		this.mdCache.updateNode(new ECSNode(address, port));
+	}
+
+	/**
+	 * Starts the I/O thread, and begins fetching the metadata of the whole
+	 * service from the server given on construction. Connections to servers are
+	 * opened as requests are routed to them.
+	 *
+	 * @throws IOException If the selector cannot be opened
+	 */
+	public synchronized void connect() throws IOException {
+		if (isConnected()) return;
+
+		selector = Selector.open();
+		ioThread = new Thread(this::run, "async-kvstore-io");
+		ioThread.setDaemon(true);
+		ioThread.start();
+
+		// requests sent before the metadata arrives are redirected as usual
+		fetchMetadata(mdCache.getNodeSet().iterator().next());
+	}
+
+	/**
+	 * Closes all connections and stops the I/O thread. Requests still in flight
+	 * fail.
+	 */
+	public void disconnect() {
+		Thread thread;
+		synchronized (this) {
+			thread = ioThread;
+			ioThread = null;
+		}
+		if (thread == null) return;
+
+		thread.interrupt();
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Checks whether the I/O thread is running.
+	 *
+	 * @return <code>true</code> if requests can be sent, <code>false</code>
+	 *         otherwise
+	 */
+	public synchronized boolean isConnected() {
+		return ioThread != null;
+	}
+
+	/**
+	 * Inserts, updates or deletes a key-value pair.
+	 *
+	 * @param key The key to write
+	 * @param value The value to write, or <code>null</code> or an empty string to
+	 *            delete the key
+	 * @return A future completed with the server response, or exceptionally if
+	 *         the server cannot be reached
+	 * @throws IllegalArgumentException If the key or value is invalid
+	 * @throws IllegalStateException If the store is not connected
+	 * @see KVStore#put(String, String)
+	 */
+	public CompletableFuture<KVMessage> put(String key, String value)
+			throws IllegalArgumentException, IllegalStateException {
+		KVStore.validateKey(key);
+		KVStore.validateValue(value);
+		return send(new BasicKVMessage(key, value, StatusType.PUT));
+	}
+
+	/**
+	 * Retrieves the value for a key.
+	 *
+	 * @param key The key to retrieve
+	 * @return A future completed with the server response, or exceptionally if
+	 *         the server cannot be reached
+	 * @throws IllegalArgumentException If the key is invalid
+	 * @throws IllegalStateException If the store is not connected
+	 * @see KVStore#get(String)
+	 */
+	public CompletableFuture<KVMessage> get(String key) throws IllegalArgumentException, IllegalStateException {
+		KVStore.validateKey(key);
+		return send(new BasicKVMessage(key, null, StatusType.GET));
+	}
+
+	/**
+	 * Returns the number of requests awaiting a response from any server.
+	 *
+	 * @return The in-flight request count
+	 */
+	public int getInFlightCount() {
+		return connections.values().stream()
+				.mapToInt(AsyncConnection::getInFlightCount)
+				.sum();
+	}
+
+	private CompletableFuture<KVMessage> send(KVMessage request) throws IllegalStateException {
+		if (!isConnected())
+			throw new IllegalStateException("Not currently connected to server");
+
+		CompletableFuture<KVMessage> response = new CompletableFuture<>();
+		dispatch(request, response);
+		return response;
+	}
+
+	/**
+	 * Sends the given request to the server currently believed to be capable of
+	 * serving it, and sends it again if the wrong server is contacted.
+	 *
+	 * @param request The request to send
+	 * @param response The future to complete with the final server response
+	 */
+	private void dispatch(KVMessage request, CompletableFuture<KVMessage> response) {
+		String hash = HashUtil.toMD5(request.getKey());
+
+		IECSNode cachedServer;
+		AsyncConnection connection;
+		try {
+			synchronized (this) {
+				cachedServer = mdCache.findResponsibleServer(hash);
+				connection = getConnection(cachedServer);
+			}
+		} catch (IOException e) {
+			response.completeExceptionally(e);
+			return;
+		}
+		boolean gotServerFromCache = cachedServer.containsHash(hash);
+
+		connection.submit(request).whenComplete((serverResponse, error) -> {
+			if (error != null) {
+				response.completeExceptionally(error);
+				return;
+			}
+			boolean forwarded = ForwardedKVMessage.isForwarded(serverResponse);
+			if (serverResponse.getStatus() != StatusType.SERVER_NOT_RESPONSIBLE && !forwarded) {
+				response.complete(serverResponse);
+				return;
+			}
+
+			CompletableFuture<Void> refresh = null;
+			synchronized (this) {
+				// cached information for the selected server is stale; purge it from the cache
+				if (gotServerFromCache && !forwarded) {
+					mdCache.invalidateNode(cachedServer);
+				}
+				mdCache.updateNode(serverResponse.getResponsibleServer());
+
+				// a forwarded response carries the version of the value rather than of the metadata
+				if (!forwarded && serverResponse.getVersion() > metadataVersion) {
+					refresh = fetchMetadata(serverResponse.getResponsibleServer());
+				}
+			}
+
+			// a forwarded request was served by the responsible server, which is learned without retrying
+			if (forwarded) {
+				response.complete(serverResponse);
+			} else if (refresh != null) {
+				refresh.thenRun(() -> dispatch(request, response));
+			} else {
+				dispatch(request, response);
+			}
+		});
+	}
+
+	/**
+	 * Fetches the metadata of the whole service from the given server, replacing
+	 * the cached metadata unless it is more recent. Must be called while holding
+	 * the monitor of this store.
+	 *
+	 * @param server The server
+	 * @return A future completed once the metadata is applied, or once fetching
+	 *         it has failed
+	 */
+	private CompletableFuture<Void> fetchMetadata(IECSNode server) {
+		AsyncConnection connection;
+		try {
+			connection = getConnection(server);
+		} catch (IOException e) {
+			log.warn("Could not fetch metadata from server " + KVStore.getConnectionKey(server), e);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return connection.submit(new BasicKVMessage(null, null, StatusType.GET_METADATA))
+				.handle((metadata, error) -> {
+					if (error != null) {
+						log.warn("Could not fetch metadata from server " + KVStore.getConnectionKey(server), error);
+					} else if (metadata instanceof ServiceMetadataMessage) {
+						applyMetadata((ServiceMetadataMessage) metadata);
+					}
+					return null;
+				});
+	}
+
+	private synchronized void applyMetadata(ServiceMetadataMessage metadata) {
+		if (metadata.getNodes().isEmpty() || metadata.getVersion() < metadataVersion) return;
+
+		mdCache.replaceNodes(metadata.getNodes());
+		metadataVersion = metadata.getVersion();
+		log.info("Received metadata version " + metadataVersion + " for " + metadata.getNodes().size() + " server(s)");
+	}
+
+	/**
+	 * Returns the connection to the given server, opening one if there is none.
+	 * Must be called while holding the monitor of this store.
+	 *
+	 * @param server The server
+	 * @return The connection
+	 * @throws IOException If the store is not connected, or the connection cannot
+	 *             be opened
+	 */
+	private AsyncConnection getConnection(IECSNode server) throws IOException {
+		if (!isConnected()) throw new ClosedChannelException();
+
+		String serverKey = KVStore.getConnectionKey(server);
+		AsyncConnection connection = connections.get(serverKey);
+		if (connection != null) return connection;
+
+		connection = new AsyncConnection(serverKey, server.getNodeSocketAddress(), this);
+		connections.put(serverKey, connection);
+		pendingRegistrations.add(connection);
+		selector.wakeup();
+		log.info("Connecting to server " + serverKey + " at " + server.getNodeSocketAddress());
+		return connection;
+	}
+
+	/**
+	 * Asks the I/O thread to write the queued requests of the given connection.
+	 *
+	 * @param connection The connection
+	 */
+	void requestWrite(AsyncConnection connection) {
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Forgets the given connection once it has closed, so that the next request
+	 * to its server opens a new one.
+	 *
+	 * @param connection The closed connection
+	 */
+	void connectionClosed(AsyncConnection connection) {
+		connections.remove(connection.getServerKey(), connection);
+	}
+
+	/**
+	 * Waits for connections to become connectable, readable or writable, and
+	 * performs the corresponding non-blocking operations, until the store is
+	 * disconnected.
+	 */
+	private void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				log.error("Selector failed; closing all connections", e);
+				break;
+			}
+
+			AsyncConnection connection;
+			while ((connection = pendingRegistrations.poll()) != null) {
+				try {
+					connection.register(selector);
+				} catch (ClosedChannelException e) {
+					connection.close(e);
+				}
+			}
+			while ((connection = pendingWrites.poll()) != null) {
+				connection.flush();
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				connection = (AsyncConnection) key.attachment();
+				try {
+					if (key.isValid() && key.isConnectable()) connection.onConnectable();
+					if (key.isValid() && key.isReadable()) connection.onReadable();
+					if (key.isValid() && key.isWritable()) connection.onWritable();
+				} catch (CancelledKeyException e) {
+					connection.close(new ClosedChannelException());
+				}
+			}
+		}
+
+		synchronized (this) {
+			ioThread = null;
+		}
+		for (AsyncConnection connection : connections.values()) {
+			connection.close(new ClosedChannelException());
+		}
+		pendingRegistrations.clear();
+		pendingWrites.clear();
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.warn("Could not close selector", e);
+		}
+	}
+
+}
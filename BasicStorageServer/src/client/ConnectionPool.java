@@ -0,0 +1,297 @@
+package client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+import common.messages.Compression;
+
+/**
+ * A thread-safe pool of connections to the servers of the storage service,
+ * holding up to a fixed number of connections to each server. Connections are
+ * only opened when they are needed, and those which stay idle for too long are
+ * closed by a background thread. A thread which needs a connection to a server
+ * while all of that server's connections are in use waits until one is
+ * returned.
+ * <p>
+ * Idle connections are reused most recently used first, so that connections
+ * beyond those needed under the current load become idle and are evicted.
+ * Connections which have been idle for a while are probed before being handed
+ * out, and replaced if the server has closed them.
+ */
+public class ConnectionPool {
+
+	private static final Logger log = Logger.getLogger(ConnectionPool.class);
+
+	/** The idle time in milliseconds after which a connection is probed before it is handed out. */
+	private static final long PROBE_AFTER_IDLE = 1000;
+
+	private final int maxConnectionsPerServer;
+	private final long idleTimeout;
+	private final boolean binaryProtocol;
+	private final Compression compression;
+	private final Map<String, ServerPool> pools = new ConcurrentHashMap<>();
+	private final Thread evictorThread;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * The connections to a single server.
+	 */
+	private class ServerPool {
+
+		private final Semaphore permits = new Semaphore(maxConnectionsPerServer, true);
+
+		/* guarded by this */
+		private final Deque<PooledConnection> idle = new ArrayDeque<>();
+		private int open = 0;
+
+	}
+
+	/**
+	 * Creates an empty pool and starts the thread which evicts idle connections.
+	 *
+	 * @param maxConnectionsPerServer The maximum number of connections to each
+	 *            server
+	 * @param idleTimeout The time in milliseconds after which an idle connection
+	 *            is closed
+	 * @param binaryProtocol <code>true</code> to use the binary format,
+	 *            <code>false</code> to use the JSON format
+	 * @throws IllegalArgumentException If the maximum number of connections or the
+	 *             idle timeout is not positive
+	 */
+	public ConnectionPool(int maxConnectionsPerServer, long idleTimeout, boolean binaryProtocol)
+			throws IllegalArgumentException {
+		this(maxConnectionsPerServer, idleTimeout, binaryProtocol, null);
+	}
+
+	/**
+	 * Creates an empty pool whose binary connections request compression, and
+	 * starts the thread which evicts idle connections.
+	 *
+	 * @param maxConnectionsPerServer The maximum number of connections to each
+	 *            server
+	 * @param idleTimeout The time in milliseconds after which an idle connection
+	 *            is closed
+	 * @param binaryProtocol <code>true</code> to use the binary format,
+	 *            <code>false</code> to use the JSON format
+	 * @param compression The compression to request for the binary format, or
+	 *            <code>null</code> for none
+	 * @throws IllegalArgumentException If the maximum number of connections or the
+	 *             idle timeout is not positive
+	 */
+	public ConnectionPool(int maxConnectionsPerServer, long idleTimeout, boolean binaryProtocol,
+			Compression compression) throws IllegalArgumentException {
+		if (maxConnectionsPerServer <= 0)
+			throw new IllegalArgumentException("Maximum connections per server must be positive");
+		if (idleTimeout <= 0)
+			throw new IllegalArgumentException("Idle timeout must be positive");
+
+		this.maxConnectionsPerServer = maxConnectionsPerServer;
+		this.idleTimeout = idleTimeout;
+		this.binaryProtocol = binaryProtocol;
+		this.compression = compression;
+
+		this.evictorThread = new Thread(this::evictPeriodically, "connection-pool-evictor");
+		evictorThread.setDaemon(true);
+		evictorThread.start();
+	}
+
+	/**
+	 * Takes a connection to the given server from the pool, opening one if none
+	 * is idle and the server has fewer than the maximum number of connections,
+	 * and otherwise waiting for one to be returned. The connection must be given
+	 * back with {@link #release(PooledConnection)} or
+	 * {@link #invalidate(PooledConnection)}.
+	 *
+	 * @param serverKey The key identifying the server
+	 * @param address The address of the server
+	 * @return The connection
+	 * @throws IOException If the pool is closed, or a connection cannot be opened
+	 */
+	public PooledConnection borrow(String serverKey, InetSocketAddress address) throws IOException {
+		if (closed) throw new IOException("Connection pool closed");
+
+		ServerPool pool = pools.computeIfAbsent(serverKey, k -> new ServerPool());
+		try {
+			pool.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a connection");
+		}
+
+		while (true) {
+			PooledConnection connection;
+			synchronized (pool) {
+				connection = pool.idle.pollFirst();
+				if (connection == null) pool.open++;
+			}
+			if (connection == null) return open(pool, serverKey, address);
+
+			boolean probe = System.currentTimeMillis() - connection.getLastUsed() >= PROBE_AFTER_IDLE;
+			if (!probe || connection.isHealthy()) return connection;
+
+			log.info("Discarding broken connection to server " + serverKey);
+			discard(pool, connection);
+		}
+	}
+
+	/**
+	 * Opens a new connection on behalf of a thread holding a permit of the given
+	 * pool, and which has already counted the connection as open.
+	 */
+	private PooledConnection open(ServerPool pool, String serverKey, InetSocketAddress address) throws IOException {
+		try {
+			PooledConnection connection = new PooledConnection(serverKey, address, binaryProtocol, compression);
+			log.info("Opened pooled connection to server " + serverKey + " at " + address);
+			return connection;
+		} catch (IOException e) {
+			synchronized (pool) {
+				pool.open--;
+			}
+			pool.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool after a successful exchange, so that it
+	 * can be reused.
+	 *
+	 * @param connection The connection
+	 */
+	public void release(PooledConnection connection) {
+		ServerPool pool = pools.get(connection.getServerKey());
+		if (pool == null || closed || connection.isClosed()) {
+			invalidate(connection);
+			return;
+		}
+
+		synchronized (pool) {
+			pool.idle.addFirst(connection);
+		}
+		pool.permits.release();
+	}
+
+	/**
+	 * Closes a connection which failed or is in an unknown state, instead of
+	 * returning it to the pool.
+	 *
+	 * @param connection The connection
+	 */
+	public void invalidate(PooledConnection connection) {
+		ServerPool pool = pools.get(connection.getServerKey());
+		if (pool == null) {
+			connection.close();
+			return;
+		}
+
+		discard(pool, connection);
+		pool.permits.release();
+	}
+
+	private void discard(ServerPool pool, PooledConnection connection) {
+		connection.close();
+		synchronized (pool) {
+			pool.open--;
+		}
+	}
+
+	/**
+	 * Returns the number of open connections to the given server, whether idle
+	 * or in use.
+	 *
+	 * @param serverKey The key identifying the server
+	 * @return The open connection count
+	 */
+	public int getOpenCount(String serverKey) {
+		ServerPool pool = pools.get(serverKey);
+		if (pool == null) return 0;
+		synchronized (pool) {
+			return pool.open;
+		}
+	}
+
+	/**
+	 * Returns the number of idle connections to the given server.
+	 *
+	 * @param serverKey The key identifying the server
+	 * @return The idle connection count
+	 */
+	public int getIdleCount(String serverKey) {
+		ServerPool pool = pools.get(serverKey);
+		if (pool == null) return 0;
+		synchronized (pool) {
+			return pool.idle.size();
+		}
+	}
+
+	/**
+	 * Closes the connections which have been idle for longer than the idle
+	 * timeout.
+	 */
+	public void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		for (Map.Entry<String, ServerPool> entry : pools.entrySet()) {
+			ServerPool pool = entry.getValue();
+			List<PooledConnection> evicted = new ArrayList<>();
+			synchronized (pool) {
+				Iterator<PooledConnection> it = pool.idle.iterator();
+				while (it.hasNext()) {
+					PooledConnection connection = it.next();
+					if (connection.getLastUsed() < cutoff) {
+						it.remove();
+						pool.open--;
+						evicted.add(connection);
+					}
+				}
+			}
+
+			evicted.forEach(PooledConnection::close);
+			if (!evicted.isEmpty()) {
+				log.debug("Evicted " + evicted.size() + " idle connection(s) to server " + entry.getKey());
+			}
+		}
+	}
+
+	private void evictPeriodically() {
+		long period = Math.max(1, idleTimeout / 2);
+		while (!closed) {
+			try {
+				Thread.sleep(period);
+			} catch (InterruptedException e) {
+				return;
+			}
+			evictIdle();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops the eviction thread. Connections in
+	 * use are closed when they are returned.
+	 */
+	public void close() {
+		closed = true;
+		evictorThread.interrupt();
+		for (ServerPool pool : pools.values()) {
+			List<PooledConnection> idle;
+			synchronized (pool) {
+				idle = new ArrayList<>(pool.idle);
+				pool.open -= idle.size();
+				pool.idle.clear();
+			}
+			idle.forEach(PooledConnection::close);
+		}
+	}
+
+}
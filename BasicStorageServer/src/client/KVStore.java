@@ -1,23 +1,48 @@
 package client;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 
 import common.HashUtil;
 import common.KVServiceTopology;
 import common.messages.BasicKVMessage;
+import common.messages.BatchKVMessage;
+import common.messages.Compression;
+import common.messages.ForwardedKVMessage;
 import common.messages.KVMessage;
 import common.messages.KVMessage.StatusType;
-import common.messages.StreamUtil;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+import common.messages.ServiceMetadataMessage;
 import ecs.ECSNode;
 import ecs.IECSNode;
 
 /**
  * Provides the implementation for the client-side communications module.
+ * <p>
+ * By default, each connection carries one request at a time, and a store must
+ * only be used by one thread at a time. If pipelining is enabled with
+ * {@link #setMaxInFlight(int)}, a store can be shared by several threads, whose
+ * requests to the same server are sent over one connection without waiting for
+ * the responses to earlier requests.
  */
 public class KVStore implements KVCommInterface {
 
@@ -26,10 +51,34 @@ public class KVStore implements KVCommInterface {
 	private static final int MAX_KEY_LENGTH = 20;
 	private static final int MAX_VALUE_LENGTH = 120 * 1000;
 
-	private Map<String, Socket> socketMap = new HashMap<>();
+	/**
+	 * The maximum size in bytes of the key-value pairs sent in one batch request,
+	 * counting every character as 3 bytes, which is the most a character of a
+	 * valid key or value occupies in UTF-8. Keeps batch requests well within the
+	 * maximum frame length while always admitting a single maximal pair.
+	 */
+	private static final int MAX_BATCH_BYTES = 512 * 1024;
+
+	private static final ExecutorService batchExecutor = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "kvstore-batch");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Map<String, Socket> socketMap = new ConcurrentHashMap<>();
+	private Map<String, PipelinedConnection> pipelineMap = new ConcurrentHashMap<>();
+	private Map<String, KVMessageCodec> codecMap = new ConcurrentHashMap<>();
 
 	private final KVServiceTopology mdCache;
-	private final StreamUtil streamUtil;
+	private long metadataVersion = 0; // guarded by this
+	private boolean metadataFetched = false; // guarded by this
+
+	private boolean binaryProtocol = true;
+	private Compression compression = null;
+	private int maxInFlight = 1;
+
+	private NearCache nearCache = null;
+	private boolean subscribed = false;
 
 	/**
 	 * Initialize KVStore with address and port of KVServer
@@ -40,25 +89,192 @@ public class KVStore implements KVCommInterface {
 	public KVStore(String address, int port) {
 		this.mdCache = new KVServiceTopology();
 		this.mdCache.updateNode(new ECSNode(address, port));
-		this.streamUtil = new StreamUtil();
+	}
+
+	/**
+	 * Chooses the wire format used on connections opened from now on. The binary
+	 * format is used by default; the JSON format is only needed for servers which
+	 * predate it.
+	 * 
+	 * @param binaryProtocol <code>true</code> to use the binary format,
+	 *            <code>false</code> to use the JSON format
+	 */
+	public void setBinaryProtocol(boolean binaryProtocol) {
+		this.binaryProtocol = binaryProtocol;
+	}
+
+	/**
+	 * Requests compression of large values on binary connections opened from now
+	 * on. Each server may decline compression, or the dictionary if it does not
+	 * hold the same one, in which case values are sent as they are.
+	 * 
+	 * @param compression The compression settings, or <code>null</code> to send
+	 *            values uncompressed
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Sets the maximum number of requests which may await a response on each
+	 * connection opened from now on. With more than one, requests are tagged with
+	 * request ids and pipelined, which requires servers that support request ids.
+	 * 
+	 * @param maxInFlight The maximum number of in-flight requests per connection,
+	 *            or 1 to disable pipelining
+	 * @throws IllegalArgumentException If the maximum is not positive
+	 */
+	public void setMaxInFlight(int maxInFlight) throws IllegalArgumentException {
+		if (maxInFlight <= 0) throw new IllegalArgumentException("Maximum in-flight requests must be positive");
+		this.maxInFlight = maxInFlight;
 	}
 
 	@Override
-	public void connect() throws Exception {
+	public synchronized void connect() throws Exception {
 		for (IECSNode server : mdCache.getNodeSet()) {
-			String serverName = server.getNodeName();
+			String serverName = getConnectionKey(server);
 			if (!socketMap.containsKey(serverName)
 					|| !socketMap.get(serverName).isConnected()
 					|| socketMap.get(serverName).isClosed()) {
 
 				Socket socket = new Socket();
 				socket.connect(server.getNodeSocketAddress());
+				KVMessageCodec codec = binaryProtocol
+						? ProtocolHandshake.initiate(socket.getInputStream(), socket.getOutputStream(), compression)
+						: ProtocolHandshake.JSON_CODEC;
 				log.info("Connection established with server " + serverName + " at " + server.getNodeSocketAddress());
 				socketMap.put(serverName, socket);
+				codecMap.put(serverName, codec);
+				if (maxInFlight > 1) {
+					pipelineMap.put(serverName,
+							new PipelinedConnection(socket, codec, maxInFlight, this::applyNotification));
+				}
+				if (subscribed) subscribe(serverName, socket);
+			}
+		}
+
+		// the whole service is learned from the first server reached, so requests are routed correctly from the start
+		if (!metadataFetched) {
+			metadataFetched = true;
+			fetchMetadata(getConnectionKey(mdCache.getNodeSet().iterator().next()));
+		}
+	}
+
+	/**
+	 * Fetches the metadata of the whole service from the given server, replacing
+	 * the cached metadata unless it is more recent, and connects to any servers
+	 * which are not yet connected. Must be called while holding the monitor of
+	 * this store.
+	 * 
+	 * @param serverName The connection key of the server
+	 * @throws Exception If an error occurs while communicating with the servers
+	 */
+	private void fetchMetadata(String serverName) throws Exception {
+		Socket socket = socketMap.get(serverName);
+		if (socket == null) return;
+
+		KVMessage response = exchange(serverName, socket, new BasicKVMessage(null, null, StatusType.GET_METADATA));
+		if (!(response instanceof ServiceMetadataMessage) || response.getVersion() < metadataVersion) return;
+
+		Collection<IECSNode> nodes = ((ServiceMetadataMessage) response).getNodes();
+		if (nodes.isEmpty()) return;
+		log.info("Received metadata version " + response.getVersion() + " for " + nodes.size() + " server(s)");
+		mdCache.replaceNodes(nodes);
+		metadataVersion = response.getVersion();
+
+		// connections made before the names of servers were known are kept under their names from now on
+		for (IECSNode node : nodes) {
+			String addressKey = node.getNodeHost() + ":" + node.getNodePort();
+			String nameKey = getConnectionKey(node);
+			if (socketMap.containsKey(addressKey) && !socketMap.containsKey(nameKey)) {
+				socketMap.put(nameKey, socketMap.remove(addressKey));
+				codecMap.put(nameKey, codecMap.remove(addressKey));
+				Optional.ofNullable(pipelineMap.remove(addressKey))
+						.ifPresent(pipeline -> pipelineMap.put(nameKey, pipeline));
+			}
+		}
+		connect();
+	}
+
+	/**
+	 * Fetches the metadata of the whole service from the given server if a
+	 * response reported a more recent version than is cached, instead of relying
+	 * on the single server carried by the response. Must be called while holding
+	 * the monitor of this store.
+	 * 
+	 * @param reportedVersion The metadata version reported by the server, or 0 if
+	 *            it reported none
+	 * @param server The server which is connected and reported the version
+	 * @throws Exception If an error occurs while communicating with the servers
+	 */
+	private void refreshMetadata(long reportedVersion, IECSNode server) throws Exception {
+		if (reportedVersion > metadataVersion) fetchMetadata(getConnectionKey(server));
+	}
+
+	/**
+	 * Returns the key under which the connection to the given server is kept.
+	 * Servers are identified by name, except for the server given on
+	 * construction, whose name is not known until it redirects a request and
+	 * which is identified by its address instead.
+	 * 
+	 * @param server The server
+	 * @return The connection key
+	 */
+	static String getConnectionKey(IECSNode server) {
+		return server.getNodeName() != null
+				? server.getNodeName()
+				: server.getNodeHost() + ":" + server.getNodePort();
+	}
+
+	/**
+	 * Enables a near cache, which answers repeated reads of the same keys without
+	 * contacting a server. Cached values are discarded when they expire, when the
+	 * key is written by this client, and when the service topology changes.
+	 * Optionally, this client also subscribes to notifications of writes by other
+	 * clients, which are used to discard cached values as soon as they become
+	 * stale.
+	 * 
+	 * @param capacity The maximum number of cached values
+	 * @param ttlMillis The time in milliseconds after which cached values expire
+	 * @param subscribe <code>true</code> to subscribe to write notifications,
+	 *            <code>false</code> to rely on expiry alone
+	 * @throws IOException If an I/O exception occurs while subscribing
+	 * @throws IllegalArgumentException If the capacity or time to live is not
+	 *             positive
+	 */
+	public void enableNearCache(int capacity, long ttlMillis, boolean subscribe)
+			throws IOException, IllegalArgumentException {
+		this.nearCache = new NearCache(capacity, ttlMillis);
+		if (subscribe && !subscribed) {
+			this.subscribed = true;
+			for (Map.Entry<String, Socket> entry : socketMap.entrySet()) {
+				subscribe(entry.getKey(), entry.getValue());
 			}
 		}
 	}
 
+	/**
+	 * Returns the near cache of this client.
+	 * 
+	 * @return The near cache, or <code>null</code> if it is not enabled
+	 */
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+
+	/**
+	 * Subscribes to write notifications from the server at the other end of the
+	 * given socket.
+	 * 
+	 * @param serverName The name of the server
+	 * @param socket The socket connected to the server
+	 * @throws IOException If an I/O exception occurs while communicating with the
+	 *             server
+	 */
+	private void subscribe(String serverName, Socket socket) throws IOException {
+		exchange(serverName, socket, new BasicKVMessage(null, null, StatusType.SUBSCRIBE));
+	}
+
 	@Override
 	public void disconnect() {
 		log.info("try to close connection ...");
@@ -81,6 +297,8 @@ public class KVStore implements KVCommInterface {
 			if (!socket.isClosed()) socket.close();
 		}
 		socketMap.clear();
+		pipelineMap.clear();
+		codecMap.clear();
 		log.info("All connection closed!");
 	}
 
@@ -91,6 +309,7 @@ public class KVStore implements KVCommInterface {
 
 		validateKey(key);
 		validateValue(value);
+		if (nearCache != null) nearCache.invalidate(key);
 		return sendMessage(new BasicKVMessage(key, value, StatusType.PUT));
 	}
 
@@ -100,7 +319,224 @@ public class KVStore implements KVCommInterface {
 			throw new IllegalStateException("Not currently connected to server");
 
 		validateKey(key);
-		return sendMessage(new BasicKVMessage(key, null, StatusType.GET));
+		if (nearCache == null) {
+			return sendMessage(new BasicKVMessage(key, null, StatusType.GET));
+		}
+
+		if (subscribed) receiveNotifications();
+		KVMessage cached = nearCache.get(key);
+		if (cached != null) return cached;
+
+		KVMessage response = sendMessage(new BasicKVMessage(key, null, StatusType.GET));
+		if (response.getStatus() == StatusType.GET_SUCCESS) {
+			nearCache.put(key, response.getValue(), response.getVersion());
+		} else {
+			nearCache.invalidate(key);
+		}
+		return response;
+	}
+
+	/**
+	 * Retrieves the values of several keys at once. The keys are split into one
+	 * batch per responsible server, and the batches are sent in parallel.
+	 * 
+	 * @param keys The keys to retrieve
+	 * @return A <code>MULTI_GET_SUCCESS</code> message whose entries hold the
+	 *         values of the keys which are present, in the order the keys were
+	 *         given, or else the first error response received from a server
+	 * @throws Exception If an error occurs during forming the requests or
+	 *             communicating with the servers
+	 */
+	public KVMessage getAll(Collection<String> keys) throws Exception {
+		if (!isConnected())
+			throw new IllegalStateException("Not currently connected to server");
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		for (String key : keys) {
+			validateKey(key);
+			entries.put(key, null);
+		}
+		return sendBatch(StatusType.MULTI_GET, entries);
+	}
+
+	/**
+	 * Writes several key-value pairs at once. The pairs are split into one batch
+	 * per responsible server, and the batches are sent in parallel. Pairs with an
+	 * empty or <code>null</code> value delete their keys.
+	 * 
+	 * @param pairs The key-value pairs to write
+	 * @return A <code>MULTI_PUT_SUCCESS</code> message if every pair was written,
+	 *         or else the first error response received from a server
+	 * @throws Exception If an error occurs during forming the requests or
+	 *             communicating with the servers
+	 */
+	public KVMessage putAll(Map<String, String> pairs) throws Exception {
+		if (!isConnected())
+			throw new IllegalStateException("Not currently connected to server");
+
+		for (Map.Entry<String, String> entry : pairs.entrySet()) {
+			validateKey(entry.getKey());
+			validateValue(entry.getValue());
+		}
+		if (nearCache != null) pairs.keySet().forEach(nearCache::invalidate);
+		return sendBatch(StatusType.MULTI_PUT, pairs);
+	}
+
+	/**
+	 * Applies any write notifications which have already arrived from the
+	 * servers, without waiting for further notifications. Notifications arriving
+	 * on pipelined connections are applied as soon as they are read, and are not
+	 * handled here.
+	 * 
+	 * @throws IOException If an I/O exception occurs while reading notifications
+	 */
+	private void receiveNotifications() throws IOException {
+		for (Map.Entry<String, Socket> entry : socketMap.entrySet()) {
+			if (pipelineMap.containsKey(entry.getKey())) continue;
+			InputStream in = entry.getValue().getInputStream();
+			KVMessageCodec codec = codecMap.get(entry.getKey());
+			while (in.available() > 0) {
+				KVMessage message = codec.decode(in);
+				if (message == null) continue;
+				if (message.getStatus() == StatusType.INVALIDATE) {
+					applyNotification(message);
+				} else {
+					log.warn("Discarding unexpected message " + message);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives the response to a request, applying any write notifications which
+	 * arrive before it.
+	 * 
+	 * @param in The stream from which to read the response
+	 * @param codec The wire format of the connection
+	 * @return The response
+	 * @throws IOException If an I/O exception occurs while reading the response
+	 */
+	private KVMessage receiveResponse(InputStream in, KVMessageCodec codec) throws IOException {
+		while (true) {
+			KVMessage message = codec.decode(in);
+			if (message == null) throw new IOException("Could not decode response");
+			if (message.getStatus() != StatusType.INVALIDATE) return message;
+			applyNotification(message);
+		}
+	}
+
+	/**
+	 * Sends a request to the given server and waits for the response, over the
+	 * pipelined connection to the server if there is one.
+	 * 
+	 * @param serverName The name of the server
+	 * @param socket The socket connected to the server
+	 * @param message The request to send
+	 * @return The response
+	 * @throws IOException If an I/O exception occurs while communicating with the
+	 *             server
+	 */
+	private KVMessage exchange(String serverName, Socket socket, KVMessage message) throws IOException {
+		PipelinedConnection pipeline = pipelineMap.get(serverName);
+		if (pipeline != null) return pipeline.send(message);
+
+		KVMessageCodec codec = codecMap.get(serverName);
+		codec.write(socket.getOutputStream(), codec.encode(message));
+		return receiveResponse(socket.getInputStream(), codec);
+	}
+
+	private void applyNotification(KVMessage notification) {
+		if (nearCache == null) return;
+		if (notification.getKey() == null) {
+			nearCache.clear();
+		} else {
+			nearCache.invalidate(notification.getKey(), notification.getVersion());
+		}
+	}
+
+	/**
+	 * Writes a value of any length, which is read from the given stream and sent
+	 * to the server in chunks rather than in a single message, so that it is
+	 * never held in memory in full. Streamed values are stored apart from those
+	 * written by {@link #put(String, String)}, and are only read by
+	 * {@link #getStream(String, Writer)}. An empty value deletes the key.
+	 * <p>
+	 * The value is transferred over a connection opened for the purpose, so that
+	 * other requests are not held up behind it.
+	 * 
+	 * @param key The key to set
+	 * @param value The stream holding the value, which is read to its end
+	 * @return The server response, with the status an ordinary put of the value
+	 *         would have been answered with
+	 * @throws Exception If an error occurs while reading the value or
+	 *             communicating with the server
+	 */
+	public KVMessage putStream(String key, Reader value) throws Exception {
+		if (!isConnected())
+			throw new IllegalStateException("Not currently connected to server");
+
+		validateKey(key);
+		return sendStreamed(key, connection -> StreamTransfer.put(connection, key, value));
+	}
+
+	/**
+	 * Reads a value written by {@link #putStream(String, Reader)} into the given
+	 * stream, chunk by chunk as it is received.
+	 * 
+	 * @param key The key to retrieve the value for
+	 * @param value The stream to which the value is written
+	 * @return The server response, with status <code>GET_STREAM_SUCCESS</code> if
+	 *         the value was received in full
+	 * @throws Exception If an error occurs while writing the value or
+	 *             communicating with the server
+	 */
+	public KVMessage getStream(String key, Writer value) throws Exception {
+		if (!isConnected())
+			throw new IllegalStateException("Not currently connected to server");
+
+		validateKey(key);
+		return sendStreamed(key, connection -> StreamTransfer.get(connection, key, value));
+	}
+
+	/**
+	 * Performs a streamed transfer with the server currently believed to be
+	 * responsible for the given key, over a new connection, retrying
+	 * transparently if the wrong server is contacted.
+	 * 
+	 * @param key The key of the value to transfer
+	 * @param transfer The transfer to perform
+	 * @return The final server response
+	 * @throws Exception If an error occurs during the transfer
+	 */
+	private KVMessage sendStreamed(String key, StreamTransfer.Operation transfer) throws Exception {
+		String hash = HashUtil.toMD5(key);
+		while (true) {
+			IECSNode cachedServer;
+			synchronized (this) {
+				cachedServer = mdCache.findResponsibleServer(hash);
+			}
+			boolean gotServerFromCache = cachedServer.containsHash(hash);
+
+			KVMessage response;
+			PooledConnection connection = new PooledConnection(getConnectionKey(cachedServer),
+					cachedServer.getNodeSocketAddress(), binaryProtocol, compression);
+			try {
+				response = transfer.perform(connection);
+			} finally {
+				connection.close();
+			}
+			if (response.getStatus() != StatusType.SERVER_NOT_RESPONSIBLE) return response;
+
+			synchronized (this) {
+				// cached information for the selected server is stale; purge it from the cache
+				if (gotServerFromCache) {
+					mdCache.invalidateNode(cachedServer);
+				}
+				mdCache.updateNode(response.getResponsibleServer());
+				connect();
+				refreshMetadata(response.getVersion(), response.getResponsibleServer());
+			}
+		}
 	}
 
 	/**
@@ -160,44 +596,191 @@ public class KVStore implements KVCommInterface {
 	 */
 	private KVMessage sendMessage(KVMessage message) throws Exception {
 		String hash = HashUtil.toMD5(message.getKey());
-		String responseStr;
 		KVMessage response = null;
 		boolean gotRightServer = false;
 
 		// keep contacting servers until the right one gets hit
 		while (!gotRightServer) {
 
-			IECSNode cachedServer = mdCache.findResponsibleServer(hash);
+			IECSNode cachedServer;
+			Socket socket;
+			synchronized (this) {
+				cachedServer = mdCache.findResponsibleServer(hash);
+				socket = socketMap.get(getConnectionKey(cachedServer));
+			}
 			boolean gotServerFromCache = cachedServer.containsHash(hash);
 
-			Socket socket = socketMap.get(cachedServer.getNodeName());
-
 			// TODO handle case where server rejects request or is offline
 
-			streamUtil.sendMessage(socket.getOutputStream(), message);
+			response = exchange(getConnectionKey(cachedServer), socket, message);
 
-			responseStr = streamUtil.receiveString(socket.getInputStream());
-			response = streamUtil.deserializeKVMessage(responseStr);
+			if (ForwardedKVMessage.isForwarded(response)) {
+				// a forwarded request was served by the responsible server, which is learned without retrying
+				if (nearCache != null) nearCache.invalidate(message.getKey());
 
-			if (response.getStatus() == StatusType.SERVER_NOT_RESPONSIBLE) {
-				// cached information for the selected server is stale; purge it from the cache
-				if (gotServerFromCache) {
-					mdCache.invalidateNode(cachedServer);
+				synchronized (this) {
+					mdCache.updateNode(response.getResponsibleServer());
+					connect();
 				}
+			} else if (response.getStatus() == StatusType.SERVER_NOT_RESPONSIBLE) {
+				// values cached from servers which have given up keys may be stale
+				if (nearCache != null) nearCache.clear();
 
-				// update metadata for new server
-				IECSNode responsibleServer = response.getResponsibleServer();
-				mdCache.updateNode(responsibleServer);
+				synchronized (this) {
+					// cached information for the selected server is stale; purge it from the cache
+					if (gotServerFromCache) {
+						mdCache.invalidateNode(cachedServer);
+					}
 
-				// try to connect, in case this is a new server
-				connect();
+					// update metadata for new server
+					IECSNode responsibleServer = response.getResponsibleServer();
+					mdCache.updateNode(responsibleServer);
+
+					// try to connect, in case this is a new server
+					connect();
 
-			} else {
-				gotRightServer = true;
+					refreshMetadata(response.getVersion(), responsibleServer);
+				}
 			}
+			gotRightServer = response.getStatus() != StatusType.SERVER_NOT_RESPONSIBLE;
 		}
 
 		return response;
 	}
 
+	/**
+	 * Sends the given key-value pairs in batch requests to the servers currently
+	 * believed to be responsible for them, retrying the pairs of any batch which
+	 * reaches the wrong server.
+	 * 
+	 * @param status The status of the batch requests
+	 * @param entries The key-value pairs to send
+	 * @return The merged response
+	 * @throws Exception If an error occurs during communicating with the servers
+	 */
+	private KVMessage sendBatch(StatusType status, Map<String, String> entries) throws Exception {
+		Map<String, String> values = new HashMap<>();
+		KVMessage failure = null;
+		Map<String, String> remaining = entries;
+
+		while (!remaining.isEmpty()) {
+			Map<IECSNode, List<Map<String, String>>> batches = splitBatch(remaining);
+
+			Map<IECSNode, CompletableFuture<List<KVMessage>>> responses = new LinkedHashMap<>();
+			for (Map.Entry<IECSNode, List<Map<String, String>>> entry : batches.entrySet()) {
+				IECSNode server = entry.getKey();
+				String serverName = getConnectionKey(server);
+				Socket socket = socketMap.get(serverName);
+				responses.put(server, CompletableFuture.supplyAsync(
+						() -> exchangeAll(serverName, socket, status, entry.getValue()), batchExecutor));
+			}
+
+			// every batch must complete before any connection is used to handle a redirect
+			Map<IECSNode, List<KVMessage>> serverResponseMap = new LinkedHashMap<>();
+			CompletionException batchFailure = null;
+			for (Map.Entry<IECSNode, CompletableFuture<List<KVMessage>>> entry : responses.entrySet()) {
+				try {
+					serverResponseMap.put(entry.getKey(), entry.getValue().join());
+				} catch (CompletionException e) {
+					if (batchFailure == null) batchFailure = e;
+				}
+			}
+			if (batchFailure != null) {
+				Throwable cause = batchFailure.getCause();
+				if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+				throw cause instanceof Exception ? (Exception) cause : batchFailure;
+			}
+
+			remaining = new LinkedHashMap<>();
+			for (Map.Entry<IECSNode, List<KVMessage>> entry : serverResponseMap.entrySet()) {
+				List<Map<String, String>> serverBatches = batches.get(entry.getKey());
+				List<KVMessage> serverResponses = entry.getValue();
+
+				for (int i = 0; i < serverResponses.size(); i++) {
+					KVMessage response = serverResponses.get(i);
+					Map<String, String> batch = serverBatches.get(i);
+					if (response.getStatus() == StatusType.SERVER_NOT_RESPONSIBLE) {
+						// values cached from servers which have given up keys may be stale
+						if (nearCache != null) nearCache.clear();
+
+						synchronized (this) {
+							// the selected server may still serve other keys of the batch, so it is kept
+							mdCache.updateNode(response.getResponsibleServer());
+							connect();
+							refreshMetadata(response.getVersion(), response.getResponsibleServer());
+						}
+						remaining.putAll(batch);
+
+					} else if (response.getStatus() == StatusType.MULTI_GET_SUCCESS) {
+						values.putAll(response.getEntries());
+					} else if (response.getStatus() != StatusType.MULTI_PUT_SUCCESS && failure == null) {
+						failure = response;
+					}
+				}
+			}
+		}
+
+		if (failure != null) return failure;
+		if (status != StatusType.MULTI_GET) return new BasicKVMessage(null, null, StatusType.MULTI_PUT_SUCCESS);
+
+		Map<String, String> orderedValues = new LinkedHashMap<>();
+		for (String key : entries.keySet()) {
+			Optional.ofNullable(values.get(key)).ifPresent(value -> orderedValues.put(key, value));
+		}
+		return new BatchKVMessage(StatusType.MULTI_GET_SUCCESS, orderedValues);
+	}
+
+	/**
+	 * Splits the given key-value pairs by the server currently believed to be
+	 * responsible for them, and then into batches of limited size.
+	 * 
+	 * @param entries The key-value pairs to split
+	 * @return The batches for each server
+	 */
+	private synchronized Map<IECSNode, List<Map<String, String>>> splitBatch(Map<String, String> entries) {
+		Map<IECSNode, List<Map<String, String>>> batches = new LinkedHashMap<>();
+		Map<IECSNode, Integer> batchSizes = new HashMap<>();
+
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			IECSNode server = mdCache.findResponsibleServer(HashUtil.toMD5(entry.getKey()));
+			List<Map<String, String>> serverBatches = batches.computeIfAbsent(server, s -> new ArrayList<>());
+
+			String value = entry.getValue();
+			int entrySize = 3 * (entry.getKey().length() + (value != null ? value.length() : 0));
+			int batchSize = batchSizes.getOrDefault(server, MAX_BATCH_BYTES);
+			if (batchSize + entrySize > MAX_BATCH_BYTES) {
+				serverBatches.add(new LinkedHashMap<>());
+				batchSize = 0;
+			}
+			serverBatches.get(serverBatches.size() - 1).put(entry.getKey(), entry.getValue());
+			batchSizes.put(server, batchSize + entrySize);
+		}
+		return batches;
+	}
+
+	/**
+	 * Sends the given batches to a server one after another, and collects the
+	 * responses.
+	 * 
+	 * @param serverName The name of the server
+	 * @param socket The socket connected to the server
+	 * @param status The status of the batch requests
+	 * @param batches The key-value pairs of each batch
+	 * @return The response to each batch
+	 * @throws UncheckedIOException If an I/O exception occurs while communicating
+	 *             with the server
+	 */
+	private List<KVMessage> exchangeAll(String serverName, Socket socket, StatusType status,
+			List<Map<String, String>> batches) throws UncheckedIOException {
+		List<KVMessage> responses = new ArrayList<>(batches.size());
+		try {
+			for (Map<String, String> batch : batches) {
+				responses.add(exchange(serverName, socket, new BatchKVMessage(status, batch)));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return responses;
+	}
+
 }
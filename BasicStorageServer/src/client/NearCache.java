@@ -0,0 +1,160 @@
+package client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+
+/**
+ * A bounded client-side cache of values retrieved from the storage service,
+ * which allows repeated reads of the same keys to be answered without a round
+ * trip to a server. When full, the least recently read key is discarded.
+ * <p>
+ * Entries expire after a fixed time to live, which bounds how long a value
+ * written by another client can be served. Each entry records the version
+ * stamped on the value by the server, so that notifications of writes can be
+ * matched against the cached values. This class is thread-safe.
+ */
+public class NearCache {
+
+	private final long ttlNanos;
+	private final Map<String, CachedValue> entries;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates a near cache with the given capacity and time to live.
+	 *
+	 * @param capacity The maximum number of entries
+	 * @param ttlMillis The time in milliseconds after which entries expire
+	 * @throws IllegalArgumentException If the capacity or time to live is not
+	 *             positive
+	 */
+	public NearCache(int capacity, long ttlMillis) throws IllegalArgumentException {
+		if (capacity <= 0) throw new IllegalArgumentException("Near cache capacity must be positive");
+		if (ttlMillis <= 0) throw new IllegalArgumentException("Near cache time to live must be positive");
+
+		this.ttlNanos = ttlMillis * 1000000;
+		this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Retrieves the cached value for the given key, if it has not expired.
+	 *
+	 * @param key The key to look up
+	 * @return A <code>GET_SUCCESS</code> message holding the value and its
+	 *         version, or <code>null</code> if no unexpired value is cached
+	 */
+	public synchronized KVMessage get(String key) {
+		CachedValue entry = entries.get(key);
+		if (entry != null && System.nanoTime() - entry.expiry >= 0) {
+			entries.remove(key);
+			entry = null;
+		}
+
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return new BasicKVMessage(key, entry.value, StatusType.GET_SUCCESS, entry.version);
+	}
+
+	/**
+	 * Caches a value retrieved from a server. If a newer version of the value is
+	 * already cached, it is kept.
+	 *
+	 * @param key The key
+	 * @param value The value
+	 * @param version The version of the value
+	 */
+	public synchronized void put(String key, String value, long version) {
+		CachedValue existing = entries.get(key);
+		if (existing != null && existing.version > version) return;
+		entries.put(key, new CachedValue(value, version, System.nanoTime() + ttlNanos));
+	}
+
+	/**
+	 * Discards the cached value for the given key.
+	 *
+	 * @param key The key
+	 */
+	public synchronized void invalidate(String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Discards the cached value for the given key if it is older than the given
+	 * version.
+	 *
+	 * @param key The key
+	 * @param version The version of the key after a write
+	 */
+	public synchronized void invalidate(String key, long version) {
+		CachedValue existing = entries.get(key);
+		if (existing != null && existing.version < version) {
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Discards all cached values.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of cached values.
+	 *
+	 * @return The number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups answered by this cache.
+	 *
+	 * @return The hit count
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups not answered by this cache.
+	 *
+	 * @return The miss count
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * A cached value, with its version and expiry time.
+	 */
+	private static class CachedValue {
+		private final String value;
+		private final long version;
+		private final long expiry;
+
+		private CachedValue(String value, long version, long expiry) {
+			this.value = value;
+			this.version = version;
+			this.expiry = expiry;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+
+/**
+ * A connection to a single server on which several requests can await a
+ * response at once, so that throughput is not limited to one request per round
+ * trip. Each request is tagged with a distinct request id, which the server
+ * copies into its response, so responses are matched to requests in whatever
+ * order they arrive.
+ * <p>
+ * Responses are read by a background thread, which also passes on write
+ * notifications as soon as they arrive. At most a fixed number of requests are
+ * in flight at a time; further requests wait until a response arrives. If the
+ * connection fails, all requests in flight fail with the same exception.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PipelinedConnection {
+
+	private static final Logger log = Logger.getLogger(PipelinedConnection.class);
+
+	private final Socket socket;
+	private final KVMessageCodec codec;
+	private final Consumer<KVMessage> notificationListener;
+	private final Semaphore inFlight;
+	private final ReentrantLock outputLock = new ReentrantLock();
+	private final Map<Integer, CompletableFuture<KVMessage>> pending = new ConcurrentHashMap<>();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+
+	private volatile IOException failure = null;
+
+	/**
+	 * Creates a pipelined connection over the given socket, on which the protocol
+	 * handshake has already been performed, and starts reading responses.
+	 *
+	 * @param socket The connected socket
+	 * @param codec The codec negotiated for the connection
+	 * @param maxInFlight The maximum number of requests awaiting a response
+	 * @param notificationListener Receives write notifications pushed by the
+	 *            server
+	 * @throws IllegalArgumentException If the maximum number of requests is not
+	 *             positive
+	 */
+	public PipelinedConnection(Socket socket, KVMessageCodec codec, int maxInFlight,
+			Consumer<KVMessage> notificationListener) throws IllegalArgumentException {
+		if (maxInFlight <= 0) throw new IllegalArgumentException("Maximum in-flight requests must be positive");
+
+		this.socket = socket;
+		this.codec = codec;
+		this.notificationListener = notificationListener;
+		this.inFlight = new Semaphore(maxInFlight);
+
+		Thread readerThread = new Thread(this::readResponses, "pipelined-connection-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Sends the given request, blocking only while the maximum number of requests
+	 * are already in flight.
+	 *
+	 * @param request The request to send, whose request id is ignored
+	 * @return A future completed with the response, or exceptionally if the
+	 *         connection fails before it arrives
+	 * @throws IOException If the connection has failed or the request cannot be
+	 *             sent
+	 */
+	public CompletableFuture<KVMessage> submit(KVMessage request) throws IOException {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for in-flight requests");
+		}
+
+		int requestId;
+		do {
+			requestId = nextRequestId.incrementAndGet();
+		} while (requestId == 0); // 0 marks an untagged message
+
+		CompletableFuture<KVMessage> response = new CompletableFuture<>();
+		pending.put(requestId, response);
+		if (failure != null) {
+			fail(requestId);
+			throw failure;
+		}
+
+		byte[] requestBytes = codec.encode(BasicKVMessage.withRequestId(request, requestId));
+		outputLock.lock();
+		try {
+			codec.write(socket.getOutputStream(), requestBytes);
+		} catch (IOException e) {
+			fail(requestId);
+			throw e;
+		} finally {
+			outputLock.unlock();
+		}
+		return response;
+	}
+
+	/**
+	 * Sends the given request and waits for its response.
+	 *
+	 * @param request The request to send, whose request id is ignored
+	 * @return The response
+	 * @throws IOException If the connection fails before the response arrives
+	 */
+	public KVMessage send(KVMessage request) throws IOException {
+		CompletableFuture<KVMessage> response = submit(request);
+		try {
+			return response.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for response");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
+
+	/**
+	 * Returns the number of requests awaiting a response.
+	 *
+	 * @return The in-flight request count
+	 */
+	public int getInFlightCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Checks whether this connection can still be used.
+	 *
+	 * @return <code>true</code> if the connection has not failed or been closed,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean isOpen() {
+		return failure == null && !socket.isClosed();
+	}
+
+	/**
+	 * Closes the connection. Requests still in flight fail.
+	 *
+	 * @throws IOException If an I/O exception occurs while closing the socket
+	 */
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Reads responses and notifications until the connection fails or is closed,
+	 * completing the request each response belongs to.
+	 */
+	private void readResponses() {
+		try {
+			InputStream in = socket.getInputStream();
+			while (true) {
+				KVMessage message = codec.decode(in);
+				if (message == null) throw new IOException("Could not decode response");
+
+				if (message.getStatus() == StatusType.INVALIDATE) {
+					notificationListener.accept(message);
+					continue;
+				}
+
+				CompletableFuture<KVMessage> response = pending.remove(message.getRequestId());
+				if (response == null) {
+					log.warn("Discarding response to unknown request " + message);
+					continue;
+				}
+				inFlight.release();
+				response.complete(message);
+			}
+
+		} catch (IOException e) {
+			failure = socket.isClosed() ? new IOException("Connection closed", e) : e;
+			if (!socket.isClosed()) log.warn("Pipelined connection failed", e);
+
+			for (Integer requestId : pending.keySet()) {
+				fail(requestId);
+			}
+		}
+	}
+
+	/**
+	 * Fails the request with the given id, if it is still awaiting a response.
+	 */
+	private void fail(int requestId) {
+		CompletableFuture<KVMessage> response = pending.remove(requestId);
+		if (response == null) return;
+
+		inFlight.release();
+		response.completeExceptionally(failure != null ? failure : new IOException("Request could not be sent"));
+	}
+
+}
@@ -0,0 +1,188 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import common.messages.Compression;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+
+/**
+ * A connection to a single server which is held by a {@link ConnectionPool},
+ * and used by one thread at a time to send a request and wait for its
+ * response.
+ */
+public class PooledConnection {
+
+	/** The time in milliseconds to wait for data when probing an idle connection. */
+	private static final int PROBE_TIMEOUT = 1;
+
+	private final String serverKey;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final KVMessageCodec codec;
+
+	private volatile long lastUsed;
+	private volatile boolean used = false;
+
+	/**
+	 * Opens a connection to the given server and negotiates the wire format.
+	 *
+	 * @param serverKey The key of the pool to which the connection belongs
+	 * @param address The address of the server
+	 * @param binaryProtocol <code>true</code> to use the binary format,
+	 *            <code>false</code> to use the JSON format
+	 * @param compression The compression to request for the binary format, or
+	 *            <code>null</code> for none
+	 * @throws IOException If the connection cannot be established
+	 */
+	PooledConnection(String serverKey, InetSocketAddress address, boolean binaryProtocol, Compression compression)
+			throws IOException {
+		this.serverKey = serverKey;
+		this.socket = new Socket();
+		try {
+			socket.connect(address);
+			socket.setTcpNoDelay(true);
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.out = socket.getOutputStream();
+			this.codec = binaryProtocol
+					? ProtocolHandshake.initiate(in, out, compression)
+					: ProtocolHandshake.JSON_CODEC;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the key of the pool to which this connection belongs.
+	 *
+	 * @return The server key
+	 */
+	String getServerKey() {
+		return serverKey;
+	}
+
+	/**
+	 * Returns the time at which this connection was last used.
+	 *
+	 * @return The time in milliseconds since the epoch
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Checks whether this connection has completed an exchange before, as opposed
+	 * to having been opened for the current request.
+	 *
+	 * @return <code>true</code> if the connection has been used,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean hasBeenUsed() {
+		return used;
+	}
+
+	/**
+	 * Sends a request and waits for its response. Write notifications arriving
+	 * before the response are discarded, since pooled connections do not
+	 * subscribe to them.
+	 *
+	 * @param request The request to send
+	 * @return The response
+	 * @throws IOException If an I/O exception occurs while communicating with the
+	 *             server
+	 */
+	public KVMessage exchange(KVMessage request) throws IOException {
+		send(request);
+		return receive();
+	}
+
+	/**
+	 * Sends a message without waiting for a response, as is done for the chunks
+	 * of a streamed value.
+	 *
+	 * @param message The message to send
+	 * @throws IOException If an I/O exception occurs while sending the message
+	 */
+	void send(KVMessage message) throws IOException {
+		lastUsed = System.currentTimeMillis();
+		codec.write(out, codec.encode(message));
+	}
+
+	/**
+	 * Waits for the next message from the server, discarding write
+	 * notifications.
+	 *
+	 * @return The message
+	 * @throws IOException If an I/O exception occurs while receiving the message
+	 */
+	KVMessage receive() throws IOException {
+		while (true) {
+			KVMessage response = codec.decode(in);
+			if (response == null) throw new IOException("Could not decode response");
+			if (response.getStatus() != StatusType.INVALIDATE) {
+				lastUsed = System.currentTimeMillis();
+				used = true;
+				return response;
+			}
+		}
+	}
+
+	/**
+	 * Checks without a round trip whether this idle connection can still be
+	 * used. A connection is unusable once it has been closed by either end, and
+	 * is not trusted if the server has sent data which was never requested.
+	 *
+	 * @return <code>true</code> if the connection appears usable,
+	 *         <code>false</code> otherwise
+	 */
+	boolean isHealthy() {
+		if (socket.isClosed()) return false;
+
+		try {
+			socket.setSoTimeout(PROBE_TIMEOUT);
+			try {
+				// nothing may arrive on an idle connection, not even the end of the stream
+				in.read();
+				return false;
+			} catch (SocketTimeoutException e) {
+				return true;
+			} finally {
+				socket.setSoTimeout(0);
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether this connection has been closed.
+	 *
+	 * @return <code>true</code> if closed, <code>false</code> otherwise
+	 */
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	/**
+	 * Closes this connection.
+	 */
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// the connection is being discarded anyway
+		}
+	}
+
+}
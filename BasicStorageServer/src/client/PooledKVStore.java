@@ -0,0 +1,343 @@
+package client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+import common.HashUtil;
+import common.KVServiceTopology;
+import common.messages.BasicKVMessage;
+import common.messages.Compression;
+import common.messages.ForwardedKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.ServiceMetadataMessage;
+import ecs.ECSNode;
+import ecs.IECSNode;
+
+/**
+ * A client communications module which can be shared by any number of
+ * threads. Each request borrows a connection to the responsible server from a
+ * {@link ConnectionPool} for the duration of one round trip, so threads only
+ * wait for one another when they exceed the number of connections allowed to
+ * a server. Connections are opened when first needed rather than on
+ * {@link #connect()}.
+ * <p>
+ * A request which fails on a connection that was reused from the pool is
+ * retried on another connection, since the server may have closed the
+ * connection while it was idle. A request is not retried once it fails on a
+ * newly opened connection.
+ */
+public class PooledKVStore implements KVCommInterface {
+
+	private static final Logger log = Logger.getLogger(PooledKVStore.class);
+
+	/** The default maximum number of connections to each server. */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_SERVER = 8;
+
+	/** The default time in milliseconds after which an idle connection is closed. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+	private final KVServiceTopology mdCache;
+	private long metadataVersion = 0; // guarded by mdCache
+	private boolean metadataFetched = false; // guarded by mdCache
+
+	private int maxConnectionsPerServer = DEFAULT_MAX_CONNECTIONS_PER_SERVER;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private boolean binaryProtocol = true;
+	private Compression compression = null;
+
+	private volatile ConnectionPool pool = null;
+
+	/**
+	 * Initialize PooledKVStore with address and port of KVServer
+	 *
+	 * @param address the address of the KVServer
+	 * @param port the port of the KVServer
+	 */
+	public PooledKVStore(String address, int port) {
+		this.mdCache = new KVServiceTopology();
+		this.mdCache.updateNode(new ECSNode(address, port));
+	}
+
+	/**
+	 * Sets the maximum number of connections to each server, taking effect on the
+	 * next call to {@link #connect()}.
+	 *
+	 * @param maxConnectionsPerServer The maximum number of connections
+	 * @throws IllegalArgumentException If the maximum is not positive
+	 */
+	public void setMaxConnectionsPerServer(int maxConnectionsPerServer) throws IllegalArgumentException {
+		if (maxConnectionsPerServer <= 0)
+			throw new IllegalArgumentException("Maximum connections per server must be positive");
+		this.maxConnectionsPerServer = maxConnectionsPerServer;
+	}
+
+	/**
+	 * Sets the time after which idle connections are closed, taking effect on the
+	 * next call to {@link #connect()}.
+	 *
+	 * @param idleTimeout The idle timeout in milliseconds
+	 * @throws IllegalArgumentException If the timeout is not positive
+	 */
+	public void setIdleTimeout(long idleTimeout) throws IllegalArgumentException {
+		if (idleTimeout <= 0)
+			throw new IllegalArgumentException("Idle timeout must be positive");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Chooses the wire format used on connections, taking effect on the next call
+	 * to {@link #connect()}.
+	 *
+	 * @param binaryProtocol <code>true</code> to use the binary format,
+	 *            <code>false</code> to use the JSON format
+	 * @see KVStore#setBinaryProtocol(boolean)
+	 */
+	public void setBinaryProtocol(boolean binaryProtocol) {
+		this.binaryProtocol = binaryProtocol;
+	}
+
+	/**
+	 * Requests compression of large values on binary connections, taking effect
+	 * on the next call to {@link #connect()}.
+	 *
+	 * @param compression The compression settings, or <code>null</code> to send
+	 *            values uncompressed
+	 * @see KVStore#setCompression(Compression)
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Returns the pool holding the connections of this client.
+	 *
+	 * @return The connection pool, or <code>null</code> if not connected
+	 */
+	public ConnectionPool getConnectionPool() {
+		return pool;
+	}
+
+	/**
+	 * Creates the connection pool. No connections are opened until requests are
+	 * sent.
+	 */
+	@Override
+	public synchronized void connect() {
+		if (pool == null) pool = new ConnectionPool(maxConnectionsPerServer, idleTimeout, binaryProtocol, compression);
+	}
+
+	@Override
+	public synchronized void disconnect() {
+		log.info("Closing connection pool...");
+		if (pool != null) pool.close();
+		pool = null;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return pool != null;
+	}
+
+	@Override
+	public KVMessage put(String key, String value) throws Exception {
+		KVStore.validateKey(key);
+		KVStore.validateValue(value);
+		return sendMessage(new BasicKVMessage(key, value, StatusType.PUT));
+	}
+
+	@Override
+	public KVMessage get(String key) throws Exception {
+		KVStore.validateKey(key);
+		return sendMessage(new BasicKVMessage(key, null, StatusType.GET));
+	}
+
+	/**
+	 * Writes a value of any length, which is read from the given stream and sent
+	 * in chunks over a pooled connection.
+	 *
+	 * @param key The key to set
+	 * @param value The stream holding the value, which is read to its end
+	 * @return The server response
+	 * @throws Exception If an error occurs while reading the value or
+	 *             communicating with the server
+	 * @see KVStore#putStream(String, Reader)
+	 */
+	public KVMessage putStream(String key, Reader value) throws Exception {
+		KVStore.validateKey(key);
+		return sendStreamed(key, connection -> StreamTransfer.put(connection, key, value));
+	}
+
+	/**
+	 * Reads a streamed value into the given stream over a pooled connection.
+	 *
+	 * @param key The key to retrieve the value for
+	 * @param value The stream to which the value is written
+	 * @return The server response
+	 * @throws Exception If an error occurs while writing the value or
+	 *             communicating with the server
+	 * @see KVStore#getStream(String, Writer)
+	 */
+	public KVMessage getStream(String key, Writer value) throws Exception {
+		KVStore.validateKey(key);
+		return sendStreamed(key, connection -> StreamTransfer.get(connection, key, value));
+	}
+
+	/**
+	 * Performs a streamed transfer with the server currently believed to be
+	 * responsible for the given key, retrying transparently if the wrong server
+	 * is contacted. A connection whose transfer fails is closed, since it may be
+	 * left in the middle of the transfer.
+	 */
+	private KVMessage sendStreamed(String key, StreamTransfer.Operation transfer) throws IOException {
+		ConnectionPool pool = this.pool;
+		if (pool == null)
+			throw new IllegalStateException("Not currently connected to server");
+
+		fetchInitialMetadata(pool);
+
+		String hash = HashUtil.toMD5(key);
+		while (true) {
+			IECSNode cachedServer;
+			synchronized (mdCache) {
+				cachedServer = mdCache.findResponsibleServer(hash);
+			}
+			boolean gotServerFromCache = cachedServer.containsHash(hash);
+
+			PooledConnection connection = pool.borrow(KVStore.getConnectionKey(cachedServer),
+					cachedServer.getNodeSocketAddress());
+			KVMessage response = null;
+			try {
+				response = transfer.perform(connection);
+			} finally {
+				if (response != null) {
+					pool.release(connection);
+				} else {
+					pool.invalidate(connection);
+				}
+			}
+			if (response.getStatus() != StatusType.SERVER_NOT_RESPONSIBLE) return response;
+
+			synchronized (mdCache) {
+				if (gotServerFromCache) {
+					mdCache.invalidateNode(cachedServer);
+				}
+				mdCache.updateNode(response.getResponsibleServer());
+			}
+			refreshMetadata(pool, response.getVersion(), response.getResponsibleServer());
+		}
+	}
+
+	/**
+	 * Sends the specified message to the server currently believed to be capable
+	 * of serving the request, retrying transparently if the wrong server is
+	 * contacted.
+	 *
+	 * @param message The <code>put</code> or <code>get</code> message to send
+	 * @return The final server response
+	 * @throws IOException If an error occurs while communicating with the server
+	 */
+	private KVMessage sendMessage(KVMessage message) throws IOException {
+		ConnectionPool pool = this.pool;
+		if (pool == null)
+			throw new IllegalStateException("Not currently connected to server");
+
+		fetchInitialMetadata(pool);
+
+		String hash = HashUtil.toMD5(message.getKey());
+		while (true) {
+			IECSNode cachedServer;
+			synchronized (mdCache) {
+				cachedServer = mdCache.findResponsibleServer(hash);
+			}
+			boolean gotServerFromCache = cachedServer.containsHash(hash);
+
+			KVMessage response = exchange(pool, cachedServer, message);
+			boolean forwarded = ForwardedKVMessage.isForwarded(response);
+			if (response.getStatus() != StatusType.SERVER_NOT_RESPONSIBLE && !forwarded) return response;
+
+			synchronized (mdCache) {
+				// cached information for the selected server is stale; purge it from the cache
+				if (gotServerFromCache && !forwarded) {
+					mdCache.invalidateNode(cachedServer);
+				}
+				mdCache.updateNode(response.getResponsibleServer());
+			}
+
+			// a forwarded request was served by the responsible server, which is learned without retrying
+			if (forwarded) return response;
+			refreshMetadata(pool, response.getVersion(), response.getResponsibleServer());
+		}
+	}
+
+	/**
+	 * Fetches the metadata of the whole service from the server given on
+	 * construction before the first request is sent, so that requests are routed
+	 * correctly from the start.
+	 */
+	private void fetchInitialMetadata(ConnectionPool pool) throws IOException {
+		IECSNode server;
+		synchronized (mdCache) {
+			if (metadataFetched) return;
+			metadataFetched = true;
+			server = mdCache.getNodeSet().iterator().next();
+		}
+		fetchMetadata(pool, server);
+	}
+
+	/**
+	 * Fetches the metadata of the whole service from the given server if a
+	 * <code>SERVER_NOT_RESPONSIBLE</code> response reported a more recent version
+	 * than is cached.
+	 */
+	private void refreshMetadata(ConnectionPool pool, long reportedVersion, IECSNode server) throws IOException {
+		synchronized (mdCache) {
+			if (reportedVersion <= metadataVersion) return;
+		}
+		fetchMetadata(pool, server);
+	}
+
+	/**
+	 * Fetches the metadata of the whole service from the given server, replacing
+	 * the cached metadata unless it is more recent.
+	 */
+	private void fetchMetadata(ConnectionPool pool, IECSNode server) throws IOException {
+		KVMessage response = exchange(pool, server, new BasicKVMessage(null, null, StatusType.GET_METADATA));
+		if (!(response instanceof ServiceMetadataMessage)) return;
+
+		Collection<IECSNode> nodes = ((ServiceMetadataMessage) response).getNodes();
+		synchronized (mdCache) {
+			if (nodes.isEmpty() || response.getVersion() < metadataVersion) return;
+			mdCache.replaceNodes(nodes);
+			metadataVersion = response.getVersion();
+		}
+		log.info("Received metadata version " + response.getVersion() + " for " + nodes.size() + " server(s)");
+	}
+
+	/**
+	 * Sends a request to the given server over a pooled connection and waits for
+	 * the response, retrying on another connection if a reused connection
+	 * fails.
+	 */
+	private KVMessage exchange(ConnectionPool pool, IECSNode server, KVMessage message) throws IOException {
+		String serverKey = KVStore.getConnectionKey(server);
+		while (true) {
+			PooledConnection connection = pool.borrow(serverKey, server.getNodeSocketAddress());
+			boolean reused = connection.hasBeenUsed();
+			try {
+				KVMessage response = connection.exchange(message);
+				pool.release(connection);
+				return response;
+			} catch (IOException e) {
+				pool.invalidate(connection);
+				if (!reused) throw e;
+				log.warn("Reused connection to server " + serverKey + " failed; retrying", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.ValueChunker;
+
+/**
+ * Transfers values which are streamed in chunks rather than sent in a single
+ * message, over a connection which is used for nothing else during the
+ * transfer. Only one chunk of a value is held in memory at a time.
+ */
+final class StreamTransfer {
+
+	/**
+	 * A transfer to be performed over a connection to the server responsible for
+	 * the key.
+	 */
+	@FunctionalInterface
+	interface Operation {
+
+		/**
+		 * Performs the transfer.
+		 *
+		 * @param connection The connection to the server
+		 * @return The final response of the server
+		 * @throws IOException If an I/O exception occurs while communicating with the
+		 *             server
+		 */
+		public KVMessage perform(PooledConnection connection) throws IOException;
+
+	}
+
+	private StreamTransfer() {}
+
+	/**
+	 * Writes the value read from the given stream. The value is only read once
+	 * the server has accepted the request, so the transfer can be repeated with
+	 * another server if the request is rejected.
+	 *
+	 * @param connection The connection to the server
+	 * @param key The key to set
+	 * @param value The stream holding the value, which is read to its end
+	 * @return The final response, or the response rejecting the request
+	 * @throws IOException If an I/O exception occurs while reading the value or
+	 *             communicating with the server
+	 */
+	static KVMessage put(PooledConnection connection, String key, Reader value) throws IOException {
+		KVMessage acknowledgement = connection.exchange(new BasicKVMessage(key, null, StatusType.PUT_STREAM));
+		if (acknowledgement.getStatus() != StatusType.PUT_STREAM) return acknowledgement;
+
+		ValueChunker chunker = new ValueChunker(value);
+		String chunk;
+		while ((chunk = chunker.nextChunk()) != null) {
+			connection.send(new BasicKVMessage(key, chunk, StatusType.STREAM_CHUNK));
+		}
+		return connection.exchange(new BasicKVMessage(key, null, StatusType.STREAM_END));
+	}
+
+	/**
+	 * Reads the value associated with the given key into the given stream, chunk
+	 * by chunk as the chunks arrive. If the server fails to send the value in
+	 * full, the part of the value already written is incomplete.
+	 *
+	 * @param connection The connection to the server
+	 * @param key The key to retrieve the value for
+	 * @param value The stream to which the value is written
+	 * @return The final response, or the response rejecting the request
+	 * @throws IOException If an I/O exception occurs while writing the value or
+	 *             communicating with the server
+	 */
+	static KVMessage get(PooledConnection connection, String key, Writer value) throws IOException {
+		connection.send(new BasicKVMessage(key, null, StatusType.GET_STREAM));
+		while (true) {
+			KVMessage response = connection.receive();
+			if (response.getStatus() != StatusType.STREAM_CHUNK) return response;
+			value.write(response.getValue() != null ? response.getValue() : "");
+		}
+	}
+
+}
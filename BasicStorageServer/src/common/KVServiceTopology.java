@@ -122,6 +122,18 @@ public class KVServiceTopology {
 		}
 	}
 
+	/**
+	 * Replaces all nodes in the topology with the given nodes and updates hash
+	 * ranges.
+	 * 
+	 * @param nodes The metadata for every node in the service
+	 */
+	public void replaceNodes(Collection<IECSNode> nodes) {
+		nodeMap.clear();
+		hashring.clear();
+		addNodes(nodes);
+	}
+
 	/**
 	 * Removes the given node from the topology without updating hash ranges.
 	 * 
@@ -9,6 +9,8 @@ public class BasicKVMessage implements KVMessage {
 	private final String key;
 	private final String value;
 	private final StatusType status;
+	private final long version;
+	private final int requestId;
 
 	/**
 	 * Creates a KV message with the specified key, value and status. Any of these
@@ -19,9 +21,65 @@ public class BasicKVMessage implements KVMessage {
 	 * @param status The message status to set
 	 */
 	public BasicKVMessage(String key, String value, StatusType status) {
+		this(key, value, status, 0);
+	}
+
+	/**
+	 * Creates a KV message with the specified key, value, status and key version.
+	 * Any of the key, value and status can be <code>null</code>.
+	 * 
+	 * @param key The key to set
+	 * @param value The value to set
+	 * @param status The message status to set
+	 * @param version The key version to set, or 0 if the message is not versioned
+	 */
+	public BasicKVMessage(String key, String value, StatusType status, long version) {
+		this(key, value, status, version, 0);
+	}
+
+	/**
+	 * Creates a KV message with the specified key, value, status, key version and
+	 * request id. Any of the key, value and status can be <code>null</code>.
+	 * 
+	 * @param key The key to set
+	 * @param value The value to set
+	 * @param status The message status to set
+	 * @param version The key version to set, or 0 if the message is not versioned
+	 * @param requestId The request id to set, or 0 if the message is not tagged
+	 */
+	public BasicKVMessage(String key, String value, StatusType status, long version, int requestId) {
 		this.key = key;
 		this.value = value;
 		this.status = status;
+		this.version = version;
+		this.requestId = requestId;
+	}
+
+	/**
+	 * Creates a copy of the given message tagged with the given request id.
+	 * 
+	 * @param message The message to copy
+	 * @param requestId The request id to set
+	 * @return The tagged message
+	 */
+	public static KVMessage withRequestId(KVMessage message, int requestId) {
+		if (message instanceof ForwardedKVMessage) {
+			ForwardedKVMessage forwarded = (ForwardedKVMessage) message;
+			return new ForwardedKVMessage(withRequestId(forwarded.getMessage(), requestId),
+					forwarded.getResponsibleServer());
+		}
+		if (message.getResponsibleServer() != null) {
+			return new MetadataUpdateMessage(message.getResponsibleServer(), requestId, message.getVersion());
+		}
+		if (message instanceof ServiceMetadataMessage) {
+			return new ServiceMetadataMessage(((ServiceMetadataMessage) message).getNodes(), message.getVersion(),
+					requestId);
+		}
+		if (message.getEntries() != null) {
+			return new BatchKVMessage(message.getStatus(), message.getEntries(), requestId);
+		}
+		return new BasicKVMessage(message.getKey(), message.getValue(), message.getStatus(), message.getVersion(),
+				requestId);
 	}
 
 	@Override
@@ -39,12 +97,24 @@ public class BasicKVMessage implements KVMessage {
 		return status;
 	}
 
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public int getRequestId() {
+		return requestId;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder msgBuilder = new StringBuilder("BasicKVMessage{ ")
 				.append("status=\"").append(status == null ? "null" : status.name()).append("\" ")
 				.append("key=\"").append(key == null ? "null" : key).append("\" ")
-				.append("value=\"").append(value == null ? "null" : value).append("\" }");
+				.append("value=\"").append(value == null ? "null" : value).append("\" ")
+				.append("version=").append(version).append(" ")
+				.append("requestId=").append(requestId).append(" }");
 
 		return msgBuilder.toString();
 	}
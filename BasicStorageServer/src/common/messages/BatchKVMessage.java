@@ -0,0 +1,88 @@
+package common.messages;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A message carrying several key-value pairs at once, so that a batch of keys
+ * can be read or written in a single round trip. Used for
+ * <code>MULTI_GET</code> and <code>MULTI_PUT</code> requests and
+ * <code>MULTI_GET_SUCCESS</code> responses.
+ */
+public class BatchKVMessage implements KVMessage {
+
+	private static final Set<StatusType> BATCH_STATUSES = EnumSet.of(
+			StatusType.MULTI_GET, StatusType.MULTI_GET_SUCCESS, StatusType.MULTI_PUT);
+
+	private final StatusType status;
+	private final Map<String, String> entries;
+	private final int requestId;
+
+	/**
+	 * Creates a batch message with the specified status and key-value pairs.
+	 *
+	 * @param status The message status to set
+	 * @param entries The key-value pairs to set, which are copied
+	 * @throws NullPointerException If the given pairs are <code>null</code>
+	 */
+	public BatchKVMessage(StatusType status, Map<String, String> entries) throws NullPointerException {
+		this(status, entries, 0);
+	}
+
+	/**
+	 * Creates a batch message with the specified status, key-value pairs and
+	 * request id.
+	 *
+	 * @param status The message status to set
+	 * @param entries The key-value pairs to set, which are copied
+	 * @param requestId The request id to set, or 0 if the message is not tagged
+	 * @throws NullPointerException If the given pairs are <code>null</code>
+	 */
+	public BatchKVMessage(StatusType status, Map<String, String> entries, int requestId)
+			throws NullPointerException {
+		this.status = status;
+		this.entries = Collections.unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(entries)));
+		this.requestId = requestId;
+	}
+
+	/**
+	 * Checks whether messages with the given status carry key-value pairs.
+	 *
+	 * @param status The status to check
+	 * @return <code>true</code> if the status is for a batch message,
+	 *         <code>false</code> otherwise
+	 */
+	public static boolean isBatchStatus(StatusType status) {
+		return status != null && BATCH_STATUSES.contains(status);
+	}
+
+	@Override
+	public Map<String, String> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public StatusType getStatus() {
+		return status;
+	}
+
+	@Override
+	public int getRequestId() {
+		return requestId;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder msgBuilder = new StringBuilder("BatchKVMessage{ ")
+				.append("status=\"").append(status == null ? "null" : status.name()).append("\" ")
+				.append("entries=").append(entries.size()).append(" ")
+				.append("requestId=").append(requestId).append(" }");
+
+		return msgBuilder.toString();
+	}
+
+}
@@ -0,0 +1,377 @@
+package common.messages;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import common.messages.KVMessage.StatusType;
+import ecs.ECSNode;
+import ecs.IECSNode;
+
+/**
+ * Encodes key-value messages as length-prefixed binary frames. Unlike the JSON
+ * format, frames can be read with a single bulk read once their length is
+ * known, and keys and values are carried as raw UTF-8 bytes without escaping.
+ * Each frame is laid out as follows, with integers in big-endian order:
+ *
+ * <pre>
+ * | frame length (4) | opcode (1) | request id (4) | version (8) | key length (4) | value length (4) | key | value |
+ * </pre>
+ *
+ * The frame length counts the bytes following it. The opcode is the ordinal of
+ * the message status, so new status types must only be appended. A key or value
+ * length of -1 marks an absent key or value. The request id matches a response
+ * to its request when several are in flight on one connection, and is 0 for
+ * untagged messages.
+ * <p>
+ * <code>SERVER_NOT_RESPONSIBLE</code> messages carry the name of the
+ * responsible server as the key, its host, port and hash range end, separated
+ * by spaces, as the value, and the version of the service metadata as the
+ * version.
+ * <p>
+ * Batch messages have no key, and carry their key-value pairs packed one after
+ * another in place of the value, each laid out as follows:
+ *
+ * <pre>
+ * | key length (4) | value length (4) | key | value |
+ * </pre>
+ *
+ * <code>GET_METADATA_SUCCESS</code> messages are laid out as batch messages,
+ * with a pair for each server holding its name and its address as formatted
+ * for <code>SERVER_NOT_RESPONSIBLE</code> messages.
+ * <p>
+ * On connections which negotiated {@link Compression}, values reaching the
+ * compression threshold may be sent compressed with DEFLATE. This is marked by
+ * setting the high bit of the opcode, and the value is then laid out as
+ * follows, its length counting both fields:
+ *
+ * <pre>
+ * | decompressed length (4) | compressed value |
+ * </pre>
+ * <p>
+ * Messages forwarded between servers, and responses relayed back to clients
+ * (see {@link ForwardedKVMessage}), are marked by setting the second highest
+ * bit of the opcode, and are followed by the name and address of the
+ * responsible server as formatted for <code>SERVER_NOT_RESPONSIBLE</code>
+ * messages, counted by the frame length:
+ *
+ * <pre>
+ * | name length (4) | address length (4) | name | address |
+ * </pre>
+ */
+public class BinaryKVMessageCodec implements KVMessageCodec {
+
+	/** The size of the frame header following the frame length. */
+	public static final int HEADER_SIZE = 1 + 4 + 8 + 4 + 4;
+
+	/** The maximum frame length accepted when decoding. */
+	public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+	private static final int ABSENT = -1;
+	private static final int REQUEST_ID_OFFSET = 4 + 1;
+	private static final StatusType[] STATUS_TYPES = StatusType.values();
+	private static final int COMPRESSED_FLAG = 0x80;
+	private static final int FORWARDED_FLAG = 0x40;
+
+	private final Compression compression;
+
+	/**
+	 * Creates a codec which does not compress values.
+	 */
+	public BinaryKVMessageCodec() {
+		this(null);
+	}
+
+	/**
+	 * Creates a codec which compresses values with the given settings, and
+	 * accepts compressed values.
+	 * 
+	 * @param compression The compression settings negotiated for the connection,
+	 *            or <code>null</code> to disable compression
+	 */
+	public BinaryKVMessageCodec(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Returns the compression settings of this codec.
+	 * 
+	 * @return The compression settings, or <code>null</code> if values are not
+	 *         compressed
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	@Override
+	public byte[] encode(KVMessage message) {
+		String key = message.getKey();
+		String value = message.getValue();
+
+		IECSNode server = message.getResponsibleServer();
+		boolean forwarded = ForwardedKVMessage.isForwarded(message);
+		if (server != null && !forwarded) {
+			key = server.getNodeName();
+			value = encodeAddress(server);
+		}
+
+		byte[] keyBytes = key != null ? key.getBytes(UTF_8) : null;
+		byte[] valueBytes = value != null ? value.getBytes(UTF_8) : null;
+		if (message.getEntries() != null) {
+			keyBytes = null;
+			valueBytes = encodeEntries(message.getEntries());
+		}
+
+		int opcode = message.getStatus().ordinal();
+		if (compression != null && valueBytes != null && valueBytes.length >= compression.getThreshold()) {
+			byte[] compressed = compression.compress(valueBytes, valueBytes.length - 4 - 1);
+			if (compressed != null) {
+				opcode |= COMPRESSED_FLAG;
+				valueBytes = ByteBuffer.allocate(4 + compressed.length)
+						.putInt(valueBytes.length)
+						.put(compressed)
+						.array();
+			}
+		}
+		byte[] serverNameBytes = null;
+		byte[] serverAddressBytes = null;
+		if (forwarded) {
+			opcode |= FORWARDED_FLAG;
+			serverNameBytes = server.getNodeName().getBytes(UTF_8);
+			serverAddressBytes = encodeAddress(server).getBytes(UTF_8);
+		}
+		int frameLength = HEADER_SIZE + length(keyBytes) + length(valueBytes)
+				+ (forwarded ? 4 + 4 + serverNameBytes.length + serverAddressBytes.length : 0);
+
+		ByteBuffer frame = ByteBuffer.allocate(4 + frameLength)
+				.putInt(frameLength)
+				.put((byte) opcode)
+				.putInt(message.getRequestId())
+				.putLong(message.getVersion())
+				.putInt(keyBytes != null ? keyBytes.length : ABSENT)
+				.putInt(valueBytes != null ? valueBytes.length : ABSENT);
+		if (keyBytes != null) frame.put(keyBytes);
+		if (valueBytes != null) frame.put(valueBytes);
+		if (forwarded) {
+			frame.putInt(serverNameBytes.length)
+					.putInt(serverAddressBytes.length)
+					.put(serverNameBytes)
+					.put(serverAddressBytes);
+		}
+
+		return frame.array();
+	}
+
+	static String encodeAddress(IECSNode server) {
+		return server.getNodeHost() + " " + server.getNodePort()
+				+ (server.getNodeHashRangeEnd() != null ? " " + server.getNodeHashRangeEnd() : "");
+	}
+
+	/**
+	 * Encodes the start of a frame for the given message, up to and including its
+	 * key, for a value of the given length which the caller transmits separately,
+	 * for instance straight from a file. The value of the message itself is
+	 * ignored.
+	 * 
+	 * @param message The message whose status, request id, version and key are
+	 *            encoded
+	 * @param valueLength The length in bytes of the value following the key
+	 * @return The encoded start of the frame
+	 */
+	public static byte[] encodeHead(KVMessage message, int valueLength) {
+		byte[] keyBytes = message.getKey() != null ? message.getKey().getBytes(UTF_8) : null;
+		int frameLength = HEADER_SIZE + length(keyBytes) + valueLength;
+
+		ByteBuffer head = ByteBuffer.allocate(4 + HEADER_SIZE + length(keyBytes))
+				.putInt(frameLength)
+				.put((byte) message.getStatus().ordinal())
+				.putInt(message.getRequestId())
+				.putLong(message.getVersion())
+				.putInt(keyBytes != null ? keyBytes.length : ABSENT)
+				.putInt(valueLength);
+		if (keyBytes != null) head.put(keyBytes);
+
+		return head.array();
+	}
+
+	private static int length(byte[] bytes) {
+		return bytes != null ? bytes.length : 0;
+	}
+
+	private static byte[] encodeEntries(Map<String, String> entries) {
+		List<byte[]> entryBytes = new ArrayList<>(2 * entries.size());
+		int length = 0;
+		for (Entry<String, String> entry : entries.entrySet()) {
+			byte[] keyBytes = entry.getKey().getBytes(UTF_8);
+			byte[] valueBytes = entry.getValue() != null ? entry.getValue().getBytes(UTF_8) : null;
+			entryBytes.add(keyBytes);
+			entryBytes.add(valueBytes);
+			length += 4 + 4 + keyBytes.length + length(valueBytes);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (int i = 0; i < entryBytes.size(); i += 2) {
+			byte[] keyBytes = entryBytes.get(i);
+			byte[] valueBytes = entryBytes.get(i + 1);
+			buffer.putInt(keyBytes.length).putInt(valueBytes != null ? valueBytes.length : ABSENT).put(keyBytes);
+			if (valueBytes != null) buffer.put(valueBytes);
+		}
+		return buffer.array();
+	}
+
+	private static Map<String, String> decodeEntries(byte[] frameBytes, int offset, int length)
+			throws ProtocolException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		ByteBuffer buffer = ByteBuffer.wrap(frameBytes, offset, Math.max(0, length));
+		while (buffer.hasRemaining()) {
+			if (buffer.remaining() < 4 + 4) throw new ProtocolException("Truncated batch entry");
+			int keyLength = buffer.getInt();
+			int valueLength = buffer.getInt();
+			if (keyLength < 0 || valueLength < ABSENT
+					|| (long) keyLength + Math.max(0, valueLength) > buffer.remaining()) {
+				throw new ProtocolException("Malformed batch entry");
+			}
+
+			String key = new String(frameBytes, buffer.position(), keyLength, UTF_8);
+			buffer.position(buffer.position() + keyLength);
+			String value = null;
+			if (valueLength != ABSENT) {
+				value = new String(frameBytes, buffer.position(), valueLength, UTF_8);
+				buffer.position(buffer.position() + valueLength);
+			}
+			entries.put(key, value);
+		}
+		return entries;
+	}
+
+	@Override
+	public KVMessage decode(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		int frameLength = dataIn.readInt();
+		if (frameLength < HEADER_SIZE || frameLength > MAX_FRAME_LENGTH) {
+			throw new ProtocolException("Invalid frame length " + frameLength);
+		}
+
+		byte[] frameBytes = new byte[frameLength];
+		dataIn.readFully(frameBytes);
+		ByteBuffer frame = ByteBuffer.wrap(frameBytes);
+
+		int opcode = frame.get() & 0xFF;
+		boolean compressed = (opcode & COMPRESSED_FLAG) != 0;
+		boolean forwarded = (opcode & FORWARDED_FLAG) != 0;
+		opcode &= ~(COMPRESSED_FLAG | FORWARDED_FLAG);
+		int requestId = frame.getInt();
+		long version = frame.getLong();
+		int keyLength = frame.getInt();
+		int valueLength = frame.getInt();
+		long bodyLength = (long) HEADER_SIZE + Math.max(0, keyLength) + Math.max(0, valueLength);
+		if (opcode >= STATUS_TYPES.length
+				|| keyLength < ABSENT || valueLength < ABSENT
+				|| (forwarded ? bodyLength > frameLength : bodyLength != frameLength)) {
+			throw new ProtocolException("Malformed frame header");
+		}
+		IECSNode responsibleServer = forwarded ? decodeTrailingServer(frameBytes, (int) bodyLength) : null;
+
+		byte[] valueBytes = frameBytes;
+		int valueOffset = HEADER_SIZE + Math.max(0, keyLength);
+		if (compressed) {
+			if (compression == null) throw new ProtocolException("Compression was not negotiated");
+			if (valueLength < 4) throw new ProtocolException("Malformed compressed value");
+			int decompressedLength = frame.getInt(valueOffset);
+			if (decompressedLength < 0 || decompressedLength > MAX_FRAME_LENGTH) {
+				throw new ProtocolException("Invalid decompressed length " + decompressedLength);
+			}
+			valueBytes = compression.decompress(frameBytes, valueOffset + 4, valueLength - 4, decompressedLength);
+			valueOffset = 0;
+			valueLength = decompressedLength;
+		}
+
+		StatusType status = STATUS_TYPES[opcode];
+		KVMessage message;
+		if (status == StatusType.GET_METADATA_SUCCESS) {
+			return ServiceMetadataMessage.fromEntries(decodeEntries(valueBytes, valueOffset, valueLength), version,
+					requestId);
+		} else if (BatchKVMessage.isBatchStatus(status)) {
+			message = new BatchKVMessage(status, decodeEntries(valueBytes, valueOffset, valueLength), requestId);
+		} else {
+			String key = keyLength != ABSENT ? new String(frameBytes, HEADER_SIZE, keyLength, UTF_8) : null;
+			String value = valueLength != ABSENT ? new String(valueBytes, valueOffset, valueLength, UTF_8) : null;
+
+			if (status == StatusType.SERVER_NOT_RESPONSIBLE) {
+				return new MetadataUpdateMessage(decodeServer(key, value), requestId, version);
+			}
+			message = new BasicKVMessage(key, value, status, version, requestId);
+		}
+		return responsibleServer != null ? new ForwardedKVMessage(message, responsibleServer) : message;
+	}
+
+	/**
+	 * Decodes the responsible server following the value of a forwarded message.
+	 */
+	private static IECSNode decodeTrailingServer(byte[] frameBytes, int offset) throws ProtocolException {
+		ByteBuffer trailer = ByteBuffer.wrap(frameBytes, offset, frameBytes.length - offset);
+		if (trailer.remaining() < 4 + 4) throw new ProtocolException("Missing responsible server information");
+		int nameLength = trailer.getInt();
+		int addressLength = trailer.getInt();
+		if (nameLength < 0 || addressLength < 0 || (long) nameLength + addressLength != trailer.remaining()) {
+			throw new ProtocolException("Malformed responsible server information");
+		}
+
+		String name = new String(frameBytes, trailer.position(), nameLength, UTF_8);
+		String address = new String(frameBytes, trailer.position() + nameLength, addressLength, UTF_8);
+		return decodeServer(name, address);
+	}
+
+	/**
+	 * Returns an encoded frame identical to the given one, except that it is
+	 * tagged with the given request id. Allows previously encoded responses to be
+	 * reused for requests with different ids.
+	 * 
+	 * @param frame The encoded frame, which is not modified
+	 * @param requestId The request id to set
+	 * @return The given frame if it already carries the request id, or else a
+	 *         tagged copy
+	 */
+	public static byte[] withRequestId(byte[] frame, int requestId) {
+		ByteBuffer buffer = ByteBuffer.wrap(frame);
+		if (buffer.getInt(REQUEST_ID_OFFSET) == requestId) return frame;
+
+		byte[] copy = frame.clone();
+		ByteBuffer.wrap(copy).putInt(REQUEST_ID_OFFSET, requestId);
+		return copy;
+	}
+
+	@Override
+	public int findMessageLength(ByteBuffer buffer) throws ProtocolException {
+		if (buffer.remaining() < 4) return -1;
+
+		int frameLength = buffer.getInt(buffer.position());
+		if (frameLength < HEADER_SIZE || frameLength > MAX_FRAME_LENGTH) {
+			throw new ProtocolException("Invalid frame length " + frameLength);
+		}
+		return buffer.remaining() >= 4 + frameLength ? 4 + frameLength : -1;
+	}
+
+	static IECSNode decodeServer(String name, String address) throws ProtocolException {
+		String[] fields = address != null ? address.split(" ") : new String[0];
+		if (fields.length < 2) throw new ProtocolException("Missing responsible server information");
+
+		try {
+			IECSNode server = new ECSNode(name, fields[0], Integer.parseInt(fields[1]), null, -1);
+			if (fields.length > 2) server.setNodeHashRangeEnd(fields[2]);
+			return server;
+		} catch (IllegalArgumentException e) {
+			throw new ProtocolException("Malformed responsible server information: " + address);
+		}
+	}
+
+}
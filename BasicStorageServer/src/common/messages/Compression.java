@@ -0,0 +1,183 @@
+package common.messages;
+
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Settings for compressing the values carried by binary frames (see
+ * {@link BinaryKVMessageCodec}), which are negotiated for each connection by
+ * {@link ProtocolHandshake}. Values shorter than the threshold are sent as they
+ * are, since compressing them saves little. A preset dictionary of content
+ * typical of the stored values, such as one produced by
+ * {@link DictionaryTrainer}, improves the compression of short values, but is
+ * only used if both ends of a connection hold the same dictionary.
+ * <p>
+ * Instances are immutable. Compression is performed with a deflater and
+ * inflater kept per thread, so that their native buffers are not allocated for
+ * every message.
+ */
+public final class Compression {
+
+	/** The default length in bytes below which values are not compressed. */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/** The maximum useful dictionary length, which is the DEFLATE window size. */
+	public static final int MAX_DICTIONARY_LENGTH = 32 * 1024;
+
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(Deflater::new);
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+	private final int threshold;
+	private final byte[] dictionary;
+	private final int dictionaryId;
+
+	/**
+	 * Creates compression settings without a preset dictionary.
+	 *
+	 * @param threshold The length in bytes below which values are not compressed
+	 * @throws IllegalArgumentException If the threshold is negative
+	 */
+	public Compression(int threshold) throws IllegalArgumentException {
+		this(threshold, null);
+	}
+
+	/**
+	 * Creates compression settings with the given preset dictionary.
+	 *
+	 * @param threshold The length in bytes below which values are not compressed
+	 * @param dictionary The preset dictionary, or <code>null</code> for none
+	 * @throws IllegalArgumentException If the threshold is negative, or the
+	 *             dictionary is empty or longer than
+	 *             {@link #MAX_DICTIONARY_LENGTH}
+	 */
+	public Compression(int threshold, byte[] dictionary) throws IllegalArgumentException {
+		if (threshold < 0) throw new IllegalArgumentException("Compression threshold must not be negative");
+		if (dictionary != null && (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_LENGTH)) {
+			throw new IllegalArgumentException("Dictionary length must be between 1 and " + MAX_DICTIONARY_LENGTH);
+		}
+
+		this.threshold = threshold;
+		this.dictionary = dictionary != null ? dictionary.clone() : null;
+		this.dictionaryId = dictionary != null ? computeDictionaryId(dictionary) : 0;
+	}
+
+	private static int computeDictionaryId(byte[] dictionary) {
+		// the same checksum identifies the dictionary within DEFLATE streams
+		Adler32 checksum = new Adler32();
+		checksum.update(dictionary, 0, dictionary.length);
+		return (int) checksum.getValue();
+	}
+
+	/**
+	 * Returns the length below which values are not compressed.
+	 *
+	 * @return The threshold in bytes
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Checks whether these settings include a preset dictionary.
+	 *
+	 * @return <code>true</code> if there is a dictionary, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean hasDictionary() {
+		return dictionary != null;
+	}
+
+	/**
+	 * Returns the identifier of the preset dictionary, which is its Adler-32
+	 * checksum.
+	 *
+	 * @return The dictionary identifier, or 0 if there is no dictionary
+	 */
+	public int getDictionaryId() {
+		return dictionaryId;
+	}
+
+	/**
+	 * Returns settings with the same threshold but no preset dictionary, for
+	 * connections on which the dictionary is not shared.
+	 *
+	 * @return The settings without a dictionary
+	 */
+	public Compression withoutDictionary() {
+		return dictionary != null ? new Compression(threshold) : this;
+	}
+
+	/**
+	 * Compresses the given data, unless it does not shrink enough.
+	 *
+	 * @param data The data to compress
+	 * @param maxLength The maximum length of the compressed data
+	 * @return The compressed data, or <code>null</code> if it would be longer
+	 *         than the maximum
+	 */
+	byte[] compress(byte[] data, int maxLength) {
+		if (maxLength <= 0) return null;
+
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		if (dictionary != null) deflater.setDictionary(dictionary);
+		deflater.setInput(data);
+		deflater.finish();
+
+		// one spare byte reveals output exceeding the maximum
+		byte[] compressed = new byte[maxLength + 1];
+		int length = 0;
+		while (!deflater.finished() && length < compressed.length) {
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		return deflater.finished() && length <= maxLength ? Arrays.copyOf(compressed, length) : null;
+	}
+
+	/**
+	 * Decompresses the given data.
+	 *
+	 * @param data The array holding the compressed data
+	 * @param offset The index of the compressed data
+	 * @param length The length of the compressed data
+	 * @param decompressedLength The expected length of the decompressed data
+	 * @return The decompressed data
+	 * @throws ProtocolException If the data is corrupt, does not have the expected
+	 *             length, or requires a different dictionary
+	 */
+	byte[] decompress(byte[] data, int offset, int length, int decompressedLength) throws ProtocolException {
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(data, offset, length);
+
+		byte[] decompressed = new byte[decompressedLength];
+		int position = 0;
+		try {
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(decompressed, position, decompressed.length - position);
+				position += inflated;
+				if (inflated > 0) continue;
+
+				if (inflater.needsDictionary()) {
+					if (dictionary == null || inflater.getAdler() != dictionaryId) {
+						throw new ProtocolException("Compressed value requires an unknown dictionary");
+					}
+					inflater.setDictionary(dictionary);
+				} else if (inflater.needsInput() || position == decompressed.length) {
+					break;
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ProtocolException("Corrupt compressed value: " + e.getMessage());
+		}
+
+		if (!inflater.finished() || position != decompressedLength) {
+			throw new ProtocolException("Compressed value does not have its declared length");
+		}
+		return decompressed;
+	}
+
+}
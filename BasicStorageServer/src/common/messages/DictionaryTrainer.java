@@ -0,0 +1,148 @@
+package common.messages;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Builds preset compression dictionaries (see {@link Compression}) from sample
+ * values. The dictionary is assembled from the segments of the samples which
+ * contain the most substrings shared with other samples, each substring being
+ * counted once, so that repeated boilerplate such as headers and markup is
+ * included but not duplicated. Since DEFLATE encodes nearby matches more
+ * cheaply, the most useful segments are placed at the end of the dictionary.
+ */
+public final class DictionaryTrainer {
+
+	/** The length of the substrings counted across samples. */
+	private static final int SUBSTRING_LENGTH = 8;
+
+	/** The length of the segments from which the dictionary is assembled. */
+	private static final int SEGMENT_LENGTH = 64;
+
+	/** The distance between the starts of candidate segments. */
+	private static final int SEGMENT_STEP = SEGMENT_LENGTH / 4;
+
+	/**
+	 * Defeats instantiation.
+	 */
+	private DictionaryTrainer() {}
+
+	private static final class Segment {
+
+		private final byte[] sample;
+		private final int offset;
+		private final int length;
+		private int score;
+
+		private Segment(byte[] sample, int offset, int length) {
+			this.sample = sample;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+	/**
+	 * Builds a dictionary from the given sample values.
+	 *
+	 * @param samples The sample values, which should be representative of the
+	 *            values to be compressed
+	 * @param maxLength The maximum length of the dictionary in bytes
+	 * @return The dictionary, which is empty if the samples share no content
+	 * @throws IllegalArgumentException If the maximum length is not positive or
+	 *             exceeds {@link Compression#MAX_DICTIONARY_LENGTH}
+	 */
+	public static byte[] train(Collection<String> samples, int maxLength) throws IllegalArgumentException {
+		if (maxLength <= 0 || maxLength > Compression.MAX_DICTIONARY_LENGTH) {
+			throw new IllegalArgumentException(
+					"Dictionary length must be between 1 and " + Compression.MAX_DICTIONARY_LENGTH);
+		}
+
+		List<byte[]> sampleBytes = new ArrayList<>(samples.size());
+		samples.forEach(sample -> sampleBytes.add(sample.getBytes(UTF_8)));
+
+		// count the samples in which each substring occurs
+		Map<Long, Integer> frequencies = new HashMap<>();
+		for (byte[] sample : sampleBytes) {
+			Set<Long> seen = new HashSet<>();
+			for (int i = 0; i + SUBSTRING_LENGTH <= sample.length; i++) {
+				Long substring = substringAt(sample, i);
+				if (seen.add(substring)) frequencies.merge(substring, 1, Integer::sum);
+			}
+		}
+
+		PriorityQueue<Segment> candidates = new PriorityQueue<>((a, b) -> Integer.compare(b.score, a.score));
+		Set<Long> covered = new HashSet<>();
+		for (byte[] sample : sampleBytes) {
+			for (int offset = 0; offset + SUBSTRING_LENGTH <= sample.length; offset += SEGMENT_STEP) {
+				Segment segment = new Segment(sample, offset, Math.min(SEGMENT_LENGTH, sample.length - offset));
+				segment.score = score(segment, frequencies, covered);
+				if (segment.score > 0) candidates.add(segment);
+			}
+		}
+
+		// greedily select segments, rescoring each as substrings are covered by earlier selections
+		List<Segment> selected = new ArrayList<>();
+		int length = 0;
+		while (length < maxLength && !candidates.isEmpty()) {
+			Segment segment = candidates.poll();
+			int score = score(segment, frequencies, covered);
+			if (score == 0) continue;
+			if (score < segment.score) {
+				segment.score = score;
+				candidates.add(segment);
+				continue;
+			}
+
+			for (int i = segment.offset; i + SUBSTRING_LENGTH <= segment.offset + segment.length; i++) {
+				covered.add(substringAt(segment.sample, i));
+			}
+			selected.add(segment);
+			length += segment.length;
+		}
+
+		// the least useful segments come first, and are truncated if the dictionary is too long
+		byte[] dictionary = new byte[Math.min(length, maxLength)];
+		int end = dictionary.length;
+		for (Segment segment : selected) {
+			int copied = Math.min(segment.length, end);
+			int from = segment.offset + segment.length - copied;
+			System.arraycopy(segment.sample, from, dictionary, end - copied, copied);
+			end -= copied;
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Scores a segment by the number of other samples sharing each of its
+	 * substrings which are not yet covered by the dictionary.
+	 */
+	private static int score(Segment segment, Map<Long, Integer> frequencies, Set<Long> covered) {
+		Set<Long> counted = new HashSet<>();
+		int score = 0;
+		for (int i = segment.offset; i + SUBSTRING_LENGTH <= segment.offset + segment.length; i++) {
+			Long substring = substringAt(segment.sample, i);
+			if (!covered.contains(substring) && counted.add(substring)) {
+				score += frequencies.get(substring) - 1;
+			}
+		}
+		return score;
+	}
+
+	private static Long substringAt(byte[] bytes, int offset) {
+		long substring = 0;
+		for (int i = offset; i < offset + SUBSTRING_LENGTH; i++) {
+			substring = substring << 8 | bytes[i] & 0xFF;
+		}
+		return substring;
+	}
+
+}
@@ -0,0 +1,103 @@
+package common.messages;
+
+import java.util.Map;
+import java.util.Objects;
+
+import ecs.IECSNode;
+
+/**
+ * A message passed on by a server on behalf of a client, for a key the server
+ * is not responsible for. A request forwarded to the responsible server carries
+ * that server, and must not be forwarded again. The response relayed back to
+ * the client carries the same server, so that the client can update its
+ * metadata while receiving the response without another round trip.
+ * <p>
+ * Unlike a {@link MetadataUpdateMessage}, which carries only the responsible
+ * server, a forwarded message has the status and contents of the message it
+ * wraps.
+ */
+public class ForwardedKVMessage implements KVMessage {
+
+	private final KVMessage message;
+	private final IECSNode responsibleServer;
+
+	/**
+	 * Creates a forwarded copy of the given message.
+	 *
+	 * @param message The message being forwarded or relayed
+	 * @param responsibleServer The server responsible for the key of the message
+	 * @throws NullPointerException If the message or the server is
+	 *             <code>null</code>
+	 */
+	public ForwardedKVMessage(KVMessage message, IECSNode responsibleServer) throws NullPointerException {
+		this.message = Objects.requireNonNull(message);
+		this.responsibleServer = Objects.requireNonNull(responsibleServer);
+	}
+
+	/**
+	 * Checks whether the given message was forwarded or relayed by a server,
+	 * rather than sent directly by its originator.
+	 *
+	 * @param message The message to check
+	 * @return <code>true</code> if the message carries a responsible server
+	 *         without being a <code>SERVER_NOT_RESPONSIBLE</code> response,
+	 *         <code>false</code> otherwise
+	 */
+	public static boolean isForwarded(KVMessage message) {
+		return message.getResponsibleServer() != null && message.getStatus() != StatusType.SERVER_NOT_RESPONSIBLE;
+	}
+
+	/**
+	 * Returns the message which was forwarded or relayed.
+	 *
+	 * @return The wrapped message
+	 */
+	public KVMessage getMessage() {
+		return message;
+	}
+
+	@Override
+	public StatusType getStatus() {
+		return message.getStatus();
+	}
+
+	@Override
+	public String getKey() {
+		return message.getKey();
+	}
+
+	@Override
+	public String getValue() {
+		return message.getValue();
+	}
+
+	@Override
+	public long getVersion() {
+		return message.getVersion();
+	}
+
+	@Override
+	public int getRequestId() {
+		return message.getRequestId();
+	}
+
+	@Override
+	public Map<String, String> getEntries() {
+		return message.getEntries();
+	}
+
+	@Override
+	public IECSNode getResponsibleServer() {
+		return responsibleServer;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder msgBuilder = new StringBuilder("ForwardedKVMessage{ ")
+				.append("message=").append(message).append(" ")
+				.append("responsibleServer=").append(responsibleServer).append(" }");
+
+		return msgBuilder.toString();
+	}
+
+}
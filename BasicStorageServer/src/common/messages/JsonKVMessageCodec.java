@@ -0,0 +1,74 @@
+package common.messages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Encodes key-value messages as newline-terminated JSON, as used by the
+ * original protocol. Messages are written and parsed directly to and from
+ * scratch buffers kept per thread, rather than through a JSON tree and
+ * intermediate strings, so that serving a request creates little garbage
+ * besides the message itself. The output is the same as that of
+ * {@link StreamUtil}.
+ */
+public class JsonKVMessageCodec implements KVMessageCodec {
+
+	/** The maximum message length accepted when framing messages. */
+	public static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+	private final StreamUtil streamUtil = new StreamUtil();
+	private final ThreadLocal<JsonMessageEncoder> encoders = ThreadLocal.withInitial(JsonMessageEncoder::new);
+	private final ThreadLocal<JsonMessageDecoder> decoders =
+			ThreadLocal.withInitial(() -> new JsonMessageDecoder(streamUtil));
+
+	@Override
+	public byte[] encode(KVMessage message) {
+		return encoders.get().encode(message);
+	}
+
+	@Override
+	public void write(OutputStream out, byte[] encoded) throws IOException {
+		streamUtil.sendBytes(out, encoded);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws JsonSyntaxException If the message is not valid JSON
+	 */
+	@Override
+	public KVMessage decode(InputStream in) throws IOException, JsonSyntaxException {
+		return decoders.get().decode(in, MAX_MESSAGE_LENGTH);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Messages are parsed in place when the buffer is backed by an array, and are
+	 * otherwise copied to a scratch buffer.
+	 * 
+	 * @throws JsonSyntaxException If the message is not valid JSON
+	 */
+	@Override
+	public KVMessage decode(ByteBuffer buffer, int length) throws JsonSyntaxException {
+		return decoders.get().decode(buffer, length);
+	}
+
+	@Override
+	public int findMessageLength(ByteBuffer buffer) throws ProtocolException {
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			if (buffer.get(i) == '\n') return i - buffer.position() + 1;
+		}
+
+		if (buffer.remaining() > MAX_MESSAGE_LENGTH) {
+			throw new ProtocolException("Message exceeds " + MAX_MESSAGE_LENGTH + " bytes");
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,485 @@
+package common.messages;
+
+import static common.messages.KVMessage.ENTRIES_ATTR;
+import static common.messages.KVMessage.KEY_ATTR;
+import static common.messages.KVMessage.REQUEST_ID_ATTR;
+import static common.messages.KVMessage.RESPONSIBLE_NODE_ATTR;
+import static common.messages.KVMessage.STATUS_ATTR;
+import static common.messages.KVMessage.VALUE_ATTR;
+import static common.messages.KVMessage.VERSION_ATTR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonSyntaxException;
+
+import common.messages.KVMessage.StatusType;
+
+/**
+ * Reads key-value messages from JSON held in a reusable byte buffer, decoding
+ * them as {@link KVMessageDeserializer} does without building an intermediate
+ * JSON tree or string. Only the strings and collections of the decoded message
+ * are allocated. <code>SERVER_NOT_RESPONSIBLE</code>,
+ * <code>GET_METADATA_SUCCESS</code> and forwarded messages, which are rare and
+ * carry server metadata, are handed to GSON instead. Unlike GSON, the JSON must
+ * be strictly well-formed. Instances are not thread-safe, and are
+ * kept per thread by {@link JsonKVMessageCodec}.
+ */
+final class JsonMessageDecoder {
+
+	private static final int INITIAL_LENGTH = 1024;
+
+	/** The largest buffers kept for the next message once a message is decoded. */
+	private static final int MAX_RETAINED_LENGTH = 128 * 1024;
+
+	private static final StatusType[] STATUS_TYPES = StatusType.values();
+
+	private final StreamUtil streamUtil;
+
+	private byte[] line = new byte[INITIAL_LENGTH];
+	private char[] chars = new char[INITIAL_LENGTH];
+
+	private byte[] in;
+	private int position;
+	private int end;
+	private boolean hasResponsibleNode;
+
+	/**
+	 * Creates a decoder.
+	 *
+	 * @param streamUtil The GSON-based utility to which rare messages are handed
+	 */
+	JsonMessageDecoder(StreamUtil streamUtil) {
+		this.streamUtil = streamUtil;
+	}
+
+	/**
+	 * Reads a newline-terminated message from the given stream and decodes it.
+	 *
+	 * @param stream The stream from which to read the message
+	 * @param maxLength The length after which reading stops
+	 * @return The decoded message, or <code>null</code> if the line is blank
+	 * @throws EOFException If the stream ends before a message is read
+	 * @throws IOException If an I/O exception occurs while reading the message
+	 * @throws JsonSyntaxException If the message is not valid JSON
+	 */
+	KVMessage decode(InputStream stream, int maxLength) throws IOException, JsonSyntaxException {
+		int length = 0;
+		int read;
+		while ((read = stream.read()) != -1 // EOS
+				&& read != '\n'
+				&& read != '\r') {
+			if (length == line.length) {
+				line = Arrays.copyOf(line, Math.min(2 * line.length, maxLength));
+			}
+			line[length++] = (byte) read;
+
+			/* stop reading if the maximum length is reached */
+			if (length >= maxLength) break;
+		}
+		if (read == -1 && length == 0) throw new EOFException("Stream ended before a message was read");
+
+		try {
+			return decode(line, 0, length);
+		} finally {
+			if (line.length > MAX_RETAINED_LENGTH) line = new byte[INITIAL_LENGTH];
+		}
+	}
+
+	/**
+	 * Decodes a message of the given length from the position of the given
+	 * buffer, advancing the position past the message.
+	 *
+	 * @param buffer The buffer holding the message
+	 * @param length The length of the message
+	 * @return The decoded message, or <code>null</code> if the message is blank
+	 * @throws JsonSyntaxException If the message is not valid JSON
+	 */
+	KVMessage decode(ByteBuffer buffer, int length) throws JsonSyntaxException {
+		if (buffer.hasArray()) {
+			int position = buffer.position();
+			buffer.position(position + length);
+			return decode(buffer.array(), buffer.arrayOffset() + position, length);
+		}
+
+		if (line.length < length) line = new byte[length];
+		buffer.get(line, 0, length);
+		try {
+			return decode(line, 0, length);
+		} finally {
+			if (line.length > MAX_RETAINED_LENGTH) line = new byte[INITIAL_LENGTH];
+		}
+	}
+
+	/**
+	 * Decodes a message from the given region of an array, which may be followed
+	 * by whitespace such as the terminating newline.
+	 *
+	 * @param bytes The array holding the message
+	 * @param offset The index of the start of the message
+	 * @param length The length of the region
+	 * @return The decoded message, or <code>null</code> if the region is blank
+	 * @throws JsonSyntaxException If the message is not valid JSON
+	 */
+	KVMessage decode(byte[] bytes, int offset, int length) throws JsonSyntaxException {
+		in = bytes;
+		position = offset;
+		end = offset + length;
+		// a decoded string has no more characters than its encoding has bytes
+		if (chars.length < length) chars = new char[length];
+
+		try {
+			skipWhitespace();
+			if (position == end) return null;
+			if (in[position] != '{') throw new JsonSyntaxException("Provided JSON is not a JSON object");
+
+			KVMessage message = decodeMessage();
+			skipWhitespace();
+			if (position != end) throw syntaxError("Unexpected data after message");
+
+			if (message.getStatus() == StatusType.SERVER_NOT_RESPONSIBLE || hasResponsibleNode
+					|| message.getStatus() == StatusType.GET_METADATA_SUCCESS) {
+				return streamUtil.deserializeKVMessage(new String(bytes, offset, length, UTF_8));
+			}
+			return message;
+
+		} finally {
+			in = null;
+			if (chars.length > MAX_RETAINED_LENGTH) chars = new char[INITIAL_LENGTH];
+		}
+	}
+
+	private KVMessage decodeMessage() {
+		StatusType status = null;
+		String key = null, value = null;
+		long version = 0;
+		int requestId = 0;
+		Map<String, String> entries = null;
+		hasResponsibleNode = false;
+
+		expect('{');
+		if (!consume('}')) {
+			do {
+				int nameLength = readName();
+				if (charsEqual(STATUS_ATTR, nameLength)) {
+					if (peek() != '"') {
+						throw new JsonSyntaxException("Missing or malformed " + STATUS_ATTR + " attribute");
+					}
+					status = readStatus();
+				} else if (charsEqual(KEY_ATTR, nameLength)) {
+					key = readPrimitive();
+				} else if (charsEqual(VALUE_ATTR, nameLength)) {
+					value = readPrimitive();
+				} else if (charsEqual(VERSION_ATTR, nameLength)) {
+					version = readLong();
+				} else if (charsEqual(REQUEST_ID_ATTR, nameLength)) {
+					requestId = (int) readLong();
+				} else if (charsEqual(ENTRIES_ATTR, nameLength) && peek() == '[') {
+					entries = readEntries();
+				} else if (charsEqual(RESPONSIBLE_NODE_ATTR, nameLength) && peek() == '{') {
+					hasResponsibleNode = true;
+					skipValue();
+				} else {
+					skipValue();
+				}
+			} while (consume(','));
+			expect('}');
+		}
+
+		if (status == null) throw new JsonSyntaxException("Missing or malformed " + STATUS_ATTR + " attribute");
+		switch (status) {
+		case SERVER_NOT_RESPONSIBLE:
+			return new BasicKVMessage(null, null, status, version, requestId);
+		case MULTI_GET:
+		case MULTI_GET_SUCCESS:
+		case MULTI_PUT:
+			if (entries == null) throw new JsonSyntaxException("Missing or malformed " + ENTRIES_ATTR + " attribute");
+			return new BatchKVMessage(status, entries, requestId);
+		default:
+			return new BasicKVMessage(key, value, status, version, requestId);
+		}
+	}
+
+	private Map<String, String> readEntries() {
+		Map<String, String> entries = new LinkedHashMap<>();
+		expect('[');
+		if (consume(']')) return entries;
+
+		do {
+			if (peek() != '{') throw syntaxError("Malformed entry");
+			expect('{');
+			String key = null, value = null;
+			if (!consume('}')) {
+				do {
+					int nameLength = readName();
+					if (charsEqual(KEY_ATTR, nameLength)) {
+						key = readPrimitive();
+					} else if (charsEqual(VALUE_ATTR, nameLength)) {
+						value = readPrimitive();
+					} else {
+						skipValue();
+					}
+				} while (consume(','));
+				expect('}');
+			}
+			if (key == null) throw new JsonSyntaxException("Missing or malformed " + KEY_ATTR + " attribute");
+			entries.put(key, value);
+		} while (consume(','));
+
+		expect(']');
+		return entries;
+	}
+
+	/**
+	 * Reads a member name and the following colon.
+	 *
+	 * @return The length of the name, which is held in the character buffer
+	 */
+	private int readName() {
+		if (peek() != '"') throw syntaxError("Expected a member name");
+		int nameLength = readString();
+		expect(':');
+		return nameLength;
+	}
+
+	/**
+	 * Compares the start of the character buffer with the given string.
+	 */
+	private boolean charsEqual(String string, int length) {
+		if (string.length() != length) return false;
+		for (int i = 0; i < length; i++) {
+			if (string.charAt(i) != chars[i]) return false;
+		}
+		return true;
+	}
+
+	private StatusType readStatus() {
+		int length = readString();
+		for (StatusType status : STATUS_TYPES) {
+			if (charsEqual(status.name(), length)) return status;
+		}
+		throw new JsonSyntaxException("Invalid status value: \"" + new String(chars, 0, length) + "\"");
+	}
+
+	/**
+	 * Reads a string or other primitive value as a string.
+	 *
+	 * @return The value, or <code>null</code> if it is null or not a primitive
+	 */
+	private String readPrimitive() {
+		int length = readPrimitiveChars();
+		return length >= 0 ? new String(chars, 0, length) : null;
+	}
+
+	/**
+	 * Reads a number, which may also be given as a string.
+	 *
+	 * @return The number, or 0 if the value is null or not a primitive
+	 */
+	private long readLong() {
+		int length = readPrimitiveChars();
+		if (length < 0) return 0;
+
+		long value = 0;
+		int start = length > 1 && chars[0] == '-' ? 1 : 0;
+		int i = start;
+		// up to 18 digits cannot overflow
+		for (; i < length && i < start + 18; i++) {
+			char c = chars[i];
+			if (c < '0' || c > '9') break;
+			value = 10 * value + c - '0';
+		}
+		if (i == length) return start == 1 ? -value : value;
+
+		// fractions, exponents and long numbers are rare, so they are parsed as by GSON
+		try {
+			return new BigDecimal(chars, 0, length).longValue();
+		} catch (NumberFormatException e) {
+			throw new JsonSyntaxException("Malformed number: " + new String(chars, 0, length), e);
+		}
+	}
+
+	/**
+	 * Reads a primitive value into the character buffer. Objects, arrays and
+	 * nulls are skipped.
+	 *
+	 * @return The length of the value, or -1 if it is not a primitive
+	 */
+	private int readPrimitiveChars() {
+		byte next = peek();
+		if (next == '"') return readString();
+		if (next == '{' || next == '[') {
+			skipValue();
+			return -1;
+		}
+
+		int length = 0;
+		while (position < end && isLiteralByte(in[position])) {
+			chars[length++] = (char) in[position++];
+		}
+		if (length == 0) throw syntaxError("Expected a value");
+		return charsEqual("null", length) ? -1 : length;
+	}
+
+	private static boolean isLiteralByte(byte b) {
+		return b >= '0' && b <= '9' || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '-' || b == '+'
+				|| b == '.';
+	}
+
+	/**
+	 * Reads a string, decoding its escape sequences and UTF-8 encoding into the
+	 * character buffer. Malformed UTF-8 is replaced with the replacement
+	 * character.
+	 *
+	 * @return The length of the string
+	 */
+	private int readString() {
+		expect('"');
+		int length = 0;
+		while (true) {
+			if (position >= end) throw syntaxError("Unterminated string");
+			int b = in[position++];
+
+			if (b == '"') {
+				return length;
+			} else if (b == '\\') {
+				chars[length++] = readEscape();
+			} else if (b >= 0) {
+				chars[length++] = (char) b;
+			} else {
+				length = readMultibyte(b, length);
+			}
+		}
+	}
+
+	private char readEscape() {
+		if (position >= end) throw syntaxError("Unterminated string");
+		byte b = in[position++];
+		switch (b) {
+		case '"':
+		case '\\':
+		case '/':
+			return (char) b;
+		case 't':
+			return '\t';
+		case 'b':
+			return '\b';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case 'u':
+			if (end - position < 4) throw syntaxError("Unterminated escape sequence");
+			int c = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(in[position++], 16);
+				if (digit < 0) throw syntaxError("Malformed escape sequence");
+				c = c << 4 | digit;
+			}
+			return (char) c;
+		default:
+			throw syntaxError("Invalid escape sequence");
+		}
+	}
+
+	/**
+	 * Decodes a multi-byte UTF-8 sequence whose first byte has been read.
+	 *
+	 * @return The new length of the character buffer
+	 */
+	private int readMultibyte(int first, int length) {
+		int continuations, codePoint, min;
+		if ((first & 0xE0) == 0xC0) {
+			continuations = 1;
+			codePoint = first & 0x1F;
+			min = 0x80;
+		} else if ((first & 0xF0) == 0xE0) {
+			continuations = 2;
+			codePoint = first & 0x0F;
+			min = 0x800;
+		} else if ((first & 0xF8) == 0xF0) {
+			continuations = 3;
+			codePoint = first & 0x07;
+			min = 0x10000;
+		} else {
+			chars[length++] = '\uFFFD';
+			return length;
+		}
+
+		for (int i = 0; i < continuations; i++) {
+			if (position >= end || (in[position] & 0xC0) != 0x80) {
+				chars[length++] = '\uFFFD';
+				return length;
+			}
+			codePoint = codePoint << 6 | in[position++] & 0x3F;
+		}
+
+		if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+				|| codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+			chars[length++] = '\uFFFD';
+		} else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			chars[length++] = Character.highSurrogate(codePoint);
+			chars[length++] = Character.lowSurrogate(codePoint);
+		} else {
+			chars[length++] = (char) codePoint;
+		}
+		return length;
+	}
+
+	private void skipValue() {
+		byte next = peek();
+		if (next == '"') {
+			readString();
+		} else if (next == '{' || next == '[') {
+			char close = next == '{' ? '}' : ']';
+			expect((char) next);
+			if (!consume(close)) {
+				do {
+					if (next == '{') readName();
+					skipValue();
+				} while (consume(','));
+				expect(close);
+			}
+		} else {
+			readPrimitiveChars();
+		}
+	}
+
+	private byte peek() {
+		skipWhitespace();
+		if (position >= end) throw syntaxError("Unexpected end of message");
+		return in[position];
+	}
+
+	private boolean consume(char c) {
+		if (peek() != c) return false;
+		position++;
+		return true;
+	}
+
+	private void expect(char c) {
+		if (!consume(c)) throw syntaxError("Expected '" + c + "'");
+	}
+
+	private void skipWhitespace() {
+		while (position < end) {
+			byte b = in[position];
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') return;
+			position++;
+		}
+	}
+
+	private JsonSyntaxException syntaxError(String message) {
+		return new JsonSyntaxException(message + " at offset " + position);
+	}
+
+}
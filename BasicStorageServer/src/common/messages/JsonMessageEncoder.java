@@ -0,0 +1,215 @@
+package common.messages;
+
+import static common.messages.KVMessage.ENTRIES_ATTR;
+import static common.messages.KVMessage.KEY_ATTR;
+import static common.messages.KVMessage.REQUEST_ID_ATTR;
+import static common.messages.KVMessage.RESPONSIBLE_NODE_ATTR;
+import static common.messages.KVMessage.STATUS_ATTR;
+import static common.messages.KVMessage.VALUE_ATTR;
+import static common.messages.KVMessage.VERSION_ATTR;
+import static common.messages.StreamUtil.TYPE_ATTR;
+import static ecs.IECSNode.NODE_HOST_ATTR;
+import static ecs.IECSNode.NODE_NAME_ATTR;
+import static ecs.IECSNode.NODE_PORT_ATTR;
+import static ecs.IECSNode.NODE_RANGE_END_ATTR;
+import static ecs.IECSNode.NODE_RANGE_START_ATTR;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import ecs.IECSNode;
+
+/**
+ * Writes key-value messages as JSON straight into a reusable byte buffer,
+ * producing the same bytes as {@link KVMessageSerializer} without building an
+ * intermediate JSON tree or string. Strings are escaped as by GSON, including
+ * its escaping of HTML characters, using a table of escape sequences. Instances are not thread-safe, and are kept
+ * per thread by {@link JsonKVMessageCodec}.
+ */
+final class JsonMessageEncoder {
+
+	private static final int INITIAL_LENGTH = 1024;
+
+	/** The largest buffer kept for the next message once a message is encoded. */
+	private static final int MAX_RETAINED_LENGTH = 128 * 1024;
+
+	/** The escape sequences of ASCII characters, or <code>null</code> for those written as they are. */
+	private static final byte[][] ASCII_ESCAPES = new byte[0x80][];
+	private static final byte[] LINE_SEPARATOR_ESCAPE = "\\u2028".getBytes(US_ASCII);
+	private static final byte[] PARAGRAPH_SEPARATOR_ESCAPE = "\\u2029".getBytes(US_ASCII);
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ASCII_ESCAPES[c] = String.format("\\u%04x", c).getBytes(US_ASCII);
+		}
+		for (char c : new char[] { '<', '>', '&', '=', '\'' }) {
+			ASCII_ESCAPES[c] = String.format("\\u%04x", (int) c).getBytes(US_ASCII);
+		}
+		ASCII_ESCAPES['"'] = "\\\"".getBytes(US_ASCII);
+		ASCII_ESCAPES['\\'] = "\\\\".getBytes(US_ASCII);
+		ASCII_ESCAPES['\t'] = "\\t".getBytes(US_ASCII);
+		ASCII_ESCAPES['\b'] = "\\b".getBytes(US_ASCII);
+		ASCII_ESCAPES['\n'] = "\\n".getBytes(US_ASCII);
+		ASCII_ESCAPES['\r'] = "\\r".getBytes(US_ASCII);
+		ASCII_ESCAPES['\f'] = "\\f".getBytes(US_ASCII);
+	}
+
+	private byte[] bytes = new byte[INITIAL_LENGTH];
+	private int length;
+
+	/**
+	 * Encodes the given message, including the terminating newline.
+	 *
+	 * @param message The message to encode
+	 * @return The encoded message
+	 */
+	byte[] encode(KVMessage message) {
+		length = 0;
+		writeByte('{');
+
+		if (message.getStatus() != null) writeStringMember(STATUS_ATTR, message.getStatus().name());
+		if (message.getKey() != null) writeStringMember(KEY_ATTR, message.getKey());
+		if (message.getValue() != null) writeStringMember(VALUE_ATTR, message.getValue());
+		if (message.getVersion() != 0) {
+			writeName(VERSION_ATTR);
+			writeLong(message.getVersion());
+		}
+		if (message.getRequestId() != 0) {
+			writeName(REQUEST_ID_ATTR);
+			writeLong(message.getRequestId());
+		}
+
+		if (message.getEntries() != null) {
+			writeName(ENTRIES_ATTR);
+			writeByte('[');
+			for (Map.Entry<String, String> entry : message.getEntries().entrySet()) {
+				if (bytes[length - 1] != '[') writeByte(',');
+				writeByte('{');
+				writeStringMember(KEY_ATTR, entry.getKey());
+				// an absent value marks a null value
+				if (entry.getValue() != null) writeStringMember(VALUE_ATTR, entry.getValue());
+				writeByte('}');
+			}
+			writeByte(']');
+		}
+
+		IECSNode server = message.getResponsibleServer();
+		if (server != null) {
+			writeName(RESPONSIBLE_NODE_ATTR);
+			writeByte('{');
+			if (server.getNodeName() != null) writeStringMember(NODE_NAME_ATTR, server.getNodeName());
+			if (server.getNodeHost() != null) writeStringMember(NODE_HOST_ATTR, server.getNodeHost());
+			writeName(NODE_PORT_ATTR);
+			writeLong(server.getNodePort());
+			String[] hashRange = server.getNodeHashRange();
+			if (hashRange[0] != null) writeStringMember(NODE_RANGE_START_ATTR, hashRange[0]);
+			if (hashRange[1] != null) writeStringMember(NODE_RANGE_END_ATTR, hashRange[1]);
+			writeByte('}');
+		}
+
+		writeStringMember(TYPE_ATTR, KVMessage.class.getName());
+		writeByte('}');
+		writeByte('\n');
+
+		byte[] encoded = Arrays.copyOf(bytes, length);
+		if (bytes.length > MAX_RETAINED_LENGTH) bytes = new byte[INITIAL_LENGTH];
+		return encoded;
+	}
+
+	private void writeStringMember(String name, String value) {
+		writeName(name);
+		writeString(value);
+	}
+
+	private void writeName(String name) {
+		byte previous = bytes[length - 1];
+		if (previous != '{' && previous != '[') writeByte(',');
+		writeString(name);
+		writeByte(':');
+	}
+
+	private void writeString(String string) {
+		// each character takes at most six bytes, as an escape sequence
+		ensureCapacity(6 * string.length() + 2);
+		byte[] out = bytes;
+		int index = length;
+		out[index++] = '"';
+
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			byte[] escape;
+			if (c < 0x80) {
+				escape = ASCII_ESCAPES[c];
+				if (escape == null) {
+					out[index++] = (byte) c;
+					continue;
+				}
+			} else if (c < 0x800) {
+				out[index++] = (byte) (0xC0 | c >> 6);
+				out[index++] = (byte) (0x80 | c & 0x3F);
+				continue;
+			} else if (c == '\u2028') {
+				escape = LINE_SEPARATOR_ESCAPE;
+			} else if (c == '\u2029') {
+				escape = PARAGRAPH_SEPARATOR_ESCAPE;
+			} else if (!Character.isSurrogate(c)) {
+				out[index++] = (byte) (0xE0 | c >> 12);
+				out[index++] = (byte) (0x80 | c >> 6 & 0x3F);
+				out[index++] = (byte) (0x80 | c & 0x3F);
+				continue;
+			} else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				out[index++] = (byte) (0xF0 | codePoint >> 18);
+				out[index++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				out[index++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				out[index++] = (byte) (0x80 | codePoint & 0x3F);
+				continue;
+			} else {
+				// unpaired surrogates are replaced, as by String.getBytes
+				out[index++] = '?';
+				continue;
+			}
+
+			System.arraycopy(escape, 0, out, index, escape.length);
+			index += escape.length;
+		}
+
+		out[index++] = '"';
+		length = index;
+	}
+
+	private void writeLong(long value) {
+		if (value < 0) {
+			writeByte('-');
+		} else {
+			// negative values have room for Long.MIN_VALUE
+			value = -value;
+		}
+
+		int digits = 1;
+		for (long rest = value / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+
+		ensureCapacity(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			bytes[i] = (byte) ('0' - value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	private void writeByte(char c) {
+		ensureCapacity(1);
+		bytes[length++] = (byte) c;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (length + additional > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + additional));
+		}
+	}
+
+}
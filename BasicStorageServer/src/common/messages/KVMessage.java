@@ -1,5 +1,7 @@
 package common.messages;
 
+import java.util.Map;
+
 import ecs.IECSNode;
 
 /**
@@ -34,7 +36,39 @@ public interface KVMessage {
 		/** Server locked for out, only get possible */
 		SERVER_WRITE_LOCK,
 		/** Request not successful, server not responsible for key */
-		SERVER_NOT_RESPONSIBLE
+		SERVER_NOT_RESPONSIBLE,
+
+		/** Subscribe - request for invalidation notifications, and its acknowledgement */
+		SUBSCRIBE,
+		/** Notification that the value of a key has changed, or of all keys if no key is given */
+		INVALIDATE,
+
+		/** Multi-get - request for the values of several keys */
+		MULTI_GET,
+		/** Multi-get - request successful, values of absent keys are omitted */
+		MULTI_GET_SUCCESS,
+		/** Multi-put - request to write several key-value pairs */
+		MULTI_PUT,
+		/** Multi-put - request successful, all pairs written */
+		MULTI_PUT_SUCCESS,
+		/** Multi-put - request not successful */
+		MULTI_PUT_ERROR,
+
+		/** Streaming put - request to write a value sent in chunks, and its acknowledgement */
+		PUT_STREAM,
+		/** A chunk of a value which is streamed in either direction */
+		STREAM_CHUNK,
+		/** Streaming put - end of the chunks of the value */
+		STREAM_END,
+		/** Streaming get - request for a value to be sent in chunks */
+		GET_STREAM,
+		/** Streaming get - request successful, all chunks of the value sent */
+		GET_STREAM_SUCCESS,
+
+		/** Metadata - request for the metadata of every server in the service */
+		GET_METADATA,
+		/** Metadata - request successful, metadata and its version sent */
+		GET_METADATA_SUCCESS
 	}
 
 	/** The JSON attribute name for the status. */
@@ -46,6 +80,15 @@ public interface KVMessage {
 	/** The JSON attribute name for the value. */
 	public static final String VALUE_ATTR = "value";
 
+	/** The JSON attribute name for the version. */
+	public static final String VERSION_ATTR = "version";
+
+	/** The JSON attribute name for the request id. */
+	public static final String REQUEST_ID_ATTR = "requestId";
+
+	/** The JSON attribute name for the key-value pairs of a batch. */
+	public static final String ENTRIES_ATTR = "entries";
+
 	/** The JSON attribute name for the responsible node. */
 	public static final String RESPONSIBLE_NODE_ATTR = "responsibleNode";
 
@@ -67,6 +110,40 @@ public interface KVMessage {
 		return null;
 	}
 
+	/**
+	 * Retrieves the version of the key associated with this message. Versions of
+	 * a key increase with every write to it on the server which stamped them.
+	 * 
+	 * @return The version, or 0 if the message is not versioned
+	 */
+	public default long getVersion() {
+		return 0;
+	}
+
+	/**
+	 * Retrieves the id of the request to which this message belongs. A client
+	 * with several requests awaiting a response on the same connection tags each
+	 * with a distinct id, which the server copies into the response.
+	 * 
+	 * @return The request id, or 0 if the message is not tagged
+	 */
+	public default int getRequestId() {
+		return 0;
+	}
+
+	/**
+	 * Retrieves the key-value pairs carried by a batch message, in the order they
+	 * were given. The values in a <code>MULTI_GET</code> request are
+	 * <code>null</code>, as are the values of keys to delete in a
+	 * <code>MULTI_PUT</code> request.
+	 * 
+	 * @return The key-value pairs, or <code>null</code> if this is not a batch
+	 *         message
+	 */
+	public default Map<String, String> getEntries() {
+		return null;
+	}
+
 	/**
 	 * Retrieves the status associated with this message. Used to identify
 	 * request/response/error types.
@@ -0,0 +1,84 @@
+package common.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes key-value messages into one of the wire formats understood by the
+ * storage service, and decodes them from a stream. The format used on a
+ * connection is chosen when it is established (see {@link ProtocolHandshake}).
+ * Implementations are stateless and thread-safe, so that a single instance can
+ * serve every connection.
+ */
+public interface KVMessageCodec {
+
+	/**
+	 * Encodes the given message, so that it can be transmitted by
+	 * {@link #write(OutputStream, byte[])}.
+	 * 
+	 * @param message The message to encode
+	 * @return The encoded message
+	 */
+	public byte[] encode(KVMessage message);
+
+	/**
+	 * Transmits a message previously encoded by {@link #encode(KVMessage)}
+	 * through the specified output stream.
+	 * 
+	 * @param out The stream on which to transmit the message
+	 * @param encoded The encoded message
+	 * @throws IOException If an I/O exception occurs while transmitting the
+	 *             message
+	 */
+	public default void write(OutputStream out, byte[] encoded) throws IOException {
+		out.write(encoded, 0, encoded.length);
+		out.flush();
+	}
+
+	/**
+	 * Reads and decodes a single message from the specified input stream.
+	 * 
+	 * @param in The stream from which to read the message
+	 * @return The decoded message, or <code>null</code> if the message could not
+	 *         be decoded but the stream is still usable
+	 * @throws EOFException If the stream ends before a message is read
+	 * @throws IOException If an I/O exception occurs while reading the message,
+	 *             or the stream does not contain a valid message
+	 */
+	public KVMessage decode(InputStream in) throws IOException;
+
+	/**
+	 * Decodes a single message of the given length from the specified buffer,
+	 * such as a message found by {@link #findMessageLength(ByteBuffer)}. The
+	 * buffer position is advanced past the message.
+	 * 
+	 * @param buffer The buffer holding the message at its position
+	 * @param length The length in bytes of the message
+	 * @return The decoded message, or <code>null</code> if the message could not
+	 *         be decoded
+	 * @throws IOException If the buffer does not contain a valid message
+	 */
+	public default KVMessage decode(ByteBuffer buffer, int length) throws IOException {
+		byte[] message = new byte[length];
+		buffer.get(message);
+		return decode(new ByteArrayInputStream(message));
+	}
+
+	/**
+	 * Determines the length of the first message held in the given buffer,
+	 * without consuming it. Allows messages to be extracted from data which is
+	 * received incrementally, and then decoded by {@link #decode(InputStream)}.
+	 * 
+	 * @param buffer The received data, between its position and limit
+	 * @return The length in bytes of the first message, or -1 if the buffer does
+	 *         not yet hold a complete message
+	 * @throws ProtocolException If the data cannot begin a valid message
+	 */
+	public int findMessageLength(ByteBuffer buffer) throws ProtocolException;
+
+}
@@ -1,11 +1,17 @@
 package common.messages;
 
+import static common.messages.KVMessage.ENTRIES_ATTR;
 import static common.messages.KVMessage.KEY_ATTR;
+import static common.messages.KVMessage.REQUEST_ID_ATTR;
 import static common.messages.KVMessage.RESPONSIBLE_NODE_ATTR;
 import static common.messages.KVMessage.STATUS_ATTR;
 import static common.messages.KVMessage.VALUE_ATTR;
+import static common.messages.KVMessage.VERSION_ATTR;
 
 import java.lang.reflect.Type;
+import java.net.ProtocolException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -44,8 +50,20 @@ public class KVMessageDeserializer implements JsonDeserializer<KVMessage> {
 		switch (status) {
 		case SERVER_NOT_RESPONSIBLE:
 			return deserializeMetadataUpdateMessage(messageObject, context, status);
+		case MULTI_GET:
+		case MULTI_GET_SUCCESS:
+		case MULTI_PUT:
+			return deserializeBatchKVMessage(messageObject, status);
+		case GET_METADATA_SUCCESS:
+			return deserializeServiceMetadataMessage(messageObject, status);
 		default:
-			return deserializeBasicKVMessage(messageObject, status);
+			KVMessage message = deserializeBasicKVMessage(messageObject, status);
+			if (!messageObject.has(RESPONSIBLE_NODE_ATTR) || !messageObject.get(RESPONSIBLE_NODE_ATTR).isJsonObject())
+				return message;
+
+			// a message passed on by a server which is not responsible for its key
+			IECSNode responsibleServer = context.deserialize(messageObject.get(RESPONSIBLE_NODE_ATTR), ECSNode.class);
+			return new ForwardedKVMessage(message, responsibleServer);
 		}
 
 	}
@@ -59,6 +77,8 @@ public class KVMessageDeserializer implements JsonDeserializer<KVMessage> {
 	 */
 	public KVMessage deserializeBasicKVMessage(JsonObject json, StatusType status) {
 		String key = null, value = null;
+		long version = 0;
+		int requestId = 0;
 		// parse key
 		if (json.has(KEY_ATTR) && json.get(KEY_ATTR).isJsonPrimitive())
 			key = json.getAsJsonPrimitive(KEY_ATTR).getAsString();
@@ -67,7 +87,47 @@ public class KVMessageDeserializer implements JsonDeserializer<KVMessage> {
 		if (json.has(VALUE_ATTR) && json.get(VALUE_ATTR).isJsonPrimitive())
 			value = json.getAsJsonPrimitive(VALUE_ATTR).getAsString();
 
-		return new BasicKVMessage(key, value, status);
+		// parse version
+		if (json.has(VERSION_ATTR) && json.get(VERSION_ATTR).isJsonPrimitive())
+			version = json.getAsJsonPrimitive(VERSION_ATTR).getAsLong();
+
+		// parse request id
+		if (json.has(REQUEST_ID_ATTR) && json.get(REQUEST_ID_ATTR).isJsonPrimitive())
+			requestId = json.getAsJsonPrimitive(REQUEST_ID_ATTR).getAsInt();
+
+		return new BasicKVMessage(key, value, status, version, requestId);
+	}
+
+	/**
+	 * Deserializes a batch KV message with key-value pairs and a status type.
+	 * 
+	 * @param json The JSON object to deserialize
+	 * @param status The status type associated with the message
+	 * @return A {@link BatchKVMessage} containing the deserialized fields
+	 * @throws JsonParseException If the JSON is not in the expected format
+	 */
+	public KVMessage deserializeBatchKVMessage(JsonObject json, StatusType status) throws JsonParseException {
+		if (!json.has(ENTRIES_ATTR) || !json.get(ENTRIES_ATTR).isJsonArray())
+			throw new JsonParseException("Missing or malformed " + ENTRIES_ATTR + " attribute");
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		for (JsonElement entryElement : json.getAsJsonArray(ENTRIES_ATTR)) {
+			if (!entryElement.isJsonObject())
+				throw new JsonParseException("Malformed entry: " + entryElement);
+
+			JsonObject entryObject = entryElement.getAsJsonObject();
+			String key = getMandatoryString(entryObject, KEY_ATTR);
+			String value = null;
+			if (entryObject.has(VALUE_ATTR) && entryObject.get(VALUE_ATTR).isJsonPrimitive())
+				value = entryObject.getAsJsonPrimitive(VALUE_ATTR).getAsString();
+			entries.put(key, value);
+		}
+
+		int requestId = 0;
+		if (json.has(REQUEST_ID_ATTR) && json.get(REQUEST_ID_ATTR).isJsonPrimitive())
+			requestId = json.getAsJsonPrimitive(REQUEST_ID_ATTR).getAsInt();
+
+		return new BatchKVMessage(status, entries, requestId);
 	}
 
 	/**
@@ -89,7 +149,39 @@ public class KVMessageDeserializer implements JsonDeserializer<KVMessage> {
 		JsonElement responsibleNodeElement = json.get(RESPONSIBLE_NODE_ATTR);
 		IECSNode metadata = context.deserialize(responsibleNodeElement, ECSNode.class);
 
-		return new MetadataUpdateMessage(metadata);
+		long metadataVersion = 0;
+		if (json.has(VERSION_ATTR) && json.get(VERSION_ATTR).isJsonPrimitive())
+			metadataVersion = json.getAsJsonPrimitive(VERSION_ATTR).getAsLong();
+
+		int requestId = 0;
+		if (json.has(REQUEST_ID_ATTR) && json.get(REQUEST_ID_ATTR).isJsonPrimitive())
+			requestId = json.getAsJsonPrimitive(REQUEST_ID_ATTR).getAsInt();
+
+		return new MetadataUpdateMessage(metadata, requestId, metadataVersion);
+	}
+
+	/**
+	 * Deserializes a message carrying the metadata of every server in the
+	 * service, which are given as the key-value pairs of a batch message.
+	 * 
+	 * @param json The JSON object to deserialize
+	 * @param status The status type associated with the message
+	 * @return A {@link ServiceMetadataMessage} containing the deserialized fields
+	 * @throws JsonParseException If the JSON is not in the expected format
+	 */
+	public KVMessage deserializeServiceMetadataMessage(JsonObject json, StatusType status)
+			throws JsonParseException {
+		KVMessage batch = deserializeBatchKVMessage(json, status);
+
+		long metadataVersion = 0;
+		if (json.has(VERSION_ATTR) && json.get(VERSION_ATTR).isJsonPrimitive())
+			metadataVersion = json.getAsJsonPrimitive(VERSION_ATTR).getAsLong();
+
+		try {
+			return ServiceMetadataMessage.fromEntries(batch.getEntries(), metadataVersion, batch.getRequestId());
+		} catch (ProtocolException e) {
+			throw new JsonParseException(e.getMessage(), e);
+		}
 	}
 
 	/**
@@ -1,9 +1,12 @@
 package common.messages;
 
+import static common.messages.KVMessage.ENTRIES_ATTR;
 import static common.messages.KVMessage.KEY_ATTR;
+import static common.messages.KVMessage.REQUEST_ID_ATTR;
 import static common.messages.KVMessage.RESPONSIBLE_NODE_ATTR;
 import static common.messages.KVMessage.STATUS_ATTR;
 import static common.messages.KVMessage.VALUE_ATTR;
+import static common.messages.KVMessage.VERSION_ATTR;
 import static common.messages.StreamUtil.TYPE_ATTR;
 import static ecs.IECSNode.NODE_HOST_ATTR;
 import static ecs.IECSNode.NODE_NAME_ATTR;
@@ -14,6 +17,7 @@ import static ecs.IECSNode.NODE_RANGE_START_ATTR;
 import java.lang.reflect.Type;
 import java.util.Optional;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
@@ -35,6 +39,25 @@ public class KVMessageSerializer implements JsonSerializer<KVMessage> {
 				.ifPresent(key -> messageObject.addProperty(KEY_ATTR, key));
 		Optional.ofNullable(src.getValue())
 				.ifPresent(value -> messageObject.addProperty(VALUE_ATTR, value));
+		if (src.getVersion() != 0) {
+			messageObject.addProperty(VERSION_ATTR, src.getVersion());
+		}
+		if (src.getRequestId() != 0) {
+			messageObject.addProperty(REQUEST_ID_ATTR, src.getRequestId());
+		}
+
+		Optional.ofNullable(src.getEntries())
+				.ifPresent(entries -> {
+					// an array keeps the pairs in order, and an absent value marks a null value
+					JsonArray entriesArray = new JsonArray();
+					entries.forEach((key, value) -> {
+						JsonObject entryObject = new JsonObject();
+						entryObject.addProperty(KEY_ATTR, key);
+						if (value != null) entryObject.addProperty(VALUE_ATTR, value);
+						entriesArray.add(entryObject);
+					});
+					messageObject.add(ENTRIES_ATTR, entriesArray);
+				});
 
 		Optional.ofNullable(src.getResponsibleServer())
 				.ifPresent(server -> {
@@ -14,6 +14,8 @@ public class MetadataUpdateMessage implements KVMessage {
 	private static final StatusType MD_UPDATE_STATUS = StatusType.SERVER_NOT_RESPONSIBLE;
 
 	private final IECSNode responsibleServer;
+	private final int requestId;
+	private final long metadataVersion;
 
 	/**
 	 * Creates a message for the given responsible server information.
@@ -22,7 +24,39 @@ public class MetadataUpdateMessage implements KVMessage {
 	 * @throws NullPointerException If the given metadata is <code>null</code>
 	 */
 	public MetadataUpdateMessage(IECSNode responsibleServer) throws NullPointerException {
+		this(responsibleServer, 0);
+	}
+
+	/**
+	 * Creates a message for the given responsible server information, in
+	 * response to the request with the given id.
+	 * 
+	 * @param responsibleServer The server information to pass on to the client
+	 * @param requestId The id of the request, or 0 if it was not tagged
+	 * @throws NullPointerException If the given metadata is <code>null</code>
+	 */
+	public MetadataUpdateMessage(IECSNode responsibleServer, int requestId) throws NullPointerException {
+		this(responsibleServer, requestId, 0);
+	}
+
+	/**
+	 * Creates a message for the given responsible server information, in
+	 * response to the request with the given id, which reports the version of
+	 * the service metadata held by the server. A client holding older metadata
+	 * can then fetch the metadata of the whole service instead of learning it
+	 * one server at a time.
+	 * 
+	 * @param responsibleServer The server information to pass on to the client
+	 * @param requestId The id of the request, or 0 if it was not tagged
+	 * @param metadataVersion The version of the service metadata, or 0 if it is
+	 *            not known
+	 * @throws NullPointerException If the given metadata is <code>null</code>
+	 */
+	public MetadataUpdateMessage(IECSNode responsibleServer, int requestId, long metadataVersion)
+			throws NullPointerException {
 		this.responsibleServer = Objects.requireNonNull(responsibleServer);
+		this.requestId = requestId;
+		this.metadataVersion = metadataVersion;
 	}
 
 	@Override
@@ -35,11 +69,28 @@ public class MetadataUpdateMessage implements KVMessage {
 		return this.responsibleServer;
 	}
 
+	@Override
+	public int getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * For metadata updates, this is the version of the service metadata held by
+	 * the server which sent the update.
+	 */
+	@Override
+	public long getVersion() {
+		return metadataVersion;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder msgBuilder = new StringBuilder("MetadataUpdateMessage{ ")
 				.append("status=\"").append(MD_UPDATE_STATUS).append("\" ")
-				.append("responsibleServer=").append(responsibleServer);
+				.append("responsibleServer=").append(responsibleServer).append(" ")
+				.append("metadataVersion=").append(metadataVersion);
 
 		return msgBuilder.toString();
 	}
@@ -0,0 +1,292 @@
+package common.messages;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Negotiates the wire format used on a client-server connection. A client
+ * wishing to use the binary format sends a two-byte preamble of
+ * {@link #MAGIC} and its protocol version before any message, and the server
+ * echoes the preamble with the version it will use. Since {@link #MAGIC} can
+ * never begin a JSON message, clients which send JSON messages straight away
+ * keep working unchanged.
+ * <p>
+ * A client wishing to compress values (see {@link Compression}) instead sends
+ * {@link #COMPRESSION_VERSION}, followed by a byte of option flags and the
+ * identifier of its preset dictionary:
+ *
+ * <pre>
+ * | magic (1) | version (1) | flags (1) | dictionary id (4) |
+ * </pre>
+ *
+ * If the server accepts compression, it replies with the magic byte,
+ * {@link #COMPRESSION_VERSION} and the flags it accepts, the dictionary being
+ * accepted only if the server holds the same one. Otherwise it replies with
+ * the plain {@link #VERSION}, and the binary format is used without
+ * compression.
+ */
+public final class ProtocolHandshake {
+
+	/** The first byte of the binary protocol preamble, which never begins a UTF-8 character. */
+	public static final byte MAGIC = (byte) 0xB7;
+
+	/** The current binary protocol version. */
+	public static final byte VERSION = 1;
+
+	/** The binary protocol version whose preamble carries compression options. */
+	public static final byte COMPRESSION_VERSION = 2;
+
+	/** The option flag requesting compressed values. */
+	public static final int COMPRESSION_FLAG = 0x01;
+
+	/** The option flag requesting the use of the preset dictionary. */
+	public static final int DICTIONARY_FLAG = 0x02;
+
+	private static final int COMPRESSION_PREAMBLE_LENGTH = 1 + 1 + 1 + 4;
+
+	/** The shared codec for the JSON format. */
+	public static final KVMessageCodec JSON_CODEC = new JsonKVMessageCodec();
+
+	/** The shared codec for the binary format. */
+	public static final KVMessageCodec BINARY_CODEC = new BinaryKVMessageCodec();
+
+	/**
+	 * Defeats instantiation.
+	 */
+	private ProtocolHandshake() {}
+
+	/**
+	 * Requests the binary format on a newly opened connection to a server.
+	 * 
+	 * @param in The stream from the server
+	 * @param out The stream to the server
+	 * @return The codec to use on the connection
+	 * @throws IOException If an I/O exception occurs, or the server does not
+	 *             accept the binary format
+	 */
+	public static KVMessageCodec initiate(InputStream in, OutputStream out) throws IOException {
+		return initiate(in, out, null);
+	}
+
+	/**
+	 * Requests the binary format on a newly opened connection to a server,
+	 * optionally with compressed values.
+	 * 
+	 * @param in The stream from the server
+	 * @param out The stream to the server
+	 * @param requested The compression settings to request, or <code>null</code>
+	 *            for none
+	 * @return The codec to use on the connection, which compresses values only if
+	 *         the server accepted compression
+	 * @throws IOException If an I/O exception occurs, or the server does not
+	 *             accept the binary format
+	 */
+	public static KVMessageCodec initiate(InputStream in, OutputStream out, Compression requested)
+			throws IOException {
+		out.write(getPreamble(requested));
+		out.flush();
+
+		int magic = in.read();
+		int version = in.read();
+		if (version < 0) throw new EOFException("Connection closed during protocol handshake");
+		if ((byte) magic == MAGIC && version == VERSION) return BINARY_CODEC;
+		if ((byte) magic != MAGIC || version != COMPRESSION_VERSION || requested == null) {
+			throw new ProtocolException("Server does not support binary protocol version " + VERSION);
+		}
+
+		int flags = in.read();
+		if (flags < 0) throw new EOFException("Connection closed during protocol handshake");
+		if ((flags & COMPRESSION_FLAG) == 0) return BINARY_CODEC;
+		return new BinaryKVMessageCodec((flags & DICTIONARY_FLAG) != 0 ? requested : requested.withoutDictionary());
+	}
+
+	/**
+	 * Returns the preamble sent by a client on a newly opened connection to
+	 * request the binary format.
+	 * 
+	 * @return The preamble bytes
+	 */
+	public static byte[] getPreamble() {
+		return getPreamble(null);
+	}
+
+	/**
+	 * Returns the preamble sent by a client on a newly opened connection to
+	 * request the binary format, optionally with compressed values.
+	 * 
+	 * @param requested The compression settings to request, or <code>null</code>
+	 *            for none
+	 * @return The preamble bytes
+	 */
+	public static byte[] getPreamble(Compression requested) {
+		if (requested == null) return new byte[] { MAGIC, VERSION };
+
+		int flags = COMPRESSION_FLAG | (requested.hasDictionary() ? DICTIONARY_FLAG : 0);
+		return ByteBuffer.allocate(COMPRESSION_PREAMBLE_LENGTH)
+				.put(MAGIC)
+				.put(COMPRESSION_VERSION)
+				.put((byte) flags)
+				.putInt(requested.getDictionaryId())
+				.array();
+	}
+
+	/**
+	 * Checks the server's acknowledgement of a request for the binary format from
+	 * the first bytes received on a newly opened connection, consuming it if it
+	 * is complete. The caller must have sent {@link #getPreamble()} to the server.
+	 * 
+	 * @param buffer The received data, between its position and limit
+	 * @return The codec to use on the connection, or <code>null</code> if more
+	 *         data is needed to decide
+	 * @throws ProtocolException If the server does not accept the binary format
+	 */
+	public static KVMessageCodec initiate(ByteBuffer buffer) throws ProtocolException {
+		if (buffer.remaining() < 2) return null;
+
+		byte magic = buffer.get();
+		byte version = buffer.get();
+		if (magic != MAGIC || version != VERSION) {
+			throw new ProtocolException("Server does not support binary protocol version " + VERSION);
+		}
+		return BINARY_CODEC;
+	}
+
+	/**
+	 * Determines the format requested by a client on a newly accepted
+	 * connection, acknowledging a request for the binary format. Blocks until the
+	 * client sends its first bytes.
+	 * 
+	 * @param in The stream from the client, which must support marking
+	 * @param out The stream to the client
+	 * @return The codec to use on the connection
+	 * @throws IOException If an I/O exception occurs, or the client requests an
+	 *             unsupported protocol version
+	 */
+	public static KVMessageCodec accept(InputStream in, OutputStream out) throws IOException {
+		return accept(in, out, null);
+	}
+
+	/**
+	 * Determines the format requested by a client on a newly accepted
+	 * connection, acknowledging a request for the binary format and accepting a
+	 * request for compression if the server offers it. Blocks until the client
+	 * sends its first bytes.
+	 * 
+	 * @param in The stream from the client, which must support marking
+	 * @param out The stream to the client
+	 * @param offered The compression settings of the server, or <code>null</code>
+	 *            if compression is disabled
+	 * @return The codec to use on the connection
+	 * @throws IOException If an I/O exception occurs, or the client requests an
+	 *             unsupported protocol version
+	 */
+	public static KVMessageCodec accept(InputStream in, OutputStream out, Compression offered) throws IOException {
+		in.mark(1);
+		int first = in.read();
+		if (first < 0) throw new EOFException("Connection closed before protocol handshake");
+		if ((byte) first != MAGIC) {
+			in.reset();
+			return JSON_CODEC;
+		}
+
+		KVMessageCodec codec;
+		DataInputStream dataIn = new DataInputStream(in);
+		int version = dataIn.readUnsignedByte();
+		if (version == VERSION) {
+			codec = BINARY_CODEC;
+		} else if (version == COMPRESSION_VERSION) {
+			int flags = dataIn.readUnsignedByte();
+			codec = negotiate(flags, dataIn.readInt(), offered);
+		} else {
+			throw new ProtocolException("Unsupported binary protocol version " + version);
+		}
+		out.write(getAcknowledgement(codec));
+		out.flush();
+		return codec;
+	}
+
+	/**
+	 * Determines the format requested by a client from the first bytes received
+	 * on a newly accepted connection, consuming the preamble if there is one. If
+	 * the binary format is requested, the caller must send
+	 * {@link #getAcknowledgement(KVMessageCodec)} to the client.
+	 * 
+	 * @param buffer The received data, between its position and limit
+	 * @return The codec to use on the connection, or <code>null</code> if more
+	 *         data is needed to decide
+	 * @throws ProtocolException If the client requests an unsupported protocol
+	 *             version
+	 */
+	public static KVMessageCodec accept(ByteBuffer buffer) throws ProtocolException {
+		return accept(buffer, null);
+	}
+
+	/**
+	 * Determines the format requested by a client from the first bytes received
+	 * on a newly accepted connection, consuming the preamble if there is one, and
+	 * accepting a request for compression if the server offers it. If the binary
+	 * format is requested, the caller must send
+	 * {@link #getAcknowledgement(KVMessageCodec)} to the client.
+	 * 
+	 * @param buffer The received data, between its position and limit
+	 * @param offered The compression settings of the server, or <code>null</code>
+	 *            if compression is disabled
+	 * @return The codec to use on the connection, or <code>null</code> if more
+	 *         data is needed to decide
+	 * @throws ProtocolException If the client requests an unsupported protocol
+	 *             version
+	 */
+	public static KVMessageCodec accept(ByteBuffer buffer, Compression offered) throws ProtocolException {
+		if (!buffer.hasRemaining()) return null;
+		if (buffer.get(buffer.position()) != MAGIC) return JSON_CODEC;
+		if (buffer.remaining() < 2) return null;
+
+		byte version = buffer.get(buffer.position() + 1);
+		if (version == VERSION) {
+			buffer.position(buffer.position() + 2);
+			return BINARY_CODEC;
+		} else if (version == COMPRESSION_VERSION) {
+			if (buffer.remaining() < COMPRESSION_PREAMBLE_LENGTH) return null;
+			buffer.position(buffer.position() + 2);
+			int flags = buffer.get() & 0xFF;
+			return negotiate(flags, buffer.getInt(), offered);
+		}
+		throw new ProtocolException("Unsupported binary protocol version " + version);
+	}
+
+	/**
+	 * Chooses the codec for a client requesting compression with the given
+	 * options. The dictionary is only used if the server holds the same one.
+	 */
+	private static KVMessageCodec negotiate(int flags, int dictionaryId, Compression offered) {
+		if (offered == null || (flags & COMPRESSION_FLAG) == 0) return BINARY_CODEC;
+
+		boolean sharedDictionary = (flags & DICTIONARY_FLAG) != 0 && offered.hasDictionary()
+				&& offered.getDictionaryId() == dictionaryId;
+		return new BinaryKVMessageCodec(sharedDictionary ? offered : offered.withoutDictionary());
+	}
+
+	/**
+	 * Returns the preamble sent by a server to acknowledge a request for the
+	 * binary format, which states whether values are compressed with the given
+	 * codec.
+	 * 
+	 * @param codec The binary codec chosen for the connection
+	 * @return The acknowledgement bytes
+	 */
+	public static byte[] getAcknowledgement(KVMessageCodec codec) {
+		Compression compression = codec instanceof BinaryKVMessageCodec
+				? ((BinaryKVMessageCodec) codec).getCompression()
+				: null;
+		if (compression == null) return new byte[] { MAGIC, VERSION };
+
+		int flags = COMPRESSION_FLAG | (compression.hasDictionary() ? DICTIONARY_FLAG : 0);
+		return new byte[] { MAGIC, COMPRESSION_VERSION, (byte) flags };
+	}
+
+}
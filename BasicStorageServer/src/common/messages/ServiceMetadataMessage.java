@@ -0,0 +1,117 @@
+package common.messages;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ecs.IECSNode;
+
+/**
+ * A message for responding to <code>GET_METADATA</code> requests, which
+ * provides the client with metadata for every server in the service at once,
+ * along with the version of that metadata. Clients can then route requests
+ * correctly from the start, rather than learning the service topology one
+ * server at a time from <code>SERVER_NOT_RESPONSIBLE</code> responses.
+ * <p>
+ * On the wire, each server is carried as a key-value pair of its name and its
+ * address, as for batch messages, and the metadata version as the version.
+ */
+public class ServiceMetadataMessage implements KVMessage {
+
+	private static final StatusType METADATA_STATUS = StatusType.GET_METADATA_SUCCESS;
+
+	private final List<IECSNode> nodes;
+	private final Map<String, String> entries;
+	private final long metadataVersion;
+	private final int requestId;
+
+	/**
+	 * Creates a message for the given server metadata, in response to the
+	 * request with the given id.
+	 * 
+	 * @param nodes The metadata for every server in the service, which is
+	 *            copied
+	 * @param metadataVersion The version of the metadata, or 0 if it is not known
+	 * @param requestId The id of the request, or 0 if it was not tagged
+	 */
+	public ServiceMetadataMessage(Collection<IECSNode> nodes, long metadataVersion, int requestId) {
+		this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+		this.metadataVersion = metadataVersion;
+		this.requestId = requestId;
+
+		// servers are encoded up front, since their hash ranges may be updated in place
+		Map<String, String> entries = new LinkedHashMap<>();
+		for (IECSNode node : this.nodes) {
+			entries.put(node.getNodeName(), BinaryKVMessageCodec.encodeAddress(node));
+		}
+		this.entries = Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * Creates a message from the key-value pairs encoding its servers.
+	 * 
+	 * @param entries The name and address of each server
+	 * @param metadataVersion The version of the metadata
+	 * @param requestId The id of the request, or 0 if it was not tagged
+	 * @return The message
+	 * @throws ProtocolException If the address of a server is malformed
+	 */
+	public static ServiceMetadataMessage fromEntries(Map<String, String> entries, long metadataVersion,
+			int requestId) throws ProtocolException {
+		List<IECSNode> nodes = new ArrayList<>(entries.size());
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			nodes.add(BinaryKVMessageCodec.decodeServer(entry.getKey(), entry.getValue()));
+		}
+		return new ServiceMetadataMessage(nodes, metadataVersion, requestId);
+	}
+
+	/**
+	 * Returns the metadata for every server in the service.
+	 * 
+	 * @return The server metadata
+	 */
+	public Collection<IECSNode> getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public StatusType getStatus() {
+		return METADATA_STATUS;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * For service metadata, this is the version of the metadata, which increases
+	 * with every change to the service topology.
+	 */
+	@Override
+	public long getVersion() {
+		return metadataVersion;
+	}
+
+	@Override
+	public int getRequestId() {
+		return requestId;
+	}
+
+	@Override
+	public Map<String, String> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder msgBuilder = new StringBuilder("ServiceMetadataMessage{ ")
+				.append("nodes=").append(nodes).append(" ")
+				.append("metadataVersion=").append(metadataVersion).append(" ")
+				.append("requestId=").append(requestId).append(" }");
+
+		return msgBuilder.toString();
+	}
+
+}
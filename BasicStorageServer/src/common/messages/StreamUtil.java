@@ -5,6 +5,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
@@ -52,13 +53,37 @@ public class StreamUtil {
 	 *             transmitting the message
 	 */
 	public void sendMessage(OutputStream out, Object msg) throws IOException {
-		String msgStr = gson.toJson(msg, KVMessage.class) + "\n";
-		byte[] msgBytes = msgStr.getBytes(UTF_8);
+		sendBytes(out, encodeMessage(msg));
+	}
 
+	/**
+	 * Serializes a given message into JSON format and encodes it into UTF-8,
+	 * including the terminating newline, so that it can be transmitted by
+	 * {@link #sendBytes(OutputStream, byte[])}.
+	 * 
+	 * @param msg The message to encode
+	 * @return The encoded message
+	 */
+	public byte[] encodeMessage(Object msg) {
+		return (gson.toJson(msg, KVMessage.class) + "\n").getBytes(UTF_8);
+	}
+
+	/**
+	 * Transmits a message previously encoded by {@link #encodeMessage(Object)}
+	 * through the specified output stream.
+	 * 
+	 * @param out The stream on which to transmit the message
+	 * @param msgBytes The encoded message
+	 * @throws IOException If an IO exception occurs while transmitting the
+	 *             message
+	 */
+	public void sendBytes(OutputStream out, byte[] msgBytes) throws IOException {
 		out.write(msgBytes, 0, msgBytes.length);
 		out.flush();
 
-		log.info("Sent message: '" + msgStr.trim() + "'");
+		if (log.isInfoEnabled()) {
+			log.info("Sent message: '" + new String(msgBytes, UTF_8).trim() + "'");
+		}
 	}
 
 	/**
@@ -74,52 +99,24 @@ public class StreamUtil {
 	public String receiveString(InputStream in) throws IOException {
 		log.trace("Waiting for message...");
 
-		int index = 0;
-		byte[] msgBytes = null, tmp = null;
-		byte[] bufferBytes = new byte[BUFFER_SIZE];
-
-		byte read;
-		boolean reading = true;
-		while ((read = (byte) in.read()) != -1 // EOS
-				&& read != 10  	// '\n'
-				&& read != 13 	// '\r'
-				&& reading) {
-			/* if buffer filled, copy to msg array */
-			if (index == BUFFER_SIZE) {
-				if (msgBytes == null) {
-					tmp = new byte[BUFFER_SIZE];
-					System.arraycopy(bufferBytes, 0, tmp, 0, BUFFER_SIZE);
-				} else {
-					tmp = new byte[msgBytes.length + BUFFER_SIZE];
-					System.arraycopy(msgBytes, 0, tmp, 0, msgBytes.length);
-					System.arraycopy(bufferBytes, 0, tmp, msgBytes.length, BUFFER_SIZE);
-				}
-
-				msgBytes = tmp;
-				bufferBytes = new byte[BUFFER_SIZE];
-				index = 0;
-			}
-
-			bufferBytes[index] = read;
-			index++;
+		// the buffer is doubled as needed, so that long messages are not copied once per kilobyte
+		byte[] msgBytes = new byte[BUFFER_SIZE];
+		int length = 0;
 
-			/* stop reading is DROP_SIZE is reached */
-			if (msgBytes != null && msgBytes.length + index >= DROP_SIZE) {
-				reading = false;
+		int read;
+		while ((read = in.read()) != -1 // EOS
+				&& read != 10 	// '\n'
+				&& read != 13) { 	// '\r'
+			if (length == msgBytes.length) {
+				msgBytes = Arrays.copyOf(msgBytes, Math.min(2 * msgBytes.length, DROP_SIZE));
 			}
-		}
+			msgBytes[length++] = (byte) read;
 
-		if (msgBytes == null) {
-			tmp = new byte[index];
-			System.arraycopy(bufferBytes, 0, tmp, 0, index);
-		} else {
-			tmp = new byte[msgBytes.length + index];
-			System.arraycopy(msgBytes, 0, tmp, 0, msgBytes.length);
-			System.arraycopy(bufferBytes, 0, tmp, msgBytes.length, index);
+			/* stop reading if DROP_SIZE is reached */
+			if (length >= DROP_SIZE) break;
 		}
 
-		msgBytes = tmp;
-		return new String(msgBytes, UTF_8);
+		return new String(msgBytes, 0, length, UTF_8);
 	}
 
 	/**
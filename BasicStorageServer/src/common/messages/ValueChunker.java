@@ -0,0 +1,60 @@
+package common.messages;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a value read from a character stream into the chunks in which it is
+ * streamed, so that values of any length can be sent without holding them in
+ * memory. Chunks never split a surrogate pair, so each chunk is a valid string
+ * which can be encoded on its own.
+ */
+public class ValueChunker {
+
+	/**
+	 * The maximum length in characters of a chunk. Keeps a chunk well within the
+	 * maximum message length of either wire format, however it is encoded.
+	 */
+	public static final int CHUNK_LENGTH = 32 * 1024;
+
+	private final Reader reader;
+	private final char[] buffer = new char[CHUNK_LENGTH];
+	private int carried = 0;
+
+	/**
+	 * Creates a chunker for the value read from the given stream.
+	 *
+	 * @param reader The stream holding the value
+	 */
+	public ValueChunker(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Reads the next chunk of the value.
+	 *
+	 * @return The chunk, or <code>null</code> if the end of the value has been
+	 *         reached
+	 * @throws IOException If an I/O exception occurs while reading the value
+	 */
+	public String nextChunk() throws IOException {
+		int length = carried;
+		carried = 0;
+
+		int read;
+		while (length < CHUNK_LENGTH && (read = reader.read(buffer, length, CHUNK_LENGTH - length)) >= 0) {
+			length += read;
+		}
+		if (length == 0) return null;
+
+		// hold back a high surrogate until its low surrogate has been read
+		if (length == CHUNK_LENGTH && Character.isHighSurrogate(buffer[length - 1])) {
+			String chunk = new String(buffer, 0, length - 1);
+			buffer[0] = buffer[length - 1];
+			carried = 1;
+			return chunk;
+		}
+		return new String(buffer, 0, length);
+	}
+
+}
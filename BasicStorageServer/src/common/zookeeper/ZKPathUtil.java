@@ -96,6 +96,15 @@ public class ZKPathUtil {
 		return getZnode(server, "heartbeat");
 	}
 
-
+	/**
+	 * Returns the path for the znode to which the given server publishes its
+	 * metrics.
+	 *
+	 * @param server The server associated with this node
+	 * @return The metrics znode path
+	 */
+	public static String getMetricsZnode(IECSNode server) {
+		return getZnode(server, "metrics");
+	}
 
 }
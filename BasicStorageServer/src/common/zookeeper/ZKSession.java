@@ -259,6 +259,22 @@ public class ZKSession {
 	 * @throws InterruptedException If the transaction is interrupted
 	 */
 	public String getNodeData(String path, Watcher callback) throws KeeperException, InterruptedException {
+		return getNodeData(path, callback, new Stat());
+	}
+
+	/**
+	 * Retrieves the data contained in the specified znode, placing a watcher and
+	 * recording the stat of the znode, which includes its version.
+	 * 
+	 * @param path The path of the znode to read
+	 * @param callback The watcher to place on the znode
+	 * @param getDataStat The stat to fill in
+	 * @return The znode data decoded from UTF-8
+	 * @throws KeeperException If the ZooKeeper server signals an error
+	 * @throws InterruptedException If the transaction is interrupted
+	 */
+	public String getNodeData(String path, Watcher callback, Stat getDataStat)
+			throws KeeperException, InterruptedException {
 
 		Stat stat = zookeeper.exists(path, false);
 		if (stat == null) {
@@ -266,7 +282,6 @@ public class ZKSession {
 			return null;
 		}
 
-		Stat getDataStat = new Stat();
 		byte[] b = zookeeper.getData(path, callback, getDataStat);
 		log.trace(path + " stat: " + getDataStat.toString());
 
@@ -284,7 +299,24 @@ public class ZKSession {
 	 * @throws InterruptedException If the transaction is interrupted
 	 */
 	public List<IECSNode> getMetadataNodeData(Watcher watcher) throws KeeperException, InterruptedException {
-		String metadataString = getNodeData(ZKPathUtil.KV_SERVICE_MD_NODE, watcher);
+		return getMetadataNodeData(watcher, new Stat());
+	}
+
+	/**
+	 * Retrieves and deserializes the data contained in the central metadata znode,
+	 * setting a watcher and recording the stat of the znode. The version in the
+	 * stat identifies the metadata, since it increases with every update.
+	 * 
+	 * @param watcher The callback to set
+	 * @param stat The stat to fill in
+	 * @return The contents of the central metadata ZNodes deserialized as a list of
+	 *         server metadata objects
+	 * @throws KeeperException If the ZooKeeper server signals an error
+	 * @throws InterruptedException If the transaction is interrupted
+	 */
+	public List<IECSNode> getMetadataNodeData(Watcher watcher, Stat stat)
+			throws KeeperException, InterruptedException {
+		String metadataString = getNodeData(ZKPathUtil.KV_SERVICE_MD_NODE, watcher, stat);
 		if (metadataString == null) return null;
 		return gson.fromJson(metadataString, IECS_NODE_LIST_TYPE);
 	}
@@ -55,6 +55,24 @@ public class ECSNode implements IECSNode {
 		this.cacheSize = cacheSize;
 	}
 
+	/**
+	 * Creates a copy of the given server metadata object with a different cache
+	 * configuration. The hash range of the copy is the same as the original's.
+	 * 
+	 * @param node The metadata to copy
+	 * @param cacheStrategy The new cache strategy for the associated server
+	 * @param cacheSize The new cache size for the associated server
+	 */
+	public ECSNode(IECSNode node, String cacheStrategy, int cacheSize) {
+		this.name = node.getNodeName();
+		this.host = node.getNodeHost();
+		this.port = node.getNodePort();
+		this.start = node.getNodeHashRangeStart();
+		this.end = node.getNodeHashRangeEnd();
+		this.cacheStrategy = cacheStrategy;
+		this.cacheSize = cacheSize;
+	}
+
 	@Override
 	public String getNodeName() {
 		return name;
@@ -3,11 +3,31 @@ package testing;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import testing.app_kvECS.CacheSizeAdvisorTest;
+import testing.app_kvServer.KVServerTest;
+import testing.app_kvServer.cache.AdaptiveCacheTest;
+import testing.app_kvServer.cache.CacheWarmerTest;
+import testing.app_kvServer.cache.CompactKeyMapTest;
+import testing.app_kvServer.cache.DiskCacheTest;
 import testing.app_kvServer.cache.FifoCacheTest;
+import testing.app_kvServer.cache.HeapPressureControllerTest;
 import testing.app_kvServer.cache.LfuCacheTest;
 import testing.app_kvServer.cache.LruCacheTest;
+import testing.app_kvServer.cache.MissRatioCurveEstimatorTest;
+import testing.app_kvServer.cache.NegativeCacheTest;
+import testing.app_kvServer.cache.ResponseCacheTest;
+import testing.app_kvServer.cache.WriteBackBufferTest;
 import testing.app_kvServer.persistence.FilePersistenceTest;
+import testing.app_kvServer.persistence.StreamStoreTest;
+import testing.client.AsyncKVStoreTest;
+import testing.client.ConnectionPoolTest;
+import testing.client.NearCacheTest;
+import testing.client.PipelinedConnectionTest;
+import testing.common.messages.BinaryKVMessageCodecTest;
+import testing.common.messages.CompressionTest;
+import testing.common.messages.JsonKVMessageCodecTest;
 import testing.common.messages.StreamUtilTest;
+import testing.common.messages.ValueChunkerTest;
 import testing.common.zookeeper.ZKWrapperTest;
 import testing.ecs.ECSNodeTest;
 import testing.ecs.ECSClientTest;
@@ -21,13 +41,33 @@ import testing.ecs.ECSClientTest;
 		InteractionTest.class,
 		IllegalArgumentTest.class,
 		KVClientTest.class,
+		NearCacheTest.class,
+		PipelinedConnectionTest.class,
+		AsyncKVStoreTest.class,
+		ConnectionPoolTest.class,
 		FifoCacheTest.class,
 		LfuCacheTest.class,
 		LruCacheTest.class,
+		CompactKeyMapTest.class,
+		WriteBackBufferTest.class,
+		CacheWarmerTest.class,
+		NegativeCacheTest.class,
+		ResponseCacheTest.class,
+		DiskCacheTest.class,
+		MissRatioCurveEstimatorTest.class,
+		AdaptiveCacheTest.class,
+		HeapPressureControllerTest.class,
 		FilePersistenceTest.class,
+		StreamStoreTest.class,
 		StreamUtilTest.class,
+		ValueChunkerTest.class,
+		BinaryKVMessageCodecTest.class,
+		CompressionTest.class,
+		JsonKVMessageCodecTest.class,
 		ECSNodeTest.class,
 		ZKWrapperTest.class,
-		ECSClientTest.class
+		ECSClientTest.class,
+		KVServerTest.class,
+		CacheSizeAdvisorTest.class
 })
 public class AllTests {}
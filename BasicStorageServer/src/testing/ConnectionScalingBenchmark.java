@@ -0,0 +1,208 @@
+package testing;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import app_kvECS.ECSClient;
+import app_kvECS.LocalServerInitializer;
+import app_kvServer.ServerOptions;
+import app_kvServer.VirtualThreads;
+import client.KVStore;
+import common.zookeeper.ZKSession;
+import ecs.IECSNode;
+import logger.LogSetup;
+
+/**
+ * Compares serving each client connection with a platform thread against
+ * serving it with a virtual thread. A single server is loaded with a large
+ * number of idle connections, which each occupy a connection thread, while a
+ * smaller number of active clients measure throughput and latency. The thread
+ * count and heap usage of the JVM are reported alongside.
+ * <p>
+ * All tests expect that a ZooKeeper service is running and accessible at
+ * <code>localhost:2181</code>. Holding the idle connections requires a file
+ * descriptor limit above twice their number, since both ends of every
+ * connection are in this JVM. The virtual thread test is skipped on JVMs
+ * without virtual threads. This class is not part of {@link AllTests}.
+ */
+public class ConnectionScalingBenchmark {
+
+	private static final Logger log = Logger.getLogger(ConnectionScalingBenchmark.class);
+
+	private static final String ZK_HOSTNAME = "127.0.0.1";
+	private static final int ZK_PORT = 2181;
+
+	private static final int IDLE_CONNECTIONS = 10000;
+	private static final int ACTIVE_CLIENTS = 500;
+	private static final int OPERATIONS_PER_CLIENT = 200;
+	private static final int KEY_SPACE = 1000;
+
+	private ECSClient ecsClient;
+	private ZKSession zkSession;
+	private final List<Socket> idleConnections = new ArrayList<>();
+
+	/**
+	 * Sets up logging.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@BeforeClass
+	public static void classSetup() throws IOException {
+		LogSetup.initialize("logs/test/ConnectionScalingBenchmark.log", Level.WARN);
+	}
+
+	/**
+	 * Sets up the ECS which will be used to manage the test server.
+	 */
+	@Before
+	public void setup() {
+		this.zkSession = new ZKSession(ZK_HOSTNAME, ZK_PORT);
+		this.ecsClient = new ECSClient("test-ecs.config", zkSession, new LocalServerInitializer(ZK_HOSTNAME, ZK_PORT));
+	}
+
+	/**
+	 * Closes the idle connections and shuts down the ECS client, which should
+	 * also stop the test server.
+	 */
+	@After
+	public void teardown() {
+		for (Socket socket : idleConnections) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.warn("Could not close idle connection", e);
+			}
+		}
+		idleConnections.clear();
+		this.ecsClient.shutdown();
+		System.clearProperty(ServerOptions.VIRTUAL_THREADS);
+	}
+
+	/**
+	 * Resets the logging configuration.
+	 */
+	@AfterClass
+	public static void classTeardown() {
+		LogSetup.teardown();
+	}
+
+	/**
+	 * Measures a server serving each connection with a platform thread.
+	 *
+	 * @throws Exception If the benchmark cannot be run
+	 */
+	@Test
+	public void testPlatformThreads() throws Exception {
+		System.setProperty(ServerOptions.VIRTUAL_THREADS, "false");
+		runBenchmark("platform");
+	}
+
+	/**
+	 * Measures a server serving each connection with a virtual thread.
+	 *
+	 * @throws Exception If the benchmark cannot be run
+	 */
+	@Test
+	public void testVirtualThreads() throws Exception {
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		System.setProperty(ServerOptions.VIRTUAL_THREADS, "true");
+		runBenchmark("virtual");
+	}
+
+	private void runBenchmark(String mode) throws Exception {
+		IECSNode node = ecsClient.addNodes(1, "LRU", KEY_SPACE).iterator().next();
+		ecsClient.start();
+		Thread.sleep(1000); // give some time for startup to finish
+
+		long startTime = System.currentTimeMillis();
+		try {
+			for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+				idleConnections.add(new Socket(node.getNodeHost(), node.getNodePort()));
+			}
+		} catch (IOException e) {
+			log.warn("Could only open " + idleConnections.size() + " idle connections", e);
+		}
+		long connectTime = System.currentTimeMillis() - startTime;
+		Thread.sleep(1000); // let the server start a thread for every connection
+
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+		long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+		ExecutorService clients = Executors.newFixedThreadPool(ACTIVE_CLIENTS);
+		List<Future<long[]>> results = new ArrayList<>();
+		startTime = System.currentTimeMillis();
+		for (int i = 0; i < ACTIVE_CLIENTS; i++) {
+			int clientId = i;
+			results.add(clients.submit(() -> runClient(node, clientId)));
+		}
+
+		long[] latencies = new long[ACTIVE_CLIENTS * OPERATIONS_PER_CLIENT];
+		int count = 0;
+		for (Future<long[]> result : results) {
+			long[] clientLatencies = result.get();
+			System.arraycopy(clientLatencies, 0, latencies, count, clientLatencies.length);
+			count += clientLatencies.length;
+		}
+		long elapsed = System.currentTimeMillis() - startTime;
+		clients.shutdown();
+
+		Arrays.sort(latencies, 0, count);
+		String summary = String.format("%s threads: %d idle connections in %d ms, %d JVM threads, %d MiB heap; "
+				+ "%d operations in %d ms (%.0f ops/s), p50 %.2f ms, p99 %.2f ms",
+				mode, idleConnections.size(), connectTime, threads, heapUsed >> 20,
+				count, elapsed, count * 1000.0 / Math.max(1, elapsed),
+				percentile(latencies, count, 0.5) / 1e6, percentile(latencies, count, 0.99) / 1e6);
+		log.warn(summary);
+		System.out.println(summary);
+	}
+
+	/**
+	 * Performs a mix of reads and writes as a single client, alternating between
+	 * the two.
+	 *
+	 * @return The latency of each operation, in nanoseconds
+	 */
+	private long[] runClient(IECSNode node, int clientId) throws Exception {
+		KVStore client = new KVStore(node.getNodeHost(), node.getNodePort());
+		client.connect();
+
+		long[] latencies = new long[OPERATIONS_PER_CLIENT];
+		try {
+			for (int i = 0; i < OPERATIONS_PER_CLIENT; i++) {
+				String key = "key" + ((clientId * OPERATIONS_PER_CLIENT + i) % KEY_SPACE);
+				long startTime = System.nanoTime();
+				if (i % 2 == 0) {
+					client.put(key, "value" + i);
+				} else {
+					client.get(key);
+				}
+				latencies[i] = System.nanoTime() - startTime;
+			}
+		} finally {
+			client.disconnect();
+		}
+		return latencies;
+	}
+
+	private static long percentile(long[] sorted, int count, double fraction) {
+		if (count == 0) return 0;
+		return sorted[Math.min(count - 1, (int) (count * fraction))];
+	}
+
+}
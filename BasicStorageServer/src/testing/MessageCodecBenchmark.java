@@ -0,0 +1,138 @@
+package testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import common.messages.BasicKVMessage;
+import common.messages.JsonKVMessageCodec;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.StreamUtil;
+import logger.LogSetup;
+
+/**
+ * Measures the heap allocated while encoding and decoding JSON messages, by
+ * the {@link JsonKVMessageCodec} and by the GSON-based serialization of
+ * {@link StreamUtil} which it replaces. Allocation is measured per thread, so
+ * the results are unaffected by other threads, and is reported in bytes per
+ * message alongside the encoded message length. Decoding is measured both from
+ * a stream, as by a connection thread, and from a direct buffer, as by the
+ * non-blocking server.
+ * <p>
+ * The measurements require a JVM which reports the memory allocated by each
+ * thread. This class is not part of {@link AllTests}.
+ */
+public class MessageCodecBenchmark {
+
+	private static final Logger log = Logger.getLogger(MessageCodecBenchmark.class);
+
+	private static final int WARMUP_ITERATIONS = 200000;
+	private static final int ITERATIONS = 1000000;
+	private static final int VALUE_LENGTH = 1000;
+
+	private final JsonKVMessageCodec codec = new JsonKVMessageCodec();
+	private final StreamUtil streamUtil = new StreamUtil();
+
+	/**
+	 * Sets up logging.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@BeforeClass
+	public static void classSetup() throws IOException {
+		LogSetup.initialize("logs/test/MessageCodecBenchmark.log", Level.WARN);
+	}
+
+	@FunctionalInterface
+	private interface Operation {
+		public void run() throws IOException;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Runs the given operation repeatedly after a warmup.
+	 *
+	 * @return The average number of bytes allocated by each run
+	 */
+	private static long measure(String name, Operation operation) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			operation.run();
+		}
+
+		long start = System.nanoTime();
+		long allocated = allocatedBytes();
+		for (int i = 0; i < ITERATIONS; i++) {
+			operation.run();
+		}
+		long perRun = (allocatedBytes() - allocated) / ITERATIONS;
+		long nanos = (System.nanoTime() - start) / ITERATIONS;
+
+		log.warn(String.format("%-24s %8d bytes allocated, %6d ns per message", name, perRun, nanos));
+		return perRun;
+	}
+
+	/**
+	 * Compares the allocation of both implementations while encoding and decoding
+	 * a typical request. The codec should allocate no more than the encoded
+	 * message when encoding, and little more than the key and value when
+	 * decoding.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testAllocation() throws IOException {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+		StringBuilder value = new StringBuilder();
+		while (value.length() < VALUE_LENGTH) {
+			value.append("value ").append(value.length()).append(' ');
+		}
+		KVMessage message = new BasicKVMessage("some-key", value.toString(), StatusType.PUT, 42, 7);
+		byte[] encoded = codec.encode(message);
+		log.warn("Encoded message length: " + encoded.length + " bytes");
+
+		ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+		ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+		direct.put(encoded);
+
+		long gsonEncode = measure("GSON encode", () -> streamUtil.encodeMessage(message));
+		long codecEncode = measure("Codec encode", () -> codec.encode(message));
+
+		long gsonDecode = measure("GSON decode", () -> {
+			in.reset();
+			streamUtil.deserializeKVMessage(streamUtil.receiveString(in));
+		});
+		long codecDecode = measure("Codec decode (stream)", () -> {
+			in.reset();
+			codec.decode(in);
+		});
+		long bufferDecode = measure("Codec decode (buffer)", () -> {
+			direct.clear();
+			codec.decode(direct, encoded.length);
+		});
+
+		// the encoded array is the only allocation, besides its header and padding
+		assertTrue(codecEncode < encoded.length + 64);
+		assertTrue(codecEncode < gsonEncode);
+		// the key and value strings, their arrays and the message remain
+		assertTrue(codecDecode < 2 * value.toString().getBytes(UTF_8).length);
+		assertTrue(codecDecode < gsonDecode);
+		assertTrue(bufferDecode <= codecDecode);
+	}
+
+}
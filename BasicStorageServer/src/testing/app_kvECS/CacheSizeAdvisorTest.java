@@ -0,0 +1,40 @@
+package testing.app_kvECS;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import app_kvECS.CacheSizeAdvisor;
+import app_kvECS.CacheSizeAdvisor.Recommendation;
+
+/**
+ * Tests the recommendations made by the {@link CacheSizeAdvisor} class.
+ */
+public class CacheSizeAdvisorTest {
+
+	/**
+	 * Checks that the smallest configuration close to the best hit ratio is
+	 * recommended.
+	 */
+	@Test
+	public void testRecommendSmallestSufficientSize() {
+		String metrics = "{\"cache.mrc.samples\":5000,"
+				+ "\"cache.mrc.LRU.50\":0.40,\"cache.mrc.LRU.100\":0.795,\"cache.mrc.LRU.200\":0.80,"
+				+ "\"cache.mrc.LFU.50\":0.45,\"cache.mrc.LFU.100\":0.70,\"cache.mrc.LFU.200\":0.75}";
+
+		Recommendation recommendation = CacheSizeAdvisor.recommend(metrics);
+
+		assertEquals("LRU", recommendation.getCacheStrategy());
+		assertEquals(100, recommendation.getCacheSize());
+	}
+
+	/**
+	 * Checks that no recommendation is made without enough samples.
+	 */
+	@Test
+	public void testNotEnoughSamples() {
+		assertNull(CacheSizeAdvisor.recommend("{\"cache.mrc.samples\":10,\"cache.mrc.LRU.100\":0.5}"));
+	}
+
+}
@@ -0,0 +1,266 @@
+package testing.app_kvServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Level;
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import app_kvECS.ECSClient;
+import app_kvECS.ServerInitializationException;
+import app_kvServer.KVServer;
+import app_kvServer.ServerOptions;
+import app_kvServer.cache.ResponseCache;
+import client.KVStore;
+import common.messages.BatchKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.zookeeper.ZKSession;
+import ecs.IECSNode;
+import logger.LogSetup;
+
+/**
+ * Tests the caching and data transfer behavior of the {@link KVServer} class,
+ * as seen both by clients and in the state of the server. Servers are started
+ * within the test process through the ECS, so that they can be inspected
+ * directly. Requires ZooKeeper to be running. The servers use a write-back
+ * cache which is not flushed on a timer during the tests.
+ */
+public class KVServerTest {
+
+	private static final String ZK_HOSTNAME = "127.0.0.1";
+	private static final int ZK_PORT = 2181;
+
+	private final Map<String, KVServer> servers = new ConcurrentHashMap<>();
+
+	private ECSClient ecsClient;
+	private KVServer server;
+	private KVStore kvClient;
+
+	/**
+	 * Sets up logging and enables write-back caching for the servers started by
+	 * the tests.
+	 *
+	 * @throws IOException If the log file cannot be created
+	 */
+	@BeforeClass
+	public static void classSetup() throws IOException {
+		LogSetup.initialize("logs/test/KVServerTest.log", Level.ERROR);
+		System.setProperty(ServerOptions.WRITE_BACK, "true");
+		System.setProperty(ServerOptions.WRITE_BACK_INTERVAL, "60000");
+	}
+
+	/**
+	 * Starts a service of a single server with an empty storage, and connects a
+	 * client to it.
+	 *
+	 * @throws Exception If the client cannot connect to the server
+	 */
+	@Before
+	public void setup() throws Exception {
+		ecsClient = new ECSClient("test-ecs.config", new ZKSession(ZK_HOSTNAME, ZK_PORT), serverMetadata -> {
+			try {
+				String name = serverMetadata.getNodeName();
+				servers.put(name, new KVServer(name, ZK_HOSTNAME, ZK_PORT));
+			} catch (KeeperException | InterruptedException e) {
+				throw new ServerInitializationException("Could not initialize server", e);
+			}
+		});
+
+		IECSNode node = ecsClient.addNode("LRU", 10);
+		ecsClient.start();
+		server = servers.get(node.getNodeName());
+		server.clearStorage();
+		server.clearCache();
+
+		kvClient = new KVStore(node.getNodeHost(), node.getNodePort());
+		kvClient.connect();
+	}
+
+	/**
+	 * Disconnects the client, and shuts down the service after clearing the
+	 * storage of every server.
+	 */
+	@After
+	public void teardown() {
+		kvClient.disconnect();
+		servers.values().forEach(KVServer::clearStorage);
+		ecsClient.shutdown();
+		servers.values().forEach(KVServer::close);
+	}
+
+	/**
+	 * Restores the default caching options.
+	 */
+	@AfterClass
+	public static void classTeardown() {
+		System.clearProperty(ServerOptions.WRITE_BACK);
+		System.clearProperty(ServerOptions.WRITE_BACK_INTERVAL);
+		LogSetup.teardown();
+	}
+
+	/**
+	 * Checks that a value read from the persistence following a cache miss is
+	 * added to the cache.
+	 *
+	 * @throws Exception If an exception occurs during a request
+	 */
+	@Test
+	public void testGetFillsCache() throws Exception {
+		kvClient.put("foo", "bar");
+		server.clearCache();
+		assertFalse(server.inCache("foo"));
+
+		KVMessage response = kvClient.get("foo");
+
+		assertEquals(StatusType.GET_SUCCESS, response.getStatus());
+		assertEquals("bar", response.getValue());
+		assertTrue(server.inCache("foo"));
+	}
+
+	/**
+	 * Checks that the values read from the persistence for a batch request are
+	 * added to the cache.
+	 *
+	 * @throws Exception If an exception occurs during a request
+	 */
+	@Test
+	public void testGetAllFillsCache() throws Exception {
+		Map<String, String> pairs = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			pairs.put("foo" + i, "bar" + i);
+		}
+		kvClient.putAll(pairs);
+		server.clearCache();
+
+		List<String> keys = Arrays.asList("foo0", "foo1", "missing", "foo2", "foo3", "foo4");
+		KVMessage response = kvClient.getAll(keys);
+
+		assertEquals(StatusType.MULTI_GET_SUCCESS, response.getStatus());
+		assertEquals(pairs, ((BatchKVMessage) response).getEntries());
+		for (String key : pairs.keySet()) {
+			assertTrue(server.inCache(key));
+		}
+	}
+
+	/**
+	 * Checks that a key which was found to be absent can be read once it has
+	 * been written.
+	 *
+	 * @throws Exception If an exception occurs during a request
+	 */
+	@Test
+	public void testPutInvalidatesNegativeCache() throws Exception {
+		assertEquals(StatusType.GET_ERROR, kvClient.get("foo").getStatus());
+		assertFalse(server.inStorage("foo"));
+
+		assertEquals(StatusType.PUT_SUCCESS, kvClient.put("foo", "bar").getStatus());
+
+		KVMessage response = kvClient.get("foo");
+		assertEquals(StatusType.GET_SUCCESS, response.getStatus());
+		assertEquals("bar", response.getValue());
+	}
+
+	/**
+	 * Checks that writing a key discards its cached response, and that cached
+	 * responses are also served to sessions using the JSON format.
+	 *
+	 * @throws Exception If an exception occurs during a request
+	 */
+	@Test
+	public void testPutInvalidatesResponseCache() throws Exception {
+		ResponseCache responseCache = server.getResponseCache();
+		kvClient.put("foo", "bar1");
+		kvClient.get("foo");
+		assertNotNull(responseCache.get("foo"));
+
+		KVStore jsonClient = new KVStore("localhost", server.getPort());
+		jsonClient.setBinaryProtocol(false);
+		jsonClient.connect();
+		try {
+			long hits = responseCache.getHits();
+			assertEquals("bar1", jsonClient.get("foo").getValue());
+			assertEquals(hits + 1, responseCache.getHits());
+		} finally {
+			jsonClient.disconnect();
+		}
+
+		kvClient.put("foo", "bar2");
+		assertNull(responseCache.get("foo"));
+		assertEquals("bar2", kvClient.get("foo").getValue());
+	}
+
+	/**
+	 * Checks that writes still held in the write-back cache are transferred
+	 * along with the persisted data when a server is added to the service.
+	 *
+	 * @throws Exception If an exception occurs during a request
+	 */
+	@Test
+	public void testMoveDataIncludesDirtyEntries() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			kvClient.put("foo" + i, "bar" + i);
+			assertFalse(server.inStorage("foo" + i));
+		}
+
+		Collection<IECSNode> addedNodes = ecsClient.addNodes(1, "LRU", 10);
+		ecsClient.start();
+		KVServer addedServer = servers.get(addedNodes.iterator().next().getNodeName());
+
+		int movedCount = 0;
+		for (int i = 0; i < 20; i++) {
+			KVMessage response = kvClient.get("foo" + i);
+			assertEquals(StatusType.GET_SUCCESS, response.getStatus());
+			assertEquals("bar" + i, response.getValue());
+			if (addedServer.inStorage("foo" + i)) movedCount++;
+		}
+		assertTrue(movedCount > 0);
+	}
+
+	/**
+	 * Checks that streamed values are transferred when a server is added to the
+	 * service.
+	 *
+	 * @throws Exception If an exception occurs during a request
+	 */
+	@Test
+	public void testMoveDataIncludesStreamedValues() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 100000) {
+			sb.append("line ").append(sb.length()).append('\n');
+		}
+		String value = sb.toString();
+		for (int i = 0; i < 10; i++) {
+			KVMessage response = kvClient.putStream("foo" + i, new StringReader(value + i));
+			assertEquals(StatusType.PUT_SUCCESS, response.getStatus());
+		}
+
+		ecsClient.addNodes(1, "LRU", 10);
+		ecsClient.start();
+
+		for (int i = 0; i < 10; i++) {
+			StringWriter writer = new StringWriter();
+			assertEquals(StatusType.GET_STREAM_SUCCESS, kvClient.getStream("foo" + i, writer).getStatus());
+			assertEquals(value + i, writer.toString());
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.cache.AdaptiveCache;
+import app_kvServer.cache.KVCache;
+
+/**
+ * Tests the policy selection of the {@link AdaptiveCache} class.
+ */
+public class AdaptiveCacheTest {
+
+	private AdaptiveCache cache;
+
+	/**
+	 * Sets up an adaptive cache of size 10.
+	 */
+	@Before
+	public void setup() {
+		cache = (AdaptiveCache) KVCache.create(CacheStrategy.ADAPTIVE, 10);
+	}
+
+	/**
+	 * Performs a lookup in the same manner as the server, inserting the key into
+	 * the cache if it is missing.
+	 */
+	private void access(String key) {
+		if (cache.get(key) == null) {
+			cache.put(key, "value " + key);
+		}
+	}
+
+	/**
+	 * Checks that the cache switches to LFU, keeping its entries, for a workload
+	 * of frequently used keys interleaved with one-off keys, which defeats LRU.
+	 */
+	@Test
+	public void testSwitchToFrequencyBasedPolicy() {
+		assertEquals(CacheStrategy.LRU, cache.getActiveStrategy());
+
+		for (int i = 0; i < 2 * AdaptiveCache.REQUIRED_WINDOWS * AdaptiveCache.WINDOW_SIZE; i++) {
+			access("hot" + (i % 8));
+			// LFU breaks ties by key, so one-off keys must sort before the hot keys
+			access("cold" + i);
+		}
+
+		assertEquals(CacheStrategy.ADAPTIVE, cache.getCacheStrategy());
+		assertEquals(CacheStrategy.LFU, cache.getActiveStrategy());
+		assertEquals(1, cache.getSwitchCount());
+		for (int i = 0; i < 8; i++) {
+			assertTrue(cache.containsKey("hot" + i));
+		}
+	}
+
+	/**
+	 * Checks that frequent small resizes, such as those made under heap
+	 * pressure, do not discard the shadow results and prevent a switch.
+	 */
+	@Test
+	public void testSwitchDespiteResizes() {
+		for (int i = 0; i < 2 * AdaptiveCache.REQUIRED_WINDOWS * AdaptiveCache.WINDOW_SIZE; i++) {
+			if (i % 100 == 0) {
+				cache.setCacheSize(i % 200 == 0 ? 11 : 10);
+			}
+			access("hot" + (i % 8));
+			access("cold" + i);
+		}
+
+		assertEquals(CacheStrategy.LFU, cache.getActiveStrategy());
+		assertEquals(1, cache.getSwitchCount());
+	}
+
+	/**
+	 * Checks that the live policy is kept when no other policy performs better.
+	 */
+	@Test
+	public void testNoSwitchWithoutClearWinner() {
+		for (int i = 0; i < 4 * AdaptiveCache.REQUIRED_WINDOWS * AdaptiveCache.WINDOW_SIZE; i++) {
+			access("key" + (i % 10));
+		}
+
+		assertEquals(CacheStrategy.LRU, cache.getActiveStrategy());
+		assertEquals(0, cache.getSwitchCount());
+	}
+
+	/**
+	 * Checks that evictions from the live cache are reported to listeners of the
+	 * adaptive cache.
+	 */
+	@Test
+	public void testEvictionsForwarded() {
+		List<String> evicted = new ArrayList<>();
+		cache.addEvictionListener((key, value) -> evicted.add(key));
+
+		for (int i = 0; i < 11; i++) {
+			cache.put("key" + i, "value");
+		}
+
+		assertEquals(1, evicted.size());
+		assertEquals(1, cache.getStatistics().getEvictionCount());
+	}
+
+}
@@ -0,0 +1,120 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.cache.CacheManifest;
+import app_kvServer.cache.CacheWarmer;
+import app_kvServer.cache.KVCache;
+import app_kvServer.cache.LfuCache;
+import app_kvServer.persistence.FilePersistence;
+import app_kvServer.persistence.KVPersistence;
+
+/**
+ * Tests the {@link CacheManifest} and {@link CacheWarmer} classes, which
+ * together restore the contents of a cache after a restart.
+ */
+public class CacheWarmerTest {
+
+	private KVCache cache;
+	private KVPersistence persistence;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Sets up a LFU cache of size 3 holding keys of differing frequencies, over a
+	 * temporary file persistence containing the same keys.
+	 *
+	 * @throws IOException If the temporary persistence file cannot be created
+	 */
+	@Before
+	public void setup() throws IOException {
+		File tempFile = File.createTempFile("test-persistence", ".csv");
+		tempFile.deleteOnExit();
+		persistence = new FilePersistence(tempFile.getCanonicalPath());
+
+		cache = new LfuCache();
+		cache.setCacheSize(3);
+		for (String key : Arrays.asList("a", "b", "c")) {
+			persistence.put(key, "value " + key);
+			cache.put(key, "value " + key);
+		}
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+	}
+
+	/**
+	 * Checks that a manifest written to disk can be read back with its strategy
+	 * and key order intact.
+	 *
+	 * @throws IOException If the manifest file cannot be written or read
+	 */
+	@Test
+	public void testManifestRoundTrip() throws IOException {
+		File manifestFile = File.createTempFile("test-cache", ".manifest");
+		manifestFile.deleteOnExit();
+
+		CacheManifest manifest = CacheManifest.of(cache);
+		manifest.write(manifestFile);
+		CacheManifest readManifest = CacheManifest.read(manifestFile);
+
+		assertEquals(CacheStrategy.LFU, readManifest.getCacheStrategy());
+		assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(readManifest.getEntries().keySet()));
+		assertEquals(Integer.valueOf(3), readManifest.getEntries().get("a"));
+	}
+
+	/**
+	 * Checks that warming an empty cache restores both its entries and their
+	 * usage frequencies, so that the same key is chosen for eviction.
+	 */
+	@Test
+	public void testWarmRestoresPolicyState() {
+		CacheManifest manifest = CacheManifest.of(cache);
+
+		KVCache newCache = new LfuCache();
+		newCache.setCacheSize(3);
+		CacheWarmer warmer = new CacheWarmer(newCache, persistence, lock, manifest);
+		warmer.run();
+
+		assertTrue(warmer.isDone());
+		assertEquals(3, warmer.getLoaded());
+		assertEquals(1.0, warmer.getProgress(), 0.0);
+		assertEquals(cache.getPolicyState(), newCache.getPolicyState());
+
+		// the least frequently used key should be evicted first
+		newCache.put("d", "value d");
+		assertFalse(newCache.containsKey("c"));
+	}
+
+	/**
+	 * Checks that keys written while warming is in progress are not loaded with
+	 * stale values from the persistence.
+	 */
+	@Test
+	public void testInvalidatedKeyNotLoaded() {
+		CacheManifest manifest = CacheManifest.of(cache);
+
+		KVCache newCache = new LfuCache();
+		newCache.setCacheSize(3);
+		CacheWarmer warmer = new CacheWarmer(newCache, persistence, lock, manifest);
+		warmer.invalidate("b");
+		warmer.run();
+
+		assertEquals(2, warmer.getLoaded());
+		assertNull(newCache.get("b"));
+		assertEquals("value a", newCache.get("a"));
+	}
+
+}
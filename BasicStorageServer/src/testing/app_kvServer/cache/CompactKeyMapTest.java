@@ -0,0 +1,110 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import app_kvServer.cache.CompactKey;
+import app_kvServer.cache.CompactKeyMap;
+
+/**
+ * Tests the {@link CompactKey} and {@link CompactKeyMap} classes.
+ */
+public class CompactKeyMapTest {
+
+	/**
+	 * Checks that keys of various lengths and encodings are restored exactly.
+	 */
+	@Test
+	public void testKeyRoundTrip() {
+		for (String key : Arrays.asList("", "a", "foo1", "exactly8", "twenty-character-key",
+				"\u00e9t\u00e9", "a\u0000", "a key which is much too long to be packed")) {
+			assertEquals(key, CompactKey.of(key).toString());
+			assertEquals(CompactKey.of(key), CompactKey.of(key));
+		}
+		assertFalse(CompactKey.of("a").equals(CompactKey.of("a\u0000")));
+	}
+
+	/**
+	 * Checks that keys are ordered as strings.
+	 */
+	@Test
+	public void testKeyOrder() {
+		List<String> keys = Arrays.asList("b", "a", "ab", "a\u0000", "", "z\u00e9", "zz",
+				"a key which is much too long to be packed");
+		for (String a : keys) {
+			for (String b : keys) {
+				assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+						Integer.signum(CompactKey.of(a).compareTo(CompactKey.of(b))));
+			}
+		}
+	}
+
+	/**
+	 * Checks the map against a reference map under random additions and
+	 * removals, which exercise index growth and backward-shift deletion.
+	 */
+	@Test
+	public void testRandomOperations() {
+		CompactKeyMap<String> map = new CompactKeyMap<>();
+		Map<String, String> reference = new HashMap<>();
+		Random random = new Random(419);
+
+		for (int i = 0; i < 20000; i++) {
+			String key = "key" + random.nextInt(500);
+			int entry = map.find(CompactKey.of(key));
+			if (random.nextBoolean()) {
+				String value = "value" + i;
+				if (entry == CompactKeyMap.NO_ENTRY) {
+					map.add(CompactKey.of(key), value);
+				} else {
+					map.setValue(entry, value);
+				}
+				reference.put(key, value);
+			} else if (entry != CompactKeyMap.NO_ENTRY) {
+				map.remove(entry);
+				reference.remove(key);
+			}
+		}
+
+		assertEquals(reference.size(), map.size());
+		for (int i = 0; i < 500; i++) {
+			String key = "key" + i;
+			int entry = map.find(CompactKey.of(key));
+			String value = entry == CompactKeyMap.NO_ENTRY ? null : map.getValue(entry);
+			assertEquals(reference.get(key), value);
+		}
+	}
+
+	/**
+	 * Checks that the order list follows insertion order, adjusted by moves to
+	 * the back.
+	 */
+	@Test
+	public void testOrder() {
+		CompactKeyMap<String> map = new CompactKeyMap<>();
+		int a = map.add(CompactKey.of("a"), "1");
+		map.add(CompactKey.of("b"), "2");
+		int c = map.add(CompactKey.of("c"), "3");
+		map.moveToBack(a);
+		map.remove(c);
+		map.add(CompactKey.of("d"), "4");
+
+		List<String> order = new ArrayList<>();
+		for (int entry = map.first(); entry != CompactKeyMap.NO_ENTRY; entry = map.next(entry)) {
+			order.add(map.getKey(entry).toString());
+		}
+		assertEquals(Arrays.asList("b", "a", "d"), order);
+		assertTrue(map.compareKeys(map.first(), a) > 0);
+	}
+
+}
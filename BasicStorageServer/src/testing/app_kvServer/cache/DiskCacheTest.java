@@ -0,0 +1,137 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.cache.DiskCache;
+
+/**
+ * Tests the {@link DiskCache} class.
+ */
+public class DiskCacheTest {
+
+	private File directory;
+	private DiskCache diskCache;
+
+	/**
+	 * Creates a disk cache in a fresh temporary directory.
+	 *
+	 * @throws IOException If the directory cannot be created
+	 */
+	@Before
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("test-disk-cache").toFile();
+		diskCache = new DiskCache(directory, 4096, false);
+	}
+
+	/**
+	 * Closes the disk cache and deletes its files.
+	 */
+	@After
+	public void teardown() {
+		diskCache.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Checks that cached values can be read back, and that the latest value for a
+	 * key takes precedence.
+	 */
+	@Test
+	public void testPutAndGet() {
+		assertNull(diskCache.get("foo"));
+
+		diskCache.put("foo", "bar");
+		diskCache.put("baz", "qux");
+		diskCache.put("foo", "bar2");
+		assertEquals("bar2", diskCache.get("foo"));
+		assertEquals("qux", diskCache.get("baz"));
+		assertEquals(2, diskCache.getEntryCount());
+		assertEquals(2, diskCache.getHits());
+		assertEquals(1, diskCache.getMisses());
+	}
+
+	/**
+	 * Checks that entries evicted from the memory cache are demoted.
+	 */
+	@Test
+	public void testDemotion() {
+		diskCache.onEviction("foo", "bar");
+		assertEquals("bar", diskCache.get("foo"));
+	}
+
+	/**
+	 * Checks that an invalidated value is no longer returned.
+	 */
+	@Test
+	public void testInvalidate() {
+		diskCache.put("foo", "bar");
+		diskCache.invalidate("foo");
+		assertNull(diskCache.get("foo"));
+		assertEquals(0, diskCache.getEntryCount());
+	}
+
+	/**
+	 * Checks that the oldest entries are discarded once the capacity is
+	 * exceeded, and that the size stays within the capacity.
+	 */
+	@Test
+	public void testCapacity() {
+		for (int i = 0; i < 200; i++) {
+			diskCache.put("key" + i, "value" + i);
+		}
+
+		assertTrue(diskCache.getSize() <= 4096);
+		assertNull(diskCache.get("key0"));
+		assertEquals("value199", diskCache.get("key199"));
+	}
+
+	/**
+	 * Checks that cached values and invalidations survive a restart when recovery
+	 * is requested, and are discarded otherwise.
+	 *
+	 * @throws IOException If the disk cache cannot be reopened
+	 */
+	@Test
+	public void testRecovery() throws IOException {
+		diskCache.put("foo", "bar");
+		diskCache.put("baz", "qux");
+		diskCache.invalidate("baz");
+		diskCache.close();
+
+		diskCache = new DiskCache(directory, 4096, true);
+		assertEquals("bar", diskCache.get("foo"));
+		assertNull(diskCache.get("baz"));
+		diskCache.close();
+
+		diskCache = new DiskCache(directory, 4096, false);
+		assertNull(diskCache.get("foo"));
+	}
+
+	/**
+	 * Checks that clearing discards every cached value.
+	 */
+	@Test
+	public void testClear() {
+		diskCache.put("foo", "bar");
+		diskCache.clear();
+		assertNull(diskCache.get("foo"));
+		assertEquals(0, diskCache.getSize());
+
+		diskCache.put("foo", "baz");
+		assertEquals("baz", diskCache.get("foo"));
+	}
+
+}
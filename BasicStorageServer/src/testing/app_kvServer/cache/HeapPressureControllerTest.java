@@ -0,0 +1,142 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.cache.HeapPressureController;
+import app_kvServer.cache.KVCache;
+
+/**
+ * Tests the resizing decisions of the {@link HeapPressureController} class,
+ * using a simulated heap usage.
+ */
+public class HeapPressureControllerTest {
+
+	private KVCache cache;
+	private double usage;
+	private long collections = 0;
+	private HeapPressureController controller;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Sets up a LRU cache of size 100, controlled within the bounds [50,120].
+	 */
+	@Before
+	public void setup() {
+		cache = KVCache.create(CacheStrategy.LRU, 100);
+		controller = new HeapPressureController(() -> cache, lock, () -> usage, () -> collections,
+				50, 120, 0.5, 0.75);
+	}
+
+	/**
+	 * Simulates a collection, which updates the heap usage, followed by an
+	 * evaluation.
+	 */
+	private void collectAndEvaluate() {
+		collections++;
+		controller.evaluate();
+	}
+
+	/**
+	 * Checks that the cache is shrunk under pressure, evicting entries
+	 * immediately, but not below the minimum size.
+	 */
+	@Test
+	public void testShrink() {
+		List<String> evicted = new ArrayList<>();
+		cache.addEvictionListener((key, value) -> evicted.add(key));
+		for (int i = 0; i < 100; i++) {
+			cache.put("key" + i, "value");
+		}
+
+		usage = 0.9;
+		collectAndEvaluate();
+		assertEquals(75, cache.getCacheSize());
+		assertEquals(25, evicted.size());
+
+		collectAndEvaluate();
+		collectAndEvaluate();
+		assertEquals(50, cache.getCacheSize());
+		assertEquals(3, controller.getShrinkCount());
+	}
+
+	/**
+	 * Checks that the cache is grown without pressure, but not above the maximum
+	 * size.
+	 */
+	@Test
+	public void testGrow() {
+		usage = 0.1;
+		collectAndEvaluate();
+		assertEquals(110, cache.getCacheSize());
+
+		collectAndEvaluate();
+		collectAndEvaluate();
+		assertEquals(120, cache.getCacheSize());
+		assertEquals(2, controller.getGrowCount());
+	}
+
+	/**
+	 * Checks that the cache size is kept between the watermarks.
+	 */
+	@Test
+	public void testKeep() {
+		usage = 0.6;
+		collectAndEvaluate();
+		assertEquals(100, cache.getCacheSize());
+		assertEquals(0.6, controller.getLastUsage(), 0.0);
+	}
+
+	/**
+	 * Checks that changed bounds apply to later evaluations, so that a cache
+	 * reconfigured to a larger size is not shrunk back without pressure.
+	 */
+	@Test
+	public void testSetSizeBounds() {
+		cache.setCacheSize(400);
+		controller.setSizeBounds(100, 1600);
+
+		usage = 0.1;
+		collectAndEvaluate();
+		assertEquals(440, cache.getCacheSize());
+
+		usage = 0.9;
+		for (int i = 0; i < 10; i++) {
+			collectAndEvaluate();
+		}
+		assertEquals(100, cache.getCacheSize());
+	}
+
+	/**
+	 * Checks that inconsistent bounds are rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetInvalidSizeBounds() {
+		controller.setSizeBounds(200, 100);
+	}
+
+	/**
+	 * Checks that the cache is only resized once per collection, since the heap
+	 * usage does not reflect a resize until the next collection.
+	 */
+	@Test
+	public void testWaitForCollection() {
+		usage = 0.9;
+		collectAndEvaluate();
+		controller.evaluate();
+		controller.evaluate();
+		assertEquals(75, cache.getCacheSize());
+		assertEquals(1, controller.getShrinkCount());
+
+		collectAndEvaluate();
+		assertEquals(56, cache.getCacheSize());
+	}
+
+}
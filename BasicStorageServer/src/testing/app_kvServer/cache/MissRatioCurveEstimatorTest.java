@@ -0,0 +1,64 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.cache.CacheStatistics;
+import app_kvServer.cache.KVCache;
+import app_kvServer.cache.MissRatioCurveEstimator;
+import app_kvServer.cache.MissRatioCurveEstimator.Candidate;
+
+/**
+ * Tests the {@link CacheStatistics} and {@link MissRatioCurveEstimator}
+ * classes.
+ */
+public class MissRatioCurveEstimatorTest {
+
+	/**
+	 * Checks that cache lookups and evictions are counted.
+	 */
+	@Test
+	public void testStatistics() {
+		KVCache cache = KVCache.create(CacheStrategy.FIFO, 1);
+		cache.put("foo1", "bar1");
+		cache.get("foo1");
+		cache.get("foo2");
+		cache.put("foo2", "bar2");
+
+		CacheStatistics statistics = cache.getStatistics();
+		assertEquals(1, statistics.getHitCount());
+		assertEquals(1, statistics.getMissCount());
+		assertEquals(0.5, statistics.getHitRatio(), 0.0);
+		assertEquals(1, statistics.getEvictionCount());
+	}
+
+	/**
+	 * Checks that, when every key is sampled, the estimate for the real cache's
+	 * own configuration matches the hit ratio of the real cache.
+	 */
+	@Test
+	public void testFullSampleMatchesRealCache() {
+		KVCache cache = KVCache.create(CacheStrategy.LRU, 4);
+		MissRatioCurveEstimator estimator = new MissRatioCurveEstimator(4, 1.0);
+
+		// cycle over 6 keys with a skewed access pattern
+		for (int i = 0; i < 600; i++) {
+			String key = "key" + (i % 3 == 0 ? i % 6 : i % 2);
+			estimator.recordGet(key);
+			if (cache.get(key) == null) {
+				cache.put(key, "value");
+				estimator.recordPut(key, false);
+			}
+		}
+
+		Candidate sameConfig = estimator.getCandidates().stream()
+				.filter(c -> c.getCacheStrategy() == CacheStrategy.LRU && c.getCacheSize() == 4)
+				.findFirst().get();
+
+		assertEquals(600, estimator.getSampleCount());
+		assertEquals(cache.getStatistics().getHitRatio(), sameConfig.getHitRatio(), 0.0);
+	}
+
+}
@@ -0,0 +1,61 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.cache.NegativeCache;
+
+/**
+ * Tests the functionality of the {@link NegativeCache} class.
+ */
+public class NegativeCacheTest {
+
+	private NegativeCache negativeCache;
+
+	/**
+	 * Freshly instantiates a negative cache of size 2 before each test.
+	 */
+	@Before
+	public void setup() {
+		negativeCache = new NegativeCache(2);
+	}
+
+	/**
+	 * Checks that absent keys are remembered until they are invalidated.
+	 */
+	@Test
+	public void testInvalidate() {
+		assertFalse(negativeCache.isAbsent("foo"));
+
+		negativeCache.markAbsent("foo");
+		assertTrue(negativeCache.isAbsent("foo"));
+		assertEquals(1, negativeCache.getHits());
+
+		negativeCache.invalidate("foo");
+		assertFalse(negativeCache.isAbsent("foo"));
+	}
+
+	/**
+	 * Checks that the least recently looked up key is discarded when the negative
+	 * cache is full.
+	 */
+	@Test
+	public void testCapacity() {
+		negativeCache.markAbsent("foo1");
+		negativeCache.markAbsent("foo2");
+		assertTrue(negativeCache.isAbsent("foo1"));
+
+		// discards foo2
+		negativeCache.markAbsent("foo3");
+
+		assertEquals(2, negativeCache.size());
+		assertTrue(negativeCache.isAbsent("foo1"));
+		assertFalse(negativeCache.isAbsent("foo2"));
+		assertTrue(negativeCache.isAbsent("foo3"));
+	}
+
+}
@@ -0,0 +1,95 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.cache.ResponseCache;
+
+/**
+ * Tests the {@link ResponseCache} class.
+ */
+public class ResponseCacheTest {
+
+	private ResponseCache responseCache;
+
+	/**
+	 * Sets up a response cache with a capacity of 10 bytes.
+	 */
+	@Before
+	public void setup() {
+		responseCache = new ResponseCache(10);
+	}
+
+	/**
+	 * Checks that a cached response is discarded when its key is written.
+	 */
+	@Test
+	public void testInvalidate() {
+		byte[] response = { 1, 2, 3 };
+		assertTrue(responseCache.put("foo", response, responseCache.getVersion("foo")));
+		assertArrayEquals(response, responseCache.get("foo"));
+
+		responseCache.invalidate("foo");
+		assertNull(responseCache.get("foo"));
+		assertEquals(0, responseCache.getSize());
+	}
+
+	/**
+	 * Checks that a response read before a write is not cached.
+	 */
+	@Test
+	public void testStaleResponseRejected() {
+		long version = responseCache.getVersion("foo");
+		responseCache.invalidate("foo");
+
+		assertFalse(responseCache.put("foo", new byte[] { 1 }, version));
+		assertNull(responseCache.get("foo"));
+	}
+
+	/**
+	 * Checks that a write to one key does not prevent a response for another key
+	 * from being cached.
+	 */
+	@Test
+	public void testOtherKeyWritten() {
+		long version = responseCache.getVersion("foo");
+		responseCache.invalidate("bar");
+
+		assertTrue(responseCache.put("foo", new byte[] { 1 }, version));
+		assertArrayEquals(new byte[] { 1 }, responseCache.get("foo"));
+	}
+
+	/**
+	 * Checks that a response read before the cache was cleared is not cached.
+	 */
+	@Test
+	public void testClearRejectsStaleResponse() {
+		long version = responseCache.getVersion("foo");
+		responseCache.clear();
+
+		assertFalse(responseCache.put("foo", new byte[] { 1 }, version));
+	}
+
+	/**
+	 * Checks that the least recently used responses are discarded to stay within
+	 * the capacity.
+	 */
+	@Test
+	public void testCapacity() {
+		responseCache.put("a", new byte[4], responseCache.getVersion("a"));
+		responseCache.put("b", new byte[4], responseCache.getVersion("b"));
+		responseCache.get("a");
+		responseCache.put("c", new byte[4], responseCache.getVersion("c"));
+
+		assertNull(responseCache.get("b"));
+		assertEquals(8, responseCache.getSize());
+		assertFalse(responseCache.put("d", new byte[11], responseCache.getVersion("d")));
+	}
+
+}
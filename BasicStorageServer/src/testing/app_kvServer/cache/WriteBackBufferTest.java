@@ -0,0 +1,102 @@
+package testing.app_kvServer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.cache.FifoCache;
+import app_kvServer.cache.KVCache;
+import app_kvServer.cache.WriteBackBuffer;
+import app_kvServer.persistence.FilePersistence;
+import app_kvServer.persistence.KVPersistence;
+
+/**
+ * Tests the dirty entry tracking and flushing behavior of the
+ * {@link WriteBackBuffer} class.
+ */
+public class WriteBackBufferTest {
+
+	private KVCache cache;
+	private KVPersistence persistence;
+	private WriteBackBuffer buffer;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Sets up a FIFO cache of size 2 in write-back mode over a temporary file
+	 * persistence. The flusher thread is not started, so that flushes only occur
+	 * when triggered by the tests.
+	 * 
+	 * @throws IOException If the temporary persistence file cannot be created
+	 */
+	@Before
+	public void setup() throws IOException {
+		File tempFile = File.createTempFile("test-persistence", ".csv");
+		tempFile.deleteOnExit();
+		persistence = new FilePersistence(tempFile.getCanonicalPath());
+
+		cache = new FifoCache();
+		cache.setCacheSize(2);
+		buffer = new WriteBackBuffer(persistence, lock, 1000, 100);
+		cache.addEvictionListener(buffer);
+	}
+
+	/**
+	 * Checks that repeated writes to the same key are coalesced and only reach the
+	 * persistence when flushed.
+	 */
+	@Test
+	public void testFlushCoalescesWrites() {
+		buffer.markDirty("foo", "bar1");
+		buffer.markDirty("foo", "bar2");
+		assertEquals(1, buffer.size());
+		assertNull(persistence.get("foo"));
+
+		buffer.flush();
+
+		assertEquals(0, buffer.size());
+		assertFalse(buffer.isDirty("foo"));
+		assertEquals("bar2", persistence.get("foo"));
+	}
+
+	/**
+	 * Checks that evicting a dirty entry from the cache writes it to the
+	 * persistence immediately.
+	 */
+	@Test
+	public void testEvictionFlushesDirtyEntry() {
+		cache.put("foo1", "bar1");
+		buffer.markDirty("foo1", "bar1");
+		cache.put("foo2", "bar2");
+		buffer.markDirty("foo2", "bar2");
+
+		// evicts foo1
+		cache.put("foo3", "bar3");
+
+		assertFalse(buffer.isDirty("foo1"));
+		assertEquals("bar1", persistence.get("foo1"));
+		assertTrue(buffer.isDirty("foo2"));
+		assertNull(persistence.get("foo2"));
+	}
+
+	/**
+	 * Checks that closing the buffer flushes all remaining dirty entries.
+	 */
+	@Test
+	public void testCloseFlushes() {
+		buffer.start();
+		buffer.markDirty("foo", "bar");
+		buffer.close();
+
+		assertEquals(0, buffer.size());
+		assertEquals("bar", persistence.get("foo"));
+	}
+
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -16,6 +17,7 @@ import org.junit.Test;
 
 import app_kvServer.persistence.FilePersistence;
 import app_kvServer.persistence.KVPersistence;
+import app_kvServer.persistence.KVPersistenceChunkator;
 import testing.util.LogInstrumentingTest;
 
 /**
@@ -243,6 +245,44 @@ public class FilePersistenceTest extends LogInstrumentingTest {
 		assertEquals("charlie 3", persistence.get("c"));
 	}
 	
+	/**
+	 * Checks the correctness of {@link FilePersistence#putAll(Map)} when
+	 * inserting, updating, and deleting entries in the same batch.
+	 * 
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testPutAll() throws IOException {
+		// set up initial key-value entries
+		persistence.put("a", "alpha 1");
+		persistence.put("b", "bravo 2");
+		persistence.put("c", "charlie 3");
+
+		// create argument map with an update, a deletion, and an insertion
+		Map<String, String> entries = new HashMap<>();
+		entries.put("a", "alpha 4");
+		entries.put("b", null);
+		entries.put("d", "delta 5");
+
+		// invoke method under test
+		assertTrue(persistence.putAll(entries));
+
+		// verify that each entry was written correctly
+		assertEquals("alpha 4", persistence.get("a"));
+		assertFalse(persistence.containsKey("b"));
+		assertEquals("charlie 3", persistence.get("c"));
+		assertEquals("delta 5", persistence.get("d"));
+
+		// verify that no other entries remain
+		Map<String, String> pairs = new HashMap<>();
+		try (KVPersistenceChunkator chunkator = persistence.chunkator()) {
+			while (chunkator.hasNextChunk()) {
+				pairs.putAll(chunkator.nextChunk());
+			}
+		}
+		assertEquals(3, pairs.size());
+	}
+
 	/**
 	 * Checks the correctness of {@link FilePersistence#clear()}.
 	 */
@@ -267,4 +307,34 @@ public class FilePersistenceTest extends LogInstrumentingTest {
 		assertFalse(persistence.containsKey("c"));
 	}
 
+	/**
+	 * Checks that {@link FilePersistence#clear()} and
+	 * {@link FilePersistence#insertAll(Map)} replace the persistence file rather
+	 * than modifying it in place, so that a chunkator opened beforehand still
+	 * reads the pairs which were present when it was opened.
+	 * 
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testClearAndInsertAllKeepSnapshot() throws IOException {
+		persistence.put("a", "alpha 1");
+		persistence.put("b", "bravo 2");
+
+		try (KVPersistenceChunkator chunkator = persistence.chunkator()) {
+			persistence.clear();
+			persistence.insertAll(Collections.singletonMap("c", "charlie 3"));
+
+			Map<String, String> pairs = new HashMap<>();
+			while (chunkator.hasNextChunk()) {
+				pairs.putAll(chunkator.nextChunk());
+			}
+			assertEquals(2, pairs.size());
+			assertEquals("alpha 1", pairs.get("a"));
+			assertEquals("bravo 2", pairs.get("b"));
+		}
+
+		assertFalse(persistence.containsKey("a"));
+		assertEquals("charlie 3", persistence.get("c"));
+	}
+
 }
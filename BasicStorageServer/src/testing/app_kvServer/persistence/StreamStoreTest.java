@@ -0,0 +1,182 @@
+package testing.app_kvServer.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import app_kvServer.persistence.StreamStore;
+import common.HashUtil;
+import common.messages.ValueChunker;
+
+/**
+ * Tests the {@link StreamStore} class.
+ */
+public class StreamStoreTest {
+
+	private File directory;
+	private StreamStore streamStore;
+
+	/**
+	 * Creates a stream store in a fresh temporary directory.
+	 *
+	 * @throws IOException If the directory cannot be created
+	 */
+	@Before
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("test-stream-store").toFile();
+		streamStore = new StreamStore(directory);
+	}
+
+	/**
+	 * Deletes the files of the stream store.
+	 */
+	@After
+	public void teardown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private void store(String key, String value) throws IOException {
+		StreamStore.Upload upload = streamStore.beginUpload(key);
+		ValueChunker chunker = new ValueChunker(new StringReader(value));
+		String chunk;
+		while ((chunk = chunker.nextChunk()) != null) {
+			upload.append(chunk);
+		}
+		upload.commit();
+	}
+
+	private static String read(Reader reader) throws IOException {
+		StringWriter writer = new StringWriter();
+		try (Reader value = reader) {
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = value.read(buffer)) >= 0) {
+				writer.write(buffer, 0, read);
+			}
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Checks that a value spanning many chunks, containing line breaks and
+	 * characters outside the basic multilingual plane, is read back intact.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testLargeValue() throws IOException {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < 5 * ValueChunker.CHUNK_LENGTH) {
+			value.append("line ").append(value.length()).append(" \uD83D\uDE00\n");
+		}
+
+		store("foo", value.toString());
+		assertTrue(streamStore.containsKey("foo"));
+		assertEquals(value.toString(), read(streamStore.open("foo")));
+	}
+
+	/**
+	 * Checks that a value only replaces the previous one once committed, and
+	 * that a reader opened beforehand still reads the previous value.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testReplace() throws IOException {
+		store("foo", "old");
+		Reader oldReader = streamStore.open("foo");
+
+		StreamStore.Upload upload = streamStore.beginUpload("foo");
+		upload.append("new");
+		assertEquals("old", read(streamStore.open("foo")));
+
+		assertTrue(upload.commit());
+		assertEquals("new", read(streamStore.open("foo")));
+		assertEquals("old", read(oldReader));
+	}
+
+	/**
+	 * Checks that an abandoned value leaves the previous value in place, and that
+	 * an empty value deletes the key.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testAbandonAndDelete() throws IOException {
+		store("foo", "bar");
+
+		StreamStore.Upload upload = streamStore.beginUpload("foo");
+		upload.append("baz");
+		upload.close();
+		assertEquals("bar", read(streamStore.open("foo")));
+		assertEquals(1, directory.listFiles().length);
+
+		assertTrue(streamStore.beginUpload("foo").commit());
+		assertFalse(streamStore.containsKey("foo"));
+		assertNull(streamStore.open("foo"));
+		assertFalse(streamStore.beginUpload("foo").commit());
+	}
+
+	/**
+	 * Checks that clearing the store removes every value.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testClear() throws IOException {
+		store("foo", "bar");
+		store("baz", "qux");
+		streamStore.clear();
+		assertFalse(streamStore.containsKey("foo"));
+		assertFalse(streamStore.containsKey("baz"));
+	}
+
+	/**
+	 * Checks that the values in a hash range can be listed, read and cleared by
+	 * key hash, and stored by key hash as when transferred from another server.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testHashRange() throws IOException {
+		store("foo", "bar");
+		store("baz", "qux");
+
+		// a range which only contains the greater of the two hashes
+		String fooHash = HashUtil.toMD5("foo");
+		String bazHash = HashUtil.toMD5("baz");
+		boolean fooGreater = fooHash.compareTo(bazHash) > 0;
+		String inRange = fooGreater ? fooHash : bazHash;
+		String outOfRange = fooGreater ? bazHash : fooHash;
+		String[] hashRange = { inRange, outOfRange };
+
+		assertEquals(Collections.singletonList(inRange), streamStore.getKeyHashes(hashRange));
+		assertEquals(fooGreater ? "bar" : "qux", read(streamStore.openHash(inRange)));
+
+		streamStore.clearRange(hashRange);
+		assertNull(streamStore.openHash(inRange));
+		assertEquals(fooGreater ? "qux" : "bar", read(streamStore.openHash(outOfRange)));
+
+		StreamStore.Upload upload = streamStore.beginHashUpload(fooHash);
+		upload.append("transferred");
+		upload.commit();
+		assertEquals("transferred", read(streamStore.open("foo")));
+	}
+
+}
@@ -0,0 +1,168 @@
+package testing.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import client.AsyncKVStore;
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.MetadataUpdateMessage;
+import common.messages.ProtocolHandshake;
+import ecs.ECSNode;
+
+/**
+ * Tests the {@link AsyncKVStore} class against two fake servers. The first
+ * redirects every request to the second, which answers GET requests with the
+ * key as the value after a random delay, so that responses arrive out of
+ * order, and closes the connection on a PUT request.
+ */
+public class AsyncKVStoreTest {
+
+	private final List<ServerSocket> serverSockets = new ArrayList<>();
+	private final ExecutorService responders = Executors.newCachedThreadPool();
+	private AsyncKVStore store;
+
+	/**
+	 * Starts the fake servers and the store.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Before
+	public void setup() throws IOException {
+		ServerSocket target = startServer(request -> {
+			if (request.getStatus() == StatusType.PUT) return null;
+			return new BasicKVMessage(request.getKey(), request.getKey(), StatusType.GET_SUCCESS);
+		});
+		ECSNode targetNode = new ECSNode("target", "localhost", target.getLocalPort(), null, -1);
+		ServerSocket redirect = startServer(request -> new MetadataUpdateMessage(targetNode));
+
+		store = new AsyncKVStore("localhost", redirect.getLocalPort());
+		store.connect();
+	}
+
+	/**
+	 * Stops the store and the fake servers.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@After
+	public void teardown() throws IOException {
+		store.disconnect();
+		for (ServerSocket serverSocket : serverSockets) {
+			serverSocket.close();
+		}
+		responders.shutdownNow();
+	}
+
+	/**
+	 * Starts a fake server which answers each request on its own thread with the
+	 * response given by the responder, or closes the connection if there is
+	 * none.
+	 */
+	private ServerSocket startServer(Function<KVMessage, KVMessage> responder) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(0);
+		serverSockets.add(serverSocket);
+		responders.execute(() -> {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket client = serverSocket.accept();
+					responders.execute(() -> serve(client, responder));
+				} catch (IOException e) {
+					// the server has been closed
+				}
+			}
+		});
+		return serverSocket;
+	}
+
+	private void serve(Socket client, Function<KVMessage, KVMessage> responder) {
+		try (Socket socket = client) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			KVMessageCodec codec = ProtocolHandshake.accept(in, out);
+
+			while (true) {
+				KVMessage request = codec.decode(in);
+				KVMessage response = responder.apply(request);
+				if (response == null) return;
+
+				responders.execute(() -> {
+					try {
+						Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+						KVMessage tagged = BasicKVMessage.withRequestId(response, request.getRequestId());
+						byte[] responseBytes = codec.encode(tagged);
+						synchronized (out) {
+							codec.write(out, responseBytes);
+						}
+					} catch (InterruptedException | IOException e) {
+						// the connection has been closed
+					}
+				});
+			}
+		} catch (IOException e) {
+			// the client has disconnected
+		}
+	}
+
+	/**
+	 * Checks that many requests issued from one thread are redirected to the
+	 * responsible server, and matched to responses arriving out of order.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testManyRequests() throws Exception {
+		List<CompletableFuture<KVMessage>> responses = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			responses.add(store.get("key" + i));
+		}
+		for (int i = 0; i < responses.size(); i++) {
+			assertEquals("key" + i, responses.get(i).get(10, TimeUnit.SECONDS).getValue());
+		}
+		assertEquals(0, store.getInFlightCount());
+	}
+
+	/**
+	 * Checks that requests in flight fail when a connection is lost, and that the
+	 * next request opens a new connection.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testConnectionLost() throws Exception {
+		assertEquals("foo", store.get("foo").get(10, TimeUnit.SECONDS).getValue());
+
+		try {
+			store.put("foo", "bar").get(10, TimeUnit.SECONDS);
+			fail("Request should fail when the connection is lost");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		assertEquals("foo", store.get("foo").get(10, TimeUnit.SECONDS).getValue());
+	}
+
+}
@@ -0,0 +1,185 @@
+package testing.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import client.ConnectionPool;
+import client.PooledConnection;
+import client.PooledKVStore;
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+
+/**
+ * Tests the {@link ConnectionPool} and {@link PooledKVStore} classes against a
+ * fake server which answers GET requests with the key as the value, and closes
+ * the connection after answering a request for the key <code>close</code>.
+ */
+public class ConnectionPoolTest {
+
+	private static final String SERVER = "server";
+
+	private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+	private ServerSocket serverSocket;
+	private InetSocketAddress address;
+
+	/**
+	 * Starts the fake server.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Before
+	public void setup() throws IOException {
+		serverSocket = new ServerSocket(0);
+		address = new InetSocketAddress("localhost", serverSocket.getLocalPort());
+		serverThreads.execute(() -> {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket client = serverSocket.accept();
+					serverThreads.execute(() -> serve(client));
+				} catch (IOException e) {
+					// the server has been closed
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the fake server.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@After
+	public void teardown() throws IOException {
+		serverSocket.close();
+		serverThreads.shutdownNow();
+	}
+
+	private void serve(Socket client) {
+		try (Socket socket = client) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			KVMessageCodec codec = ProtocolHandshake.accept(in, out);
+
+			while (true) {
+				KVMessage request = codec.decode(in);
+				codec.write(out, codec.encode(new BasicKVMessage(request.getKey(), request.getKey(),
+						StatusType.GET_SUCCESS)));
+				if ("close".equals(request.getKey())) return;
+			}
+		} catch (IOException e) {
+			// the client has disconnected
+		}
+	}
+
+	private static KVMessage get(String key) {
+		return new BasicKVMessage(key, null, StatusType.GET);
+	}
+
+	/**
+	 * Checks that connections are only opened when borrowed, and are reused once
+	 * returned.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testLazyConnectAndReuse() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 60000, true);
+		assertEquals(0, pool.getOpenCount(SERVER));
+
+		PooledConnection connection = pool.borrow(SERVER, address);
+		assertEquals("foo", connection.exchange(get("foo")).getValue());
+		pool.release(connection);
+
+		assertSame(connection, pool.borrow(SERVER, address));
+		assertEquals(1, pool.getOpenCount(SERVER));
+		pool.close();
+	}
+
+	/**
+	 * Checks that a thread waits for a connection while the maximum number of
+	 * connections to a server are in use.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testConnectionLimit() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 60000, true);
+		PooledConnection first = pool.borrow(SERVER, address);
+		pool.borrow(SERVER, address);
+
+		CompletableFuture<PooledConnection> third = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool.borrow(SERVER, address);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		Thread.sleep(100);
+		assertFalse(third.isDone());
+
+		pool.release(first);
+		assertSame(first, third.get(10, TimeUnit.SECONDS));
+		assertEquals(2, pool.getOpenCount(SERVER));
+		pool.close();
+	}
+
+	/**
+	 * Checks that idle connections are closed after the idle timeout.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testIdleEviction() throws Exception {
+		ConnectionPool pool = new ConnectionPool(2, 50, true);
+		PooledConnection connection = pool.borrow(SERVER, address);
+		pool.release(connection);
+		assertEquals(1, pool.getIdleCount(SERVER));
+
+		Thread.sleep(300);
+		assertEquals(0, pool.getIdleCount(SERVER));
+		assertEquals(0, pool.getOpenCount(SERVER));
+		assertTrue(connection.isClosed());
+		pool.close();
+	}
+
+	/**
+	 * Checks that a request which fails on a connection closed by the server
+	 * while idle is retried on a new connection.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testClosedConnectionReplaced() throws Exception {
+		PooledKVStore store = new PooledKVStore("localhost", serverSocket.getLocalPort());
+		store.setMaxConnectionsPerServer(1);
+		store.connect();
+		assertEquals(0, store.getConnectionPool().getOpenCount("localhost:" + serverSocket.getLocalPort()));
+
+		assertEquals("close", store.get("close").getValue());
+		assertEquals("foo", store.get("foo").getValue());
+		assertEquals(1, store.getConnectionPool().getOpenCount("localhost:" + serverSocket.getLocalPort()));
+		store.disconnect();
+	}
+
+}
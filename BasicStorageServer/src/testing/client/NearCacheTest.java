@@ -0,0 +1,89 @@
+package testing.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import client.NearCache;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+
+/**
+ * Tests the {@link NearCache} class.
+ */
+public class NearCacheTest {
+
+	/**
+	 * Checks that a cached value is returned with its version.
+	 */
+	@Test
+	public void testGet() {
+		NearCache nearCache = new NearCache(10, 60000);
+		assertNull(nearCache.get("foo"));
+
+		nearCache.put("foo", "bar", 5);
+		KVMessage cached = nearCache.get("foo");
+		assertNotNull(cached);
+		assertEquals(StatusType.GET_SUCCESS, cached.getStatus());
+		assertEquals("bar", cached.getValue());
+		assertEquals(5, cached.getVersion());
+
+		assertEquals(1, nearCache.getHits());
+		assertEquals(1, nearCache.getMisses());
+	}
+
+	/**
+	 * Checks that cached values expire after their time to live.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for expiry
+	 */
+	@Test
+	public void testExpiry() throws InterruptedException {
+		NearCache nearCache = new NearCache(10, 10);
+		nearCache.put("foo", "bar", 1);
+		Thread.sleep(50);
+		assertNull(nearCache.get("foo"));
+		assertEquals(0, nearCache.size());
+	}
+
+	/**
+	 * Checks that an older version does not replace a newer cached version, and
+	 * that notifications only discard values older than the notified version.
+	 */
+	@Test
+	public void testVersions() {
+		NearCache nearCache = new NearCache(10, 60000);
+		nearCache.put("foo", "new", 7);
+		nearCache.put("foo", "old", 3);
+		assertEquals("new", nearCache.get("foo").getValue());
+
+		nearCache.invalidate("foo", 7);
+		assertNotNull(nearCache.get("foo"));
+
+		nearCache.invalidate("foo", 8);
+		assertNull(nearCache.get("foo"));
+	}
+
+	/**
+	 * Checks that the least recently read value is discarded when the cache is
+	 * full, and that clearing discards every value.
+	 */
+	@Test
+	public void testCapacity() {
+		NearCache nearCache = new NearCache(2, 60000);
+		nearCache.put("a", "1", 1);
+		nearCache.put("b", "2", 1);
+		nearCache.get("a");
+		nearCache.put("c", "3", 1);
+
+		assertEquals(2, nearCache.size());
+		assertNull(nearCache.get("b"));
+		assertNotNull(nearCache.get("a"));
+
+		nearCache.clear();
+		assertEquals(0, nearCache.size());
+	}
+
+}
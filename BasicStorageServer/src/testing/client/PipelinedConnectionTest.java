@@ -0,0 +1,147 @@
+package testing.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import client.PipelinedConnection;
+import common.messages.BasicKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+
+/**
+ * Tests the {@link PipelinedConnection} class against a fake server which
+ * answers batches of requests in reverse order.
+ */
+public class PipelinedConnectionTest {
+
+	private static final int BATCH_SIZE = 3;
+
+	private ServerSocket serverSocket;
+	private PipelinedConnection connection;
+	private final List<KVMessage> notifications = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Starts the fake server and connects to it.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Before
+	public void setup() throws IOException {
+		serverSocket = new ServerSocket(0);
+		Thread serverThread = new Thread(this::serve);
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		Socket socket = new Socket("localhost", serverSocket.getLocalPort());
+		KVMessageCodec codec = ProtocolHandshake.initiate(socket.getInputStream(), socket.getOutputStream());
+		connection = new PipelinedConnection(socket, codec, BATCH_SIZE, notifications::add);
+	}
+
+	/**
+	 * Closes the connection and the fake server.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@After
+	public void teardown() throws IOException {
+		connection.close();
+		serverSocket.close();
+	}
+
+	/**
+	 * Reads requests in batches, and answers each batch in reverse order after
+	 * pushing a notification. Answers a GET request with its key as the value,
+	 * and closes the connection on a PUT request.
+	 */
+	private void serve() {
+		try (Socket client = serverSocket.accept()) {
+			InputStream in = new BufferedInputStream(client.getInputStream());
+			OutputStream out = client.getOutputStream();
+			KVMessageCodec codec = ProtocolHandshake.accept(in, out);
+
+			while (true) {
+				List<KVMessage> batch = new ArrayList<>();
+				for (int i = 0; i < BATCH_SIZE; i++) {
+					KVMessage request = codec.decode(in);
+					if (request.getStatus() == StatusType.PUT) return;
+					batch.add(request);
+				}
+
+				codec.write(out, codec.encode(new BasicKVMessage("foo", null, StatusType.INVALIDATE, 1)));
+				for (int i = batch.size() - 1; i >= 0; i--) {
+					KVMessage request = batch.get(i);
+					codec.write(out, codec.encode(new BasicKVMessage(request.getKey(), request.getKey(),
+							StatusType.GET_SUCCESS, 0, request.getRequestId())));
+				}
+			}
+		} catch (IOException e) {
+			// the client has disconnected
+		}
+	}
+
+	/**
+	 * Checks that responses arriving out of order are matched to their requests,
+	 * and that notifications are passed on.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testOutOfOrderResponses() throws Exception {
+		for (int round = 0; round < 2; round++) {
+			List<CompletableFuture<KVMessage>> responses = new ArrayList<>();
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				responses.add(connection.submit(new BasicKVMessage("key" + i, null, StatusType.GET)));
+			}
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				assertEquals("key" + i, responses.get(i).get().getValue());
+			}
+		}
+
+		assertEquals(0, connection.getInFlightCount());
+		assertEquals(2, notifications.size());
+		assertEquals("foo", notifications.get(0).getKey());
+	}
+
+	/**
+	 * Checks that requests in flight fail when the connection is lost.
+	 *
+	 * @throws Exception If an exception occurs
+	 */
+	@Test
+	public void testConnectionLost() throws Exception {
+		List<CompletableFuture<KVMessage>> responses = new ArrayList<>();
+		responses.add(connection.submit(new BasicKVMessage("key", null, StatusType.GET)));
+		responses.add(connection.submit(new BasicKVMessage("key", "value", StatusType.PUT)));
+
+		for (CompletableFuture<KVMessage> response : responses) {
+			try {
+				response.get();
+				fail("Request should fail when the connection is lost");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		}
+		assertFalse(connection.isOpen());
+	}
+
+}
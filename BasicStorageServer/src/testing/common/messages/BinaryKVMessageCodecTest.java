@@ -0,0 +1,355 @@
+package testing.common.messages;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import common.KVServiceTopology;
+import common.messages.BasicKVMessage;
+import common.messages.BatchKVMessage;
+import common.messages.BinaryKVMessageCodec;
+import common.messages.ForwardedKVMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.MetadataUpdateMessage;
+import common.messages.ProtocolHandshake;
+import common.messages.ServiceMetadataMessage;
+import ecs.ECSNode;
+import ecs.IECSNode;
+
+/**
+ * Tests the {@link BinaryKVMessageCodec} and {@link ProtocolHandshake}
+ * classes.
+ */
+public class BinaryKVMessageCodecTest {
+
+	private final KVMessageCodec codec = new BinaryKVMessageCodec();
+
+	private KVMessage roundTrip(KVMessage message) throws IOException {
+		return codec.decode(new ByteArrayInputStream(codec.encode(message)));
+	}
+
+	/**
+	 * Checks that keys, values and versions survive encoding, including values
+	 * with characters outside ASCII.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		KVMessage decoded = roundTrip(new BasicKVMessage("foo", "b\u00e4r\nbaz", StatusType.GET_SUCCESS, 42));
+		assertEquals(StatusType.GET_SUCCESS, decoded.getStatus());
+		assertEquals("foo", decoded.getKey());
+		assertEquals("b\u00e4r\nbaz", decoded.getValue());
+		assertEquals(42, decoded.getVersion());
+	}
+
+	/**
+	 * Checks that absent keys and values are distinguished from empty ones.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testAbsentFields() throws IOException {
+		KVMessage decoded = roundTrip(new BasicKVMessage("foo", null, StatusType.PUT));
+		assertEquals("foo", decoded.getKey());
+		assertNull(decoded.getValue());
+
+		decoded = roundTrip(new BasicKVMessage(null, "", StatusType.SERVER_STOPPED));
+		assertNull(decoded.getKey());
+		assertEquals("", decoded.getValue());
+	}
+
+	/**
+	 * Checks that the responsible server of a metadata update survives encoding.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testMetadataUpdate() throws IOException {
+		IECSNode server = new ECSNode("server1", "localhost", 50000, null, -1);
+		server.setNodeHashRangeEnd("00000000000000000000000000000000");
+
+		KVMessage decoded = roundTrip(new MetadataUpdateMessage(server));
+		assertEquals(StatusType.SERVER_NOT_RESPONSIBLE, decoded.getStatus());
+		assertEquals(server.getNodeName(), decoded.getResponsibleServer().getNodeName());
+		assertEquals(server.getNodePort(), decoded.getResponsibleServer().getNodePort());
+		assertArrayEquals(server.getNodeHashRange(), decoded.getResponsibleServer().getNodeHashRange());
+	}
+
+	/**
+	 * Checks that the servers and metadata version of a service metadata message
+	 * survive encoding and retagging, and that metadata updates report the
+	 * metadata version.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testServiceMetadata() throws IOException {
+		List<IECSNode> nodes = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			nodes.add(new ECSNode("server" + i, "localhost", 50000 + i, null, -1));
+		}
+		new KVServiceTopology(nodes); // sets the hash ranges of the nodes
+
+		KVMessage decoded = roundTrip(new ServiceMetadataMessage(nodes, 42, 7));
+		assertEquals(StatusType.GET_METADATA_SUCCESS, decoded.getStatus());
+		assertEquals(42, decoded.getVersion());
+		assertEquals(7, decoded.getRequestId());
+
+		Collection<IECSNode> decodedNodes = ((ServiceMetadataMessage) decoded).getNodes();
+		assertEquals(nodes.size(), decodedNodes.size());
+		Iterator<IECSNode> decodedIterator = decodedNodes.iterator();
+		for (IECSNode node : nodes) {
+			IECSNode decodedNode = decodedIterator.next();
+			assertEquals(node.getNodeName(), decodedNode.getNodeName());
+			assertEquals(node.getNodePort(), decodedNode.getNodePort());
+			assertArrayEquals(node.getNodeHashRange(), decodedNode.getNodeHashRange());
+		}
+
+		KVMessage tagged = BasicKVMessage.withRequestId(decoded, 12);
+		assertEquals(12, tagged.getRequestId());
+		assertEquals(42, tagged.getVersion());
+		assertEquals(nodes.size(), ((ServiceMetadataMessage) tagged).getNodes().size());
+
+		KVMessage update = roundTrip(new MetadataUpdateMessage(nodes.get(0), 9, 42));
+		assertEquals(42, update.getVersion());
+		assertEquals(42, BasicKVMessage.withRequestId(update, 3).getVersion());
+	}
+
+	/**
+	 * Checks that forwarded messages keep their contents and the responsible
+	 * server through encoding and retagging, and that the trailer holding the
+	 * server is validated.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testForwarded() throws IOException {
+		IECSNode server = new ECSNode("server1", "localhost", 50000, null, -1);
+		server.setNodeHashRangeEnd("00000000000000000000000000000000");
+
+		KVMessage message = new ForwardedKVMessage(new BasicKVMessage("foo", "bar", StatusType.PUT, 4, 7), server);
+		KVMessage decoded = roundTrip(message);
+		assertTrue(ForwardedKVMessage.isForwarded(decoded));
+		assertEquals(StatusType.PUT, decoded.getStatus());
+		assertEquals("foo", decoded.getKey());
+		assertEquals("bar", decoded.getValue());
+		assertEquals(4, decoded.getVersion());
+		assertEquals(7, decoded.getRequestId());
+		assertEquals(server.getNodeName(), decoded.getResponsibleServer().getNodeName());
+		assertEquals(server.getNodePort(), decoded.getResponsibleServer().getNodePort());
+		assertArrayEquals(server.getNodeHashRange(), decoded.getResponsibleServer().getNodeHashRange());
+
+		KVMessage tagged = BasicKVMessage.withRequestId(decoded, 12);
+		assertEquals(12, tagged.getRequestId());
+		assertEquals("bar", tagged.getValue());
+		assertEquals(server.getNodeName(), tagged.getResponsibleServer().getNodeName());
+		assertEquals(12, roundTrip(tagged).getRequestId());
+
+		assertFalse(ForwardedKVMessage.isForwarded(roundTrip(new MetadataUpdateMessage(server))));
+		assertFalse(ForwardedKVMessage.isForwarded(roundTrip(new BasicKVMessage("foo", "bar", StatusType.PUT))));
+
+		// the trailer follows the frame of the wrapped message
+		byte[] frame = codec.encode(message);
+		ByteBuffer.wrap(frame).putInt(codec.encode(((ForwardedKVMessage) message).getMessage()).length, 1000);
+		try {
+			codec.decode(new ByteArrayInputStream(frame));
+			throw new AssertionError("Decoded forwarded frame with a corrupt trailer");
+		} catch (ProtocolException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that consecutive frames are read one at a time.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testConsecutiveFrames() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.write(out, codec.encode(new BasicKVMessage("a", "1", StatusType.PUT)));
+		codec.write(out, codec.encode(new BasicKVMessage("b", null, StatusType.GET)));
+
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertEquals("a", codec.decode(in).getKey());
+		assertEquals("b", codec.decode(in).getKey());
+	}
+
+	/**
+	 * Checks that a frame with an invalid length is rejected rather than
+	 * truncated.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test(expected = ProtocolException.class)
+	public void testOversizedFrame() throws IOException {
+		byte[] frame = ByteBuffer.allocate(4).putInt(BinaryKVMessageCodec.MAX_FRAME_LENGTH + 1).array();
+		codec.decode(new ByteArrayInputStream(frame));
+	}
+
+	/**
+	 * Checks that the end of the stream is reported.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test(expected = EOFException.class)
+	public void testEndOfStream() throws IOException {
+		codec.decode(new ByteArrayInputStream(new byte[0]));
+	}
+
+	/**
+	 * Checks that the server acknowledges a request for the binary format, and
+	 * falls back to JSON without consuming any bytes of the first JSON message.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testHandshake() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(
+				new byte[] { ProtocolHandshake.MAGIC, ProtocolHandshake.VERSION }));
+		assertSame(ProtocolHandshake.BINARY_CODEC, ProtocolHandshake.accept(in, out));
+		assertArrayEquals(new byte[] { ProtocolHandshake.MAGIC, ProtocolHandshake.VERSION }, out.toByteArray());
+
+		assertSame(ProtocolHandshake.BINARY_CODEC,
+				ProtocolHandshake.initiate(new ByteArrayInputStream(out.toByteArray()), new ByteArrayOutputStream()));
+
+		out.reset();
+		in = new BufferedInputStream(new ByteArrayInputStream("{\"status\":\"GET\",\"key\":\"foo\"}\n".getBytes(UTF_8)));
+		KVMessageCodec negotiated = ProtocolHandshake.accept(in, out);
+		assertSame(ProtocolHandshake.JSON_CODEC, negotiated);
+		assertEquals(0, out.size());
+		assertEquals("foo", negotiated.decode(in).getKey());
+	}
+
+	/**
+	 * Checks that complete messages are delimited within partially received
+	 * data, as required by the non-blocking server.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testFraming() throws IOException {
+		byte[] frame = codec.encode(new BasicKVMessage("foo", "bar", StatusType.PUT));
+		ByteBuffer buffer = ByteBuffer.allocate(frame.length * 2);
+		buffer.put(frame, 0, frame.length - 1).flip();
+		assertEquals(-1, codec.findMessageLength(buffer));
+
+		buffer.compact().put(frame[frame.length - 1]).put(frame).flip();
+		assertEquals(frame.length, codec.findMessageLength(buffer));
+		assertEquals(0, buffer.position());
+
+		byte[] line = ProtocolHandshake.JSON_CODEC.encode(new BasicKVMessage("foo", "bar", StatusType.PUT));
+		assertEquals(-1, ProtocolHandshake.JSON_CODEC.findMessageLength(ByteBuffer.wrap(line, 0, line.length - 1)));
+		assertEquals(line.length, ProtocolHandshake.JSON_CODEC.findMessageLength(ByteBuffer.wrap(line)));
+
+		assertNull(ProtocolHandshake.accept(ByteBuffer.wrap(new byte[] { ProtocolHandshake.MAGIC })));
+		ByteBuffer preamble = ByteBuffer.wrap(new byte[] { ProtocolHandshake.MAGIC, ProtocolHandshake.VERSION, 0 });
+		assertSame(ProtocolHandshake.BINARY_CODEC, ProtocolHandshake.accept(preamble));
+		assertEquals(2, preamble.position());
+		assertSame(ProtocolHandshake.JSON_CODEC, ProtocolHandshake.accept(ByteBuffer.wrap(line)));
+	}
+
+	/**
+	 * Checks that request ids survive encoding in both formats, and that encoded
+	 * frames can be retagged.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testRequestId() throws IOException {
+		assertEquals(7, roundTrip(new BasicKVMessage("foo", "bar", StatusType.GET_SUCCESS, 1, 7)).getRequestId());
+		assertEquals(0, roundTrip(new BasicKVMessage("foo", "bar", StatusType.GET_SUCCESS)).getRequestId());
+
+		IECSNode server = new ECSNode("server1", "localhost", 50000, null, -1);
+		assertEquals(9, roundTrip(new MetadataUpdateMessage(server, 9)).getRequestId());
+
+		KVMessageCodec json = ProtocolHandshake.JSON_CODEC;
+		byte[] line = json.encode(new BasicKVMessage("foo", null, StatusType.GET, 0, 42));
+		assertEquals(42, json.decode(new ByteArrayInputStream(line)).getRequestId());
+
+		byte[] frame = codec.encode(new BasicKVMessage("foo", "bar", StatusType.GET_SUCCESS));
+		assertSame(frame, BinaryKVMessageCodec.withRequestId(frame, 0));
+		byte[] tagged = BinaryKVMessageCodec.withRequestId(frame, 5);
+		assertEquals(5, codec.decode(new ByteArrayInputStream(tagged)).getRequestId());
+		assertEquals(0, codec.decode(new ByteArrayInputStream(frame)).getRequestId());
+	}
+
+	/**
+	 * Checks that the key-value pairs of batch messages survive encoding in both
+	 * formats, in order and with absent values.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testBatch() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<>();
+		entries.put("foo", "b\u00e4r\nbaz");
+		entries.put("bar", null);
+		entries.put("baz", "");
+		KVMessage batch = new BatchKVMessage(StatusType.MULTI_PUT, entries, 3);
+
+		KVMessage decoded = roundTrip(batch);
+		assertEquals(StatusType.MULTI_PUT, decoded.getStatus());
+		assertEquals(new ArrayList<>(entries.entrySet()), new ArrayList<>(decoded.getEntries().entrySet()));
+		assertEquals(3, decoded.getRequestId());
+
+		KVMessageCodec json = ProtocolHandshake.JSON_CODEC;
+		decoded = json.decode(new ByteArrayInputStream(json.encode(batch)));
+		assertEquals(StatusType.MULTI_PUT, decoded.getStatus());
+		assertEquals(new ArrayList<>(entries.entrySet()), new ArrayList<>(decoded.getEntries().entrySet()));
+		assertEquals(3, decoded.getRequestId());
+
+		decoded = roundTrip(new BatchKVMessage(StatusType.MULTI_GET_SUCCESS, Collections.emptyMap()));
+		assertTrue(decoded.getEntries().isEmpty());
+		assertNull(roundTrip(new BasicKVMessage(null, null, StatusType.MULTI_PUT_SUCCESS)).getEntries());
+	}
+
+	/**
+	 * Checks that the start of a frame encoded separately from its value, when
+	 * followed by the value, is identical to the complete frame.
+	 * 
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testEncodeHead() throws IOException {
+		byte[] valueBytes = "b\u00e4r".getBytes(UTF_8);
+		KVMessage chunk = new BasicKVMessage("foo", "b\u00e4r", StatusType.STREAM_CHUNK, 0, 5);
+
+		byte[] head = BinaryKVMessageCodec.encodeHead(chunk, valueBytes.length);
+		byte[] frame = ByteBuffer.allocate(head.length + valueBytes.length).put(head).put(valueBytes).array();
+		assertArrayEquals(codec.encode(chunk), frame);
+
+		KVMessage decoded = codec.decode(new ByteArrayInputStream(frame));
+		assertEquals(StatusType.STREAM_CHUNK, decoded.getStatus());
+		assertEquals("foo", decoded.getKey());
+		assertEquals("b\u00e4r", decoded.getValue());
+		assertEquals(5, decoded.getRequestId());
+	}
+
+}
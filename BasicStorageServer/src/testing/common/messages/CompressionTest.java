@@ -0,0 +1,238 @@
+package testing.common.messages;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import common.messages.BasicKVMessage;
+import common.messages.BatchKVMessage;
+import common.messages.BinaryKVMessageCodec;
+import common.messages.Compression;
+import common.messages.DictionaryTrainer;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageCodec;
+import common.messages.ProtocolHandshake;
+
+/**
+ * Tests the {@link Compression} and {@link DictionaryTrainer} classes, and the
+ * negotiation of compression by {@link ProtocolHandshake}.
+ */
+public class CompressionTest {
+
+	private static String record(int i) {
+		return "{\"id\":" + i + ",\"name\":\"user" + i + "\",\"email\":\"user" + i + "@example.com\","
+				+ "\"active\":true,\"roles\":[\"reader\",\"writer\"],\"created\":\"2018-03-0" + i % 10 + "\"}";
+	}
+
+	private static List<String> records(int from, int to) {
+		List<String> records = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			records.add(record(i));
+		}
+		return records;
+	}
+
+	private static String repetitiveValue(int length) {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < length) {
+			value.append("r\u00E9p\u00E9tition ").append(value.length() % 7).append(' ');
+		}
+		return value.toString();
+	}
+
+	private static KVMessage roundTrip(KVMessageCodec encoder, KVMessageCodec decoder, KVMessage message)
+			throws IOException {
+		return decoder.decode(new ByteArrayInputStream(encoder.encode(message)));
+	}
+
+	/**
+	 * Checks that values at least as long as the threshold are compressed and
+	 * survive encoding, while shorter values are sent as they are and can be
+	 * read without compression.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testThreshold() throws IOException {
+		KVMessageCodec codec = new BinaryKVMessageCodec(new Compression(Compression.DEFAULT_THRESHOLD));
+		KVMessageCodec plain = ProtocolHandshake.BINARY_CODEC;
+
+		String value = repetitiveValue(64 * 1024);
+		KVMessage message = new BasicKVMessage("foo", value, StatusType.PUT, 3, 7);
+		byte[] frame = codec.encode(message);
+		assertTrue(frame.length < plain.encode(message).length / 4);
+
+		KVMessage decoded = codec.decode(new ByteArrayInputStream(frame));
+		assertEquals(StatusType.PUT, decoded.getStatus());
+		assertEquals("foo", decoded.getKey());
+		assertEquals(value, decoded.getValue());
+		assertEquals(3, decoded.getVersion());
+		assertEquals(7, decoded.getRequestId());
+
+		message = new BasicKVMessage("foo", repetitiveValue(100), StatusType.PUT);
+		assertArrayEquals(plain.encode(message), codec.encode(message));
+		assertEquals(message.getValue(), roundTrip(codec, plain, message).getValue());
+	}
+
+	/**
+	 * Checks that values which do not shrink, such as short values with no
+	 * repetition, are sent as they are, and that batch entries are compressed
+	 * together.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testIncompressibleAndBatch() throws IOException {
+		KVMessageCodec codec = new BinaryKVMessageCodec(new Compression(16));
+
+		StringBuilder random = new StringBuilder();
+		Random rng = new Random(42);
+		while (random.length() < 24) {
+			random.append((char) (0x21 + rng.nextInt(0x5E)));
+		}
+		KVMessage message = new BasicKVMessage("foo", random.toString(), StatusType.PUT);
+		assertArrayEquals(ProtocolHandshake.BINARY_CODEC.encode(message), codec.encode(message));
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		records(0, 50).forEach(record -> entries.put("key" + entries.size(), record));
+		entries.put("absent", null);
+		KVMessage batch = new BatchKVMessage(StatusType.MULTI_PUT, entries, 5);
+		assertTrue(codec.encode(batch).length < ProtocolHandshake.BINARY_CODEC.encode(batch).length / 2);
+
+		KVMessage decoded = roundTrip(codec, codec, batch);
+		assertEquals(new ArrayList<>(entries.entrySet()), new ArrayList<>(decoded.getEntries().entrySet()));
+		assertEquals(5, decoded.getRequestId());
+	}
+
+	/**
+	 * Checks that a dictionary trained on sample values improves the compression
+	 * of short values similar to them, and that values compressed with a
+	 * dictionary are rejected by a codec without it.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testDictionary() throws IOException {
+		byte[] dictionary = DictionaryTrainer.train(records(0, 200), 4096);
+		assertTrue(dictionary.length > 0);
+		assertTrue(dictionary.length <= 4096);
+
+		KVMessageCodec withDictionary = new BinaryKVMessageCodec(new Compression(0, dictionary));
+		KVMessageCodec withoutDictionary = new BinaryKVMessageCodec(new Compression(0));
+
+		int plainLength = 0;
+		int compressedLength = 0;
+		int dictionaryLength = 0;
+		for (String record : records(1000, 1100)) {
+			KVMessage message = new BasicKVMessage("key", record, StatusType.PUT);
+			plainLength += ProtocolHandshake.BINARY_CODEC.encode(message).length;
+			compressedLength += withoutDictionary.encode(message).length;
+			dictionaryLength += withDictionary.encode(message).length;
+			assertEquals(record, roundTrip(withDictionary, withDictionary, message).getValue());
+		}
+		assertTrue(compressedLength <= plainLength);
+		assertTrue(dictionaryLength < plainLength / 2);
+
+		KVMessage message = new BasicKVMessage("key", record(2000), StatusType.PUT);
+		try {
+			roundTrip(withDictionary, withoutDictionary, message);
+			throw new AssertionError("Decoded value compressed with an unknown dictionary");
+		} catch (ProtocolException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that compressed values are rejected on connections which did not
+	 * negotiate compression.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test(expected = ProtocolException.class)
+	public void testUnnegotiatedCompression() throws IOException {
+		KVMessageCodec codec = new BinaryKVMessageCodec(new Compression(0));
+		roundTrip(codec, ProtocolHandshake.BINARY_CODEC, new BasicKVMessage("foo", repetitiveValue(1024),
+				StatusType.PUT));
+	}
+
+	/**
+	 * Checks that compression is negotiated only if both ends want it, and the
+	 * dictionary only if both ends hold the same one.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testHandshake() throws IOException {
+		byte[] dictionary = DictionaryTrainer.train(records(0, 50), 1024);
+		Compression client = new Compression(256, dictionary);
+		Compression server = new Compression(512, dictionary);
+
+		KVMessageCodec codec = handshake(client, server);
+		assertTrue(((BinaryKVMessageCodec) codec).getCompression().hasDictionary());
+		assertEquals(256, ((BinaryKVMessageCodec) codec).getCompression().getThreshold());
+
+		codec = handshake(client, new Compression(512, records(0, 1).get(0).getBytes(UTF_8)));
+		assertFalse(((BinaryKVMessageCodec) codec).getCompression().hasDictionary());
+
+		codec = handshake(new Compression(256), server);
+		assertFalse(((BinaryKVMessageCodec) codec).getCompression().hasDictionary());
+
+		assertSame(ProtocolHandshake.BINARY_CODEC, handshake(client, null));
+		assertSame(ProtocolHandshake.BINARY_CODEC, handshake(null, server));
+	}
+
+	/**
+	 * Performs the handshake between a client and server with the given
+	 * settings, checking that both ends choose the same settings.
+	 *
+	 * @return The codec chosen by the client
+	 */
+	private static KVMessageCodec handshake(Compression client, Compression server) throws IOException {
+		byte[] preamble = ProtocolHandshake.getPreamble(client);
+
+		ByteArrayOutputStream acknowledgement = new ByteArrayOutputStream();
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(preamble));
+		KVMessageCodec serverCodec = ProtocolHandshake.accept(in, acknowledgement, server);
+		assertEquals(-1, in.read());
+
+		ByteBuffer buffer = ByteBuffer.wrap(preamble, 0, preamble.length - 1);
+		if (preamble.length > 2) assertNull(ProtocolHandshake.accept(buffer, server));
+		buffer = ByteBuffer.wrap(preamble);
+		KVMessageCodec nioCodec = ProtocolHandshake.accept(buffer, server);
+		assertFalse(buffer.hasRemaining());
+		assertArrayEquals(acknowledgement.toByteArray(), ProtocolHandshake.getAcknowledgement(nioCodec));
+
+		KVMessageCodec clientCodec = ProtocolHandshake.initiate(
+				new ByteArrayInputStream(acknowledgement.toByteArray()), new ByteArrayOutputStream(), client);
+		assertEquals(compressionOf(serverCodec) != null, compressionOf(clientCodec) != null);
+		if (compressionOf(clientCodec) != null) {
+			assertEquals(compressionOf(serverCodec).getDictionaryId(), compressionOf(clientCodec).getDictionaryId());
+		}
+		return clientCodec;
+	}
+
+	private static Compression compressionOf(KVMessageCodec codec) {
+		return codec instanceof BinaryKVMessageCodec ? ((BinaryKVMessageCodec) codec).getCompression() : null;
+	}
+
+}
@@ -0,0 +1,198 @@
+package testing.common.messages;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.JsonSyntaxException;
+
+import common.messages.BasicKVMessage;
+import common.messages.BatchKVMessage;
+import common.messages.ForwardedKVMessage;
+import common.messages.JsonKVMessageCodec;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.MetadataUpdateMessage;
+import common.messages.ServiceMetadataMessage;
+import common.messages.StreamUtil;
+import ecs.ECSNode;
+import ecs.IECSNode;
+
+/**
+ * Tests the {@link JsonKVMessageCodec} class against the GSON-based
+ * serialization of {@link StreamUtil}.
+ */
+public class JsonKVMessageCodecTest {
+
+	private final JsonKVMessageCodec codec = new JsonKVMessageCodec();
+	private final StreamUtil streamUtil = new StreamUtil();
+
+	private static List<KVMessage> sampleMessages() {
+		Map<String, String> entries = new LinkedHashMap<>();
+		entries.put("a", "1");
+		entries.put("b", null);
+		entries.put("c\u00E9", "");
+
+		IECSNode server = new ECSNode("server1", "localhost", 50000, null, -1);
+		server.setNodeHashRangeEnd("00000000000000000000000000000000");
+
+		return Arrays.asList(
+				new BasicKVMessage("foo", "bar", StatusType.PUT),
+				new BasicKVMessage("foo", null, StatusType.GET, 0, 7),
+				new BasicKVMessage(null, "", StatusType.SERVER_STOPPED),
+				new BasicKVMessage("k", "\"quoted\" \\ <a href='x'>&amp;</a> = \t\b\n\r\f\u0001\u001f\u007f",
+						StatusType.GET_SUCCESS, Long.MAX_VALUE, Integer.MIN_VALUE),
+				new BasicKVMessage("\u00E9\u4E2D\uD83D\uDE00\u2028\u2029", "\uD83D \uDE00", StatusType.PUT_UPDATE,
+						Long.MIN_VALUE, -1),
+				new BatchKVMessage(StatusType.MULTI_GET_SUCCESS, entries, 3),
+				new BatchKVMessage(StatusType.MULTI_GET, new LinkedHashMap<>()),
+				new MetadataUpdateMessage(server, 9),
+				new MetadataUpdateMessage(server, 9, 42),
+				new ServiceMetadataMessage(Arrays.asList(server), 42, 5),
+				new ForwardedKVMessage(new BasicKVMessage("foo", "bar", StatusType.GET_SUCCESS, 2, 11), server));
+	}
+
+	private static void assertMessageEquals(KVMessage expected, KVMessage actual) {
+		assertEquals(expected.getStatus(), actual.getStatus());
+		assertEquals(expected.getKey(), actual.getKey());
+		assertEquals(expected.getValue(), actual.getValue());
+		assertEquals(expected.getVersion(), actual.getVersion());
+		assertEquals(expected.getRequestId(), actual.getRequestId());
+		assertEquals(expected.getEntries(), actual.getEntries());
+		if (expected.getResponsibleServer() == null) {
+			assertNull(actual.getResponsibleServer());
+		} else {
+			assertEquals(expected.getResponsibleServer(), actual.getResponsibleServer());
+			assertArrayEquals(expected.getResponsibleServer().getNodeHashRange(),
+					actual.getResponsibleServer().getNodeHashRange());
+		}
+	}
+
+	/**
+	 * Checks that messages are encoded to exactly the same bytes as by GSON,
+	 * including escaped and multi-byte characters.
+	 */
+	@Test
+	public void testEncodeMatchesGson() {
+		for (KVMessage message : sampleMessages()) {
+			assertArrayEquals(streamUtil.encodeMessage(message), codec.encode(message));
+		}
+	}
+
+	/**
+	 * Checks that messages encoded by GSON are decoded as by GSON, from both
+	 * streams and buffers.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testDecodeMatchesGson() throws IOException {
+		for (KVMessage message : sampleMessages()) {
+			byte[] encoded = streamUtil.encodeMessage(message);
+			KVMessage expected = streamUtil.deserializeKVMessage(new String(encoded, UTF_8));
+
+			assertMessageEquals(expected, codec.decode(new ByteArrayInputStream(encoded)));
+			assertMessageEquals(expected, codec.decode(ByteBuffer.wrap(encoded), encoded.length));
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length + 1);
+			direct.put((byte) ' ').put(encoded).flip().position(1);
+			assertMessageEquals(expected, codec.decode(direct, encoded.length));
+			assertEquals(direct.limit(), direct.position());
+		}
+	}
+
+	/**
+	 * Checks that JSON written differently from this codec is understood,
+	 * including whitespace, unknown attributes, escaped characters and numbers
+	 * given as strings.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testLenientInput() throws IOException {
+		String json = " { \"type\" : \"x\", \"extra\" : [ { \"a\" : null }, 1.5e3, true ], \"key\" : \"f\\u006f\\/o\" ,"
+				+ " \"value\" : 12, \"version\" : \"42\", \"requestId\" : 7.0, \"status\" : \"GET_SUCCESS\" }\r\n";
+		KVMessage decoded = codec.decode(new ByteArrayInputStream(json.getBytes(UTF_8)));
+		assertEquals(StatusType.GET_SUCCESS, decoded.getStatus());
+		assertEquals("fo/o", decoded.getKey());
+		assertEquals("12", decoded.getValue());
+		assertEquals(42, decoded.getVersion());
+		assertEquals(7, decoded.getRequestId());
+
+		decoded = codec.decode(new ByteArrayInputStream("{\"status\":\"GET\",\"key\":null}".getBytes(UTF_8)));
+		assertNull(decoded.getKey());
+	}
+
+	/**
+	 * Checks that malformed messages are rejected without affecting the messages
+	 * which follow them, and that blank lines are skipped.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testMalformedMessages() throws IOException {
+		String[] malformed = { "{\"status\":\"GET\"", "{\"status\":\"NOPE\"}", "{\"key\":\"foo\"}", "[1]",
+				"{\"status\":\"MULTI_GET\"}", "{\"status\":\"GET\",\"key\":\"foo}", "{\"status\":\"GET\"} x" };
+		StringBuilder stream = new StringBuilder();
+		for (String line : malformed) {
+			stream.append(line).append('\n');
+		}
+		stream.append('\n').append(new String(codec.encode(new BasicKVMessage("foo", null, StatusType.GET)), UTF_8));
+
+		InputStream in = new ByteArrayInputStream(stream.toString().getBytes(UTF_8));
+		for (String line : malformed) {
+			try {
+				codec.decode(in);
+				throw new AssertionError("Decoded malformed message " + line);
+			} catch (JsonSyntaxException e) {
+				// expected
+			}
+		}
+		assertNull(codec.decode(in));
+		assertEquals("foo", codec.decode(in).getKey());
+	}
+
+	/**
+	 * Checks that values longer than the initial scratch buffers are encoded and
+	 * decoded intact, and that shorter messages are unaffected afterwards.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testLongValue() throws IOException {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < 300 * 1024) {
+			value.append("\u00E9\uD83D\uDE00\"x");
+		}
+		KVMessage message = new BasicKVMessage("foo", value.toString(), StatusType.PUT);
+		assertArrayEquals(streamUtil.encodeMessage(message), codec.encode(message));
+		assertEquals(value.toString(), codec.decode(new ByteArrayInputStream(codec.encode(message))).getValue());
+
+		message = new BasicKVMessage("foo", "bar", StatusType.PUT);
+		assertEquals("bar", codec.decode(new ByteArrayInputStream(codec.encode(message))).getValue());
+	}
+
+	/**
+	 * Checks that the end of the stream is reported.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test(expected = EOFException.class)
+	public void testEndOfStream() throws IOException {
+		codec.decode(new ByteArrayInputStream(new byte[0]));
+	}
+
+}
@@ -68,4 +68,21 @@ public class StreamUtilTest {
 		assertNull(rcvMsg.getValue());
 		assertNull(rcvMsg.getResponsibleServer());
 	}
+
+	/**
+	 * Tests reception of a message spanning many read buffers.
+	 * 
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testReceiveLongString() throws IOException {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < 100 * 1000) {
+			value.append("0123456789");
+		}
+		String msg = "{\"key\":\"foo\",\"value\":\"" + value + "\",\"status\":\"PUT\"}\n";
+		ByteArrayInputStream in = new ByteArrayInputStream(msg.getBytes(UTF_8));
+		KVMessage rcvMsg = util.deserializeKVMessage(util.receiveString(in));
+		assertEquals(value.toString(), rcvMsg.getValue());
+	}
 }
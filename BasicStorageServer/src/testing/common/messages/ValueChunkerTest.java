@@ -0,0 +1,48 @@
+package testing.common.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import common.messages.ValueChunker;
+
+/**
+ * Tests the {@link ValueChunker} class.
+ */
+public class ValueChunkerTest {
+
+	/**
+	 * Checks that a value is split into chunks of the maximum length, except that
+	 * a surrogate pair straddling the end of a chunk is moved to the next chunk.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testChunkBoundaries() throws IOException {
+		StringBuilder first = new StringBuilder();
+		while (first.length() < ValueChunker.CHUNK_LENGTH - 1) {
+			first.append('a');
+		}
+		String pair = "\uD83D\uDE00";
+
+		ValueChunker chunker = new ValueChunker(new StringReader(first + pair + "bc"));
+		assertEquals(first.toString(), chunker.nextChunk());
+		assertEquals(pair + "bc", chunker.nextChunk());
+		assertNull(chunker.nextChunk());
+	}
+
+	/**
+	 * Checks that an empty value has no chunks.
+	 *
+	 * @throws IOException If an I/O exception occurs
+	 */
+	@Test
+	public void testEmptyValue() throws IOException {
+		assertNull(new ValueChunker(new StringReader("")).nextChunk());
+	}
+
+}
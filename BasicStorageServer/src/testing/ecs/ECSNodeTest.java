@@ -37,6 +37,25 @@ public class ECSNodeTest {
 				node.toString());
 	}
 
+	/**
+	 * Tests the {@link ECSNode#ECSNode(IECSNode, String, int) ECSNode(IECSNode,
+	 * String, int)} copy constructor, which should only change the cache
+	 * configuration.
+	 */
+	@Test
+	public void testCacheReconfigurationCopy() {
+		IECSNode node = new ECSNode("server1", "some-host", 0, "FIFO", 10);
+		node.setNodeHashRangeEnd("1b59be01b665ade53876477dc0b1b7f4");
+
+		IECSNode copy = new ECSNode(node, "LRU", 20);
+
+		assertEquals(node, copy);
+		assertEquals(node.getNodeHashRangeStart(), copy.getNodeHashRangeStart());
+		assertEquals(node.getNodeHashRangeEnd(), copy.getNodeHashRangeEnd());
+		assertEquals("LRU", copy.getCacheStrategy());
+		assertEquals(20, copy.getCacheSize());
+	}
+
 	/**
 	 * Tests the {@link ECSNode#containsHash(String)} function using various hash
 	 * ranges.